@@ -0,0 +1,174 @@
+package com.liang.imagecraft;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.activity.EdgeToEdge;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.graphics.Insets;
+import androidx.core.view.ViewCompat;
+import androidx.core.view.WindowInsetsCompat;
+import androidx.lifecycle.ViewModelProvider;
+
+import com.liang.imagecraft.edit.EditOp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 批量水印页面
+ * 接收多选的图片（应用内多选或其他应用通过ACTION_SEND_MULTIPLE分享），
+ * 使用当前的导出设置逐张添加水印并保存到相册，显示每张图片的进度和失败原因
+ */
+public class BatchExportActivity extends AppCompatActivity {
+
+    public static final String EXTRA_IMAGE_URIS = "image_uris";
+    // 是否使用倾斜平铺的水印，默认绘制在右下角
+    public static final String EXTRA_TILED_WATERMARK = "tiled_watermark";
+
+    private TextView summaryText;
+    private ProgressBar batchProgress;
+    private Button btnAction;
+    private ArrayAdapter<String> adapter;
+    private BatchViewModel batchState;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        EdgeToEdge.enable(this);
+        setContentView(R.layout.activity_batch_export);
+        ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.batch_export_layout), (v, insets) -> {
+            Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
+            v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
+            return insets;
+        });
+
+        // 初始化UI组件
+        summaryText = findViewById(R.id.batch_summary);
+        batchProgress = findViewById(R.id.batch_progress);
+        btnAction = findViewById(R.id.btn_batch_action);
+        ListView listView = findViewById(R.id.batch_list);
+        adapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, new ArrayList<>());
+        listView.setAdapter(adapter);
+
+        batchState = new ViewModelProvider(this).get(BatchViewModel.class);
+        batchState.setListener(this::render);
+
+        if (!batchState.isStarted()) {
+            List<Uri> uris = readImageUris(getIntent());
+            if (uris.isEmpty()) {
+                Toast.makeText(this, "未选择图片", Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
+            EditOp.Watermark watermark = getIntent().getBooleanExtra(EXTRA_TILED_WATERMARK, false)
+                    ? EditOp.Watermark.tiled(ExportTask.WATERMARK_TEXT)
+                    : new EditOp.Watermark(ExportTask.WATERMARK_TEXT);
+            batchState.start(getContentResolver(), uris, ExportSettingsStore.load(this),
+                    BitmapExportBackend.canKeepLocation(this), watermark);
+        }
+
+        // 进行中点击取消，结束后点击返回
+        btnAction.setOnClickListener(v -> {
+            if (batchState.isFinished()) {
+                finish();
+            } else {
+                batchState.cancel();
+            }
+        });
+        render();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        batchState.setListener(null);
+    }
+
+    /**
+     * 从Intent中读取图片URI：应用内传入的列表、分享的EXTRA_STREAM或多选结果的ClipData
+     */
+    @SuppressWarnings("deprecation")
+    private static List<Uri> readImageUris(Intent intent) {
+        List<Uri> uris = new ArrayList<>();
+        if (intent == null) {
+            return uris;
+        }
+        ArrayList<Uri> extra = intent.getParcelableArrayListExtra(EXTRA_IMAGE_URIS);
+        if (extra == null && Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) {
+            extra = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+        }
+        if (extra != null) {
+            uris.addAll(extra);
+        } else if (intent.getClipData() != null) {
+            ClipData clipData = intent.getClipData();
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                Uri uri = clipData.getItemAt(i).getUri();
+                if (uri != null) {
+                    uris.add(uri);
+                }
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * 刷新总体进度和每张图片的状态
+     */
+    private void render() {
+        List<Uri> items = batchState.getItems();
+        int total = items.size();
+        int completed = batchState.getCompletedCount();
+        batchProgress.setMax(Math.max(1, total));
+        batchProgress.setProgress(completed);
+
+        if (batchState.isFinished()) {
+            float seconds = batchState.getElapsedNanos() / 1e9f;
+            summaryText.setText(String.format(Locale.getDefault(),
+                    "完成：成功 %d 张，失败 %d 张，耗时 %.1f 秒（%.2f 张/秒）",
+                    batchState.getSucceeded(), batchState.getFailed(), seconds,
+                    seconds > 0f ? batchState.getSucceeded() / seconds : 0f));
+            btnAction.setText("返回");
+        } else {
+            summaryText.setText(String.format(Locale.getDefault(), "正在处理 %d / %d（同时处理最多 %d 张）",
+                    completed, total, batchState.getMaxInFlight()));
+            btnAction.setText("取消");
+        }
+
+        List<String> rows = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            rows.add(items.get(i).getLastPathSegment() + "  " + describe(batchState.getState(i), batchState.getMessage(i)));
+        }
+        adapter.clear();
+        adapter.addAll(rows);
+    }
+
+    private static String describe(BatchPipeline.ItemState state, String message) {
+        switch (state) {
+            case DECODING:
+                return "解码中";
+            case PROCESSING:
+                return "添加水印";
+            case ENCODING:
+                return "编码保存";
+            case DONE:
+                return "已保存";
+            case FAILED:
+                return "失败：" + message;
+            case CANCELLED:
+                return "已取消";
+            case QUEUED:
+            default:
+                return "等待中";
+        }
+    }
+}
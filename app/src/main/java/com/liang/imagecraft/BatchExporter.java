@@ -0,0 +1,115 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 批量水印导出的各阶段实现：解码 -> 绘制水印 -> 编码并写入相册
+ * 内存预算按准入上限平分，每张图片按自己的那一份选择采样率，同时在处理中的位图总量不会超过预算
+ */
+final class BatchExporter implements BatchPipeline.Steps<Uri, BatchExporter.Job, String> {
+
+    /**
+     * 单张图片在阶段之间传递的数据
+     */
+    static final class Job {
+        final BitmapExportBackend backend;
+        final ExportStats stats;
+        Bitmap bitmap;
+
+        Job(BitmapExportBackend backend, ExportStats stats) {
+            this.backend = backend;
+            this.stats = stats;
+        }
+    }
+
+    // 估算准入上限时按1200万像素的ARGB_8888位图计算单张图片的内存
+    private static final long TYPICAL_ITEM_BYTES = 4000L * 3000L * MemoryBudget.BYTES_PER_PIXEL_ARGB;
+
+    private final ContentResolver contentResolver;
+    private final ExportSettings settings;
+    private final boolean keepLocation;
+    private final EditList edits;
+    private final MemoryBudget itemBudget;
+    private final BatchPipeline<Uri, Job, String> pipeline;
+    // 每个编码线程复用自己的缓冲区
+    private final ThreadLocal<EncodeBuffer> encodeBuffers =
+            ThreadLocal.withInitial(() -> new EncodeBuffer(4 * 1024 * 1024));
+
+    /**
+     * @param keepLocation 是否把原图的GPS信息写入导出图片
+     * @param watermark    每张图片上绘制的水印，遮罩在第一张图片栅格化后由后续图片复用
+     */
+    BatchExporter(ContentResolver contentResolver, ExportSettings settings, boolean keepLocation,
+                  EditOp.Watermark watermark) {
+        this.contentResolver = contentResolver;
+        this.settings = settings;
+        this.keepLocation = keepLocation;
+        this.edits = EditList.EMPTY.then(watermark);
+        // 按Java堆和系统剩余内存中较小的一方估算同时处理的数量
+        MemoryBudget budget = MemoryPressure.currentPolicy().getBudget();
+        BatchPipeline.Config config = BatchPipeline.Config.forDevice(Runtime.getRuntime().availableProcessors(),
+                budget.availableBytes(), TYPICAL_ITEM_BYTES);
+        this.itemBudget = budget.share(config.maxInFlight);
+        this.pipeline = new BatchPipeline<>(this, config);
+    }
+
+    BatchPipeline<Uri, Job, String> getPipeline() {
+        return pipeline;
+    }
+
+    @Override
+    public Job decode(Uri uri) throws Exception {
+        ExportStats stats = new ExportStats();
+        BitmapExportBackend backend = new BitmapExportBackend(contentResolver, uri, edits, settings, stats,
+                this::checkCancelled, keepLocation);
+        Job job = new Job(backend, stats);
+        job.bitmap = new ExportRenderer<Bitmap>(MemoryPressure.policyWithin(itemBudget)).decode(job.backend);
+        return job;
+    }
+
+    @Override
+    public Job process(Uri uri, Job job) throws IOException {
+        job.bitmap = job.backend.applyEdits(job.bitmap);
+        return job;
+    }
+
+    @Override
+    public String encode(Uri uri, Job job) throws Exception {
+        EncodeBuffer buffer = encodeBuffers.get();
+        try {
+            ExportEncoder.encode(job.bitmap, settings, buffer, job.stats, this::checkCancelled);
+            // 编码完成后位图已不再需要，先释放再写入，尽早腾出内存给下一张
+            job.bitmap.recycle();
+            job.bitmap = null;
+            long writeStart = System.nanoTime();
+            String path = GalleryWriter.write(contentResolver, buffer.array(), buffer.size(), settings.format,
+                    job.backend.exportExif(), (written, total) -> checkCancelled());
+            job.stats.writeMillis = ExportStats.elapsedMillis(writeStart);
+            return path;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public void release(Job job) {
+        if (job.bitmap != null) {
+            job.bitmap.recycle();
+            job.bitmap = null;
+        }
+    }
+
+    private void checkCancelled() {
+        if (pipeline.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+}
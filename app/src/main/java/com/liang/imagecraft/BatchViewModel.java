@@ -0,0 +1,149 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import androidx.lifecycle.ViewModel;
+
+import com.liang.imagecraft.edit.EditOp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 批量导出页面状态
+ * 持有正在运行的流水线和每张图片的状态，Activity重建后继续显示进度
+ */
+public class BatchViewModel extends ViewModel {
+
+    /**
+     * 状态变化监听，在主线程调用
+     */
+    public interface Listener {
+        void onBatchChanged();
+    }
+
+    private final List<Uri> items = new ArrayList<>();
+    private BatchPipeline.ItemState[] states = new BatchPipeline.ItemState[0];
+    private String[] messages = new String[0];
+    private BatchExporter exporter;
+    private boolean finished;
+    private long elapsedNanos;
+    private int succeeded;
+    private int failed;
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isStarted() {
+        return exporter != null;
+    }
+
+    /**
+     * 开始批量导出，只能调用一次
+     *
+     * @param keepLocation 是否把原图的GPS信息写入导出图片
+     * @param watermark    每张图片上绘制的水印
+     */
+    public void start(ContentResolver contentResolver, List<Uri> uris, ExportSettings settings, boolean keepLocation,
+                      EditOp.Watermark watermark) {
+        if (exporter != null) {
+            return;
+        }
+        items.addAll(uris);
+        states = new BatchPipeline.ItemState[items.size()];
+        Arrays.fill(states, BatchPipeline.ItemState.QUEUED);
+        messages = new String[items.size()];
+        exporter = new BatchExporter(contentResolver, settings, keepLocation, watermark);
+        exporter.getPipeline().start(items, new BatchPipeline.Listener<String>() {
+            @Override
+            public void onItemStateChanged(int index, BatchPipeline.ItemState state, String result, Exception error) {
+                String message = error != null ? error.getMessage() : result;
+                MainThread.post(() -> {
+                    states[index] = state;
+                    messages[index] = message;
+                    notifyChanged();
+                });
+            }
+
+            @Override
+            public void onFinished(int succeededCount, int failedCount, int cancelledCount, long elapsed) {
+                MainThread.post(() -> {
+                    finished = true;
+                    succeeded = succeededCount;
+                    failed = failedCount;
+                    elapsedNanos = elapsed;
+                    notifyChanged();
+                });
+            }
+        });
+    }
+
+    public void cancel() {
+        if (exporter != null) {
+            exporter.getPipeline().cancel();
+        }
+    }
+
+    public List<Uri> getItems() {
+        return items;
+    }
+
+    public BatchPipeline.ItemState getState(int index) {
+        return states[index];
+    }
+
+    public String getMessage(int index) {
+        return messages[index];
+    }
+
+    /**
+     * 已结束（成功、失败或取消）的图片数量
+     */
+    public int getCompletedCount() {
+        int count = 0;
+        for (BatchPipeline.ItemState state : states) {
+            if (state == BatchPipeline.ItemState.DONE || state == BatchPipeline.ItemState.FAILED
+                    || state == BatchPipeline.ItemState.CANCELLED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public int getMaxInFlight() {
+        return exporter != null ? exporter.getPipeline().getConfig().maxInFlight : 0;
+    }
+
+    private void notifyChanged() {
+        if (listener != null) {
+            listener.onBatchChanged();
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        listener = null;
+        cancel();
+    }
+}
@@ -0,0 +1,413 @@
+package com.liang.imagecraft;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.GeometryPlan;
+import com.liang.imagecraft.edit.Orientation;
+import com.liang.imagecraft.jpeg.ExifSegment;
+import com.liang.imagecraft.jpeg.LosslessTransform;
+import com.liang.imagecraft.kernel.PixelKernels;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 基于BitmapFactory的导出实现：直接解码为可变ARGB_8888位图，再重放编辑操作并缩放到输出尺寸
+ * 单张导出和批量导出共用。
+ * EXIF方向只在读取尺寸时解析一次：没有几何操作时按条带区域解码并直接绘制到摆正后的位图上，
+ * 有几何操作时与裁剪、旋转合成一次绘制，两种情况都不会为摆正方向额外分配一张全尺寸位图。
+ * 有裁剪时把合成后的变换映射回原图，只区域解码保留的部分，采样率也按保留区域和输出尺寸选择
+ */
+class BitmapExportBackend implements ExportRenderer.Backend<Bitmap> {
+
+    // 条带解码时每个条带的输出行数
+    private static final int STRIP_ROWS = 256;
+
+    private final ContentResolver contentResolver;
+    private final Uri sourceUri;
+    private final EditList edits;
+    private final ExportSettings settings;
+    private final ExportStats stats;
+    private final EditRenderer.Checkpoint checkpoint;
+    private final boolean keepLocation;
+
+    // 以下在readSize中读取
+    private Orientation orientation = Orientation.NORMAL;
+    private ExifSegment exif;
+    private boolean jpegSource;
+    // 原图尺寸、EXIF方向与全部几何操作合成的变换，以及裁剪后需要解码的原图区域，没有裁剪时为null
+    private int sourceWidth;
+    private int sourceHeight;
+    private GeometryPlan plan;
+    private int[] region;
+    // 解码结果还需要摆正的方向，条带解码时已经摆正
+    private Orientation decodedOrientation = Orientation.NORMAL;
+    // 区域解码时解码结果对应的变换
+    private GeometryPlan decodedPlan;
+    // readSize的结果，同一次导出只读取一次
+    private int[] size;
+
+    /**
+     * @param edits      需要重放的全部编辑操作，包括水印
+     * @param checkpoint   各步骤之间的取消检查
+     * @param keepLocation 是否把原图的GPS信息写入导出图片
+     */
+    BitmapExportBackend(ContentResolver contentResolver, Uri sourceUri, EditList edits, ExportSettings settings,
+                        ExportStats stats, EditRenderer.Checkpoint checkpoint, boolean keepLocation) {
+        this.contentResolver = contentResolver;
+        this.sourceUri = sourceUri;
+        this.edits = edits;
+        this.settings = settings;
+        this.stats = stats;
+        this.checkpoint = checkpoint;
+        this.keepLocation = keepLocation;
+    }
+
+    /**
+     * 是否可以把原图的GPS信息写入导出图片
+     * Android 10起读取媒体文件的位置需要ACCESS_MEDIA_LOCATION，没有该权限时系统会抹掉数据流中的GPS信息
+     */
+    static boolean canKeepLocation(Context context) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || context.checkSelfPermission(Manifest.permission.ACCESS_MEDIA_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * 读取原图尺寸和EXIF，返回按EXIF方向摆正后需要解码的尺寸，有裁剪时只是保留区域的尺寸
+     */
+    @Override
+    public int[] readSize() throws IOException {
+        if (size == null) {
+            size = readSourceSize();
+        }
+        return size.clone();
+    }
+
+    private int[] readSourceSize() throws IOException {
+        BitmapFactory.Options options = PreviewDecoder.decodeBounds(contentResolver, sourceUri);
+        jpegSource = "image/jpeg".equals(options.outMimeType);
+        if (jpegSource) {
+            exif = readExif();
+            orientation = exif != null ? Orientation.fromExif(exif.orientation()) : Orientation.NORMAL;
+        } else {
+            orientation = PreviewDecoder.readOrientation(contentResolver, sourceUri);
+        }
+        sourceWidth = options.outWidth;
+        sourceHeight = options.outHeight;
+        plan = null;
+        region = null;
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return new int[]{sourceWidth, sourceHeight};
+        }
+        plan = GeometryPlan.of(orientation, edits.geometryOps(), sourceWidth, sourceHeight);
+        int[] bounds = plan.sourceBounds(sourceWidth, sourceHeight);
+        int regionWidth = bounds[2] - bounds[0];
+        int regionHeight = bounds[3] - bounds[1];
+        if ((long) regionWidth * regionHeight < (long) sourceWidth * sourceHeight) {
+            region = bounds;
+            return orientation.orientedSize(regionWidth, regionHeight);
+        }
+        return orientation.orientedSize(sourceWidth, sourceHeight);
+    }
+
+    /**
+     * 可以按条带流式导出时返回需要解码的原图区域 {left, top, right, bottom}，否则返回null，在readSize之后调用
+     * 要求输出JPEG且不按目标大小搜索质量，几何操作只有裁剪、方向正常，输出尺寸只靠采样率就能满足，
+     * 并且没有模糊、锐化这类需要条带以外像素的操作
+     */
+    int[] stripBounds() {
+        if (plan == null || settings.format != ExportSettings.Format.JPEG || settings.usesTargetSize()) {
+            return null;
+        }
+        int[] bounds = region != null ? region : new int[]{0, 0, sourceWidth, sourceHeight};
+        int width = bounds[2] - bounds[0];
+        int height = bounds[3] - bounds[1];
+        if (!plan.forRegion(bounds[0], bounds[1], 1).isIdentity(width, height)) {
+            return null;
+        }
+        int sampleSize = settings.sampleSizeFor(width, height);
+        for (EditOp op : edits.pixelOps()) {
+            if (op.neighborRows(width / sampleSize, height / sampleSize) > 0) {
+                return null;
+            }
+        }
+        return settings.scaleFor(width / sampleSize, height / sampleSize) < 1f ? null : bounds;
+    }
+
+    /**
+     * 未经裁剪和摆正的原图尺寸，在readSize之后调用
+     */
+    int[] sourceSize() {
+        return new int[]{sourceWidth, sourceHeight};
+    }
+
+    /**
+     * 可以在DCT系数上无损导出时返回对应的变换，否则返回null，在readSize之后调用
+     * 要求原图和输出都是JPEG、不按目标大小搜索质量，编辑只有几何操作，输出尺寸不需要缩小
+     */
+    LosslessTransform losslessTransform() {
+        if (plan == null || !jpegSource || settings.format != ExportSettings.Format.JPEG
+                || settings.usesTargetSize() || !edits.pixelOps().isEmpty()) {
+            return null;
+        }
+        if (settings.sampleSizeFor(plan.width, plan.height) > 1 || settings.scaleFor(plan.width, plan.height) < 1f) {
+            return null;
+        }
+        return LosslessTransform.of(plan, sourceWidth, sourceHeight);
+    }
+
+    /**
+     * 导出图片要写入的EXIF段，在applyEdits之后调用；原图不是JPEG或没有EXIF时返回null
+     */
+    ExifSegment exportExif() {
+        return exif != null ? exif.forExport(stats.width, stats.height, keepLocation) : null;
+    }
+
+    private ExifSegment readExif() throws IOException {
+        Uri uri = sourceUri;
+        if (keepLocation && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && ContentResolver.SCHEME_CONTENT.equals(sourceUri.getScheme())) {
+            // 请求未抹掉位置信息的原始数据
+            uri = MediaStore.setRequireOriginal(sourceUri);
+        }
+        try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+            return inputStream != null ? ExifSegment.read(inputStream) : null;
+        } catch (IOException | RuntimeException e) {
+            if (uri != sourceUri) {
+                // 不是MediaStore的URI时不支持原始数据，按普通方式再读一次
+                try (InputStream inputStream = contentResolver.openInputStream(sourceUri)) {
+                    return inputStream != null ? ExifSegment.read(inputStream) : null;
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public int peakBitmapCount() {
+        if (region != null) {
+            // 只有裁剪、没有方向和旋转时区域解码的结果就是输出
+            return plan.forRegion(region[0], region[1], 1)
+                    .isIdentity(region[2] - region[0], region[3] - region[1]) ? 1 : 2;
+        }
+        return edits.hasGeometry() ? 2 : 1;
+    }
+
+    @Override
+    public int outputSampleSize(int width, int height) {
+        if (plan != null) {
+            return settings.sampleSizeFor(plan.width, plan.height);
+        }
+        int[] outputSize = edits.outputSize(width, height);
+        return settings.sampleSizeFor(outputSize[0], outputSize[1]);
+    }
+
+    @Override
+    public Bitmap decodeMutable(int inSampleSize) throws IOException {
+        long start = System.nanoTime();
+        decodedOrientation = orientation;
+        decodedPlan = null;
+        // 记录降级阶梯最终使用的采样率，超过输出尺寸要求的部分需要告诉用户
+        int[] decodeSize = readSize();
+        stats.requestedSampleSize = outputSampleSize(decodeSize[0], decodeSize[1]);
+        stats.sampleSize = inSampleSize;
+        if (region != null) {
+            Bitmap cropped;
+            try (PerfTracer.Section ignored = PerfTracer.get().section("decode")) {
+                cropped = decodeRegion(inSampleSize);
+            }
+            if (cropped != null) {
+                decodedPlan = plan.forRegion(region[0], region[1], inSampleSize);
+                stats.decodeMillis = ExportStats.elapsedMillis(start);
+                checkpoint.check();
+                return cropped;
+            }
+            // 不支持区域解码的格式只能整张解码，按整张的尺寸重新检查内存预算
+            inSampleSize = Math.max(inSampleSize,
+                    MemoryPressure.currentPolicy().getBudget().chooseSampleSize(sourceWidth, sourceHeight, 2));
+            stats.sampleSize = inSampleSize;
+        }
+        if (!orientation.isIdentity() && !edits.hasGeometry()) {
+            Bitmap oriented;
+            try (PerfTracer.Section ignored = PerfTracer.get().section("decode")) {
+                oriented = decodeOriented(inSampleSize);
+            }
+            if (oriented != null) {
+                decodedOrientation = Orientation.NORMAL;
+                stats.decodeMillis = ExportStats.elapsedMillis(start);
+                checkpoint.check();
+                return oriented;
+            }
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap;
+        try (PerfTracer.Section ignored = PerfTracer.get().section("decode");
+             InputStream inputStream = contentResolver.openInputStream(sourceUri)) {
+            if (inputStream == null) {
+                throw new IOException("无法打开图片：" + sourceUri);
+            }
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("图片解码失败：" + sourceUri);
+        }
+        PerfTracer.get().countBitmap(bitmap.getAllocationByteCount());
+        stats.decodeMillis = ExportStats.elapsedMillis(start);
+        checkpoint.check();
+        return bitmap;
+    }
+
+    /**
+     * 只解码裁剪保留的原图区域
+     *
+     * @return 格式不支持区域解码时返回null
+     */
+    private Bitmap decodeRegion(int inSampleSize) throws IOException {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = TiledImageRenderer.newRegionDecoder(contentResolver, sourceUri);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = inSampleSize;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inMutable = true;
+            Bitmap bitmap = decoder.decodeRegion(new Rect(region[0], region[1], region[2], region[3]), options);
+            if (bitmap == null) {
+                throw new IOException("图片解码失败：" + sourceUri);
+            }
+            PerfTracer.get().countBitmap(bitmap.getAllocationByteCount());
+            return bitmap;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * 按水平条带区域解码，每个条带直接按EXIF方向绘制到摆正后的位图上
+     * 条带位图在各条带之间复用，整个过程只有一张全尺寸位图
+     *
+     * @return 格式不支持区域解码时返回null
+     */
+    private Bitmap decodeOriented(int inSampleSize) throws IOException {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = TiledImageRenderer.newRegionDecoder(contentResolver, sourceUri);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            int sampledWidth = (width + inSampleSize - 1) / inSampleSize;
+            int sampledHeight = (height + inSampleSize - 1) / inSampleSize;
+            int[] size = orientation.orientedSize(sampledWidth, sampledHeight);
+            Bitmap result = Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888);
+            PerfTracer.get().countBitmap(result.getAllocationByteCount());
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = inSampleSize;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inMutable = true;
+            try {
+                Canvas canvas = new Canvas(result);
+                canvas.concat(EditRenderer.toMatrix(orientation.toAffine(sampledWidth, sampledHeight)));
+                Rect region = new Rect();
+                Rect src = new Rect();
+                Rect dst = new Rect();
+                int stripHeight = STRIP_ROWS * inSampleSize;
+                for (int top = 0; top < height; top += stripHeight) {
+                    checkpoint.check();
+                    region.set(0, top, width, Math.min(height, top + stripHeight));
+                    // 复用的条带位图尺寸不变，最后一个较矮的条带只写入左上部分
+                    Bitmap strip = decoder.decodeRegion(region, options);
+                    if (strip == null) {
+                        throw new IOException("图片解码失败：" + sourceUri);
+                    }
+                    if (options.inBitmap == null) {
+                        options.inBitmap = strip;
+                        PerfTracer.get().countBitmap(strip.getAllocationByteCount());
+                    }
+                    int y = top / inSampleSize;
+                    int rows = Math.min((region.height() + inSampleSize - 1) / inSampleSize, sampledHeight - y);
+                    src.set(0, 0, Math.min(strip.getWidth(), sampledWidth), Math.min(strip.getHeight(), rows));
+                    dst.set(0, y, src.right, y + src.bottom);
+                    canvas.drawBitmap(strip, src, dst, null);
+                }
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                result.recycle();
+                throw e;
+            } finally {
+                if (options.inBitmap != null) {
+                    options.inBitmap.recycle();
+                }
+            }
+            return result;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    @Override
+    public Bitmap applyEdits(Bitmap bitmap) throws IOException {
+        long start = System.nanoTime();
+        Bitmap result;
+        try (PerfTracer.Section ignored = PerfTracer.get().section("edit")) {
+            if (decodedPlan != null) {
+                result = EditRenderer.applyAll(bitmap, decodedPlan, edits.pixelOps(), new PixelKernels(), checkpoint);
+            } else {
+                result = EditRenderer.applyAll(bitmap, decodedOrientation, edits, new PixelKernels(), checkpoint);
+            }
+        } catch (CancellationException | IOException e) {
+            bitmap.recycle();
+            throw e;
+        }
+        // 最后缩放到最长边上限
+        float scale = settings.scaleFor(result.getWidth(), result.getHeight());
+        if (scale < 1f) {
+            Bitmap scaled;
+            try {
+                scaled = Bitmap.createScaledBitmap(result,
+                        Math.max(1, Math.round(result.getWidth() * scale)),
+                        Math.max(1, Math.round(result.getHeight() * scale)), true);
+            } catch (OutOfMemoryError e) {
+                // 几何操作生成的新位图不会经过 release，在这里回收后再交给降级重试
+                result.recycle();
+                throw e;
+            }
+            if (scaled != result) {
+                PerfTracer.get().countBitmap(scaled.getAllocationByteCount());
+                result.recycle();
+                result = scaled;
+            }
+        }
+        stats.editMillis = ExportStats.elapsedMillis(start);
+        stats.width = result.getWidth();
+        stats.height = result.getHeight();
+        return result;
+    }
+
+    @Override
+    public void release(Bitmap bitmap) {
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,82 @@
+package com.liang.imagecraft;
+
+import android.graphics.Bitmap;
+
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.PixelKernels;
+
+/**
+ * Bitmap 与像素内核之间的适配
+ * 通过 getPixels/setPixels 在 Bitmap 和 int[] 之间搬运像素
+ */
+public final class BitmapKernels {
+
+    // 分条处理大图时每条的行数
+    private static final int BAND_ROWS = 256;
+
+    private BitmapKernels() {
+    }
+
+    /**
+     * 读取整张位图的像素，尽量复用传入的数组
+     */
+    public static int[] readPixels(Bitmap bitmap, int[] reuse) {
+        int count = bitmap.getWidth() * bitmap.getHeight();
+        int[] pixels = reuse != null && reuse.length >= count ? reuse : new int[count];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+
+    /**
+     * 将像素写回整张位图
+     */
+    public static void writePixels(Bitmap bitmap, int[] pixels) {
+        bitmap.setPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * 对一条像素原地处理
+     */
+    public interface BandOperation {
+        void apply(int[] pixels, int width, int rows);
+    }
+
+    /**
+     * 对可变位图做逐像素调整
+     * 按行分条读写，全分辨率导出时只需要一条的int[]缓冲区，而不是整幅图片的副本
+     */
+    public static void adjust(Bitmap bitmap, PixelKernels kernels, Adjustments adjustments) {
+        if (adjustments.isIdentity()) {
+            return;
+        }
+        filter(bitmap, 0, (band, width, rows) -> kernels.adjust(band, width, rows, adjustments));
+    }
+
+    /**
+     * 按行分条原地处理可变位图
+     * 模糊这类需要参考相邻像素的操作在每条上下多读 halo 行原始像素，只写回中间的部分，结果与整张处理相同；
+     * 上方的 halo 行在写回前从上一条保存下来，因为位图里的已经是处理后的像素
+     *
+     * @param halo 每个像素需要参考上下各多少行，逐点操作为0
+     */
+    public static void filter(Bitmap bitmap, int halo, BandOperation operation) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int bandRows = Math.min(Math.max(BAND_ROWS, halo), height);
+        int[] band = new int[width * (bandRows + 2 * halo)];
+        int[] carry = new int[width * halo];
+        int carried = 0;
+        for (int top = 0; top < height; top += bandRows) {
+            int rows = Math.min(bandRows, height - top);
+            int below = Math.min(halo, height - top - rows);
+            System.arraycopy(carry, 0, band, 0, carried * width);
+            bitmap.getPixels(band, carried * width, width, 0, top, width, rows + below);
+            // 下一条上方需要的原始像素，条带不小于 halo 行，这些行都在本条之内
+            int nextCarried = Math.min(halo, top + rows);
+            System.arraycopy(band, (carried + rows - nextCarried) * width, carry, 0, nextCarried * width);
+            operation.apply(band, width, carried + rows + below);
+            bitmap.setPixels(band, carried * width, width, 0, top, width, rows);
+            carried = nextCarried;
+        }
+    }
+}
@@ -1,16 +1,54 @@
 package com.liang.imagecraft;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.graphics.PointF;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
-import android.widget.ImageView;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
+import android.widget.OverScroller;
 
-public class CustomImageView extends androidx.appcompat.widget.AppCompatImageView {
+import com.liang.imagecraft.edit.Orientation;
+import com.liang.imagecraft.perf.PerfTracer;
+
+/**
+ * 支持拖动、双指缩放、惯性滑动和双击缩放的图片视图
+ * 触摸事件只修改矩阵并标记脏状态，每个Choreographer帧最多提交一次 setImageMatrix，
+ * 事件处理过程中不分配对象。
+ * 手势只修改内容坐标上的用户矩阵，图片像素到内容坐标的基础矩阵（EXIF方向和缩放）在提交时合成，
+ * 因此原始方向的预览图不需要先生成一张旋转后的副本；渐进加载时缩略图换成预览图也只替换基础矩阵，
+ * 用户的缩放和平移保持不变
+ */
+public class CustomImageView extends androidx.appcompat.widget.AppCompatImageView implements Choreographer.FrameCallback {
+
+    /**
+     * 用户矩阵或内容尺寸变化回调，叠加在图片上的视图据此同步位置
+     */
+    public interface ContentMatrixListener {
+        void onContentMatrixChanged(Matrix matrix, int contentWidth, int contentHeight);
+    }
+
+    // 双击缩放动画时长
+    private static final long ZOOM_ANIMATION_NANOS = 250_000_000L;
+    // 双击放大的目标倍数
+    private static final float DOUBLE_TAP_SCALE = 2.0f;
 
     private Matrix matrix = new Matrix();
+    // 图片的EXIF方向和内容尺寸，内容尺寸是用户矩阵缩放比例为1时的显示尺寸
+    private Orientation orientation = Orientation.NORMAL;
+    private int contentWidth;
+    private int contentHeight;
+    // 图片像素到内容坐标的变换：先摆正，再缩放到内容尺寸
+    private final Matrix baseMatrix = new Matrix();
+    // 实际提交给ImageView的矩阵：基础矩阵之后应用用户矩阵
+    private final Matrix displayMatrix = new Matrix();
     private float minScale = 0.5f;
     private float maxScale = 2.0f;
 
@@ -19,13 +57,41 @@ public class CustomImageView extends androidx.appcompat.widget.AppCompatImageVie
     }
 
     private Mode mode = Mode.NONE;
-    private PointF last = new PointF();
-    private PointF start = new PointF();
+    private float lastX;
+    private float lastY;
+    private float startX;
+    private float startY;
     private float minScaleFactor = 0.5f;
     private float maxScaleFactor = 2.0f;
     private float[] m = new float[9];
     private ScaleGestureDetector scaleGestureDetector;
+    private GestureDetector gestureDetector;
+    private VelocityTracker velocityTracker;
+    private OverScroller scroller;
+    private int minFlingVelocity;
+    private int maxFlingVelocity;
     private Context context;
+    private TiledImageRenderer tileRenderer; // 大图放大后的分块渲染
+    private ContentMatrixListener contentMatrixListener;
+    private final PerfTracer tracer = PerfTracer.get(); // 记录每帧绘制和触摸处理耗时
+
+    // 等待布局完成后恢复的显示矩阵
+    private final float[] restoreValues = new float[9];
+    private int restoreWidth;
+    private int restoreHeight;
+    private boolean pendingRestore;
+
+    // 帧合并状态
+    private boolean frameScheduled;
+    private boolean matrixDirty;
+
+    // 双击缩放动画状态
+    private boolean zoomAnimating;
+    private long zoomStartNanos;
+    private float zoomFromScale;
+    private float zoomToScale;
+    private float zoomFocusX;
+    private float zoomFocusY;
 
     public CustomImageView(Context context) {
         super(context);
@@ -41,83 +107,459 @@ public class CustomImageView extends androidx.appcompat.widget.AppCompatImageVie
         super.setClickable(true);
         this.context = context;
         scaleGestureDetector = new ScaleGestureDetector(context, new ScaleListener());
+        gestureDetector = new GestureDetector(context, new DoubleTapListener());
+        scroller = new OverScroller(context);
+        ViewConfiguration configuration = ViewConfiguration.get(context);
+        minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
         matrix.setTranslate(1f, 1f);
-        setImageMatrix(matrix);
+        applyImageMatrix();
         setScaleType(ScaleType.MATRIX);
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        long start = tracer.now();
         scaleGestureDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+        velocityTracker.addMovement(event);
 
-        PointF curr = new PointF(event.getX(), event.getY());
+        float x = event.getX();
+        float y = event.getY();
 
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
-                last.set(curr);
-                start.set(last);
+                // 手指按下时停止惯性滑动和缩放动画
+                scroller.forceFinished(true);
+                zoomAnimating = false;
+                lastX = x;
+                lastY = y;
+                startX = x;
+                startY = y;
                 mode = Mode.DRAG;
                 break;
 
             case MotionEvent.ACTION_MOVE:
                 if (mode == Mode.DRAG) {
-                    float deltaX = curr.x - last.x;
-                    float deltaY = curr.y - last.y;
-                    matrix.postTranslate(deltaX, deltaY);
-                    last.set(curr.x, curr.y);
+                    float deltaX = x - lastX;
+                    float deltaY = y - lastY;
+                    if (deltaX != 0f || deltaY != 0f) {
+                        matrix.postTranslate(deltaX, deltaY);
+                        clampMatrix();
+                        scheduleMatrixUpdate();
+                    }
+                    lastX = x;
+                    lastY = y;
                 }
                 break;
 
             case MotionEvent.ACTION_UP:
+                if (mode == Mode.DRAG) {
+                    velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+                    startFling(velocityTracker.getXVelocity(), velocityTracker.getYVelocity());
+                }
                 mode = Mode.NONE;
-                int xDiff = (int) Math.abs(curr.x - start.x);
-                int yDiff = (int) Math.abs(curr.y - start.y);
+                int xDiff = (int) Math.abs(x - startX);
+                int yDiff = (int) Math.abs(y - startY);
                 if (xDiff < 3 && yDiff < 3) {
                     performClick();
                 }
+                recycleVelocityTracker();
                 break;
 
             case MotionEvent.ACTION_POINTER_UP:
                 mode = Mode.NONE;
                 break;
+
+            case MotionEvent.ACTION_CANCEL:
+                mode = Mode.NONE;
+                recycleVelocityTracker();
+                break;
         }
 
-        setImageMatrix(matrix);
-        invalidate();
+        tracer.record("gesture", tracer.now() - start);
         return true;
     }
 
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
     private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
         @Override
         public boolean onScaleBegin(ScaleGestureDetector detector) {
             mode = Mode.ZOOM;
+            scroller.forceFinished(true);
+            zoomAnimating = false;
             return true;
         }
 
         @Override
         public boolean onScale(ScaleGestureDetector detector) {
-            float scaleFactor = detector.getScaleFactor();
-            float origScale = getCurrentScale();
-            
             // Apply scale factor limits
-            if (origScale * scaleFactor < minScale) {
-                scaleFactor = minScale / origScale;
-            } else if (origScale * scaleFactor > maxScale) {
-                scaleFactor = maxScale / origScale;
+            float scaleFactor = ViewportMath.clampScaleFactor(getCurrentScale(), detector.getScaleFactor(), minScale, maxScale);
+            if (scaleFactor != 1f) {
+                matrix.postScale(scaleFactor, scaleFactor, detector.getFocusX(), detector.getFocusY());
+                clampMatrix();
+                scheduleMatrixUpdate();
             }
-            
-            matrix.postScale(scaleFactor, scaleFactor, detector.getFocusX(), detector.getFocusY());
             return true;
         }
     }
 
+    private class DoubleTapListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            float target = ViewportMath.doubleTapTargetScale(getCurrentScale(), 1f, Math.min(maxScale, DOUBLE_TAP_SCALE));
+            animateZoomTo(target, e.getX(), e.getY());
+            return true;
+        }
+    }
+
+    /**
+     * 以焦点为中心动画缩放到指定倍数
+     */
+    public void animateZoomTo(float targetScale, float focusX, float focusY) {
+        scroller.forceFinished(true);
+        zoomFromScale = getCurrentScale();
+        zoomToScale = ViewportMath.clampScale(targetScale, minScale, maxScale);
+        zoomFocusX = focusX;
+        zoomFocusY = focusY;
+        zoomStartNanos = System.nanoTime();
+        zoomAnimating = true;
+        scheduleFrame();
+    }
+
+    private void startFling(float velocityX, float velocityY) {
+        Drawable drawable = getDrawable();
+        if (drawable == null || Math.hypot(velocityX, velocityY) < minFlingVelocity) {
+            return;
+        }
+        matrix.getValues(m);
+        float contentWidth = this.contentWidth * m[Matrix.MSCALE_X];
+        float contentHeight = this.contentHeight * m[Matrix.MSCALE_Y];
+        int minX = (int) ViewportMath.minTranslation(getWidth(), contentWidth);
+        int maxX = (int) ViewportMath.maxTranslation(getWidth(), contentWidth);
+        int minY = (int) ViewportMath.minTranslation(getHeight(), contentHeight);
+        int maxY = (int) ViewportMath.maxTranslation(getHeight(), contentHeight);
+        if (minX == maxX && minY == maxY) {
+            return;
+        }
+        scroller.fling((int) m[Matrix.MTRANS_X], (int) m[Matrix.MTRANS_Y],
+                (int) velocityX, (int) velocityY, minX, maxX, minY, maxY);
+        scheduleFrame();
+    }
+
+    /**
+     * 每帧最多应用一次矩阵更新，并推进惯性滑动和缩放动画
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        boolean animating = false;
+
+        if (zoomAnimating) {
+            float fraction = (float) (frameTimeNanos - zoomStartNanos) / ZOOM_ANIMATION_NANOS;
+            float scale = ViewportMath.lerp(zoomFromScale, zoomToScale, ViewportMath.decelerate(fraction));
+            float factor = scale / getCurrentScale();
+            matrix.postScale(factor, factor, zoomFocusX, zoomFocusY);
+            clampMatrix();
+            matrixDirty = true;
+            if (fraction < 1f) {
+                animating = true;
+            } else {
+                zoomAnimating = false;
+            }
+        }
+
+        if (!scroller.isFinished() && scroller.computeScrollOffset()) {
+            matrix.getValues(m);
+            matrix.postTranslate(scroller.getCurrX() - m[Matrix.MTRANS_X], scroller.getCurrY() - m[Matrix.MTRANS_Y]);
+            matrixDirty = true;
+            animating = true;
+        }
+
+        if (matrixDirty) {
+            matrixDirty = false;
+            // ImageView只在矩阵真正变化时才会重绘
+            applyImageMatrix();
+        }
+
+        if (animating) {
+            scheduleFrame();
+        }
+    }
+
+    private void scheduleMatrixUpdate() {
+        matrixDirty = true;
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 将矩阵的平移限制在图片边界内
+     */
+    private void clampMatrix() {
+        Drawable drawable = getDrawable();
+        if (drawable == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        matrix.getValues(m);
+        float contentWidth = this.contentWidth * m[Matrix.MSCALE_X];
+        float contentHeight = this.contentHeight * m[Matrix.MSCALE_Y];
+        float translateX = ViewportMath.clampTranslation(m[Matrix.MTRANS_X], getWidth(), contentWidth);
+        float translateY = ViewportMath.clampTranslation(m[Matrix.MTRANS_Y], getHeight(), contentHeight);
+        if (translateX != m[Matrix.MTRANS_X] || translateY != m[Matrix.MTRANS_Y]) {
+            matrix.postTranslate(translateX - m[Matrix.MTRANS_X], translateY - m[Matrix.MTRANS_Y]);
+        }
+    }
+
+    /**
+     * 合成基础矩阵和用户矩阵后提交，不分配对象
+     */
+    private void applyImageMatrix() {
+        displayMatrix.set(baseMatrix);
+        displayMatrix.postConcat(matrix);
+        setImageMatrix(displayMatrix);
+        if (contentMatrixListener != null) {
+            contentMatrixListener.onContentMatrixChanged(matrix, contentWidth, contentHeight);
+        }
+    }
+
+    public void setContentMatrixListener(ContentMatrixListener listener) {
+        contentMatrixListener = listener;
+        if (listener != null) {
+            listener.onContentMatrixChanged(matrix, contentWidth, contentHeight);
+        }
+    }
+
+    /**
+     * 按当前图片的方向和给定的内容尺寸更新基础矩阵
+     */
+    private void setBase(Orientation orientation, int contentWidth, int contentHeight) {
+        this.orientation = orientation;
+        this.contentWidth = contentWidth;
+        this.contentHeight = contentHeight;
+        baseMatrix.reset();
+        Drawable drawable = getDrawable();
+        if (drawable == null || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
+            return;
+        }
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+        if (!orientation.isIdentity()) {
+            baseMatrix.set(EditRenderer.toMatrix(orientation.toAffine(width, height)));
+        }
+        int[] oriented = orientation.orientedSize(width, height);
+        if (oriented[0] != contentWidth || oriented[1] != contentHeight) {
+            baseMatrix.postScale((float) contentWidth / oriented[0], (float) contentHeight / oriented[1]);
+        }
+    }
+
+    /**
+     * 按图片本身摆正后的尺寸作为内容尺寸
+     */
+    private void setBase(Orientation orientation) {
+        Drawable drawable = getDrawable();
+        if (drawable == null) {
+            setBase(orientation, 0, 0);
+            return;
+        }
+        int[] oriented = orientation.orientedSize(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        setBase(orientation, oriented[0], oriented[1]);
+    }
+
+    public Orientation getImageOrientation() {
+        return orientation;
+    }
+
+    private void recycleVelocityTracker() {
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        Choreographer.getInstance().removeFrameCallback(this);
+        frameScheduled = false;
+        zoomAnimating = false;
+        scroller.forceFinished(true);
+        recycleVelocityTracker();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long start = tracer.now();
+        super.onDraw(canvas);
+        Drawable drawable = getDrawable();
+        if (tileRenderer != null && drawable != null) {
+            tileRenderer.draw(canvas, getImageMatrix(), getWidth(), getHeight(), drawable.getIntrinsicWidth());
+        }
+        tracer.record("frame", tracer.now() - start);
+    }
+
+    /**
+     * 设置分块渲染器，放大时在预览图之上叠加原图细节；渲染器由调用方负责释放
+     */
+    public void setTileRenderer(TiledImageRenderer renderer) {
+        if (tileRenderer != null && tileRenderer != renderer) {
+            tileRenderer.setListener(null);
+        }
+        tileRenderer = renderer;
+        Drawable drawable = getDrawable();
+        if (renderer != null && drawable != null && contentWidth > 0) {
+            renderer.setListener(this::postInvalidateOnAnimation);
+            // 允许放大到原图像素1:1后再放大2倍，按长边换算原图与内容尺寸的比例
+            float pixelScale = (float) Math.max(renderer.getImageWidth(), renderer.getImageHeight())
+                    / Math.max(contentWidth, contentHeight);
+            maxScale = Math.max(maxScaleFactor, pixelScale * maxScaleFactor);
+        } else {
+            maxScale = maxScaleFactor;
+        }
+        invalidate();
+    }
+
+    /**
+     * 当前视口内可见的内容范围，按内容尺寸归一化为 {left, top, right, bottom}
+     *
+     * @return 没有图片、尚未布局或整张图片都可见时返回null
+     */
+    public float[] getVisibleContentFraction() {
+        if (getDrawable() == null || contentWidth <= 0 || contentHeight <= 0 || getWidth() == 0 || getHeight() == 0) {
+            return null;
+        }
+        Matrix inverse = new Matrix();
+        if (!matrix.invert(inverse)) {
+            return null;
+        }
+        RectF visible = new RectF(0, 0, getWidth(), getHeight());
+        inverse.mapRect(visible);
+        float left = Math.max(0f, visible.left / contentWidth);
+        float top = Math.max(0f, visible.top / contentHeight);
+        float right = Math.min(1f, visible.right / contentWidth);
+        float bottom = Math.min(1f, visible.bottom / contentHeight);
+        if (right <= left || bottom <= top || (left <= 0f && top <= 0f && right >= 1f && bottom >= 1f)) {
+            return null;
+        }
+        return new float[]{left, top, right, bottom};
+    }
+
+    /**
+     * 读取当前的用户矩阵，不包含方向矩阵
+     */
+    public void getImageMatrixValues(float[] out) {
+        matrix.getValues(out);
+    }
+
+    /**
+     * 恢复已解码的图片和之前的显示矩阵，视口尺寸变化时保持原视口中心对准的内容不变
+     */
+    public void restoreImage(Bitmap bitmap, Orientation orientation, float[] values, int savedWidth, int savedHeight) {
+        setImageBitmap(bitmap);
+        setBase(orientation);
+        scroller.forceFinished(true);
+        zoomAnimating = false;
+        System.arraycopy(values, 0, restoreValues, 0, restoreValues.length);
+        restoreWidth = savedWidth;
+        restoreHeight = savedHeight;
+        pendingRestore = true;
+        if (getWidth() > 0 && getHeight() > 0) {
+            applyPendingRestore();
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        if (pendingRestore) {
+            applyPendingRestore();
+        }
+    }
+
+    private void applyPendingRestore() {
+        pendingRestore = false;
+        matrix.setValues(restoreValues);
+        matrix.postTranslate((getWidth() - restoreWidth) / 2f, (getHeight() - restoreHeight) / 2f);
+        clampMatrix();
+        applyImageMatrix();
+    }
+
     private float getCurrentScale() {
         matrix.getValues(m);
         return m[Matrix.MSCALE_X];
     }
 
+    /**
+     * 设置预览图并按给定方向摆正后居中显示在视口内，视图尚未布局时等布局完成后再居中
+     */
+    public void setImageBitmapCentered(Bitmap bitmap, Orientation orientation) {
+        setImageBitmap(bitmap);
+        setBase(orientation);
+        centerContent();
+    }
+
+    /**
+     * 把图片缩放到指定的内容尺寸后居中显示，用于先以低分辨率的缩略图占位
+     */
+    public void setImageBitmapCentered(Bitmap bitmap, Orientation orientation, int contentWidth, int contentHeight) {
+        setImageBitmap(bitmap);
+        setBase(orientation, contentWidth, contentHeight);
+        centerContent();
+    }
+
+    /**
+     * 换成同一内容的另一张图片，例如缩略图换成预览图，屏幕上的位置和大小保持不变
+     * 内容尺寸改为新图片的尺寸，用户矩阵预先乘上新旧尺寸之比抵消变化，用户的缩放和平移不会被重置
+     */
+    public void swapImage(Bitmap bitmap, Orientation orientation) {
+        int oldWidth = contentWidth;
+        int oldHeight = contentHeight;
+        setImageBitmap(bitmap);
+        setBase(orientation);
+        if (oldWidth > 0 && oldHeight > 0 && (oldWidth != contentWidth || oldHeight != contentHeight)) {
+            matrix.preScale((float) oldWidth / contentWidth, (float) oldHeight / contentHeight);
+        }
+        applyImageMatrix();
+    }
+
+    private void centerContent() {
+        scroller.forceFinished(true);
+        zoomAnimating = false;
+        pendingRestore = false;
+        matrix.reset();
+        Drawable drawable = getDrawable();
+        if (drawable != null && (getWidth() == 0 || getHeight() == 0)) {
+            // 以空视口记录一个单位矩阵，布局完成后按视口尺寸差居中
+            restoreWidth = contentWidth;
+            restoreHeight = contentHeight;
+            matrix.getValues(restoreValues);
+            pendingRestore = true;
+            return;
+        }
+        if (drawable != null) {
+            float dx = (getWidth() - contentWidth) / 2f;
+            float dy = (getHeight() - contentHeight) / 2f;
+            matrix.setTranslate(dx, dy);
+        }
+        applyImageMatrix();
+        invalidate();
+    }
+
     public void setScaleRange(float minScale, float maxScale) {
         this.minScale = minScale;
         this.maxScale = maxScale;
     }
-}
\ No newline at end of file
+}
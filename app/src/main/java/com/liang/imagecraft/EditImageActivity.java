@@ -2,48 +2,87 @@ package com.liang.imagecraft;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.content.ContentValues;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
-import android.provider.MediaStore;
+import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ProgressBar;
+import android.widget.RadioGroup;
+import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.Locale;
-import java.util.Date;
-import java.text.SimpleDateFormat;
-
 import androidx.activity.EdgeToEdge;
+import androidx.activity.OnBackPressedCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.lifecycle.ViewModelProvider;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.Layer;
+import com.liang.imagecraft.edit.Orientation;
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.ColorLut;
+import com.liang.imagecraft.perf.PerfTracer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class EditImageActivity extends AppCompatActivity {
 
     private static final int REQUEST_STORAGE_PERMISSION = 300;
+    // 新图层的默认样式：白色半透明，字号按输出短边归一化
+    private static final int LAYER_COLOR = 0xFFFFFF;
+    private static final int LAYER_OPACITY = 150;
+    private static final float TEXT_LAYER_SIZE = 0.05f;
+    private static final float STICKER_LAYER_SIZE = 0.3f;
+    private static final float PATTERN_ROTATION = -30f;
     
     private CustomImageView imagePreview;
+    private OverlayView overlayView; // 叠加在图片上的图层
     private Button btnBack;
     private Button btnSave;
+    private Button btnUndo;
+    private Button btnRedo;
+    private Button btnCrop;
+    private Button btnRotate;
+    private Button btnBrightness;
+    private Button btnContrast;
+    private Button btnFilter;
+    private Button btnText;
+    private ProgressBar saveProgress;
+    private PerfHud perfHud; // 性能调试面板
     private Uri currentImageUri; // 保存当前图片URI，用于横竖屏切换时恢复
+    private EditorViewModel editorState; // 横竖屏切换时保留的编辑状态
+    private boolean showingThumbnail; // 当前显示的是占位缩略图，预览图到达后原位替换
+    private long openNanos; // 从主页面选择图片的时间，用于统计首帧耗时，记录后清零
+    private final float[] matrixValues = new float[9];
+    private ExportTask exportTask; // 正在进行的保存任务
+    private ActivityResultLauncher<Intent> stickerLauncher; // 选择贴图
+
+    // 保存过程中按返回键时询问在后台继续保存还是取消保存，而不是直接退出
+    private final OnBackPressedCallback cancelSaveCallback = new OnBackPressedCallback(false) {
+        @Override
+        public void handleOnBackPressed() {
+            showSavingExitDialog();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,9 +99,40 @@ public class EditImageActivity extends AppCompatActivity {
         imagePreview = findViewById(R.id.image_preview);
         btnBack = findViewById(R.id.btn_back);
         btnSave = findViewById(R.id.btn_save);
+        btnUndo = findViewById(R.id.btn_undo);
+        btnRedo = findViewById(R.id.btn_redo);
+        btnCrop = findViewById(R.id.btn_crop);
+        btnRotate = findViewById(R.id.btn_rotate);
+        btnBrightness = findViewById(R.id.btn_brightness);
+        btnContrast = findViewById(R.id.btn_contrast);
+        btnFilter = findViewById(R.id.btn_filter);
+        btnText = findViewById(R.id.btn_text);
+        overlayView = findViewById(R.id.overlay_view);
+        saveProgress = findViewById(R.id.save_progress);
         
         // 设置按钮点击事件
         setupButtonListeners();
+        setupPerfHud();
+        getOnBackPressedDispatcher().addCallback(this, cancelSaveCallback);
+
+        // 设置贴图选择启动器
+        stickerLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
+            if (result.getResultCode() == RESULT_OK && result.getData() != null && result.getData().getData() != null) {
+                Uri uri = result.getData().getData();
+                // 贴图URI随编辑记录写入导出队列，进程重启后的后台重试仍然需要读取权限
+                try {
+                    getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                } catch (SecurityException e) {
+                    // 不支持长期授权的提供方只能在本次使用，之后读取不到时导出失败，不会漏掉贴图
+                    e.printStackTrace();
+                }
+                addLayer(Layer.sticker(uri.toString(), 0.5f, 0.5f, STICKER_LAYER_SIZE));
+            }
+        });
+
+        editorState = new ViewModelProvider(this).get(EditorViewModel.class);
+        editorState.setListener(previewListener);
+        setupOverlay();
 
         // 检查是否有保存的实例状态（用于横竖屏切换时恢复图片）
         if (savedInstanceState != null && savedInstanceState.containsKey("current_image_uri")) {
@@ -75,6 +145,9 @@ public class EditImageActivity extends AppCompatActivity {
         } else {
             // 获取传入的图片URI（首次启动时）
             Intent intent = getIntent();
+            if (intent != null) {
+                openNanos = intent.getLongExtra("open_nanos", 0L);
+            }
             if (intent != null && intent.hasExtra("image_uri")) {
                 try {
                     String imageUriString = intent.getStringExtra("image_uri");
@@ -105,25 +178,574 @@ public class EditImageActivity extends AppCompatActivity {
 
     /**
      * 加载图片的辅助方法
+     * 逐级显示：先显示缩略图，再换成按编辑区视口尺寸在后台解码的预览图，放大后再由分块渲染器补充原图细节；
+     * 全分辨率解码只在保存时进行。已经解码过的预览图保存在EditorViewModel中，直接复用
      */
     private void loadImage(Uri uri) {
-        try {
-            imagePreview.setImageURI(uri);
-        } catch (Exception e) {
+        String key = uri.toString();
+        if (editorState.hasPreviewFor(key)) {
+            showRetainedImage();
+            return;
+        }
+        if (editorState.hasThumbnailFor(key)) {
+            // 预览图仍在解码，先恢复缩略图
+            showThumbnail(editorState.getThumbnail(), editorState.getThumbnailOrientation(),
+                    editorState.getThumbnailWidth(), editorState.getThumbnailHeight());
+        }
+        // 等待布局完成后再读取视口尺寸；新打开的图片默认带一个可拖动的水印图层
+        imagePreview.post(() -> {
+            if (editorState.requestPreview(key, () -> startPreviewDecode(uri, key))) {
+                editorState.setEdits(EditList.EMPTY.then(new EditOp.Overlay(Layer.text(ExportTask.WATERMARK_TEXT,
+                        LAYER_COLOR, LAYER_OPACITY, 0.85f, 0.92f, TEXT_LAYER_SIZE))));
+            }
+        });
+    }
+
+    /**
+     * 在后台解码预览图，结果交给EditorViewModel；主页面已经开始的同一图片的解码会被直接复用
+     */
+    private ImageLoader.Subscription startPreviewDecode(Uri uri, String key) {
+        int reqWidth = imagePreview.getWidth();
+        int reqHeight = imagePreview.getHeight();
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            // 视口尚未布局时使用屏幕尺寸
+            reqWidth = getResources().getDisplayMetrics().widthPixels;
+            reqHeight = getResources().getDisplayMetrics().heightPixels;
+        }
+        EditorViewModel state = editorState;
+        return ImageLoader.get().load(getContentResolver(), uri, reqWidth, reqHeight, new PreviewDecoder.Callback() {
+            @Override
+            public void onThumbnail(Bitmap thumbnail, Orientation orientation, int width, int height) {
+                state.onThumbnailLoaded(key, thumbnail, orientation, width, height);
+            }
+
+            @Override
+            public void onDecoded(Bitmap bitmap, Orientation orientation) {
+                state.onPreviewLoaded(key, bitmap, orientation);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                state.onPreviewFailed(key, e);
+            }
+        });
+    }
+
+    /**
+     * 预览图加载结果，由EditorViewModel在主线程回调
+     */
+    private final EditorViewModel.Listener previewListener = new EditorViewModel.Listener() {
+        @Override
+        public void onThumbnailReady(Bitmap thumbnail, Orientation orientation, int width, int height) {
+            showThumbnail(thumbnail, orientation, width, height);
+        }
+
+        @Override
+        public void onPreviewReady(Bitmap bitmap) {
+            if (showingThumbnail) {
+                // 保持缩略图阶段用户的缩放和平移
+                imagePreview.swapImage(bitmap, editorState.getOrientation());
+                showingThumbnail = false;
+            } else {
+                imagePreview.setImageBitmapCentered(bitmap, editorState.getOrientation());
+            }
+            reportFirstPixel();
+            if (currentImageUri != null) {
+                openTileRenderer(currentImageUri, bitmap.getWidth());
+            }
+        }
+
+        @Override
+        public void onPreviewFailed(Exception e) {
             e.printStackTrace();
-            Toast.makeText(this, "加载图片失败", Toast.LENGTH_SHORT).show();
+            Toast.makeText(EditImageActivity.this, "加载图片失败", Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onEditsRendered(Bitmap bitmap, EditList edits) {
+            showEditedPreview(bitmap, edits);
+        }
+
+        @Override
+        public void onEditsChanged(EditList edits) {
+            overlayView.setLayers(edits.layers());
+        }
+    };
+
+    /**
+     * 按预览图的预计尺寸显示缩略图
+     */
+    private void showThumbnail(Bitmap thumbnail, Orientation orientation, int width, int height) {
+        imagePreview.setImageBitmapCentered(thumbnail, orientation, width, height);
+        showingThumbnail = true;
+        reportFirstPixel();
+    }
+
+    /**
+     * 图片第一次出现在屏幕上时记录从选择图片开始的耗时
+     */
+    private void reportFirstPixel() {
+        if (openNanos == 0L) {
+            return;
+        }
+        long start = openNanos;
+        openNanos = 0L;
+        // 动画回调在同一帧的绘制之前执行，这一帧就会画出刚设置的图片
+        imagePreview.postOnAnimation(() -> PerfTracer.get().record("ttfp", PerfTracer.get().now() - start));
+    }
+
+    /**
+     * 显示编辑后的预览图
+     * 尺寸和方向不变时保持当前的缩放和平移，裁剪或旋转改变尺寸后重新居中；
+     * 分块渲染器按原图坐标工作，存在几何操作时暂不使用
+     */
+    private void showEditedPreview(Bitmap bitmap, EditList edits) {
+        Orientation orientation = editorState.displayOrientationFor(edits);
+        Drawable drawable = imagePreview.getDrawable();
+        boolean sameSize = drawable != null && drawable.getIntrinsicWidth() == bitmap.getWidth()
+                && drawable.getIntrinsicHeight() == bitmap.getHeight()
+                && imagePreview.getImageOrientation() == orientation;
+        if (sameSize) {
+            imagePreview.setImageBitmap(bitmap);
+        } else {
+            imagePreview.setImageBitmapCentered(bitmap, orientation);
+        }
+        imagePreview.setTileRenderer(edits.supportsTiles() ? editorState.getTileRenderer() : null);
+    }
+
+    /**
+     * 把EditorViewModel中保留的预览图、显示矩阵和分块渲染器重新挂到当前视图上
+     */
+    private void showRetainedImage() {
+        Bitmap preview = editorState.getDisplayPreview();
+        Orientation orientation = editorState.getDisplayOrientation();
+        if (editorState.restoreDisplayState(matrixValues)) {
+            imagePreview.restoreImage(preview, orientation, matrixValues,
+                    editorState.getViewportWidth(), editorState.getViewportHeight());
+        } else {
+            imagePreview.setImageBitmapCentered(preview, orientation);
         }
+        imagePreview.setTileRenderer(editorState.getEdits().supportsTiles() ? editorState.getTileRenderer() : null);
+    }
+
+    /**
+     * 为大图创建分块渲染器，放大时按需解码原图细节
+     */
+    private void openTileRenderer(Uri uri, int previewWidth) {
+        TiledImageRenderer.openAsync(getContentResolver(), uri, previewWidth, renderer -> {
+            if (isDestroyed() || !uri.equals(currentImageUri)) {
+                renderer.release();
+                return;
+            }
+            editorState.setTileRenderer(renderer);
+            if (editorState.getEdits().supportsTiles()) {
+                imagePreview.setTileRenderer(renderer);
+            }
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // 离开前台时把最近的性能记录写到文件，便于从设备上收集
+        PerfDump.writeAsync(this, null);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // 进程级缓存由Application统一释放，这里只处理编辑页面自己持有的图块
+        if (editorState != null) {
+            editorState.trimMemory(level);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        imagePreview.setTileRenderer(null);
+        perfHud.hide();
+        editorState.setListener(null);
+        // 未完成的保存已写入导出队列，离开编辑页面后在后台继续，不再取消
+        exportTask = null;
     }
 
     /**
      * 设置按钮点击事件监听器
      */
     private void setupButtonListeners() {
-        // 返回按钮点击事件
-        btnBack.setOnClickListener(v -> showExitConfirmationDialog());
+        // 返回按钮点击事件，保存过程中点击则询问在后台继续还是取消保存
+        btnBack.setOnClickListener(v -> {
+            if (exportTask != null) {
+                showSavingExitDialog();
+            } else {
+                showExitConfirmationDialog();
+            }
+        });
+        // 长按返回按钮开关性能调试面板
+        btnBack.setOnLongClickListener(v -> {
+            boolean enabled = !PerfHud.isEnabled(this);
+            PerfHud.setEnabled(this, enabled);
+            if (enabled) {
+                perfHud.show();
+            } else {
+                perfHud.hide();
+            }
+            Toast.makeText(this, enabled ? "性能面板已开启" : "性能面板已关闭", Toast.LENGTH_SHORT).show();
+            return true;
+        });
         
-        // 保存按钮点击事件
+        // 保存按钮点击事件，长按打开导出设置
         btnSave.setOnClickListener(v -> checkStoragePermissionAndSaveImage());
+        btnSave.setOnLongClickListener(v -> {
+            showExportSettingsDialog();
+            return true;
+        });
+
+        // 撤销、重做按钮点击事件
+        btnUndo.setOnClickListener(v -> {
+            if (!editorState.undo()) {
+                Toast.makeText(this, "没有可撤销的操作", Toast.LENGTH_SHORT).show();
+            }
+        });
+        btnRedo.setOnClickListener(v -> {
+            if (!editorState.redo()) {
+                Toast.makeText(this, "没有可重做的操作", Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        // 裁剪、旋转按钮点击事件
+        btnCrop.setOnClickListener(v -> showCropDialog());
+        btnRotate.setOnClickListener(v -> {
+            if (editorState.getPreview() != null) {
+                editorState.commitEdits(editorState.getEdits().rotate(1));
+            }
+        });
+
+        // 亮度、对比度按钮点击事件
+        btnBrightness.setOnClickListener(v -> showAdjustmentDialog("亮度",
+                editorState.getEdits().getAdjustments().brightness, Adjustments::withBrightness));
+        btnContrast.setOnClickListener(v -> showAdjustmentDialog("对比度",
+                editorState.getEdits().getAdjustments().contrast, Adjustments::withContrast));
+
+        // 滤镜按钮点击事件：饱和度、曝光、模糊、锐化和调色
+        btnFilter.setOnClickListener(v -> showFilterDialog());
+
+        // 文字按钮点击事件：添加文字、贴图或平铺水印图层
+        btnText.setOnClickListener(v -> showLayerDialog());
+    }
+
+    /**
+     * 图层视图跟随图片的缩放和平移，拖动结束后把新位置记入编辑记录
+     */
+    private void setupOverlay() {
+        imagePreview.setContentMatrixListener(overlayView::setContentMatrix);
+        overlayView.setLayers(editorState.getEdits().layers());
+        overlayView.setListener((index, layer) ->
+                editorState.commitEdits(editorState.getEdits().withLayer(index, layer)));
+    }
+
+    /**
+     * 显示图层菜单
+     */
+    private void showLayerDialog() {
+        if (editorState.getPreview() == null) {
+            Toast.makeText(this, "图片尚未加载完成", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = {"添加文字", "添加贴图", "平铺水印", "清除图层"};
+        new AlertDialog.Builder(this)
+            .setTitle("图层")
+            .setItems(labels, (dialog, which) -> {
+                switch (which) {
+                    case 0:
+                        showTextLayerDialog();
+                        break;
+                    case 1:
+                        openStickerPicker();
+                        break;
+                    case 2:
+                        addLayer(Layer.pattern(ExportTask.WATERMARK_TEXT, LAYER_COLOR, LAYER_OPACITY / 2,
+                                TEXT_LAYER_SIZE, PATTERN_ROTATION));
+                        break;
+                    default:
+                        editorState.commitEdits(editorState.getEdits().withoutLayers());
+                        break;
+                }
+            })
+            .show();
+    }
+
+    /**
+     * 输入文字后在图片中央添加文字图层，之后可以拖动到任意位置
+     */
+    private void showTextLayerDialog() {
+        EditText input = new EditText(this);
+        input.setHint("输入文字");
+        new AlertDialog.Builder(this)
+            .setTitle("添加文字")
+            .setView(input)
+            .setPositiveButton("确定", (dialog, which) -> {
+                String text = input.getText().toString().trim();
+                if (text.isEmpty()) {
+                    Toast.makeText(this, "文字不能为空", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                addLayer(Layer.text(text, LAYER_COLOR, 255, 0.5f, 0.5f, TEXT_LAYER_SIZE));
+            })
+            .setNegativeButton("取消", null)
+            .show();
+    }
+
+    // 打开文档选择器选择贴图，ACTION_GET_CONTENT只给临时权限，这里请求可以长期保留的读取权限
+    private void openStickerPicker() {
+        try {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.setType("image/*");
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION);
+            stickerLauncher.launch(intent);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Toast.makeText(this, "打开相册失败", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void addLayer(Layer layer) {
+        editorState.commitEdits(editorState.getEdits().then(new EditOp.Overlay(layer)));
+    }
+
+    /**
+     * 初始化性能调试面板，长按面板把统计数据导出为JSON文件
+     */
+    private void setupPerfHud() {
+        TextView hudView = findViewById(R.id.perf_hud);
+        perfHud = new PerfHud(hudView);
+        hudView.setOnLongClickListener(v -> {
+            PerfDump.writeAsync(this, new PerfDump.Callback() {
+                @Override
+                public void onWritten(File file) {
+                    Toast.makeText(EditImageActivity.this, "已导出：" + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    Toast.makeText(EditImageActivity.this, "导出失败：" + e.getMessage(), Toast.LENGTH_SHORT).show();
+                }
+            });
+            return true;
+        });
+        if (PerfHud.isEnabled(this)) {
+            perfHud.show();
+        }
+    }
+
+    /**
+     * 显示导出设置对话框：格式、质量、最长边上限和目标文件大小
+     */
+    private void showExportSettingsDialog() {
+        ExportSettings current = ExportSettingsStore.load(this);
+        View content = getLayoutInflater().inflate(R.layout.dialog_export_settings, null);
+        RadioGroup formatGroup = content.findViewById(R.id.export_format);
+        TextView qualityLabel = content.findViewById(R.id.export_quality_label);
+        SeekBar qualityBar = content.findViewById(R.id.export_quality);
+        EditText maxEdgeInput = content.findViewById(R.id.export_max_edge);
+        EditText targetInput = content.findViewById(R.id.export_target_kb);
+
+        int[] formatIds = {R.id.format_jpeg, R.id.format_webp_lossy, R.id.format_webp_lossless, R.id.format_png};
+        ExportSettings.Format[] formats = ExportSettings.Format.values();
+        formatGroup.check(formatIds[current.format.ordinal()]);
+        qualityBar.setProgress(current.quality);
+        qualityLabel.setText("质量：" + current.quality);
+        maxEdgeInput.setText(String.valueOf(current.maxLongEdge));
+        targetInput.setText(String.valueOf(current.targetBytes / 1024));
+        qualityBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+                qualityLabel.setText("质量：" + progress);
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar bar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar bar) {
+            }
+        });
+
+        new AlertDialog.Builder(this)
+            .setTitle("导出设置")
+            .setView(content)
+            .setPositiveButton("确定", (dialog, which) -> {
+                ExportSettings.Format format = current.format;
+                for (int i = 0; i < formatIds.length; i++) {
+                    if (formatGroup.getCheckedRadioButtonId() == formatIds[i]) {
+                        format = formats[i];
+                    }
+                }
+                ExportSettings settings = new ExportSettings(format, qualityBar.getProgress(),
+                        parseNumber(maxEdgeInput), parseNumber(targetInput) * 1024L);
+                ExportSettingsStore.save(this, settings);
+            })
+            .setNegativeButton("取消", null)
+            .show();
+    }
+
+    private static int parseNumber(EditText input) {
+        try {
+            return Integer.parseInt(input.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 显示裁剪比例选择对话框，按所选比例居中裁剪，或者裁剪到当前缩放和平移后屏幕上可见的范围
+     */
+    private void showCropDialog() {
+        Bitmap preview = editorState.getPreview();
+        if (preview == null) {
+            Toast.makeText(this, "图片尚未加载完成", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = {"1:1", "4:3", "3:4", "16:9", "9:16", "当前取景", "还原"};
+        float[] ratios = {1f, 4f / 3f, 3f / 4f, 16f / 9f, 9f / 16f};
+        new AlertDialog.Builder(this)
+            .setTitle("裁剪")
+            .setItems(labels, (dialog, which) -> {
+                EditList edits = editorState.getEdits();
+                if (which == ratios.length) {
+                    // 可见范围以当前显示的编辑结果为坐标，与新裁剪的坐标一致
+                    float[] visible = imagePreview.getVisibleContentFraction();
+                    if (visible == null) {
+                        Toast.makeText(this, "请先放大并移动到要保留的范围", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    editorState.commitEdits(edits.then(new EditOp.Crop(visible[0], visible[1], visible[2], visible[3])));
+                    return;
+                }
+                if (which > ratios.length) {
+                    editorState.commitEdits(edits.withoutCrops());
+                    return;
+                }
+                // 以摆正并编辑后的尺寸计算裁剪比例
+                int[] oriented = editorState.getOrientedPreviewSize();
+                int[] size = edits.outputSize(oriented[0], oriented[1]);
+                editorState.commitEdits(edits.then(EditOp.Crop.centered(size[0], size[1], ratios[which])));
+            })
+            .show();
+    }
+
+    /**
+     * 显示滤镜菜单
+     */
+    private void showFilterDialog() {
+        if (editorState.getPreview() == null) {
+            Toast.makeText(this, "图片尚未加载完成", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = {"饱和度", "曝光", "模糊", "锐化", "调色"};
+        new AlertDialog.Builder(this)
+            .setTitle("滤镜")
+            .setItems(labels, (dialog, which) -> {
+                EditList edits = editorState.getEdits();
+                switch (which) {
+                    case 0:
+                        showAdjustmentDialog("饱和度", edits.getAdjustments().saturation, Adjustments::withSaturation);
+                        break;
+                    case 1:
+                        showAdjustmentDialog("曝光", edits.getAdjustments().exposure, Adjustments::withExposure);
+                        break;
+                    case 2: {
+                        EditOp.Blur blur = edits.find(EditOp.Blur.class);
+                        showSliderDialog("模糊", blur != null ? blur.radius / EditOp.Blur.MAX_RADIUS : 0f, 0f,
+                                value -> edits.withSingle(EditOp.Blur.class,
+                                        value > 0f ? new EditOp.Blur(value * EditOp.Blur.MAX_RADIUS) : null));
+                        break;
+                    }
+                    case 3: {
+                        EditOp.Sharpen sharpen = edits.find(EditOp.Sharpen.class);
+                        showSliderDialog("锐化", sharpen != null ? sharpen.amount / EditOp.Sharpen.MAX_AMOUNT : 0f, 0f,
+                                value -> edits.withSingle(EditOp.Sharpen.class,
+                                        value > 0f ? new EditOp.Sharpen(value * EditOp.Sharpen.MAX_AMOUNT) : null));
+                        break;
+                    }
+                    default:
+                        showColorGradeDialog();
+                        break;
+                }
+            })
+            .show();
+    }
+
+    /**
+     * 显示调色预设选择对话框
+     */
+    private void showColorGradeDialog() {
+        String[] labels = {"暖色", "冷色", "黑白", "褪色", "无"};
+        ColorLut.Preset[] presets = ColorLut.Preset.values();
+        new AlertDialog.Builder(this)
+            .setTitle("调色")
+            .setItems(labels, (dialog, which) -> editorState.commitEdits(editorState.getEdits().withSingle(
+                    EditOp.ColorGrade.class, which < presets.length ? new EditOp.ColorGrade(presets[which]) : null)))
+            .show();
+    }
+
+    /**
+     * 显示调整滑块对话框
+     *
+     * @param value 当前值，范围 -1 ~ 1
+     * @param apply 根据滑块数值生成新的调整参数
+     */
+    private void showAdjustmentDialog(String title, float value, BiFunction<Adjustments, Float, Adjustments> apply) {
+        EditList before = editorState.getEdits();
+        Adjustments original = before.getAdjustments();
+        showSliderDialog(title, value, -1f, progress -> before.withAdjustments(apply.apply(original, progress)));
+    }
+
+    /**
+     * 显示滑块对话框，拖动时实时更新预览，取消时恢复原来的编辑；对话框关闭时整个过程记为一步撤销历史
+     *
+     * @param value 当前值，范围 min ~ 1
+     * @param min   滑块最小值，重置时回到0
+     * @param apply 根据滑块数值生成新的编辑记录
+     */
+    private void showSliderDialog(String title, float value, float min, Function<Float, EditList> apply) {
+        if (editorState.getPreview() == null) {
+            Toast.makeText(this, "图片尚未加载完成", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        EditList before = editorState.getEdits();
+        SeekBar seekBar = new SeekBar(this);
+        seekBar.setMax(Math.round((1f - min) * 100f));
+        seekBar.setProgress(Math.round((value - min) * 100f));
+        int padding = Math.round(24 * getResources().getDisplayMetrics().density);
+        seekBar.setPadding(padding, padding, padding, padding);
+        seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    editorState.setEdits(apply.apply(progress / 100f + min));
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar bar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar bar) {
+            }
+        });
+        new AlertDialog.Builder(this)
+            .setTitle(title)
+            .setView(seekBar)
+            .setPositiveButton("确定", null)
+            .setNegativeButton("取消", (dialog, which) -> editorState.setEdits(before))
+            .setNeutralButton("重置", (dialog, which) -> editorState.setEdits(apply.apply(0f)))
+            .setOnDismissListener(dialog -> editorState.recordHistory(before))
+            .show();
     }
     
     /**
@@ -144,6 +766,26 @@ public class EditImageActivity extends AppCompatActivity {
             .show();
     }
     
+    /**
+     * 保存过程中退出时询问：在后台继续保存并立即离开，或者取消保存
+     */
+    private void showSavingExitDialog() {
+        new AlertDialog.Builder(this)
+            .setTitle("正在保存")
+            .setMessage("离开后保存会在后台继续完成，也可以取消这次保存")
+            .setPositiveButton("后台继续", (dialog, which) -> {
+                if (exportTask != null) {
+                    // 不再关心结果，任务在导出队列中继续执行，失败或进程被杀后会自动重试
+                    exportTask = null;
+                    Toast.makeText(this, "图片将在后台保存", Toast.LENGTH_SHORT).show();
+                }
+                finish();
+            })
+            .setNegativeButton("取消保存", (dialog, which) -> cancelSave())
+            .setNeutralButton("继续等待", (dialog, which) -> dialog.dismiss())
+            .show();
+    }
+
     /**
      * 设置触摸监听器
      */
@@ -176,123 +818,102 @@ public class EditImageActivity extends AppCompatActivity {
     
     /**
      * 添加水印到图片并保存到相册
+     * 编辑操作在全分辨率原图上重放一次，解码、编辑、编码和写入相册都在后台执行，结果通过回调通知。
+     * 任务先写入导出队列，离开页面或进程被杀后仍会完成
      */
     private void saveImageToGallery() {
-        try {
-            if (currentImageUri == null) {
-                Toast.makeText(this, "没有可保存的图片", Toast.LENGTH_SHORT).show();
-                return;
+        if (currentImageUri == null) {
+            Toast.makeText(this, "没有可保存的图片", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (exportTask != null) {
+            // 已有保存任务在进行中
+            return;
+        }
+
+        ExportTask task = ExportQueue.get().save(currentImageUri, editorState.getEdits(),
+                ExportSettingsStore.load(this));
+        exportTask = task;
+        setSavingState(true);
+        task.start(new ExportTask.Callback() {
+            @Override
+            public void onProgress(ExportTask.Stage stage, int percent) {
+                if (exportTask == task) {
+                    saveProgress.setProgress(percent);
+                }
             }
-            
-            // 直接从URI加载原始图片，避免包含黑边
-            Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), currentImageUri);
-            
-            // 添加水印
-            Bitmap bitmapWithWatermark = addWatermark(bitmap);
-            
-            // 保存到相册
-            String savedImagePath = saveBitmapToGallery(bitmapWithWatermark);
-            
-            if (savedImagePath != null) {
-                // 显示保存成功提示及文件地址
-                String message = "图片保存成功\n保存位置：" + savedImagePath;
-                Toast.makeText(this, message, Toast.LENGTH_LONG).show();
-                
+
+            @Override
+            public void onSuccess(String savedImagePath, ExportStats stats) {
+                if (exportTask != task) {
+                    return;
+                }
+                exportTask = null;
+                setSavingState(false);
+                // 显示保存成功提示、文件地址、大小和耗时
+                String message = "图片保存成功\n保存位置：" + savedImagePath
+                        + "\n大小：" + ExportStats.formatBytes(stats.bytes) + "，耗时：" + stats.totalMillis() + "ms";
+                if (stats.isResolutionReduced()) {
+                    // 内存不足时降级阶梯加大了采样率，输出比设置要求的小，需要明确告知
+                    message += "\n内存不足，已降低分辨率保存：" + stats.width + "x" + stats.height
+                            + "（边长为原设置的1/" + stats.resolutionReduction() + "）";
+                }
+                Toast.makeText(EditImageActivity.this, message, Toast.LENGTH_LONG).show();
+
                 // 保存成功后返回主页面
                 finish();
-            } else {
-                Toast.makeText(this, "图片保存失败", Toast.LENGTH_SHORT).show();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            Toast.makeText(this, "保存图片时发生IO错误", Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "保存图片失败：" + e.getMessage(), Toast.LENGTH_SHORT).show();
-        }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (exportTask != task) {
+                    return;
+                }
+                exportTask = null;
+                setSavingState(false);
+                e.printStackTrace();
+                // 失败的任务留在导出队列中，稍后在后台重试
+                if (e instanceof IOException) {
+                    Toast.makeText(EditImageActivity.this, "保存图片时发生IO错误，稍后将在后台重试",
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(EditImageActivity.this, "保存图片失败：" + e.getMessage() + "，稍后将在后台重试",
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+
+            @Override
+            public void onCancelled() {
+                if (exportTask == task) {
+                    exportTask = null;
+                    setSavingState(false);
+                }
+            }
+        });
     }
-    
+
     /**
-     * 添加水印到图片
+     * 取消正在进行的保存任务
      */
-    private Bitmap addWatermark(Bitmap bitmap) {
-        // 创建一个可编辑的Bitmap副本
-        Bitmap resultBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-        Canvas canvas = new Canvas(resultBitmap);
-        
-        // 设置水印文本属性
-        String watermarkText = "训练营";
-        Paint paint = new Paint();
-        paint.setColor(Color.WHITE);
-        paint.setTextSize(60);
-        paint.setTypeface(Typeface.DEFAULT_BOLD);
-        paint.setAntiAlias(true);
-        paint.setAlpha(150); // 半透明效果
-        
-        // 计算水印位置（右下角）
-        float x = resultBitmap.getWidth() - paint.measureText(watermarkText) - 50;
-        float y = resultBitmap.getHeight() - 50;
-        
-        // 绘制水印
-        canvas.drawText(watermarkText, x, y, paint);
-        
-        return resultBitmap;
+    private void cancelSave() {
+        if (exportTask != null) {
+            exportTask.cancel();
+            exportTask = null;
+            setSavingState(false);
+            Toast.makeText(this, "已取消保存", Toast.LENGTH_SHORT).show();
+        }
     }
-    
+
     /**
-     * 保存Bitmap到相册
+     * 切换保存中的界面状态
      */
-    private String saveBitmapToGallery(Bitmap bitmap) throws IOException {
-        String savedImagePath = null;
-        
-        // 创建文件名
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        String imageFileName = "JPEG_" + timeStamp + "_";
-        
-        OutputStream outputStream;
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            // Android 10及以上使用MediaStore
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(MediaStore.Images.Media.DISPLAY_NAME, imageFileName + ".jpg");
-            contentValues.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-            contentValues.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + File.separator + "ImageCraft");
-            
-            // 插入图片到MediaStore
-            Uri imageUri = getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
-            
-            if (imageUri != null) {
-                outputStream = getContentResolver().openOutputStream(imageUri);
-                if (outputStream != null) {
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-                    outputStream.close();
-                    savedImagePath = imageUri.toString();
-                }
-            }
-        } else {
-            // Android 9及以下使用传统方法
-            File imagesDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "ImageCraft");
-            if (!imagesDir.exists()) {
-                imagesDir.mkdirs();
-            }
-            
-            File imageFile = new File(imagesDir, imageFileName + ".jpg");
-            outputStream = new FileOutputStream(imageFile);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-            outputStream.close();
-            
-            // 添加到MediaStore
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(MediaStore.Images.Media.DATA, imageFile.getAbsolutePath());
-            contentValues.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-            getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
-            
-            savedImagePath = imageFile.getAbsolutePath();
-        }
-        
-        return savedImagePath;
+    private void setSavingState(boolean saving) {
+        btnSave.setEnabled(!saving);
+        saveProgress.setProgress(0);
+        saveProgress.setVisibility(saving ? View.VISIBLE : View.GONE);
+        cancelSaveCallback.setEnabled(saving);
     }
-    
+
     /**
      * 处理权限请求结果
      */
@@ -320,7 +941,14 @@ public class EditImageActivity extends AppCompatActivity {
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
         
-        // 重新设置布局和WindowInsets
+        // 记录旧视图的显示矩阵，分块渲染器由EditorViewModel持有，只需从旧视图上解绑
+        showingThumbnail = false;
+        imagePreview.getImageMatrixValues(matrixValues);
+        editorState.saveDisplayState(matrixValues, imagePreview.getWidth(), imagePreview.getHeight());
+        imagePreview.setTileRenderer(null);
+        perfHud.hide();
+
+        // 重新加载横竖屏对应的布局和WindowInsets
         setContentView(R.layout.activity_edit_image);
         ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.edit_image_layout), (v, insets) -> {
             Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
@@ -332,11 +960,24 @@ public class EditImageActivity extends AppCompatActivity {
         imagePreview = findViewById(R.id.image_preview);
         btnBack = findViewById(R.id.btn_back);
         btnSave = findViewById(R.id.btn_save);
+        btnUndo = findViewById(R.id.btn_undo);
+        btnRedo = findViewById(R.id.btn_redo);
+        btnCrop = findViewById(R.id.btn_crop);
+        btnRotate = findViewById(R.id.btn_rotate);
+        btnBrightness = findViewById(R.id.btn_brightness);
+        btnContrast = findViewById(R.id.btn_contrast);
+        btnFilter = findViewById(R.id.btn_filter);
+        btnText = findViewById(R.id.btn_text);
+        overlayView = findViewById(R.id.overlay_view);
+        saveProgress = findViewById(R.id.save_progress);
         
         // 设置按钮点击事件
         setupButtonListeners();
+        setupOverlay();
+        setupPerfHud();
+        setSavingState(exportTask != null);
         
-        // 恢复图片显示
+        // 恢复图片显示：已解码的预览图和显示矩阵直接复用，不会重新解码
         if (currentImageUri != null) {
             loadImage(currentImageUri);
         }
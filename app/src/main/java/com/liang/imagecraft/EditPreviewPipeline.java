@@ -0,0 +1,214 @@
+package com.liang.imagecraft;
+
+import android.graphics.Bitmap;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.Orientation;
+import com.liang.imagecraft.kernel.PixelKernels;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 编辑预览管线
+ * 在屏幕尺寸的代理图上重放编辑操作，渲染耗时只与屏幕分辨率有关，与原图分辨率无关。
+ * 连续的请求先合并到下一帧再交给后台线程，新请求会让旧的渲染在下一个检查点放弃；
+ * 几何操作的结果会被缓存，拖动滑块时只重做逐像素部分。
+ * 没有几何操作时结果保持代理图的原始方向，由视图矩阵负责按EXIF方向显示；
+ * 有几何操作时EXIF方向与裁剪、旋转合成一次绘制，结果已经摆正
+ */
+final class EditPreviewPipeline {
+
+    /**
+     * 预览渲染完成回调，在主线程调用
+     */
+    interface Listener {
+        void onPreviewRendered(Bitmap bitmap, EditList edits);
+    }
+
+    // 合并连续请求的等待时间，约为一帧
+    private static final long DEBOUNCE_MS = 16;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EditPreviewPipeline");
+        thread.setPriority(Thread.NORM_PRIORITY);
+        return thread;
+    });
+
+    private final Bitmap source;
+    private final Orientation orientation;
+    // 每次请求加一，后台渲染发现版本号变化即放弃
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Runnable submitTask = this::submit;
+
+    // 以下只在主线程访问
+    private Listener listener;
+    private EditList requested = EditList.EMPTY;
+    private Bitmap current;
+    private EditList currentEdits = EditList.EMPTY;
+
+    // 当前显示的结果，后台线程不会写入它
+    private volatile Bitmap displayed;
+
+    // 以下只在后台线程访问
+    private final PixelKernels kernels = new PixelKernels();
+    private List<EditOp> cachedGeometry = Collections.emptyList();
+    private Bitmap geometryBitmap;
+    private int[] basePixels = new int[0];
+    private boolean basePixelsValid;
+    private int[] workPixels = new int[0];
+    // 双缓冲输出，渲染时总是写入没有在显示的那一张
+    private final Bitmap[] outputs = new Bitmap[2];
+
+    EditPreviewPipeline(Bitmap source, Orientation orientation) {
+        this.source = source;
+        this.orientation = orientation;
+        this.geometryBitmap = source;
+        this.current = source;
+        this.displayed = source;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 最近一次渲染完成的预览图
+     */
+    Bitmap getCurrent() {
+        return current;
+    }
+
+    /**
+     * 最近一次渲染完成的预览图对应的编辑操作
+     */
+    EditList getCurrentEdits() {
+        return currentEdits;
+    }
+
+    /**
+     * 请求按新的编辑操作渲染预览，与上次请求相同时忽略
+     */
+    void request(EditList edits) {
+        if (edits.equals(requested)) {
+            return;
+        }
+        requested = edits;
+        generation.incrementAndGet();
+        MainThread.remove(submitTask);
+        MainThread.postDelayed(submitTask, DEBOUNCE_MS);
+    }
+
+    /**
+     * 放弃所有未完成的渲染，不再回调
+     */
+    void release() {
+        listener = null;
+        generation.incrementAndGet();
+        MainThread.remove(submitTask);
+    }
+
+    private void submit() {
+        int version = generation.get();
+        EditList edits = requested;
+        EXECUTOR.execute(() -> {
+            Bitmap result;
+            try {
+                try (PerfTracer.Section ignored = PerfTracer.get().section("preview_edit")) {
+                    result = render(edits, () -> {
+                        if (version != generation.get()) {
+                            throw new CancellationException();
+                        }
+                    });
+                }
+            } catch (CancellationException e) {
+                return;
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                // 预览失败时保留上一帧
+                e.printStackTrace();
+                return;
+            }
+            MainThread.post(() -> {
+                if (version != generation.get()) {
+                    return;
+                }
+                current = result;
+                currentEdits = edits;
+                displayed = result;
+                if (listener != null) {
+                    listener.onPreviewRendered(result, edits);
+                }
+            });
+        });
+    }
+
+    private Bitmap render(EditList edits, EditRenderer.Checkpoint checkpoint) throws IOException {
+        checkpoint.check();
+        List<EditOp> geometry = edits.geometryOps();
+        if (!geometry.equals(cachedGeometry)) {
+            Orientation geometryOrientation = geometry.isEmpty() ? Orientation.NORMAL : orientation;
+            geometryBitmap = EditRenderer.applyGeometry(source, geometryOrientation, geometry);
+            cachedGeometry = geometry;
+            basePixelsValid = false;
+        }
+        List<EditOp> pixelOps = edits.pixelOps();
+        if (pixelOps.isEmpty()) {
+            return geometryBitmap;
+        }
+
+        int width = geometryBitmap.getWidth();
+        int height = geometryBitmap.getHeight();
+        int count = width * height;
+        if (!basePixelsValid) {
+            basePixels = BitmapKernels.readPixels(geometryBitmap, basePixels);
+            basePixelsValid = true;
+        }
+        if (workPixels.length < count) {
+            workPixels = new int[count];
+        }
+        System.arraycopy(basePixels, 0, workPixels, 0, count);
+        Bitmap output = nextOutput(width, height);
+
+        // 调整和滤镜在像素数组上进行，水印等需要Canvas的操作在位图上进行，两者交替时同步一次
+        boolean bufferAhead = true;
+        for (EditOp op : pixelOps) {
+            checkpoint.check();
+            if (EditRenderer.isKernelOp(op)) {
+                if (!bufferAhead) {
+                    BitmapKernels.readPixels(output, workPixels);
+                }
+                EditRenderer.applyKernelOp(workPixels, width, height, width, height, op, kernels);
+                bufferAhead = true;
+            } else {
+                if (bufferAhead) {
+                    BitmapKernels.writePixels(output, workPixels);
+                    bufferAhead = false;
+                }
+                EditRenderer.applyPixelOp(output, op, kernels);
+            }
+        }
+        checkpoint.check();
+        if (bufferAhead) {
+            BitmapKernels.writePixels(output, workPixels);
+        }
+        return output;
+    }
+
+    private Bitmap nextOutput(int width, int height) {
+        int index = outputs[0] == displayed ? 1 : 0;
+        Bitmap output = outputs[index];
+        if (output == null || output.getWidth() != width || output.getHeight() != height) {
+            output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            output.setDensity(source.getDensity());
+            outputs[index] = output;
+        }
+        return output;
+    }
+}
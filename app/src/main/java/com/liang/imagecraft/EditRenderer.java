@@ -0,0 +1,188 @@
+package com.liang.imagecraft;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import com.liang.imagecraft.edit.Affine;
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.GeometryPlan;
+import com.liang.imagecraft.edit.Layer;
+import com.liang.imagecraft.edit.Orientation;
+import com.liang.imagecraft.kernel.PixelKernels;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 在Bitmap上重放编辑操作
+ * 预览和导出共用同一套实现，保证两者结果一致
+ */
+public final class EditRenderer {
+
+    /**
+     * 每个操作之间的检查点，返回前可以抛出CancellationException中止渲染
+     */
+    public interface Checkpoint {
+        void check();
+    }
+
+    private EditRenderer() {
+    }
+
+    /**
+     * 应用全部操作
+     * 先把EXIF方向和全部几何操作合成一次绘制，只分配一张新位图并回收传入的位图；
+     * 再按顺序在结果上原地应用逐像素操作。传入的位图不再可用，应使用返回值
+     *
+     * @throws IOException 贴图图层无法读取
+     * @param orientation 传入位图的EXIF方向，编辑操作的坐标都基于摆正后的图片
+     */
+    public static Bitmap applyAll(Bitmap bitmap, Orientation orientation, EditList edits, PixelKernels kernels,
+                                  Checkpoint checkpoint) throws IOException {
+        GeometryPlan plan = GeometryPlan.of(orientation, edits.geometryOps(), bitmap.getWidth(), bitmap.getHeight());
+        return applyAll(bitmap, plan, edits.pixelOps(), kernels, checkpoint);
+    }
+
+    /**
+     * 按已经算好的几何变换绘制一次，再应用逐像素操作，用于导出时只解码了裁剪区域的情况。
+     * 传入的位图不再可用，应使用返回值
+     */
+    public static Bitmap applyAll(Bitmap bitmap, GeometryPlan plan, List<EditOp> pixelOps, PixelKernels kernels,
+                                  Checkpoint checkpoint) throws IOException {
+        checkpoint.check();
+        Bitmap current = bitmap;
+        if (!plan.isIdentity(bitmap.getWidth(), bitmap.getHeight())) {
+            current = transform(bitmap, plan);
+            bitmap.recycle();
+        }
+        for (EditOp op : pixelOps) {
+            checkpoint.check();
+            applyPixelOp(current, op, kernels);
+        }
+        checkpoint.check();
+        return current;
+    }
+
+    /**
+     * 按EXIF方向摆正原图后应用几何操作，不会回收或修改原图；结果与原图相同时返回原图本身
+     */
+    public static Bitmap applyGeometry(Bitmap source, Orientation orientation, List<EditOp> ops) {
+        GeometryPlan plan = GeometryPlan.of(orientation, ops, source.getWidth(), source.getHeight());
+        if (plan.isIdentity(source.getWidth(), source.getHeight())) {
+            return source;
+        }
+        return transform(source, plan);
+    }
+
+    /**
+     * 在可变位图上原地应用逐像素操作
+     */
+    public static void applyPixelOp(Bitmap bitmap, EditOp op, PixelKernels kernels) throws IOException {
+        applyPixelOp(bitmap, 0, bitmap.getWidth(), bitmap.getHeight(), op, kernels);
+    }
+
+    /**
+     * 在输出图片的一个水平条带上原地应用逐像素操作，条带导出时逐条调用
+     * 水印和图层按整张输出的尺寸排版，只绘制落在条带内的部分；
+     * 模糊和锐化需要条带以外的相邻像素，只能在整张输出上调用
+     *
+     * @param band         输出图片从第 top 行开始的若干行
+     * @param outputWidth  整张输出图片的宽度
+     * @param outputHeight 整张输出图片的高度
+     * @throws IOException 贴图图层无法读取
+     */
+    public static void applyPixelOp(Bitmap band, int top, int outputWidth, int outputHeight, EditOp op,
+                                    PixelKernels kernels) throws IOException {
+        if (op instanceof EditOp.Adjust) {
+            BitmapKernels.adjust(band, kernels, ((EditOp.Adjust) op).adjustments);
+        } else if (isKernelOp(op)) {
+            try (PerfTracer.Section ignored = PerfTracer.get().section("filter")) {
+                BitmapKernels.filter(band, op.neighborRows(outputWidth, outputHeight), (pixels, width, rows) ->
+                        applyKernelOp(pixels, width, rows, outputWidth, outputHeight, op, kernels));
+            }
+        } else if (op instanceof EditOp.Watermark) {
+            try (PerfTracer.Section ignored = PerfTracer.get().section("watermark")) {
+                WatermarkRenderer.get().draw(band, top, outputWidth, outputHeight, (EditOp.Watermark) op);
+            }
+        } else if (op instanceof EditOp.Overlay) {
+            try (PerfTracer.Section ignored = PerfTracer.get().section("layer_composite")) {
+                drawLayer(band, top, outputWidth, outputHeight, ((EditOp.Overlay) op).layer);
+            }
+        }
+    }
+
+    /**
+     * 是否可以直接在像素数组上完成：调整、模糊、锐化和调色；水印和图层需要Canvas
+     */
+    static boolean isKernelOp(EditOp op) {
+        return op instanceof EditOp.Adjust || op instanceof EditOp.Blur || op instanceof EditOp.Sharpen
+                || op instanceof EditOp.ColorGrade;
+    }
+
+    /**
+     * 在像素数组上原地应用 isKernelOp 为true的操作
+     * 模糊和锐化的半径按整张输出图片的尺寸换算，像素数组可以只是其中的若干行
+     *
+     * @param outputWidth  整张输出图片的宽度
+     * @param outputHeight 整张输出图片的高度
+     */
+    static void applyKernelOp(int[] pixels, int width, int height, int outputWidth, int outputHeight, EditOp op,
+                              PixelKernels kernels) {
+        if (op instanceof EditOp.Adjust) {
+            kernels.adjust(pixels, width, height, ((EditOp.Adjust) op).adjustments);
+        } else if (op instanceof EditOp.Blur) {
+            kernels.gaussianBlur(pixels, width, height, ((EditOp.Blur) op).sigmaFor(outputWidth, outputHeight));
+        } else if (op instanceof EditOp.Sharpen) {
+            EditOp.Sharpen sharpen = (EditOp.Sharpen) op;
+            kernels.sharpen(pixels, width, height, sharpen.amount, sharpen.sigmaFor(outputWidth, outputHeight));
+        } else if (op instanceof EditOp.ColorGrade) {
+            kernels.colorLut(pixels, width, height, ((EditOp.ColorGrade) op).preset.lut());
+        }
+    }
+
+    /**
+     * 按图层的归一化位置把图层合成到输出分辨率的位图上，栅格化档位按输出尺寸选择
+     * 贴图无法读取时导出失败，不能保存一张少了图层的图片
+     */
+    private static void drawLayer(Bitmap band, int top, int outputWidth, int outputHeight, Layer layer)
+            throws IOException {
+        LayerRasterizer rasterizer = LayerRasterizer.get();
+        LayerRasterizer.Raster raster = rasterizer != null
+                ? rasterizer.rasterizeNow(layer, layer.pixelSize(outputWidth, outputHeight)) : null;
+        if (raster == null) {
+            throw new IOException("无法读取图层：" + layer.content);
+        }
+        Canvas canvas = new Canvas(band);
+        canvas.translate(0f, -top);
+        LayerRasterizer.draw(canvas, layer, outputWidth, outputHeight, raster, new Paint(Paint.FILTER_BITMAP_FLAG));
+    }
+
+    /**
+     * 按合并后的变换把源图绘制到一张新的可变ARGB_8888位图上
+     * 直接绘制而不用Bitmap.createBitmap(source, ...)，后者返回不可变位图，后续调整还要再复制一次
+     */
+    private static Bitmap transform(Bitmap bitmap, GeometryPlan plan) {
+        Bitmap result = Bitmap.createBitmap(plan.width, plan.height, Bitmap.Config.ARGB_8888);
+        PerfTracer.get().countBitmap(result.getAllocationByteCount());
+        result.setDensity(bitmap.getDensity());
+        Canvas canvas = new Canvas(result);
+        canvas.concat(toMatrix(plan.transform));
+        canvas.drawBitmap(bitmap, 0f, 0f, null);
+        return result;
+    }
+
+    /**
+     * 转换为android.graphics.Matrix
+     */
+    static Matrix toMatrix(Affine affine) {
+        float[] values = new float[9];
+        affine.getValues(values);
+        Matrix matrix = new Matrix();
+        matrix.setValues(values);
+        return matrix;
+    }
+}
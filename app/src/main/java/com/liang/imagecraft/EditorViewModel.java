@@ -0,0 +1,363 @@
+package com.liang.imagecraft;
+
+import android.graphics.Bitmap;
+
+import androidx.lifecycle.ViewModel;
+
+import com.liang.imagecraft.edit.EditHistory;
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.Orientation;
+
+/**
+ * 编辑页面状态
+ * 保存解码好的预览图、编辑记录及其撤销历史、视图矩阵和分块渲染器，横竖屏切换或Activity重建时直接复用，不再重新解码；
+ * 预览图解码期间还保存占位的缩略图
+ */
+public class EditorViewModel extends ViewModel {
+
+    /**
+     * 发起预览图加载，返回可取消的订阅
+     */
+    public interface PreviewRequest {
+        ImageLoader.Subscription start();
+    }
+
+    /**
+     * 预览图加载结果监听，在主线程调用
+     */
+    public interface Listener {
+        /**
+         * 占位缩略图已就绪，按预览图的预计尺寸显示
+         */
+        void onThumbnailReady(Bitmap thumbnail, Orientation orientation, int width, int height);
+
+        void onPreviewReady(Bitmap bitmap);
+
+        void onPreviewFailed(Exception e);
+
+        /**
+         * 编辑后的预览图渲染完成
+         */
+        void onEditsRendered(Bitmap bitmap, EditList edits);
+
+        /**
+         * 编辑记录已更新，图层在这里同步到图层视图，不等待预览图渲染
+         */
+        void onEditsChanged(EditList edits);
+    }
+
+    private String imageKey;
+    private Bitmap preview;
+    // 原图的EXIF方向，预览图保持解码时的原始方向
+    private Orientation orientation = Orientation.NORMAL;
+    private boolean previewLoaded;
+    private boolean previewLoading;
+    private ImageLoader.Subscription previewTask;
+
+    // 预览图解码完成前显示的缩略图，以及预览图摆正后的预计尺寸
+    private Bitmap thumbnail;
+    private Orientation thumbnailOrientation = Orientation.NORMAL;
+    private int thumbnailWidth;
+    private int thumbnailHeight;
+    private Listener listener;
+
+    // 视图矩阵及其对应的视口尺寸
+    private final float[] matrixValues = new float[9];
+    private boolean hasMatrix;
+    private int viewportWidth;
+    private int viewportHeight;
+
+    private TiledImageRenderer tileRenderer;
+
+    // 非破坏性编辑记录及其预览渲染管线
+    private EditList edits = EditList.EMPTY;
+    private EditPreviewPipeline editPipeline;
+    private final EditHistory history = new EditHistory(EditHistory.DEFAULT_MAX_STEPS);
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 请求指定图片的预览图。已经加载完成或正在加载时不会再次解码
+     *
+     * @return 是否真正发起了解码
+     */
+    public boolean requestPreview(String key, PreviewRequest request) {
+        if (key.equals(imageKey) && (previewLoaded || previewLoading)) {
+            return false;
+        }
+        clearImage();
+        imageKey = key;
+        previewLoading = true;
+        previewTask = request.start();
+        return true;
+    }
+
+    /**
+     * 缩略图读取完成后调用，预览图已经就绪时忽略
+     */
+    public void onThumbnailLoaded(String key, Bitmap bitmap, Orientation orientation, int width, int height) {
+        if (!key.equals(imageKey) || previewLoaded) {
+            return;
+        }
+        thumbnail = bitmap;
+        thumbnailOrientation = orientation;
+        thumbnailWidth = width;
+        thumbnailHeight = height;
+        if (listener != null) {
+            listener.onThumbnailReady(bitmap, orientation, width, height);
+        }
+    }
+
+    /**
+     * 解码完成后调用，只接受当前图片的结果
+     */
+    public void onPreviewLoaded(String key, Bitmap bitmap, Orientation orientation) {
+        if (!key.equals(imageKey)) {
+            return;
+        }
+        preview = bitmap;
+        this.orientation = orientation;
+        thumbnail = null;
+        previewLoaded = true;
+        previewLoading = false;
+        previewTask = null;
+        hasMatrix = false;
+        if (listener != null) {
+            listener.onPreviewReady(bitmap);
+        }
+    }
+
+    public void onPreviewFailed(String key, Exception e) {
+        if (!key.equals(imageKey)) {
+            return;
+        }
+        previewLoading = false;
+        previewTask = null;
+        imageKey = null;
+        if (listener != null) {
+            listener.onPreviewFailed(e);
+        }
+    }
+
+    public boolean hasPreviewFor(String key) {
+        return previewLoaded && key.equals(imageKey);
+    }
+
+    public boolean hasThumbnailFor(String key) {
+        return thumbnail != null && key.equals(imageKey);
+    }
+
+    public Bitmap getThumbnail() {
+        return thumbnail;
+    }
+
+    public Orientation getThumbnailOrientation() {
+        return thumbnailOrientation;
+    }
+
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    public int getThumbnailHeight() {
+        return thumbnailHeight;
+    }
+
+    public Bitmap getPreview() {
+        return preview;
+    }
+
+    /**
+     * 原图的EXIF方向，编辑操作的坐标基于按这个方向摆正后的图片
+     */
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * 摆正后的预览图尺寸 {宽, 高}
+     */
+    public int[] getOrientedPreviewSize() {
+        return orientation.orientedSize(preview.getWidth(), preview.getHeight());
+    }
+
+    public EditList getEdits() {
+        return edits;
+    }
+
+    /**
+     * 更新编辑操作并请求重新渲染预览，结果通过 Listener.onEditsRendered 返回
+     * 图层由图层视图单独绘制，不进入预览渲染管线，只改动图层时不会重新渲染预览图
+     */
+    public void setEdits(EditList edits) {
+        this.edits = edits;
+        if (tileRenderer != null) {
+            tileRenderer.setAdjustments(edits.getAdjustments());
+        }
+        if (listener != null) {
+            listener.onEditsChanged(edits);
+        }
+        if (preview == null) {
+            return;
+        }
+        if (editPipeline == null) {
+            editPipeline = new EditPreviewPipeline(preview, orientation);
+            editPipeline.setListener((bitmap, rendered) -> {
+                if (listener != null) {
+                    listener.onEditsRendered(bitmap, rendered);
+                }
+            });
+        }
+        editPipeline.request(edits.withoutLayers());
+    }
+
+    /**
+     * 应用一次完整的编辑操作并记入撤销历史
+     */
+    public void commitEdits(EditList edits) {
+        history.record(this.edits, edits);
+        setEdits(edits);
+    }
+
+    /**
+     * 把从 before 到当前编辑记录的连续修改记为一步，用于拖动滑块等过程中多次调用 setEdits 的操作
+     */
+    public void recordHistory(EditList before) {
+        history.record(before, edits);
+    }
+
+    /**
+     * 撤销最近一步编辑
+     *
+     * @return 没有可撤销的步骤时返回false
+     */
+    public boolean undo() {
+        EditList previous = history.undo(edits);
+        if (previous == null) {
+            return false;
+        }
+        setEdits(previous);
+        return true;
+    }
+
+    /**
+     * 重做最近撤销的一步编辑
+     *
+     * @return 没有可重做的步骤时返回false
+     */
+    public boolean redo() {
+        EditList next = history.redo(edits);
+        if (next == null) {
+            return false;
+        }
+        setEdits(next);
+        return true;
+    }
+
+    /**
+     * 返回最近一次渲染的编辑后预览图，没有编辑时就是原始预览图
+     */
+    public Bitmap getDisplayPreview() {
+        return editPipeline != null ? editPipeline.getCurrent() : preview;
+    }
+
+    /**
+     * getDisplayPreview() 返回的预览图需要在显示时应用的方向
+     */
+    public Orientation getDisplayOrientation() {
+        return displayOrientationFor(editPipeline != null ? editPipeline.getCurrentEdits() : EditList.EMPTY);
+    }
+
+    /**
+     * 按给定编辑操作渲染出的预览图需要在显示时应用的方向：有几何操作时渲染结果已经摆正
+     */
+    public Orientation displayOrientationFor(EditList rendered) {
+        return rendered.hasGeometry() ? Orientation.NORMAL : orientation;
+    }
+
+    /**
+     * 记录当前视图矩阵及视口尺寸
+     */
+    public void saveDisplayState(float[] values, int width, int height) {
+        System.arraycopy(values, 0, matrixValues, 0, matrixValues.length);
+        viewportWidth = width;
+        viewportHeight = height;
+        hasMatrix = true;
+    }
+
+    /**
+     * 读取保存的视图矩阵
+     *
+     * @return 没有保存过矩阵时返回false
+     */
+    public boolean restoreDisplayState(float[] out) {
+        if (!hasMatrix) {
+            return false;
+        }
+        System.arraycopy(matrixValues, 0, out, 0, matrixValues.length);
+        return true;
+    }
+
+    public int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    public int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    public TiledImageRenderer getTileRenderer() {
+        return tileRenderer;
+    }
+
+    /**
+     * 设置分块渲染器，旧的渲染器会被释放
+     */
+    public void setTileRenderer(TiledImageRenderer renderer) {
+        if (tileRenderer != null && tileRenderer != renderer) {
+            tileRenderer.release();
+        }
+        tileRenderer = renderer;
+        if (renderer != null) {
+            renderer.setAdjustments(edits.getAdjustments());
+        }
+    }
+
+    /**
+     * 响应系统内存回收，释放可以重新解码的图块，预览图和编辑记录保留
+     */
+    public void trimMemory(int level) {
+        if (tileRenderer != null) {
+            tileRenderer.trimMemory(level);
+        }
+    }
+
+    private void clearImage() {
+        if (previewTask != null) {
+            previewTask.cancel();
+            previewTask = null;
+        }
+        setTileRenderer(null);
+        preview = null;
+        thumbnail = null;
+        orientation = Orientation.NORMAL;
+        if (editPipeline != null) {
+            editPipeline.release();
+            editPipeline = null;
+        }
+        edits = EditList.EMPTY;
+        history.clear();
+        previewLoaded = false;
+        previewLoading = false;
+        hasMatrix = false;
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        listener = null;
+        clearImage();
+    }
+}
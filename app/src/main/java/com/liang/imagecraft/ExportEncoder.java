@@ -0,0 +1,84 @@
+package com.liang.imagecraft;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+
+/**
+ * 按导出设置把位图编码到缓冲区
+ */
+final class ExportEncoder {
+
+    private ExportEncoder() {
+    }
+
+    /**
+     * 编码到buffer。目标大小模式下二分搜索质量，其余情况按设置的质量编码一次
+     */
+    static void encode(Bitmap bitmap, ExportSettings settings, EncodeBuffer buffer, ExportStats stats,
+                       EditRenderer.Checkpoint checkpoint) throws IOException {
+        try (PerfTracer.Section ignored = PerfTracer.get().section("encode")) {
+            encodeTo(bitmap, settings, buffer, stats, checkpoint);
+        }
+    }
+
+    private static void encodeTo(Bitmap bitmap, ExportSettings settings, EncodeBuffer buffer, ExportStats stats,
+                                 EditRenderer.Checkpoint checkpoint) throws IOException {
+        long start = System.nanoTime();
+        Bitmap.CompressFormat format = compressFormat(settings.format);
+        if (settings.usesTargetSize()) {
+            QualitySearch.Result result = QualitySearch.search(quality -> {
+                checkpoint.check();
+                return compressTo(bitmap, format, quality, buffer);
+            }, settings.targetBytes, ExportSettings.MIN_TARGET_QUALITY, settings.quality,
+                    QualitySearch.DEFAULT_MAX_PASSES);
+            stats.quality = result.quality;
+            stats.encodePasses = result.passes;
+        } else {
+            int quality = settings.format == ExportSettings.Format.WEBP_LOSSLESS
+                    ? losslessQuality() : settings.quality;
+            compressTo(bitmap, format, quality, buffer);
+            stats.quality = quality;
+            stats.encodePasses = 1;
+        }
+        stats.encodeMillis = ExportStats.elapsedMillis(start);
+        stats.bytes = buffer.size();
+    }
+
+    private static long compressTo(Bitmap bitmap, Bitmap.CompressFormat format, int quality,
+                                   EncodeBuffer buffer) throws IOException {
+        buffer.reset();
+        if (!bitmap.compress(format, quality, buffer)) {
+            throw new IOException("图片编码失败");
+        }
+        return buffer.size();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat compressFormat(ExportSettings.Format format) {
+        switch (format) {
+            case WEBP_LOSSY:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                        ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+            case WEBP_LOSSLESS:
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                        ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+            case PNG:
+                return Bitmap.CompressFormat.PNG;
+            case JPEG:
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    /**
+     * 无损WebP的质量参数
+     * Android 11起表示压缩力度，取中间值兼顾速度；更早的版本只有质量为100时才输出无损格式
+     */
+    private static int losslessQuality() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? 50 : 100;
+    }
+}
@@ -0,0 +1,23 @@
+package com.liang.imagecraft;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+/**
+ * 在后台执行导出队列中到期的任务，由 ExportQueue 通过 JobScheduler 调度
+ */
+public class ExportJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        ExportQueue.get().runPending(() -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // 剩余的任务留在队列中，由 ExportQueue 重新调度
+        ExportQueue.get().stopPending();
+        return false;
+    }
+}
@@ -0,0 +1,293 @@
+package com.liang.imagecraft;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.liang.imagecraft.edit.EditList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 持久化的导出队列
+ * 保存时先把任务写入磁盘日志再开始导出，离开编辑页面后导出继续在导出线程上执行；
+ * 进程在导出中被杀时任务仍在日志中，由 JobScheduler 在退避之后唤起 ExportJobService 重新执行，
+ * 执行前删除上次留下的、在相册中确实还未发布的条目。导出结果按内容摘要去重，重试不会在相册中留下重复的图片
+ */
+public final class ExportQueue {
+
+    private static final String TAG = "ExportQueue";
+    private static final String JOURNAL_FILE = "export_queue.journal";
+    private static final int JOB_ID = 1001;
+
+    private static ExportQueue instance;
+
+    private final Context context;
+    // 日志读写在这个线程上进行，保存时不必等待正在进行的导出
+    private final ExecutorService journalExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "ExportQueue"));
+    private ExportJournal journal;
+    // 后台任务执行期间不重新调度，否则 JobScheduler 会停止正在执行的任务
+    private volatile boolean workerRunning;
+    private volatile boolean workerStopped;
+    private volatile ExportTask workerTask;
+
+    private ExportQueue(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * 在Application中初始化，上次进程留下未完成的任务时重新调度
+     */
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new ExportQueue(context.getApplicationContext());
+            instance.journalExecutor.execute(instance::scheduleIfMissing);
+        }
+    }
+
+    public static synchronized ExportQueue get() {
+        return instance;
+    }
+
+    /**
+     * 日志在第一次使用时打开，只在后台线程调用
+     */
+    private synchronized ExportJournal journal() {
+        if (journal == null) {
+            journal = ExportJournal.open(new File(context.getFilesDir(), JOURNAL_FILE));
+        }
+        return journal;
+    }
+
+    /**
+     * 创建保存任务并立即写入日志，不必等待正在进行的导出
+     * 任务被取消时同时移出队列；调用方不再关心结果时只需忽略回调，导出会继续完成，失败或进程被杀后在后台重试
+     */
+    public ExportTask save(Uri sourceUri, EditList edits, ExportSettings settings) {
+        JobTracker tracker = new JobTracker();
+        journalExecutor.execute(() -> {
+            try {
+                long now = System.currentTimeMillis();
+                ExportJournal.Job job = journal().enqueue(sourceUri.toString(), edits, settings, now);
+                // 立即开始执行，退避时间内后台不会重复执行；进程在导出中被杀时退避结束后由后台重试
+                tracker.jobId = journal().start(job.id, now).id;
+                // 写入日志之前就被取消的保存不能留在队列中，否则后台仍会导出
+                if (tracker.abandoned) {
+                    journal().remove(tracker.jobId);
+                }
+                schedule();
+            } catch (IOException | RuntimeException e) {
+                // 写不进日志时照常导出，只是不能在进程被杀后恢复
+                Log.w(TAG, "无法写入导出队列", e);
+            } finally {
+                tracker.journaled.countDown();
+            }
+        });
+        return new ExportTask(context, sourceUri, edits, settings, tracker);
+    }
+
+    /**
+     * 在导出线程上依次执行所有到期的任务，由 ExportJobService 调用
+     *
+     * @param onFinished 执行完毕或被停止后在导出线程调用
+     */
+    void runPending(Runnable onFinished) {
+        workerRunning = true;
+        workerStopped = false;
+        ExportTask.submit(() -> {
+            try {
+                runDueJobs();
+            } finally {
+                workerTask = null;
+                workerRunning = false;
+                onFinished.run();
+                schedule();
+            }
+        });
+    }
+
+    /**
+     * 系统要求停止后台执行，取消当前任务，剩余的任务留在队列中
+     */
+    void stopPending() {
+        workerStopped = true;
+        ExportTask task = workerTask;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    private void runDueJobs() {
+        ExportJournal journal = journal();
+        ExportJournal.Job job;
+        try {
+            while (!workerStopped && (job = journal.next(System.currentTimeMillis())) != null) {
+                if (job.pendingEntry != null) {
+                    ContentResolver resolver = context.getContentResolver();
+                    if (GalleryWriter.isPending(resolver, job.pendingEntry)) {
+                        // 上次写到一半，删除后重新导出
+                        GalleryWriter.deleteEntry(resolver, job.pendingEntry);
+                    } else if (journal.isPublished(job.pendingEntry)
+                            || GalleryWriter.exists(resolver, job.pendingEntry)) {
+                        // 上次已经发布，只是没来得及记入日志或移出队列。以相册的实际状态为准，
+                        // 进程在发布之后、记入日志之前被杀时日志里还没有它，不能删掉一张已经可见的图片
+                        journal.remove(job.id);
+                        continue;
+                    }
+                    journal.setPendingEntry(job.id, null);
+                }
+                ExportTask task = new ExportTask(context, Uri.parse(job.sourceUri), job.edits, job.settings,
+                        new JobTracker(job.id));
+                workerTask = task;
+                try {
+                    String path = task.execute();
+                    Log.i(TAG, "后台导出完成：" + path);
+                } catch (Exception e) {
+                    Log.w(TAG, "后台导出失败：" + job.sourceUri, e);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "无法读写导出队列", e);
+        }
+    }
+
+    /**
+     * 进程启动时补上调度；已有调度时不动它，它可能正是唤起本进程、即将开始执行的任务
+     */
+    private void scheduleIfMissing() {
+        if (context.getSystemService(JobScheduler.class).getPendingJob(JOB_ID) == null) {
+            schedule();
+        }
+    }
+
+    /**
+     * 按最早的任务调度后台执行，队列为空时取消调度
+     */
+    private void schedule() {
+        if (workerRunning) {
+            return;
+        }
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        long delay = journal().delayUntilNext(System.currentTimeMillis());
+        if (delay < 0) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        JobInfo info = new JobInfo.Builder(JOB_ID, new ComponentName(context, ExportJobService.class))
+                .setMinimumLatency(delay)
+                // 设备重启后仍然执行
+                .setPersisted(true)
+                .setRequiresStorageNotLow(true)
+                .build();
+        scheduler.schedule(info);
+    }
+
+    /**
+     * 一个导出任务在日志中的记录，除 cancelled 外都在导出线程调用
+     * 前台保存被用户取消时移出队列，后台执行被系统停止时留在队列中等待下次调度；失败后都按退避重试
+     */
+    final class JobTracker implements GalleryWriter.EntryTracker {
+        private final boolean background;
+        // 前台保存写入日志后计数归零
+        private final CountDownLatch journaled;
+        // 没能写入日志时为-1，此时不记录
+        private volatile long jobId = -1;
+        // 写入日志之前就被取消
+        private volatile boolean abandoned;
+
+        /**
+         * 前台保存，日志写入完成前导出需要等待
+         */
+        JobTracker() {
+            this.background = false;
+            this.journaled = new CountDownLatch(1);
+        }
+
+        /**
+         * 后台执行日志中已有的任务
+         */
+        JobTracker(long jobId) {
+            this.background = true;
+            this.journaled = new CountDownLatch(0);
+            this.jobId = jobId;
+        }
+
+        /**
+         * 等待任务写入日志，导出开始前调用
+         *
+         * @throws CancellationException 等待时被中断
+         */
+        void awaitJournaled() {
+            try {
+                journaled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        }
+
+        @Override
+        public void onPending(String entry) throws IOException {
+            if (jobId >= 0) {
+                journal().setPendingEntry(jobId, entry);
+            }
+        }
+
+        @Override
+        public String findDuplicate(String sha256) {
+            return journal().findOutput(sha256);
+        }
+
+        @Override
+        public void onPublished(String sha256, String entry) throws IOException {
+            journal().recordOutput(sha256, entry);
+        }
+
+        void completed() {
+            update(() -> journal().remove(jobId));
+        }
+
+        /**
+         * 前台保存被取消，由 ExportTask.cancel 在调用线程调用
+         * 任务可能还排在其他导出之后、根本不会执行到，所以不能等导出线程处理；
+         * 移出队列在日志线程上进行，排在写入日志之后，这时 jobId 已经确定
+         */
+        void cancelled() {
+            if (background || abandoned) {
+                return;
+            }
+            abandoned = true;
+            journalExecutor.execute(() -> update(() -> journal().remove(jobId)));
+        }
+
+        void failed() {
+            update(() -> journal().retryLater(jobId, System.currentTimeMillis()));
+        }
+
+        private void update(JournalUpdate update) {
+            if (jobId < 0) {
+                return;
+            }
+            try {
+                update.run();
+            } catch (IOException e) {
+                Log.w(TAG, "无法写入导出队列", e);
+            }
+            schedule();
+        }
+    }
+
+    private interface JournalUpdate {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,43 @@
+package com.liang.imagecraft;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 导出设置的持久化，保存在SharedPreferences中
+ */
+public final class ExportSettingsStore {
+
+    private static final String PREFS_NAME = "export_settings";
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_QUALITY = "quality";
+    private static final String KEY_MAX_LONG_EDGE = "max_long_edge";
+    private static final String KEY_TARGET_BYTES = "target_bytes";
+
+    private ExportSettingsStore() {
+    }
+
+    public static ExportSettings load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ExportSettings defaults = ExportSettings.DEFAULT;
+        ExportSettings.Format format;
+        try {
+            format = ExportSettings.Format.valueOf(prefs.getString(KEY_FORMAT, defaults.format.name()));
+        } catch (IllegalArgumentException e) {
+            format = defaults.format;
+        }
+        return new ExportSettings(format,
+                prefs.getInt(KEY_QUALITY, defaults.quality),
+                prefs.getInt(KEY_MAX_LONG_EDGE, defaults.maxLongEdge),
+                prefs.getLong(KEY_TARGET_BYTES, defaults.targetBytes));
+    }
+
+    public static void save(Context context, ExportSettings settings) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_FORMAT, settings.format.name())
+                .putInt(KEY_QUALITY, settings.quality)
+                .putInt(KEY_MAX_LONG_EDGE, settings.maxLongEdge)
+                .putLong(KEY_TARGET_BYTES, settings.targetBytes)
+                .apply();
+    }
+}
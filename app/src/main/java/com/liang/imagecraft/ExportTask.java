@@ -0,0 +1,264 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.jpeg.LosslessTransform;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 后台导出任务
+ * 依次执行 解码 -> 重放编辑（最后一步为水印） -> 编码 -> 写入相册，进度和结果通过回调在主线程通知
+ * 解码直接得到可变位图并在其上原地应用逐像素操作，避免同时持有两张全尺寸位图；
+ * 采样率由解码策略按当前内存余量选择，内存不足时沿降级阶梯重试。
+ * 整张解码会被迫降低分辨率的超大JPEG导出改走条带流式导出，解码、编辑、编码和写入按条带交替进行；
+ * 只有裁剪、直角旋转和翻转的JPEG导出直接在DCT系数上无损变换，不解码像素。
+ * 通过导出队列创建的任务记录在磁盘日志中，离开页面或进程被杀后由后台继续完成，见 ExportQueue
+ */
+public class ExportTask {
+
+    /**
+     * 导出阶段
+     */
+    public enum Stage {
+        DECODE, EDIT, ENCODE, WRITE
+    }
+
+    /**
+     * 导出回调，所有方法都在主线程调用
+     */
+    public interface Callback {
+        void onProgress(Stage stage, int percent);
+
+        void onSuccess(String savedImagePath, ExportStats stats);
+
+        void onFailure(Exception e);
+
+        void onCancelled();
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ExportTask");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private static final String TAG = "ExportTask";
+    // 导出在单线程上串行执行，编码缓冲区可以在多次导出之间复用
+    private static final EncodeBuffer ENCODE_BUFFER = new EncodeBuffer(4 * 1024 * 1024);
+    // 默认水印文字，编辑页面的默认水印图层和批量水印共用
+    static final String WATERMARK_TEXT = "训练营";
+
+    private final ContentResolver contentResolver;
+    private final Uri sourceUri;
+    private final EditList edits;
+    private final ExportSettings settings;
+    private final boolean keepLocation;
+    private final ExportQueue.JobTracker tracker;
+    private final ExportStats stats = new ExportStats();
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private volatile Future<?> future;
+
+    /**
+     * @param edits    用户的编辑操作，包括水印在内的图层，导出时在全分辨率图片上重放
+     * @param settings 输出格式、质量和尺寸
+     */
+    public ExportTask(Context context, Uri sourceUri, EditList edits, ExportSettings settings) {
+        this(context, sourceUri, edits, settings, null);
+    }
+
+    /**
+     * @param tracker 导出队列中的任务，写入相册的条目和结果记录到磁盘日志，为null时不记录
+     */
+    ExportTask(Context context, Uri sourceUri, EditList edits, ExportSettings settings,
+               ExportQueue.JobTracker tracker) {
+        this.tracker = tracker;
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.sourceUri = sourceUri;
+        this.edits = edits;
+        this.settings = settings;
+        this.keepLocation = BitmapExportBackend.canKeepLocation(context);
+    }
+
+    /**
+     * 开始导出
+     */
+    public void start(Callback callback) {
+        future = EXECUTOR.submit(() -> run(callback));
+    }
+
+    /**
+     * 在导出线程上执行，与所有导出任务串行
+     */
+    static Future<?> submit(Runnable runnable) {
+        return EXECUTOR.submit(runnable);
+    }
+
+    /**
+     * 取消导出，已写入一半的相册条目会被删除；通过导出队列创建的保存同时移出队列，不会再在后台执行
+     */
+    public void cancel() {
+        cancelled.set(true);
+        // 排队中的任务取消后不会再执行，需要在这里把它移出导出队列
+        if (tracker != null) {
+            tracker.cancelled();
+        }
+        Future<?> pending = future;
+        if (pending != null) {
+            pending.cancel(true);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private void run(Callback callback) {
+        try {
+            String savedImagePath = execute(callback);
+            MainThread.post(() -> {
+                if (!cancelled.get()) {
+                    callback.onSuccess(savedImagePath, stats);
+                }
+            });
+        } catch (CancellationException e) {
+            MainThread.post(callback::onCancelled);
+        } catch (Exception e) {
+            MainThread.post(() -> callback.onFailure(e));
+        }
+    }
+
+    /**
+     * 在当前线程执行导出，用于后台队列，只能在导出线程上调用（见 submit）
+     *
+     * @return 写入相册的路径
+     * @throws CancellationException 导出被取消
+     */
+    String execute() throws Exception {
+        return execute(null);
+    }
+
+    private String execute(Callback callback) throws Exception {
+        PerfTracer.Trace trace = PerfTracer.get().begin("export");
+        try {
+            if (tracker != null) {
+                tracker.awaitJournaled();
+            }
+            publishProgress(callback, Stage.DECODE, 0);
+            BitmapExportBackend backend = new BitmapExportBackend(contentResolver, sourceUri, edits, settings,
+                    stats, this::checkCancelled, keepLocation);
+            String savedImagePath = export(callback, backend);
+            Log.i(TAG, settings.format + " " + stats);
+            trace.end();
+            if (tracker != null) {
+                tracker.completed();
+            }
+            return savedImagePath;
+        } catch (CancellationException e) {
+            trace.cancel();
+            throw e;
+        } catch (Exception | OutOfMemoryError e) {
+            if (cancelled.get()) {
+                trace.cancel();
+                throw new CancellationException();
+            }
+            trace.fail(e);
+            if (tracker != null) {
+                tracker.failed();
+            }
+            throw e instanceof Exception ? (Exception) e : new IOException("内存不足", e);
+        } finally {
+            ENCODE_BUFFER.release();
+        }
+    }
+
+    /**
+     * 按编辑内容和图片大小选择导出路径，返回写入相册的路径
+     */
+    private String export(Callback callback, BitmapExportBackend backend) throws IOException {
+        // 读取尺寸和EXIF，选择路径需要用到几何变换
+        backend.readSize();
+        DecodePolicy policy = MemoryPressure.currentPolicy();
+        LosslessTransform lossless = backend.losslessTransform();
+        if (lossless != null) {
+            // 只有几何操作时直接变换DCT系数；原图是渐进式等不支持的编码、数据损坏或内存不够时返回null，改走下面的路径
+            String savedImagePath = new LosslessExporter(contentResolver, sourceUri, stats, this::checkCancelled,
+                    tracker)
+                    .export(backend, lossless, policy.getBudget(), ENCODE_BUFFER);
+            if (savedImagePath != null) {
+                return savedImagePath;
+            }
+        }
+        if (StripExporter.shouldStream(backend, policy)) {
+            // 整张解码会被迫降低分辨率时改为条带流式导出，保持原始分辨率
+            StripExporter exporter = new StripExporter(contentResolver, sourceUri, edits, settings, stats,
+                    this::checkCancelled, tracker);
+            return exporter.export(backend, (rows, total) -> {
+                checkCancelled();
+                publishProgress(callback, Stage.ENCODE, (int) (100L * rows / total));
+            });
+        }
+        return exportBitmap(callback, backend, policy);
+    }
+
+    /**
+     * 整张解码后编辑、编码到缓冲区再写入相册
+     */
+    private String exportBitmap(Callback callback, BitmapExportBackend backend, DecodePolicy policy)
+            throws IOException {
+        // 直接从URI加载原始图片，有裁剪时只解码保留的区域；解码结果就是可变位图，编辑和水印原地绘制
+        // 内存不足时释放缓存、加倍采样率重新解码，低内存设备上也能保存完成
+        ExportRenderer<Bitmap> renderer = new ExportRenderer<>(policy);
+        Bitmap bitmapWithWatermark = renderer.render(backend,
+                () -> publishProgress(callback, Stage.EDIT, 40));
+        checkCancelled();
+
+        // 按导出设置编码到复用的缓冲区
+        publishProgress(callback, Stage.ENCODE, 50);
+        try {
+            ExportEncoder.encode(bitmapWithWatermark, settings, ENCODE_BUFFER, stats, this::checkCancelled);
+        } finally {
+            bitmapWithWatermark.recycle();
+        }
+        checkCancelled();
+
+        // 写入相册，每写入一块检查一次取消状态
+        publishProgress(callback, Stage.WRITE, 85);
+        long writeStart = System.nanoTime();
+        String savedImagePath = GalleryWriter.write(contentResolver, ENCODE_BUFFER.array(), ENCODE_BUFFER.size(),
+                settings.format, backend.exportExif(), (written, total) -> {
+                    checkCancelled();
+                    publishProgress(callback, Stage.WRITE, 85 + (int) (15L * written / total));
+                }, tracker);
+        stats.writeMillis = ExportStats.elapsedMillis(writeStart);
+        return savedImagePath;
+    }
+
+    private void checkCancelled() {
+        if (cancelled.get() || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+    }
+
+    private void publishProgress(Callback callback, Stage stage, int percent) {
+        if (callback == null) {
+            return;
+        }
+        MainThread.post(() -> {
+            if (!cancelled.get()) {
+                callback.onProgress(stage, percent);
+            }
+        });
+    }
+}
@@ -0,0 +1,198 @@
+package com.liang.imagecraft;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.GridView;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.activity.EdgeToEdge;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.graphics.Insets;
+import androidx.core.view.ViewCompat;
+import androidx.core.view.WindowInsetsCompat;
+
+import com.liang.imagecraft.perf.PerfTracer;
+
+/**
+ * 应用内相册
+ * 网格显示MediaStore中的全部图片，按页查询、缩略图按需加载并沿滚动方向预加载，滚出范围的请求被取消。
+ * 点击图片时把格子里的缩略图交给ImageLoader作为编辑页面的第一帧，同时开始解码预览图
+ */
+public class GalleryActivity extends AppCompatActivity {
+
+    // 缩略图加载完成前格子的底色
+    private static final int PLACEHOLDER_COLOR = 0xFF616161;
+
+    private GridView grid;
+    private TextView emptyText;
+    private MediaStorePager pager;
+    private GalleryThumbnailLoader thumbnails;
+    private final GalleryAdapter adapter = new GalleryAdapter();
+    private int columns;
+    private int cellSize;
+
+    // 最近一次计算预加载范围时的第一个可见位置和滚动方向
+    private int lastFirstVisible;
+    private int scrollDirection = 1;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        EdgeToEdge.enable(this);
+        setContentView(R.layout.activity_gallery);
+        ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.gallery_layout), (v, insets) -> {
+            Insets systemBars = insets.getInsets(WindowInsetsCompat.Type.systemBars());
+            v.setPadding(systemBars.left, systemBars.top, systemBars.right, systemBars.bottom);
+            return insets;
+        });
+
+        // 按屏幕宽度决定列数，格子大小与缩略图尺寸相当
+        int screenWidth = getResources().getDisplayMetrics().widthPixels;
+        columns = Math.max(3, screenWidth / GalleryThumbnailLoader.THUMBNAIL_SIZE);
+        cellSize = screenWidth / columns;
+
+        thumbnails = GalleryThumbnailLoader.get();
+        grid = findViewById(R.id.gallery_grid);
+        emptyText = findViewById(R.id.gallery_empty);
+        grid.setNumColumns(columns);
+        grid.setAdapter(adapter);
+        grid.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisible, int visibleCount, int totalCount) {
+                if (firstVisible != lastFirstVisible) {
+                    int direction = GalleryPrefetch.direction(lastFirstVisible, firstVisible);
+                    scrollDirection = direction != 0 ? direction : scrollDirection;
+                    lastFirstVisible = firstVisible;
+                    prefetch();
+                }
+            }
+        });
+        grid.setOnItemClickListener((parent, view, position, id) -> openImage(position));
+
+        pager = new MediaStorePager(getContentResolver(), new MediaStorePager.Listener() {
+            @Override
+            public void onCountLoaded(int count) {
+                emptyText.setVisibility(count == 0 ? View.VISIBLE : View.GONE);
+                adapter.notifyDataSetChanged();
+            }
+
+            @Override
+            public void onPageLoaded(int page) {
+                refreshVisible();
+                prefetch();
+            }
+        });
+        pager.open();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        pager.release();
+        thumbnails.cancelAll();
+    }
+
+    /**
+     * 为可见范围外、沿滚动方向的几行发起请求，并取消范围外的请求
+     */
+    private void prefetch() {
+        int first = grid.getFirstVisiblePosition();
+        int visibleCount = grid.getChildCount();
+        if (visibleCount == 0) {
+            return;
+        }
+        int[] window = GalleryPrefetch.window(first, visibleCount, pager.getCount(), columns, scrollDirection);
+        thumbnails.cancelOutside(window[0], window[1]);
+        for (int position = window[0]; position < window[1]; position++) {
+            MediaStorePager.Item item = pager.get(position);
+            if (item != null) {
+                thumbnails.request(position, item, this::onThumbnailLoaded);
+            }
+        }
+    }
+
+    private void onThumbnailLoaded(int position, long id, Bitmap bitmap) {
+        View child = grid.getChildAt(position - grid.getFirstVisiblePosition());
+        if (child != null && Integer.valueOf(position).equals(child.getTag())) {
+            ((ImageView) child).setImageBitmap(bitmap);
+        }
+    }
+
+    /**
+     * 页面读取完成后只重新绑定可见的格子，不重建整个网格
+     */
+    private void refreshVisible() {
+        int first = grid.getFirstVisiblePosition();
+        for (int i = 0; i < grid.getChildCount(); i++) {
+            bind((ImageView) grid.getChildAt(i), first + i);
+        }
+    }
+
+    private void bind(ImageView view, int position) {
+        view.setTag(position);
+        MediaStorePager.Item item = pager.get(position);
+        Bitmap bitmap = item != null ? thumbnails.getCached(item.id) : null;
+        view.setImageBitmap(bitmap);
+        if (item != null && bitmap == null) {
+            thumbnails.request(position, item, this::onThumbnailLoaded);
+        }
+    }
+
+    /**
+     * 打开编辑页面，屏幕上的缩略图直接作为第一帧
+     */
+    private void openImage(int position) {
+        MediaStorePager.Item item = pager.get(position);
+        if (item == null) {
+            return;
+        }
+        Intent intent = new Intent(this, EditImageActivity.class);
+        intent.putExtra("image_uri", item.uri.toString());
+        // 编辑页面据此统计首帧耗时
+        intent.putExtra("open_nanos", PerfTracer.get().now());
+        ImageLoader.get().prefetch(this, item.uri, thumbnails.getCached(item.id), item.width, item.height,
+                item.orientation);
+        startActivity(intent);
+    }
+
+    private class GalleryAdapter extends BaseAdapter {
+
+        @Override
+        public int getCount() {
+            return pager != null ? pager.getCount() : 0;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return pager.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            ImageView view = (ImageView) convertView;
+            if (view == null) {
+                view = new ImageView(GalleryActivity.this);
+                view.setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, cellSize));
+                view.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                view.setBackgroundColor(PLACEHOLDER_COLOR);
+            }
+            bind(view, position);
+            return view;
+        }
+    }
+}
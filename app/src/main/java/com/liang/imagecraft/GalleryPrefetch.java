@@ -0,0 +1,39 @@
+package com.liang.imagecraft;
+
+/**
+ * 相册网格的预加载范围
+ * 在可见范围之外，沿滚动方向多加载若干行，反方向只保留一行；不在范围内的请求被取消，
+ * 快速滑动时线程池只处理即将出现在屏幕上的缩略图
+ */
+final class GalleryPrefetch {
+
+    // 沿滚动方向预加载的行数
+    static final int AHEAD_ROWS = 4;
+    // 反方向保留的行数
+    static final int BEHIND_ROWS = 1;
+
+    private GalleryPrefetch() {
+    }
+
+    /**
+     * 滚动方向：1 向下，-1 向上，0 没有滚动
+     */
+    static int direction(int previousFirst, int first) {
+        return Integer.signum(first - previousFirst);
+    }
+
+    /**
+     * 需要加载的位置范围 {起始, 结束}，结束不包含
+     *
+     * @param direction 滚动方向，没有滚动时两个方向都预加载
+     */
+    static int[] window(int firstVisible, int visibleCount, int total, int columns, int direction) {
+        int ahead = AHEAD_ROWS * columns;
+        int behind = BEHIND_ROWS * columns;
+        int before = direction > 0 ? behind : ahead;
+        int after = direction < 0 ? behind : ahead;
+        int start = Math.max(0, firstVisible - before);
+        int end = Math.min(total, firstVisible + visibleCount + after);
+        return new int[]{start, Math.max(start, end)};
+    }
+}
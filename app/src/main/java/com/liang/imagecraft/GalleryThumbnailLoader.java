@@ -0,0 +1,281 @@
+package com.liang.imagecraft;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.provider.MediaStore;
+import android.util.LruCache;
+import android.util.Size;
+
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 相册网格的缩略图加载器
+ * 内存和磁盘两级缓存，未命中时在固定大小的线程池中通过ContentResolver.loadThumbnail读取系统缩略图。
+ * 每个请求都可以取消，网格滚出预加载范围的请求在开始前直接丢弃，已经开始的通过CancellationSignal中止。
+ * 缓存是进程级的，关闭相册再打开时已经看过的缩略图立即显示。
+ * 除后台加载外所有方法都只在主线程调用
+ */
+public final class GalleryThumbnailLoader {
+
+    /**
+     * 缩略图加载完成回调，在主线程调用
+     */
+    interface Callback {
+        void onThumbnailLoaded(int position, long id, Bitmap bitmap);
+    }
+
+    // 缩略图边长，与4列网格在1080p屏幕上的格子大小相当
+    static final int THUMBNAIL_SIZE = 256;
+    private static final int MAX_MEMORY_BYTES = 24 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 48L * 1024 * 1024;
+    private static final String DISK_DIR_NAME = "gallery_thumbnails";
+    private static final int THREADS = 3;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "GalleryThumbnail");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private static GalleryThumbnailLoader instance;
+
+    private final ContentResolver contentResolver;
+    private final LruCache<Long, Bitmap> memoryCache;
+    private final File diskDir;
+    // 磁盘缓存解码的像素格式，缩略图只用于显示，允许时使用HARDWARE
+    private final Bitmap.Config displayConfig;
+    private final Object diskLock = new Object();
+    // 磁盘缓存的总字节数，第一次写入时统计，-1 表示尚未统计
+    private long diskBytes = -1L;
+    // 进行中的请求，按图片ID索引
+    private final Map<Long, Request> requests = new HashMap<>();
+
+    /**
+     * 一次缩略图请求
+     */
+    private static final class Request {
+        final int position;
+        final CancellationSignal signal = new CancellationSignal();
+        Future<?> future;
+
+        Request(int position) {
+            this.position = position;
+        }
+    }
+
+    private GalleryThumbnailLoader(Context context) {
+        contentResolver = context.getContentResolver();
+        int cacheBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        diskDir = new File(context.getCacheDir(), DISK_DIR_NAME);
+        DecodePolicy.Step step = MemoryPressure.currentPolicy()
+                .ladder(THUMBNAIL_SIZE, THUMBNAIL_SIZE, 1, 1, false, DecodePolicy.Purpose.DISPLAY).get(0);
+        displayConfig = MemoryPressure.toBitmapConfig(step.config);
+    }
+
+    /**
+     * 在Application中初始化
+     */
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new GalleryThumbnailLoader(context.getApplicationContext());
+        }
+    }
+
+    public static synchronized GalleryThumbnailLoader get() {
+        return instance;
+    }
+
+    Bitmap getCached(long id) {
+        return memoryCache.get(id);
+    }
+
+    /**
+     * 请求缩略图，已缓存或正在加载时什么也不做
+     */
+    void request(int position, MediaStorePager.Item item, Callback callback) {
+        if (memoryCache.get(item.id) != null || requests.containsKey(item.id)) {
+            return;
+        }
+        Request request = new Request(position);
+        requests.put(item.id, request);
+        request.future = EXECUTOR.submit(() -> {
+            Bitmap bitmap = request.signal.isCanceled() ? null : load(item, request.signal);
+            MainThread.post(() -> {
+                if (requests.get(item.id) == request) {
+                    requests.remove(item.id);
+                }
+                if (bitmap != null) {
+                    memoryCache.put(item.id, bitmap);
+                    if (!request.signal.isCanceled()) {
+                        callback.onThumbnailLoaded(request.position, item.id, bitmap);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * 取消位置不在 [start, end) 内的请求
+     */
+    void cancelOutside(int start, int end) {
+        Iterator<Request> iterator = requests.values().iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (request.position < start || request.position >= end) {
+                cancel(request);
+                iterator.remove();
+            }
+        }
+    }
+
+    void cancelAll() {
+        for (Request request : requests.values()) {
+            cancel(request);
+        }
+        requests.clear();
+    }
+
+    private static void cancel(Request request) {
+        request.signal.cancel();
+        if (request.future != null) {
+            request.future.cancel(false);
+        }
+    }
+
+    private Bitmap load(MediaStorePager.Item item, CancellationSignal signal) {
+        File file = new File(diskDir, item.id + "_" + item.modified + ".jpg");
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = displayConfig;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        try (PerfTracer.Section ignored = PerfTracer.get().section("gallery_thumbnail")) {
+            bitmap = loadSystemThumbnail(item, signal);
+        } catch (IOException | OperationCanceledException | IllegalArgumentException e) {
+            // 图片已被删除、格式不支持或请求已取消时保持占位
+            return null;
+        }
+        if (bitmap != null) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+            writeToDisk(file, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 读取系统缩略图，结果已经按EXIF方向摆正
+     */
+    @SuppressWarnings("deprecation")
+    private Bitmap loadSystemThumbnail(MediaStorePager.Item item, CancellationSignal signal) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return contentResolver.loadThumbnail(item.uri, new Size(THUMBNAIL_SIZE, THUMBNAIL_SIZE), signal);
+        }
+        Bitmap bitmap = MediaStore.Images.Thumbnails.getThumbnail(contentResolver, item.id,
+                MediaStore.Images.Thumbnails.MINI_KIND, null);
+        if (bitmap == null || item.orientation.isIdentity()) {
+            return bitmap;
+        }
+        // Android 9的系统缩略图没有摆正
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                EditRenderer.toMatrix(item.orientation.toAffine(bitmap.getWidth(), bitmap.getHeight())), true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    private void writeToDisk(File file, Bitmap bitmap) {
+        synchronized (diskLock) {
+            if (!diskDir.exists() && !diskDir.mkdirs()) {
+                return;
+            }
+            File tempFile = new File(diskDir, file.getName() + ".tmp");
+            try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 80, outputStream);
+            } catch (IOException e) {
+                tempFile.delete();
+                return;
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+            if (diskBytes < 0) {
+                diskBytes = totalBytes(diskDir.listFiles());
+            } else {
+                diskBytes += file.length();
+            }
+            if (diskBytes > MAX_DISK_BYTES) {
+                trimDiskCache();
+            }
+        }
+    }
+
+    /**
+     * 按修改时间从旧到新删除，删到上限的3/4，避免每次写入都要遍历目录
+     */
+    private void trimDiskCache() {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        diskBytes = totalBytes(files);
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes <= MAX_DISK_BYTES * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private static long totalBytes(File[] files) {
+        long total = 0L;
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 响应系统内存压力：后台时清空内存缓存，前台内存紧张时减半
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+}
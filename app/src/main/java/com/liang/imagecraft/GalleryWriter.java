@@ -0,0 +1,341 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.provider.MediaStore;
+
+import com.liang.imagecraft.jpeg.ExifSegment;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 把编码好的图片数据写入系统相册的 Pictures/ImageCraft 目录
+ * JPEG可以附带原图的EXIF段，写入时替换编码器生成的文件头，不需要再复制一遍编码结果。
+ * Android 10及以上先以 IS_PENDING 插入条目，写完再发布，其他应用看不到写了一半的图片
+ */
+final class GalleryWriter {
+
+    /**
+     * 写入进度回调，在写入线程调用，可以抛出CancellationException中止写入
+     */
+    interface ProgressListener {
+        void onWritten(int written, int total);
+    }
+
+    /**
+     * 把图片数据写入相册条目的输出流，抛出异常时不完整的条目会被删除
+     */
+    interface ContentWriter {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * 跟踪写入中的相册条目，用于进程被杀后清理和按内容去重，在写入线程调用
+     */
+    interface EntryTracker {
+        /**
+         * 条目已创建、还未写完，应当记录下来，下次执行前据此删除
+         */
+        void onPending(String entry) throws IOException;
+
+        /**
+         * 内容SHA-256相同的已发布条目，没有时返回null
+         */
+        String findDuplicate(String sha256);
+
+        /**
+         * 条目写完并已发布
+         */
+        void onPublished(String sha256, String entry) throws IOException;
+    }
+
+    private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
+    private GalleryWriter() {
+    }
+
+    /**
+     * 写入相册，失败或被取消时删除不完整的条目
+     *
+     * @param exif 要写入的EXIF段，只用于JPEG，为null时按编码结果原样写入
+     * @return Android 10及以上返回内容URI，更早的版本返回文件路径
+     */
+    static String write(ContentResolver contentResolver, byte[] data, int length, ExportSettings.Format format,
+                        ExifSegment exif, ProgressListener listener) throws IOException {
+        return write(contentResolver, data, length, format, exif, listener, null);
+    }
+
+    /**
+     * 同上，tracker 不为null时记录写入中的条目，内容与已发布的条目相同时删除新条目并返回已有的条目
+     */
+    static String write(ContentResolver contentResolver, byte[] data, int length, ExportSettings.Format format,
+                        ExifSegment exif, ProgressListener listener, EntryTracker tracker) throws IOException {
+        ExifSegment segment = format == ExportSettings.Format.JPEG ? exif : null;
+        return write(contentResolver, format,
+                outputStream -> writeInChunks(data, length, segment, outputStream, listener), tracker);
+    }
+
+    /**
+     * 边生成边写入相册，用于不在内存中保留完整编码结果的条带导出；失败或被取消时删除不完整的条目
+     *
+     * @return Android 10及以上返回内容URI，更早的版本返回文件路径
+     */
+    static String write(ContentResolver contentResolver, ExportSettings.Format format, ContentWriter writer)
+            throws IOException {
+        return write(contentResolver, format, writer, null);
+    }
+
+    /**
+     * 同上，tracker 不为null时记录写入中的条目，内容与已发布的条目相同时删除新条目并返回已有的条目
+     */
+    static String write(ContentResolver contentResolver, ExportSettings.Format format, ContentWriter writer,
+                        EntryTracker tracker) throws IOException {
+        String mimeType = format.mimeType;
+        String extension = "." + format.extension;
+
+        // 创建文件名
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        String imageFileName = (format == ExportSettings.Format.JPEG ? "JPEG_" : "IMG_") + timeStamp + "_";
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // Android 10及以上使用MediaStore，重名时由MediaStore自动编号
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(MediaStore.Images.Media.DISPLAY_NAME, imageFileName + extension);
+            contentValues.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+            contentValues.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + File.separator + "ImageCraft");
+            contentValues.put(MediaStore.Images.Media.IS_PENDING, 1);
+
+            // 插入图片到MediaStore
+            Uri imageUri;
+            try (PerfTracer.Section ignored = PerfTracer.get().section("mediastore_insert")) {
+                imageUri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
+            }
+            if (imageUri == null) {
+                throw new IOException("无法创建相册条目");
+            }
+            String entry = imageUri.toString();
+            String sha256;
+            try {
+                if (tracker != null) {
+                    tracker.onPending(entry);
+                }
+                try (OutputStream outputStream = contentResolver.openOutputStream(imageUri)) {
+                    if (outputStream == null) {
+                        throw new IOException("无法打开输出流");
+                    }
+                    sha256 = writeHashed(outputStream, writer, tracker != null);
+                }
+                String duplicate = findDuplicate(contentResolver, tracker, sha256);
+                if (duplicate != null) {
+                    contentResolver.delete(imageUri, null, null);
+                    return duplicate;
+                }
+                // 写完后一次发布，其他应用只会看到完整的图片
+                ContentValues published = new ContentValues();
+                published.put(MediaStore.Images.Media.IS_PENDING, 0);
+                contentResolver.update(imageUri, published, null, null);
+            } catch (IOException | RuntimeException e) {
+                // 写入失败或被取消时删除不完整的条目
+                contentResolver.delete(imageUri, null, null);
+                throw e;
+            }
+            if (tracker != null) {
+                tracker.onPublished(sha256, entry);
+            }
+            return entry;
+        } else {
+            // Android 9及以下使用传统方法
+            File imagesDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "ImageCraft");
+            if (!imagesDir.exists()) {
+                imagesDir.mkdirs();
+            }
+
+            File imageFile = uniqueFile(imagesDir, imageFileName, extension);
+            String entry = imageFile.getAbsolutePath();
+            String sha256;
+            try {
+                if (tracker != null) {
+                    tracker.onPending(entry);
+                }
+                try (OutputStream outputStream = new FileOutputStream(imageFile)) {
+                    sha256 = writeHashed(outputStream, writer, tracker != null);
+                }
+                String duplicate = findDuplicate(contentResolver, tracker, sha256);
+                if (duplicate != null) {
+                    imageFile.delete();
+                    return duplicate;
+                }
+            } catch (IOException | RuntimeException e) {
+                imageFile.delete();
+                throw e;
+            }
+
+            // 添加到MediaStore
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(MediaStore.Images.Media.DATA, imageFile.getAbsolutePath());
+            contentValues.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+            try (PerfTracer.Section ignored = PerfTracer.get().section("mediastore_insert")) {
+                contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
+            }
+            if (tracker != null) {
+                tracker.onPublished(sha256, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * 删除 write 返回的相册条目，用于清理上次执行留下的未完成条目
+     */
+    static void deleteEntry(ContentResolver contentResolver, String entry) {
+        if (entry.startsWith(ContentResolver.SCHEME_CONTENT)) {
+            contentResolver.delete(Uri.parse(entry), null, null);
+        } else {
+            new File(entry).delete();
+        }
+    }
+
+    /**
+     * write 登记的条目是否确定还没有发布：Android 10及以上看 IS_PENDING 是否仍为1，
+     * 更早的版本看文件是否还没有登记到MediaStore（写完并去重之后才登记）。
+     * 条目不存在或查询失败时返回false，调用方不能据此删除条目
+     */
+    static boolean isPending(ContentResolver contentResolver, String entry) {
+        try {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || !entry.startsWith(ContentResolver.SCHEME_CONTENT)) {
+                if (!new File(entry).exists()) {
+                    return false;
+                }
+                try (Cursor cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                        new String[]{MediaStore.Images.Media._ID}, MediaStore.Images.Media.DATA + "=?",
+                        new String[]{entry}, null)) {
+                    return cursor != null && !cursor.moveToFirst();
+                }
+            }
+            Uri uri = Uri.parse(entry);
+            String[] projection = {MediaStore.Images.Media.IS_PENDING};
+            Cursor cursor;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                Bundle args = new Bundle();
+                args.putInt(MediaStore.QUERY_ARG_MATCH_PENDING, MediaStore.MATCH_INCLUDE);
+                cursor = contentResolver.query(uri, projection, args, null);
+            } else {
+                cursor = contentResolver.query(MediaStore.setIncludePending(uri), projection, null, null, null);
+            }
+            try (Cursor pending = cursor) {
+                return pending != null && pending.moveToFirst() && pending.getInt(0) == 1;
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * write 返回的相册条目是否还存在，用户可能已经在相册里删除了它
+     */
+    static boolean exists(ContentResolver contentResolver, String entry) {
+        if (!entry.startsWith(ContentResolver.SCHEME_CONTENT)) {
+            return new File(entry).exists();
+        }
+        try (Cursor cursor = contentResolver.query(Uri.parse(entry),
+                new String[]{MediaStore.Images.Media._ID}, null, null, null)) {
+            return cursor != null && cursor.moveToFirst();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 写入数据，需要时同时计算内容的SHA-256
+     *
+     * @return 十六进制摘要，不需要时返回null
+     */
+    private static String writeHashed(OutputStream outputStream, ContentWriter writer, boolean hash)
+            throws IOException {
+        if (!hash) {
+            writer.writeTo(outputStream);
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        DigestOutputStream digestStream = new DigestOutputStream(outputStream, digest);
+        writer.writeTo(digestStream);
+        digestStream.flush();
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 内容相同且仍然存在的已发布条目
+     */
+    private static String findDuplicate(ContentResolver contentResolver, EntryTracker tracker, String sha256) {
+        if (tracker == null) {
+            return null;
+        }
+        String duplicate = tracker.findDuplicate(sha256);
+        return duplicate != null && exists(contentResolver, duplicate) ? duplicate : null;
+    }
+
+    /**
+     * 同一秒内保存多张图片（批量导出）时在文件名后追加序号
+     */
+    private static synchronized File uniqueFile(File dir, String name, String extension) throws IOException {
+        File file = new File(dir, name + extension);
+        for (int index = 1; !file.createNewFile(); index++) {
+            file = new File(dir, name + index + extension);
+        }
+        return file;
+    }
+
+    /**
+     * 分块写入数据，每块之后回调进度
+     * 有EXIF段时先写SOI和EXIF段，再从编码器生成的JFIF/EXIF头之后继续写
+     */
+    private static void writeInChunks(byte[] data, int length, ExifSegment exif, OutputStream outputStream,
+                                      ProgressListener listener) throws IOException {
+        try (PerfTracer.Section ignored = PerfTracer.get().section("write")) {
+            int start = 0;
+            int imageData = exif != null ? ExifSegment.imageDataOffset(data, length) : -1;
+            if (imageData > 0) {
+                outputStream.write(data, 0, 2);
+                exif.writeTo(outputStream);
+                start = imageData;
+            }
+            writeChunks(data, start, length, outputStream, listener);
+        }
+    }
+
+    private static void writeChunks(byte[] data, int start, int length, OutputStream outputStream,
+                                    ProgressListener listener) throws IOException {
+        int offset = start;
+        while (offset < length) {
+            int chunk = Math.min(WRITE_CHUNK_SIZE, length - offset);
+            outputStream.write(data, offset, chunk);
+            offset += chunk;
+            listener.onWritten(offset - start, length - start);
+        }
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,40 @@
+package com.liang.imagecraft;
+
+import android.app.Application;
+import android.os.Debug;
+
+import com.liang.imagecraft.perf.PerfTracer;
+
+/**
+ * 应用入口，负责初始化进程级的缓存和性能埋点，并响应系统内存回收
+ */
+public class ImageCraftApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // 其他缓存初始化时要读取解码策略
+        MemoryPressure.init(this);
+        PreviewCache.init(this);
+        LayerRasterizer.init(this);
+        GalleryThumbnailLoader.init(this);
+        ExportQueue.init(this);
+        // 位图像素分配在native堆中，峰值内存需要同时统计Java堆和native堆
+        PerfTracer.get().setHeapProbe(() -> {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+        });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryPressure.get().trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryPressure.get().trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+}
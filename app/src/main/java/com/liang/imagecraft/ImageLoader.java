@@ -0,0 +1,220 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.DisplayMetrics;
+
+import com.liang.imagecraft.edit.Orientation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * 进程内共享的预览图加载器
+ * 同一URI的请求合并为一次解码：主页面拿到图片后立即开始解码，编辑页面创建后直接挂到进行中的解码上，
+ * Activity切换的时间与解码重叠。解码完成后结果进入PreviewCache，之后的请求由内存缓存直接返回。
+ * 所有方法都只在主线程调用
+ */
+public final class ImageLoader {
+
+    /**
+     * 发起一次解码，结果通过回调返回
+     */
+    interface Decoder {
+        Future<?> start(PreviewDecoder.Callback callback);
+    }
+
+    /**
+     * 一个订阅者对加载结果的订阅
+     */
+    public interface Subscription {
+        /**
+         * 不再接收结果；最后一个订阅者取消时中止解码
+         */
+        void cancel();
+    }
+
+    private static final ImageLoader INSTANCE = new ImageLoader();
+
+    // 进行中的解码，按URI索引
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    ImageLoader() {
+    }
+
+    public static ImageLoader get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 按屏幕尺寸预先开始解码，不关心结果；同一URI已在加载时什么也不做
+     */
+    public void prefetch(Context context, Uri uri) {
+        ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int width = metrics.widthPixels;
+        int height = metrics.heightPixels;
+        prefetch(uri.toString(), callback -> PreviewDecoder.decodeAsync(resolver, uri, width, height, callback));
+    }
+
+    /**
+     * 预先开始解码，并把界面上已经显示的缩略图作为占位图，编辑页面挂上来后第一帧就能显示；
+     * 之后解码过程中读到的缩略图不再替换它
+     *
+     * @param thumbnail    已经摆正的缩略图
+     * @param sourceWidth  原图宽度，未按方向摆正
+     * @param sourceHeight 原图高度，未按方向摆正
+     * @param orientation  原图的方向
+     */
+    public void prefetch(Context context, Uri uri, Bitmap thumbnail, int sourceWidth, int sourceHeight,
+                         Orientation orientation) {
+        prefetch(context, uri);
+        if (thumbnail == null || sourceWidth <= 0 || sourceHeight <= 0) {
+            return;
+        }
+        // MediaStore记录的尺寸与摆正后的缩略图横竖不一致时，预计尺寸不可靠，只预先解码
+        int[] orientedSource = orientation.orientedSize(sourceWidth, sourceHeight);
+        if ((orientedSource[0] > orientedSource[1]) != (thumbnail.getWidth() > thumbnail.getHeight())
+                && orientedSource[0] != orientedSource[1]) {
+            return;
+        }
+        // 与PreviewDecoder一样按摆正后的方向比较视口，得到预览图摆正后的预计尺寸
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        boolean swap = orientation.swapsDimensions();
+        int[] size = PreviewDecoder.previewSize(sourceWidth, sourceHeight,
+                swap ? metrics.heightPixels : metrics.widthPixels, swap ? metrics.widthPixels : metrics.heightPixels);
+        int[] oriented = orientation.orientedSize(size[0], size[1]);
+        seedThumbnail(uri.toString(), thumbnail, oriented[0], oriented[1]);
+    }
+
+    /**
+     * 给进行中的解码提供占位缩略图，已经有缩略图时忽略
+     */
+    void seedThumbnail(String key, Bitmap thumbnail, int width, int height) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.hasThumbnail) {
+            entry.onThumbnail(thumbnail, Orientation.NORMAL, width, height);
+            entry.seeded = true;
+        }
+    }
+
+    /**
+     * 加载预览图，同一URI已在解码时直接复用，已经到达的缩略图会立即补发
+     */
+    public Subscription load(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight,
+                             PreviewDecoder.Callback callback) {
+        return load(uri.toString(),
+                decoderCallback -> PreviewDecoder.decodeAsync(resolver, uri, reqWidth, reqHeight, decoderCallback),
+                callback);
+    }
+
+    void prefetch(String key, Decoder decoder) {
+        if (!entries.containsKey(key)) {
+            start(key, decoder);
+        }
+    }
+
+    Subscription load(String key, Decoder decoder, PreviewDecoder.Callback callback) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = start(key, decoder);
+        } else if (entry.hasThumbnail) {
+            callback.onThumbnail(entry.thumbnail, entry.thumbnailOrientation, entry.thumbnailWidth,
+                    entry.thumbnailHeight);
+        }
+        entry.callbacks.add(callback);
+        Entry subscribed = entry;
+        return () -> subscribed.unsubscribe(callback);
+    }
+
+    /**
+     * 正在解码的URI数量
+     */
+    int inFlightCount() {
+        return entries.size();
+    }
+
+    private Entry start(String key, Decoder decoder) {
+        Entry entry = new Entry(key);
+        entries.put(key, entry);
+        entry.task = decoder.start(entry);
+        return entry;
+    }
+
+    /**
+     * 一次解码及其全部订阅者
+     */
+    private final class Entry implements PreviewDecoder.Callback {
+        final String key;
+        final List<PreviewDecoder.Callback> callbacks = new ArrayList<>(2);
+        Future<?> task;
+        // 已到达的缩略图，补发给之后挂上的订阅者
+        boolean hasThumbnail;
+        // 缩略图由界面提供，不再被解码过程中读到的缩略图替换
+        boolean seeded;
+        Bitmap thumbnail;
+        Orientation thumbnailOrientation;
+        int thumbnailWidth;
+        int thumbnailHeight;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        void unsubscribe(PreviewDecoder.Callback callback) {
+            if (!callbacks.remove(callback) || !callbacks.isEmpty()) {
+                return;
+            }
+            if (entries.get(key) == this) {
+                entries.remove(key);
+            }
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+
+        @Override
+        public void onThumbnail(Bitmap bitmap, Orientation orientation, int width, int height) {
+            if (seeded) {
+                return;
+            }
+            hasThumbnail = true;
+            thumbnail = bitmap;
+            thumbnailOrientation = orientation;
+            thumbnailWidth = width;
+            thumbnailHeight = height;
+            for (PreviewDecoder.Callback callback : new ArrayList<>(callbacks)) {
+                callback.onThumbnail(bitmap, orientation, width, height);
+            }
+        }
+
+        @Override
+        public void onDecoded(Bitmap bitmap, Orientation orientation) {
+            finish();
+            for (PreviewDecoder.Callback callback : new ArrayList<>(callbacks)) {
+                callback.onDecoded(bitmap, orientation);
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            finish();
+            for (PreviewDecoder.Callback callback : new ArrayList<>(callbacks)) {
+                callback.onError(e);
+            }
+        }
+
+        private void finish() {
+            if (entries.get(key) == this) {
+                entries.remove(key);
+            }
+            hasThumbnail = false;
+            thumbnail = null;
+        }
+    }
+}
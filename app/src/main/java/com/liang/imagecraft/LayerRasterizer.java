@@ -0,0 +1,244 @@
+package com.liang.imagecraft;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.liang.imagecraft.edit.Layer;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 图层栅格化
+ * 每种样式（内容和颜色）按2的幂次的像素尺寸档位栅格化一次并缓存，拖动、旋转和档位内的缩放只改变绘制变换。
+ * 预览和导出共用同一套绘制代码，导出时按输出分辨率选择档位，结果与屏幕上看到的一致
+ */
+public final class LayerRasterizer {
+
+    /**
+     * 栅格化结果
+     */
+    public static final class Raster {
+        public final Bitmap bitmap;
+        // 栅格图中文字字号或贴图长边的像素数，即 Layer.size 对应的像素数
+        public final int size;
+
+        Raster(Bitmap bitmap, int size) {
+            this.bitmap = bitmap;
+            this.size = size;
+        }
+    }
+
+    private static final int MIN_BUCKET = 16;
+    private static final int MAX_BUCKET = 2048;
+    private static final int MAX_CACHE_BYTES = 16 * 1024 * 1024;
+    // 平铺水印在两个方向上的间距，以栅格图宽高为单位
+    private static final int PATTERN_STEP_X = 2;
+    private static final int PATTERN_STEP_Y = 3;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LayerRasterizer");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private static LayerRasterizer instance;
+
+    private final ContentResolver contentResolver;
+    private final LruCache<String, Raster> cache;
+    // 正在后台栅格化的键，只在主线程访问
+    private final Set<String> pending = new HashSet<>();
+
+    private LayerRasterizer(Context context) {
+        contentResolver = context.getContentResolver();
+        cache = new LruCache<String, Raster>(MAX_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Raster value) {
+                return value.bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * 在Application中初始化
+     */
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new LayerRasterizer(context.getApplicationContext());
+        }
+    }
+
+    public static synchronized LayerRasterizer get() {
+        return instance;
+    }
+
+    /**
+     * 不小于目标像素数的2的幂次档位
+     */
+    static int bucketFor(float pixelSize) {
+        int bucket = MIN_BUCKET;
+        while (bucket < pixelSize && bucket < MAX_BUCKET) {
+            bucket <<= 1;
+        }
+        return bucket;
+    }
+
+    /**
+     * 预览用：已缓存时直接返回；文字在当前线程栅格化，贴图在后台解码，完成后在主线程调用 onReady，期间返回null
+     *
+     * @param pixelSize 图层在屏幕上的字号或长边像素数
+     */
+    public Raster getOrRequest(Layer layer, float pixelSize, Runnable onReady) {
+        int bucket = bucketFor(pixelSize);
+        String key = layer.styleKey() + "@" + bucket;
+        Raster raster = cache.get(key);
+        if (raster != null || pending.contains(key)) {
+            return raster;
+        }
+        if (layer.kind != Layer.Kind.STICKER) {
+            return rasterize(layer, bucket, key);
+        }
+        pending.add(key);
+        EXECUTOR.execute(() -> {
+            rasterize(layer, bucket, key);
+            MainThread.post(() -> {
+                pending.remove(key);
+                onReady.run();
+            });
+        });
+        return null;
+    }
+
+    /**
+     * 导出用：在当前线程完成栅格化，贴图无法读取时返回null
+     */
+    public Raster rasterizeNow(Layer layer, float pixelSize) {
+        int bucket = bucketFor(pixelSize);
+        String key = layer.styleKey() + "@" + bucket;
+        Raster raster = cache.get(key);
+        return raster != null ? raster : rasterize(layer, bucket, key);
+    }
+
+    /**
+     * 响应系统内存回收，图层栅格图随时可以重新生成
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.evictAll();
+        }
+    }
+
+    private Raster rasterize(Layer layer, int bucket, String key) {
+        Raster raster;
+        try (PerfTracer.Section ignored = PerfTracer.get().section("layer_raster")) {
+            raster = layer.kind == Layer.Kind.STICKER ? decodeSticker(layer, bucket) : renderText(layer, bucket);
+        }
+        if (raster != null) {
+            cache.put(key, raster);
+        }
+        return raster;
+    }
+
+    private static Raster renderText(Layer layer, int textSize) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(0xFF000000 | layer.color);
+        paint.setTextSize(textSize);
+        paint.setTypeface(Typeface.DEFAULT_BOLD);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        int width = Math.max(1, (int) Math.ceil(paint.measureText(layer.content)));
+        int height = Math.max(1, (int) Math.ceil(metrics.descent - metrics.ascent));
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawText(layer.content, 0f, -metrics.ascent, paint);
+        return new Raster(bitmap, textSize);
+    }
+
+    private Raster decodeSticker(Layer layer, int longEdge) {
+        Uri uri = Uri.parse(layer.content);
+        try {
+            BitmapFactory.Options options = PreviewDecoder.decodeBounds(contentResolver, uri);
+            int sourceLongEdge = Math.max(options.outWidth, options.outHeight);
+            if (sourceLongEdge <= 0) {
+                return null;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (sourceLongEdge / (options.inSampleSize * 2) >= longEdge) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap bitmap;
+            try (InputStream inputStream = contentResolver.openInputStream(uri)) {
+                if (inputStream == null) {
+                    return null;
+                }
+                bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            }
+            if (bitmap == null) {
+                return null;
+            }
+            // 长边缩放到档位大小，绘制时的缩放比例与文字一致
+            float scale = (float) longEdge / Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (scale < 1f) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaled;
+                }
+            }
+            return new Raster(bitmap, Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        } catch (IOException | RuntimeException e) {
+            // 贴图已被删除或没有读取权限：预览时不显示该图层，导出时失败
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 把图层绘制到输出坐标系的画布上，输出尺寸为 outputWidth × outputHeight
+     */
+    public static void draw(Canvas canvas, Layer layer, float outputWidth, float outputHeight, Raster raster,
+                            Paint paint) {
+        Bitmap bitmap = raster.bitmap;
+        float scale = layer.drawScale(outputWidth, outputHeight, raster.size);
+        paint.setAlpha(layer.opacity);
+        canvas.save();
+        if (layer.kind == Layer.Kind.PATTERN) {
+            // 以图片中心为原点整体旋转，平铺范围取对角线的一半，保证旋转后仍覆盖整张图片
+            canvas.clipRect(0f, 0f, outputWidth, outputHeight);
+            canvas.translate(outputWidth / 2f, outputHeight / 2f);
+            canvas.rotate(layer.rotation);
+            canvas.scale(scale, scale);
+            float extent = (float) Math.hypot(outputWidth, outputHeight) / 2f / scale;
+            float stepX = bitmap.getWidth() * PATTERN_STEP_X;
+            float stepY = bitmap.getHeight() * PATTERN_STEP_Y;
+            int row = 0;
+            for (float y = -extent; y < extent; y += stepY, row++) {
+                // 隔行错开半个间距
+                float offset = (row % 2) * stepX / 2f;
+                for (float x = -extent - offset; x < extent; x += stepX) {
+                    canvas.drawBitmap(bitmap, x, y, paint);
+                }
+            }
+        } else {
+            canvas.translate(layer.centerX * outputWidth, layer.centerY * outputHeight);
+            canvas.rotate(layer.rotation);
+            canvas.scale(scale, scale);
+            canvas.drawBitmap(bitmap, -bitmap.getWidth() / 2f, -bitmap.getHeight() / 2f, paint);
+        }
+        canvas.restore();
+    }
+}
@@ -0,0 +1,124 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.liang.imagecraft.jpeg.ExifSegment;
+import com.liang.imagecraft.jpeg.JpegCoefficients;
+import com.liang.imagecraft.jpeg.LosslessTransform;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 无损JPEG导出
+ * 编辑只有裁剪、直角旋转和翻转时，直接在原图的DCT系数上完成变换再写回，不解码像素也不重新压缩：
+ * 画质与原图相同，耗时只有读取系数和熵编码。原图的量化表、ICC等APPn段原样保留，EXIF按导出尺寸改写
+ */
+final class LosslessExporter {
+
+    // 原图读入内存后，系数在变换前后各有一份，按4:2:0采样每像素共约6字节
+    private static final int COEFFICIENT_BYTES_PER_PIXEL = 6;
+
+    private final ContentResolver contentResolver;
+    private final Uri sourceUri;
+    private final ExportStats stats;
+    private final EditRenderer.Checkpoint checkpoint;
+    private final GalleryWriter.EntryTracker tracker;
+
+    LosslessExporter(ContentResolver contentResolver, Uri sourceUri, ExportStats stats,
+                     EditRenderer.Checkpoint checkpoint, GalleryWriter.EntryTracker tracker) {
+        this.contentResolver = contentResolver;
+        this.sourceUri = sourceUri;
+        this.stats = stats;
+        this.checkpoint = checkpoint;
+        this.tracker = tracker;
+    }
+
+    /**
+     * 系数放得进内存预算时尝试无损导出
+     *
+     * @param buffer 用于读入原图的缓冲区
+     * @return 与 GalleryWriter.write 相同；原图是渐进式等不支持的编码、数据截断或损坏，或内存不够时返回null，
+     * 此时还没有写入相册，由调用方换用像素路径导出
+     */
+    String export(BitmapExportBackend backend, LosslessTransform transform, MemoryBudget budget,
+                  EncodeBuffer buffer) throws IOException {
+        // 整张原图的系数都要读入，与裁剪范围无关
+        int[] size = backend.sourceSize();
+        if ((long) size[0] * size[1] * COEFFICIENT_BYTES_PER_PIXEL > budget.availableBytes()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long decodeMillis;
+        JpegCoefficients result;
+        try (PerfTracer.Section ignored = PerfTracer.get().section("decode")) {
+            readSource(buffer);
+            checkpoint.check();
+            JpegCoefficients source;
+            try {
+                source = JpegCoefficients.read(buffer.array(), buffer.size());
+            } catch (IOException | RuntimeException e) {
+                // 截断或损坏的JPEG在熵编码层面读不下去，像素解码器通常还能解出大部分内容
+                return null;
+            } finally {
+                buffer.release();
+            }
+            if (source == null) {
+                return null;
+            }
+            decodeMillis = ExportStats.elapsedMillis(start);
+
+            start = System.nanoTime();
+            try {
+                result = transform.apply(source);
+            } catch (RuntimeException e) {
+                // 系数里有超出范围的数据时同样换用像素路径
+                return null;
+            }
+            if (result == null) {
+                return null;
+            }
+        }
+        // 返回null时换用其他路径导出，统计只在确定无损导出后写入
+        stats.decodeMillis = decodeMillis;
+        stats.editMillis = ExportStats.elapsedMillis(start);
+        checkpoint.check();
+
+        stats.width = result.getWidth();
+        stats.height = result.getHeight();
+        // 沿用原图的量化表，没有对应的质量值，也没有编码轮次
+        stats.quality = 0;
+        stats.encodePasses = 0;
+        ExifSegment exif = backend.exportExif();
+        start = System.nanoTime();
+        String path = GalleryWriter.write(contentResolver, ExportSettings.Format.JPEG, outputStream -> {
+            long encodeStart = System.nanoTime();
+            try (PerfTracer.Section ignored = PerfTracer.get().section("encode")) {
+                buffer.reset();
+                result.write(buffer, exif);
+            }
+            stats.encodeMillis = ExportStats.elapsedMillis(encodeStart);
+            checkpoint.check();
+            buffer.writeTo(outputStream);
+        }, tracker);
+        stats.writeMillis = ExportStats.elapsedMillis(start) - stats.encodeMillis;
+        stats.bytes = buffer.size();
+        return path;
+    }
+
+    private void readSource(EncodeBuffer buffer) throws IOException {
+        buffer.reset();
+        try (InputStream inputStream = contentResolver.openInputStream(sourceUri)) {
+            if (inputStream == null) {
+                throw new IOException("无法打开图片：" + sourceUri);
+            }
+            byte[] chunk = new byte[64 * 1024];
+            int count;
+            while ((count = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, count);
+            }
+        }
+    }
+}
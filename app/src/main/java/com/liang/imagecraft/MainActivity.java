@@ -21,9 +21,12 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import com.liang.imagecraft.perf.PerfTracer;
+
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Locale;
 
@@ -34,7 +37,10 @@ public class MainActivity extends AppCompatActivity {
     
     private Button btnImportGallery;
     private Button btnTakePhoto;
-    private ActivityResultLauncher<Intent> galleryLauncher;
+    private Button btnBatchWatermark;
+    private ActivityResultLauncher<Intent> batchLauncher;
+    private boolean batchPending; // 权限授予后打开的是多选还是单选
+    private boolean batchTiled; // 批量水印是否平铺
     private ActivityResultLauncher<Intent> cameraLauncher;
     private Uri photoUri; // 用于存储拍摄照片的URI
 
@@ -52,21 +58,7 @@ public class MainActivity extends AppCompatActivity {
         // 初始化UI组件
         btnImportGallery = findViewById(R.id.btn_import_gallery);
         btnTakePhoto = findViewById(R.id.btn_take_photo);
-
-        // 设置相册选择启动器
-        galleryLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
-            if (result.getResultCode() == RESULT_OK && result.getData() != null) {
-                Uri selectedImage = result.getData().getData();
-                if (selectedImage != null) {
-                    // 跳转到图片编辑界面
-                    Intent intent = new Intent(MainActivity.this, EditImageActivity.class);
-                    intent.putExtra("image_uri", selectedImage.toString());
-                    startActivity(intent);
-                } else {
-                    Toast.makeText(this, "未选择图片", Toast.LENGTH_SHORT).show();
-                }
-            }
-        });
+        btnBatchWatermark = findViewById(R.id.btn_batch_watermark);
 
         // 设置相机拍摄启动器
         cameraLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
@@ -75,6 +67,9 @@ public class MainActivity extends AppCompatActivity {
                     // 跳转到图片编辑界面
                     Intent intent = new Intent(MainActivity.this, EditImageActivity.class);
                     intent.putExtra("image_uri", photoUri.toString());
+                    // 编辑页面据此统计首帧耗时
+                    intent.putExtra("open_nanos", PerfTracer.get().now());
+                    ImageLoader.get().prefetch(this, photoUri);
                     startActivity(intent);
                 } else {
                     Toast.makeText(this, "拍摄照片失败", Toast.LENGTH_SHORT).show();
@@ -82,8 +77,52 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        // 设置批量选择启动器，把多选结果及其读取权限一起转交给批量页面
+        batchLauncher = registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
+            if (result.getResultCode() != RESULT_OK || result.getData() == null) {
+                return;
+            }
+            Intent data = result.getData();
+            ArrayList<Uri> uris = new ArrayList<>();
+            if (data.getClipData() != null) {
+                for (int i = 0; i < data.getClipData().getItemCount(); i++) {
+                    uris.add(data.getClipData().getItemAt(i).getUri());
+                }
+            } else if (data.getData() != null) {
+                uris.add(data.getData());
+            }
+            if (uris.isEmpty()) {
+                Toast.makeText(this, "未选择图片", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Intent intent = new Intent(MainActivity.this, BatchExportActivity.class);
+            intent.putParcelableArrayListExtra(BatchExportActivity.EXTRA_IMAGE_URIS, uris);
+            intent.putExtra(BatchExportActivity.EXTRA_TILED_WATERMARK, batchTiled);
+            if (data.getClipData() != null) {
+                intent.setClipData(data.getClipData());
+            }
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(intent);
+        });
+
         // 设置相册导入按钮点击事件
-        btnImportGallery.setOnClickListener(v -> checkAndRequestGalleryPermission());
+        btnImportGallery.setOnClickListener(v -> {
+            batchPending = false;
+            checkAndRequestGalleryPermission();
+        });
+
+        // 设置批量水印按钮点击事件，长按使用平铺水印
+        btnBatchWatermark.setOnClickListener(v -> {
+            batchPending = true;
+            batchTiled = false;
+            checkAndRequestGalleryPermission();
+        });
+        btnBatchWatermark.setOnLongClickListener(v -> {
+            batchPending = true;
+            batchTiled = true;
+            checkAndRequestGalleryPermission();
+            return true;
+        });
         
         // 设置相机拍摄按钮点击事件
         btnTakePhoto.setOnClickListener(v -> checkAndRequestCameraPermission());
@@ -103,23 +142,49 @@ public class MainActivity extends AppCompatActivity {
 
         if (hasPermission) {
             // 已有权限，打开相册
-            openGallery();
+            openGalleryForMode();
         } else {
             // 无权限，请求权限
+            // 同时请求读取照片位置，导出时才能保留原图的GPS信息
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                ActivityCompat.requestPermissions(this, new String[]{android.Manifest.permission.READ_MEDIA_IMAGES}, REQUEST_READ_MEDIA_IMAGES);
+                ActivityCompat.requestPermissions(this, new String[]{android.Manifest.permission.READ_MEDIA_IMAGES,
+                        android.Manifest.permission.ACCESS_MEDIA_LOCATION}, REQUEST_READ_MEDIA_IMAGES);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                ActivityCompat.requestPermissions(this, new String[]{android.Manifest.permission.READ_EXTERNAL_STORAGE,
+                        android.Manifest.permission.ACCESS_MEDIA_LOCATION}, REQUEST_READ_MEDIA_IMAGES);
             } else {
                 ActivityCompat.requestPermissions(this, new String[]{android.Manifest.permission.READ_EXTERNAL_STORAGE}, REQUEST_READ_MEDIA_IMAGES);
             }
         }
     }
 
-    // 打开相册
-    private void openGallery() {
+    // 按当前模式打开单选或多选相册
+    private void openGalleryForMode() {
+        if (batchPending) {
+            openGalleryMultiple();
+        } else {
+            openGallery();
+        }
+    }
+
+    // 打开多选相册，用于批量水印
+    private void openGalleryMultiple() {
         try {
-            Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+            Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
             intent.setType("image/*");
-            galleryLauncher.launch(intent);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            batchLauncher.launch(intent);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Toast.makeText(this, "打开相册失败", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // 打开应用内相册，选择图片后由相册页面直接进入编辑页面
+    private void openGallery() {
+        try {
+            startActivity(new Intent(this, GalleryActivity.class));
         } catch (Exception e) {
             e.printStackTrace();
             Toast.makeText(this, "打开相册失败", Toast.LENGTH_SHORT).show();
@@ -201,7 +266,7 @@ public class MainActivity extends AppCompatActivity {
         if (requestCode == REQUEST_READ_MEDIA_IMAGES) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                 // 权限被授予，打开相册
-                openGallery();
+                openGalleryForMode();
             } else {
                 // 权限被拒绝
                 Toast.makeText(this, "需要相册权限才能导入图片", Toast.LENGTH_SHORT).show();
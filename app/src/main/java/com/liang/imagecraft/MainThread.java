@@ -0,0 +1,34 @@
+package com.liang.imagecraft;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 主线程调度工具，后台任务通过它把结果投递回UI线程
+ */
+public final class MainThread {
+
+    private static Handler handler;
+
+    private MainThread() {
+    }
+
+    public static void post(Runnable runnable) {
+        handler().post(runnable);
+    }
+
+    public static void postDelayed(Runnable runnable, long delayMillis) {
+        handler().postDelayed(runnable, delayMillis);
+    }
+
+    public static void remove(Runnable runnable) {
+        handler().removeCallbacks(runnable);
+    }
+
+    private static synchronized Handler handler() {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        return handler;
+    }
+}
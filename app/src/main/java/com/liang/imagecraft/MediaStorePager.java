@@ -0,0 +1,202 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+import com.liang.imagecraft.edit.Orientation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 按页查询MediaStore中的图片
+ * 打开时只查询总数，网格滚动到哪里才按页读取对应的行，每页只读取网格和编辑页面用到的几列；
+ * 只保留最近使用的若干页，几万张图片的相册也不会把整个游标读进内存。
+ * 除后台查询外所有方法都只在主线程调用
+ */
+final class MediaStorePager {
+
+    /**
+     * 一张图片
+     */
+    static final class Item {
+        final long id;
+        final Uri uri;
+        // 原图尺寸，未按方向摆正；MediaStore没有记录时为0
+        final int width;
+        final int height;
+        final Orientation orientation;
+        // 最后修改时间，单位为秒，用作缩略图缓存键的一部分
+        final long modified;
+
+        Item(long id, int width, int height, Orientation orientation, long modified) {
+            this.id = id;
+            this.uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id);
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * 查询结果回调，在主线程调用
+     */
+    interface Listener {
+        void onCountLoaded(int count);
+
+        void onPageLoaded(int page);
+    }
+
+    static final int PAGE_SIZE = 200;
+    // 内存中保留的页数
+    private static final int MAX_PAGES = 8;
+    private static final String SORT_ORDER = MediaStore.Images.Media.DATE_ADDED + " DESC, "
+            + MediaStore.Images.Media._ID + " DESC";
+    private static final String[] PROJECTION = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.WIDTH,
+            MediaStore.Images.Media.HEIGHT,
+            MediaStore.Images.Media.ORIENTATION,
+            MediaStore.Images.Media.DATE_MODIFIED,
+    };
+
+    private final ContentResolver contentResolver;
+    private final Listener listener;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MediaStorePager");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private final LruCache<Integer, Item[]> pages = new LruCache<>(MAX_PAGES);
+    // 正在查询的页
+    private final Set<Integer> pending = new HashSet<>();
+    private int count;
+    private volatile boolean released;
+
+    MediaStorePager(ContentResolver contentResolver, Listener listener) {
+        this.contentResolver = contentResolver;
+        this.listener = listener;
+    }
+
+    /**
+     * 在后台查询总数并预先读取第一页
+     */
+    void open() {
+        executor.execute(() -> {
+            int total = 0;
+            try (Cursor cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[]{MediaStore.Images.Media._ID}, null, null, null)) {
+                if (cursor != null) {
+                    total = cursor.getCount();
+                }
+            } catch (RuntimeException e) {
+                // 没有读取权限时显示空相册
+                e.printStackTrace();
+            }
+            int result = total;
+            MainThread.post(() -> {
+                if (released) {
+                    return;
+                }
+                count = result;
+                listener.onCountLoaded(result);
+            });
+        });
+        requestPage(0);
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * 返回已读取的图片；所在页尚未读取时发起查询并返回null，读取完成后通过 onPageLoaded 通知
+     */
+    Item get(int position) {
+        if (position < 0 || position >= count) {
+            return null;
+        }
+        int page = position / PAGE_SIZE;
+        Item[] items = pages.get(page);
+        if (items == null) {
+            requestPage(page);
+            return null;
+        }
+        int index = position % PAGE_SIZE;
+        return index < items.length ? items[index] : null;
+    }
+
+    private void requestPage(int page) {
+        if (!pending.add(page)) {
+            return;
+        }
+        executor.execute(() -> {
+            Item[] items = released ? null : queryPage(page);
+            MainThread.post(() -> {
+                pending.remove(page);
+                if (released || items == null) {
+                    return;
+                }
+                pages.put(page, items);
+                listener.onPageLoaded(page);
+            });
+        });
+    }
+
+    /**
+     * 按页查询。Provider支持 LIMIT/OFFSET 参数时只返回这一页；不支持时游标仍然覆盖全部行，
+     * 直接移动到这一页的起点，游标窗口只会填充这一页附近的数据
+     */
+    private Item[] queryPage(int page) {
+        int offset = page * PAGE_SIZE;
+        Bundle args = new Bundle();
+        args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+        args.putInt(ContentResolver.QUERY_ARG_LIMIT, PAGE_SIZE);
+        args.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+        try (Cursor cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION, args, null)) {
+            if (cursor == null) {
+                return null;
+            }
+            int start = honorsOffset(cursor) ? 0 : offset;
+            int size = Math.max(0, Math.min(PAGE_SIZE, cursor.getCount() - start));
+            Item[] items = new Item[size];
+            if (size == 0 || !cursor.moveToPosition(start)) {
+                return items;
+            }
+            for (int i = 0; i < size; i++) {
+                items[i] = new Item(cursor.getLong(0), cursor.getInt(1), cursor.getInt(2),
+                        Orientation.fromDegrees(cursor.getInt(3)), cursor.getLong(4));
+                if (!cursor.moveToNext()) {
+                    break;
+                }
+            }
+            return items;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean honorsOffset(Cursor cursor) {
+        String[] honored = cursor.getExtras().getStringArray(ContentResolver.EXTRA_HONORED_ARGS);
+        return honored != null && Arrays.asList(honored).contains(ContentResolver.QUERY_ARG_OFFSET);
+    }
+
+    /**
+     * 停止查询，之后的结果被丢弃
+     */
+    void release() {
+        released = true;
+        executor.shutdownNow();
+    }
+}
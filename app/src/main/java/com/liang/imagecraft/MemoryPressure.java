@@ -0,0 +1,98 @@
+package com.liang.imagecraft;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * 进程的内存压力
+ * 按系统剩余内存生成当前的解码策略（位图像素在native堆），并统一释放各个可以重建的缓存：
+ * 系统回调 onTrimMemory 时按级别释放，解码内存不足时全部释放后再降级重试
+ */
+public final class MemoryPressure {
+
+    private static MemoryPressure instance;
+
+    private final ActivityManager activityManager;
+
+    private MemoryPressure(Context context) {
+        activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    }
+
+    /**
+     * 在Application中初始化
+     */
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new MemoryPressure(context.getApplicationContext());
+        }
+    }
+
+    public static synchronized MemoryPressure get() {
+        return instance;
+    }
+
+    /**
+     * 当前的解码策略，预算在调用时计算，每次解码前重新获取
+     * 未初始化时只按Java堆计算预算
+     */
+    public static DecodePolicy currentPolicy() {
+        MemoryPressure pressure = get();
+        return pressure != null ? pressure.decodePolicy() : new DecodePolicy(MemoryBudget.fromRuntime());
+    }
+
+    /**
+     * 在给定预算内解码的策略，用于批量导出等平分预算的场景，内存不足时同样先释放缓存
+     */
+    public static DecodePolicy policyWithin(MemoryBudget budget) {
+        MemoryPressure pressure = get();
+        return pressure != null ? new DecodePolicy(budget, false, pressure::releaseAll) : new DecodePolicy(budget);
+    }
+
+    /**
+     * 解码策略的像素格式对应的 Bitmap.Config
+     */
+    static Bitmap.Config toBitmapConfig(DecodePolicy.Config config) {
+        switch (config) {
+            case RGB_565:
+                return Bitmap.Config.RGB_565;
+            case HARDWARE:
+                return Bitmap.Config.HARDWARE;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    private DecodePolicy decodePolicy() {
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(info);
+        // 位图像素在native堆，按系统剩余内存计算预算；低于阈值后系统会开始杀后台进程，只把阈值以上的部分算进去
+        MemoryBudget budget = MemoryBudget.forNativePixels(info.availMem - info.threshold);
+        // 低内存设备的显存与内存共用，不额外使用HARDWARE位图
+        return new DecodePolicy(budget, !activityManager.isLowRamDevice(), this::releaseAll);
+    }
+
+    private void releaseAll() {
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * 按系统内存回收级别释放缓存，缓存中的位图可能仍在显示，只移出缓存，不回收
+     */
+    public void trimMemory(int level) {
+        PreviewCache cache = PreviewCache.get();
+        if (cache != null) {
+            cache.trimMemory(level);
+        }
+        GalleryThumbnailLoader thumbnails = GalleryThumbnailLoader.get();
+        if (thumbnails != null) {
+            thumbnails.trimMemory(level);
+        }
+        LayerRasterizer rasterizer = LayerRasterizer.get();
+        if (rasterizer != null) {
+            rasterizer.trimMemory(level);
+        }
+        WatermarkRenderer.get().trimMemory(level);
+    }
+}
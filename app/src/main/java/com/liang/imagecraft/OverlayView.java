@@ -0,0 +1,205 @@
+package com.liang.imagecraft;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.liang.imagecraft.edit.Layer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 图层视图
+ * 叠加在CustomImageView之上，按图片的内容矩阵绘制各图层缓存的栅格图。图层单独成一个视图，
+ * 拖动时只重新录制本视图的绘制命令（几次贴图绘制），图片视图、分块图和预览图都不需要重绘；
+ * 硬件加速下局部失效的区域会被忽略，因此整个视图失效，位置没有变化时不失效；
+ * 按下的位置没有可拖动的图层时不消费触摸事件，缩放和平移仍由下方的图片视图处理
+ */
+public class OverlayView extends View {
+
+    /**
+     * 图层拖动结束回调
+     */
+    public interface Listener {
+        void onLayerMoved(int index, Layer layer);
+    }
+
+    // 内容坐标到视图坐标的变换及内容尺寸，与图片视图的用户矩阵一致
+    private final Matrix contentMatrix = new Matrix();
+    private final Matrix inverseMatrix = new Matrix();
+    private int contentWidth;
+    private int contentHeight;
+    private List<Layer> layers = Collections.emptyList();
+    private Listener listener;
+
+    // 拖动中的图层及其在按下时的状态
+    private int dragIndex = -1;
+    private Layer dragLayer;
+    private float downX;
+    private float downY;
+
+    // 绘制和触摸时复用的对象
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final float[] point = new float[2];
+    private final Runnable invalidateTask = this::invalidate;
+
+    public OverlayView(Context context) {
+        super(context);
+    }
+
+    public OverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 图片视图的矩阵或内容尺寸变化时调用，所有图层随之移动
+     */
+    public void setContentMatrix(Matrix matrix, int contentWidth, int contentHeight) {
+        contentMatrix.set(matrix);
+        this.contentWidth = contentWidth;
+        this.contentHeight = contentHeight;
+        if (!layers.isEmpty()) {
+            invalidate();
+        }
+    }
+
+    public void setLayers(List<Layer> layers) {
+        if (layers.equals(this.layers)) {
+            return;
+        }
+        this.layers = layers;
+        dragIndex = -1;
+        dragLayer = null;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        LayerRasterizer rasterizer = LayerRasterizer.get();
+        if (layers.isEmpty() || contentWidth <= 0 || contentHeight <= 0 || rasterizer == null) {
+            return;
+        }
+        canvas.save();
+        canvas.concat(contentMatrix);
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = i == dragIndex ? dragLayer : layers.get(i);
+            LayerRasterizer.Raster raster = rasterFor(rasterizer, layer);
+            if (raster != null) {
+                LayerRasterizer.draw(canvas, layer, contentWidth, contentHeight, raster, paint);
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * 按图层在屏幕上的实际大小选择栅格化档位
+     */
+    private LayerRasterizer.Raster rasterFor(LayerRasterizer rasterizer, Layer layer) {
+        float screenSize = contentMatrix.mapRadius(layer.pixelSize(contentWidth, contentHeight));
+        return rasterizer.getOrRequest(layer, screenSize, invalidateTask);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if (!toContent(event.getX(), event.getY())) {
+                    return false;
+                }
+                dragIndex = findLayerAt(point[0], point[1]);
+                if (dragIndex < 0) {
+                    return false;
+                }
+                dragLayer = layers.get(dragIndex);
+                downX = point[0];
+                downY = point[1];
+                getParent().requestDisallowInterceptTouchEvent(true);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (dragIndex >= 0 && toContent(event.getX(), event.getY())) {
+                    Layer start = layers.get(dragIndex);
+                    float x = clamp(start.centerX + (point[0] - downX) / contentWidth);
+                    float y = clamp(start.centerY + (point[1] - downY) / contentHeight);
+                    Layer moved = start.withCenter(x, y);
+                    if (!moved.equals(dragLayer)) {
+                        dragLayer = moved;
+                        invalidate();
+                    }
+                }
+                return dragIndex >= 0;
+            case MotionEvent.ACTION_UP:
+                if (dragIndex >= 0) {
+                    int index = dragIndex;
+                    Layer moved = dragLayer;
+                    dragIndex = -1;
+                    dragLayer = null;
+                    performClick();
+                    if (listener != null && !moved.equals(layers.get(index))) {
+                        listener.onLayerMoved(index, moved);
+                    }
+                    return true;
+                }
+                return false;
+            case MotionEvent.ACTION_CANCEL:
+                if (dragIndex >= 0) {
+                    dragIndex = -1;
+                    dragLayer = null;
+                    invalidate();
+                }
+                return false;
+            default:
+                return dragIndex >= 0;
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    /**
+     * 把视图坐标换算到内容坐标，结果写入 point
+     */
+    private boolean toContent(float x, float y) {
+        if (contentWidth <= 0 || contentHeight <= 0 || !contentMatrix.invert(inverseMatrix)) {
+            return false;
+        }
+        point[0] = x;
+        point[1] = y;
+        inverseMatrix.mapPoints(point);
+        return true;
+    }
+
+    /**
+     * 从最上层开始查找包含该内容坐标的可拖动图层
+     */
+    private int findLayerAt(float x, float y) {
+        LayerRasterizer rasterizer = LayerRasterizer.get();
+        if (rasterizer == null) {
+            return -1;
+        }
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer layer = layers.get(i);
+            LayerRasterizer.Raster raster = rasterFor(rasterizer, layer);
+            if (raster != null && layer.contains(x, y, contentWidth, contentHeight,
+                    raster.bitmap.getWidth(), raster.bitmap.getHeight(), raster.size)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(1f, value));
+    }
+}
@@ -0,0 +1,83 @@
+package com.liang.imagecraft;
+
+import android.content.Context;
+
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 把性能埋点的汇总统计和最近的操作历史写成JSON文件
+ * 文件位于应用外部文件目录下的 perf/perf_dump.json，不需要root权限即可从设备上取回
+ */
+final class PerfDump {
+
+    /**
+     * 写入结果回调，在主线程调用
+     */
+    interface Callback {
+        void onWritten(File file);
+
+        void onFailure(IOException e);
+    }
+
+    private static final String DIR_NAME = "perf";
+    private static final String FILE_NAME = "perf_dump.json";
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PerfDump");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private PerfDump() {
+    }
+
+    /**
+     * 在后台线程写入，callback可以为null
+     */
+    static void writeAsync(Context context, Callback callback) {
+        Context appContext = context.getApplicationContext();
+        String json = PerfTracer.get().toJson();
+        EXECUTOR.execute(() -> {
+            try {
+                File file = write(appContext, json);
+                if (callback != null) {
+                    MainThread.post(() -> callback.onWritten(file));
+                }
+            } catch (IOException e) {
+                if (callback != null) {
+                    MainThread.post(() -> callback.onFailure(e));
+                }
+            }
+        });
+    }
+
+    private static File write(Context context, String json) throws IOException {
+        File baseDir = context.getExternalFilesDir(null);
+        if (baseDir == null) {
+            // 外部存储不可用时退回内部目录
+            baseDir = context.getFilesDir();
+        }
+        File dir = new File(baseDir, DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录：" + dir);
+        }
+        File file = new File(dir, FILE_NAME);
+        File tempFile = new File(dir, FILE_NAME + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            outputStream.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("无法写入：" + file);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,91 @@
+package com.liang.imagecraft;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.TextView;
+
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.util.Locale;
+
+/**
+ * 性能调试面板
+ * 在编辑区上方每半秒刷新一次帧耗时、触摸处理耗时、各步骤最近一次耗时和内存情况，
+ * 开关状态保存在SharedPreferences中，默认关闭；面板隐藏时不做任何刷新
+ */
+final class PerfHud {
+
+    private static final String PREFS_NAME = "perf";
+    private static final String KEY_ENABLED = "hud_enabled";
+    private static final long REFRESH_INTERVAL_MS = 500L;
+
+    // 显示最近一次耗时的步骤及其标签
+    private static final String[] SECTIONS = {
+            "ttfp", "thumbnail", "preview_decode", "decode", "edit", "watermark", "encode", "mediastore_insert", "write"
+    };
+    private static final String[] LABELS = {
+            "首帧", "缩略图", "预览解码", "解码", "编辑", "水印", "编码", "插入相册", "写入"
+    };
+
+    private final TextView view;
+    private final PerfTracer tracer = PerfTracer.get();
+    private final StringBuilder text = new StringBuilder(512);
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            update();
+            view.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    PerfHud(TextView view) {
+        this.view = view;
+    }
+
+    static boolean isEnabled(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getBoolean(KEY_ENABLED, false);
+    }
+
+    static void setEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putBoolean(KEY_ENABLED, enabled)
+                .apply();
+    }
+
+    void show() {
+        view.setVisibility(View.VISIBLE);
+        view.removeCallbacks(refresh);
+        refresh.run();
+    }
+
+    void hide() {
+        view.removeCallbacks(refresh);
+        view.setVisibility(View.GONE);
+    }
+
+    private void update() {
+        text.setLength(0);
+        appendTiming("帧", tracer.getStats("frame"));
+        appendTiming("手势", tracer.getStats("gesture"));
+        for (int i = 0; i < SECTIONS.length; i++) {
+            PerfTracer.Stats stats = tracer.getStats(SECTIONS[i]);
+            if (stats != null) {
+                text.append(String.format(Locale.US, "%s %.1fms\n", LABELS[i], stats.lastMillis()));
+            }
+        }
+        long heap = tracer.sampleHeap();
+        text.append(String.format(Locale.US, "内存 %s / 峰值 %s\n",
+                ExportStats.formatBytes(heap), ExportStats.formatBytes(tracer.getPeakHeapBytes())));
+        text.append(String.format(Locale.US, "位图 %d 张 %s",
+                tracer.getBitmapCount(), ExportStats.formatBytes(tracer.getBitmapBytes())));
+        view.setText(text);
+    }
+
+    private void appendTiming(String label, PerfTracer.Stats stats) {
+        if (stats == null) {
+            return;
+        }
+        text.append(String.format(Locale.US, "%s 平均 %.1fms 最大 %.1fms (%d)\n",
+                label, stats.averageMillis(), stats.maxMillis(), stats.count));
+    }
+}
@@ -0,0 +1,218 @@
+package com.liang.imagecraft;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 预览图两级缓存
+ * 一级为按字节数限制大小的内存LRU，二级为应用缓存目录下的缩小预览图文件，
+ * 键由URI、最后修改时间和文件大小组成，原图被修改后自动失效。
+ * 磁盘写入在单独的低优先级线程上进行，不拖慢首次显示
+ */
+public final class PreviewCache {
+
+    // 磁盘缓存总大小上限
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private static final String DISK_DIR_NAME = "previews";
+
+    private static PreviewCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskDir;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PreviewCache");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private PreviewCache(Context context) {
+        int cacheBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        diskDir = new File(context.getCacheDir(), DISK_DIR_NAME);
+    }
+
+    /**
+     * 在Application中初始化缓存
+     */
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new PreviewCache(context.getApplicationContext());
+        }
+    }
+
+    public static synchronized PreviewCache get() {
+        return instance;
+    }
+
+    /**
+     * 生成缓存键：URI + 最后修改时间 + 文件大小，查询不到的字段按0处理
+     * 需要查询ContentResolver，应在后台线程调用
+     */
+    public static String keyFor(ContentResolver resolver, Uri uri) {
+        long lastModified = 0L;
+        long size = 0L;
+        try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                // MediaStore的date_modified单位为秒，DocumentsProvider的last_modified单位为毫秒
+                int modifiedSecondsIndex = cursor.getColumnIndex("date_modified");
+                int modifiedMillisIndex = cursor.getColumnIndex("last_modified");
+                int sizeIndex = cursor.getColumnIndex("_size");
+                if (modifiedMillisIndex >= 0 && !cursor.isNull(modifiedMillisIndex)) {
+                    lastModified = cursor.getLong(modifiedMillisIndex);
+                } else if (modifiedSecondsIndex >= 0 && !cursor.isNull(modifiedSecondsIndex)) {
+                    lastModified = cursor.getLong(modifiedSecondsIndex) * 1000L;
+                }
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
+                    size = cursor.getLong(sizeIndex);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 部分Provider不支持查询，只按URI缓存
+            e.printStackTrace();
+        }
+        return uri + "|" + lastModified + "|" + size;
+    }
+
+    /**
+     * 缓存的预览图是否足以填满当前视口（至少一个方向接近视口尺寸）
+     */
+    public static boolean isLargeEnough(Bitmap bitmap, int reqWidth, int reqHeight) {
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return true;
+        }
+        float fill = Math.max((float) bitmap.getWidth() / reqWidth, (float) bitmap.getHeight() / reqHeight);
+        return fill >= 0.95f;
+    }
+
+    public Bitmap getFromMemory(String key) {
+        return memoryCache.get(key);
+    }
+
+    /**
+     * 从磁盘缓存读取预览图，命中后同时放回内存缓存
+     */
+    public Bitmap getFromDisk(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        if (bitmap == null) {
+            file.delete();
+            return null;
+        }
+        // 更新修改时间，磁盘淘汰按最近使用顺序进行
+        file.setLastModified(System.currentTimeMillis());
+        memoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 写入两级缓存，立即放入内存缓存，压缩和写入磁盘在后台线程进行
+     */
+    public void put(String key, Bitmap bitmap) {
+        memoryCache.put(key, bitmap);
+        diskExecutor.execute(() -> writeToDisk(key, bitmap));
+    }
+
+    /**
+     * 只在磁盘线程上调用，写入和淘汰不会并发
+     */
+    private void writeToDisk(String key, Bitmap bitmap) {
+        if (bitmap.isRecycled() || (!diskDir.exists() && !diskDir.mkdirs())) {
+            return;
+        }
+        File file = fileFor(key);
+        File tempFile = new File(diskDir, file.getName() + ".tmp");
+        Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+            bitmap.compress(format, 85, outputStream);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        trimDiskCache();
+    }
+
+    /**
+     * 响应系统内存压力：后台时清空内存缓存，前台内存紧张时减半
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    private void trimDiskCache() {
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0L;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        // 按最近使用时间从旧到新删除
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(diskDir, hash(key));
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Size;
+
+import com.liang.imagecraft.edit.Orientation;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * 预览图解码器
+ * 先只读取图片尺寸，再按编辑区视口大小计算采样率解码，避免在主线程解码全分辨率原图。
+ * 预览图保持原始方向，EXIF方向只读取一次随结果返回，由视图矩阵负责摆正，不再生成旋转后的副本。
+ * 内存缓存未命中时先返回一张缩略图（EXIF内嵌缩略图或系统缩略图）占位，再返回屏幕分辨率的预览图；
+ * 内存紧张时不透明的图片解码为RGB_565，仍然不够再降低分辨率
+ */
+public final class PreviewDecoder {
+
+    /**
+     * 解码结果回调，始终在主线程调用
+     */
+    public interface Callback {
+        /**
+         * 缩略图已读取，预览图解码完成前先显示
+         *
+         * @param width  预览图摆正后的预计宽度，缩略图按这个尺寸显示
+         * @param height 预览图摆正后的预计高度
+         */
+        void onThumbnail(Bitmap thumbnail, Orientation orientation, int width, int height);
+
+        void onDecoded(Bitmap bitmap, Orientation orientation);
+
+        void onError(Exception e);
+    }
+
+    // 系统缩略图的请求边长
+    private static final int THUMBNAIL_SIZE = 512;
+    // 内嵌缩略图与原图宽高比的最大相对差
+    private static final float THUMBNAIL_ASPECT_TOLERANCE = 0.05f;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "PreviewDecoder");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private PreviewDecoder() {
+    }
+
+    /**
+     * 在后台线程加载与视口匹配的预览图，完成后回到主线程回调
+     * 依次查找内存缓存、磁盘缓存，都未命中时才从ContentResolver解码
+     *
+     * @return 可用于取消解码的Future
+     */
+    public static Future<?> decodeAsync(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight, Callback callback) {
+        return EXECUTOR.submit(() -> {
+            PerfTracer.Trace trace = PerfTracer.get().begin("preview");
+            try {
+                ExifInterface exif = readExif(resolver, uri);
+                Orientation orientation = orientationOf(exif);
+                // 视口按摆正后的方向比较，竖拍照片交换目标宽高
+                boolean swap = orientation.swapsDimensions();
+                int width = swap ? reqHeight : reqWidth;
+                int height = swap ? reqWidth : reqHeight;
+                Bitmap bitmap = loadCachedOrDecode(resolver, uri, width, height,
+                        bounds -> publishThumbnail(resolver, uri, exif, orientation, bounds, width, height, callback));
+                if (Thread.currentThread().isInterrupted()) {
+                    trace.cancel();
+                    return;
+                }
+                trace.end();
+                MainThread.post(() -> callback.onDecoded(bitmap, orientation));
+            } catch (Exception | OutOfMemoryError e) {
+                trace.fail(e);
+                Exception error = e instanceof Exception ? (Exception) e : new IOException(e);
+                MainThread.post(() -> callback.onError(error));
+            }
+        });
+    }
+
+    /**
+     * @param onMemoryMiss 内存缓存未命中、即将读取磁盘或解码时调用，参数为原图边界信息
+     */
+    private static Bitmap loadCachedOrDecode(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight,
+                                             Consumer<BitmapFactory.Options> onMemoryMiss) throws IOException {
+        PreviewCache cache = PreviewCache.get();
+        String key = null;
+        if (cache != null) {
+            key = PreviewCache.keyFor(resolver, uri);
+            Bitmap bitmap = cache.getFromMemory(key);
+            if (bitmap != null && PreviewCache.isLargeEnough(bitmap, reqWidth, reqHeight)) {
+                return bitmap;
+            }
+        }
+        BitmapFactory.Options bounds = decodeBounds(resolver, uri);
+        onMemoryMiss.accept(bounds);
+        if (cache == null) {
+            return decodeSampled(resolver, uri, bounds, reqWidth, reqHeight);
+        }
+        Bitmap bitmap = cache.getFromDisk(key);
+        if (bitmap != null && PreviewCache.isLargeEnough(bitmap, reqWidth, reqHeight)) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+            return bitmap;
+        }
+        bitmap = decodeSampled(resolver, uri, bounds, reqWidth, reqHeight);
+        cache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 读取缩略图并回调：优先使用EXIF内嵌缩略图，没有或宽高比不符时使用系统缩略图
+     * 缩略图只用于让界面尽快出现内容，读取失败时直接等待预览图
+     */
+    private static void publishThumbnail(ContentResolver resolver, Uri uri, ExifInterface exif, Orientation orientation,
+                                         BitmapFactory.Options bounds, int reqWidth, int reqHeight, Callback callback) {
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0 || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        int[] size = previewSize(bounds.outWidth, bounds.outHeight, reqWidth, reqHeight);
+        int[] oriented = orientation.orientedSize(size[0], size[1]);
+        try (PerfTracer.Section ignored = PerfTracer.get().section("thumbnail")) {
+            Bitmap thumbnail = null;
+            Orientation thumbnailOrientation = orientation;
+            if (exif != null && exif.hasThumbnail()) {
+                // 部分相机的内嵌缩略图固定为4:3并带黑边
+                Bitmap embedded = exif.getThumbnailBitmap();
+                if (embedded != null && sameAspect(embedded.getWidth(), embedded.getHeight(),
+                        bounds.outWidth, bounds.outHeight)) {
+                    thumbnail = embedded;
+                }
+            }
+            if (thumbnail == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                // 系统缩略图已经按EXIF方向摆正
+                thumbnail = resolver.loadThumbnail(uri, new Size(THUMBNAIL_SIZE, THUMBNAIL_SIZE), null);
+                thumbnailOrientation = Orientation.NORMAL;
+            }
+            if (thumbnail == null) {
+                return;
+            }
+            PerfTracer.get().countBitmap(thumbnail.getAllocationByteCount());
+            thumbnail.setDensity(Bitmap.DENSITY_NONE);
+            Bitmap result = thumbnail;
+            Orientation resultOrientation = thumbnailOrientation;
+            MainThread.post(() -> callback.onThumbnail(result, resultOrientation, oriented[0], oriented[1]));
+        } catch (IOException | RuntimeException e) {
+            // 不是MediaStore的URI时没有系统缩略图
+        }
+    }
+
+    private static boolean sameAspect(int width, int height, int otherWidth, int otherHeight) {
+        float aspect = (float) width / height;
+        float otherAspect = (float) otherWidth / otherHeight;
+        return Math.abs(aspect - otherAspect) <= otherAspect * THUMBNAIL_ASPECT_TOLERANCE;
+    }
+
+    /**
+     * 按目标尺寸解码图片：先用inSampleSize做2的幂次采样，再用密度缩放精确缩到视口以内
+     */
+    public static Bitmap decodeSampled(ContentResolver resolver, Uri uri, int reqWidth, int reqHeight) throws IOException {
+        return decodeSampled(resolver, uri, decodeBounds(resolver, uri), reqWidth, reqHeight);
+    }
+
+    /**
+     * 按目标尺寸解码图片，bounds 为已读取的边界信息
+     * 采样率和像素格式由解码策略决定，内存不足时沿降级阶梯换用RGB_565或加大采样率重试
+     */
+    private static Bitmap decodeSampled(ContentResolver resolver, Uri uri, BitmapFactory.Options bounds,
+                                        int reqWidth, int reqHeight) throws IOException {
+        int srcWidth = bounds.outWidth;
+        int srcHeight = bounds.outHeight;
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            throw new IOException("无法读取图片尺寸");
+        }
+        // JPEG没有透明通道，内存紧张时可以解码为RGB_565
+        boolean opaque = "image/jpeg".equals(bounds.outMimeType);
+        DecodePolicy policy = MemoryPressure.currentPolicy();
+        List<DecodePolicy.Step> ladder = policy.ladder(srcWidth, srcHeight,
+                calculateInSampleSize(srcWidth, srcHeight, reqWidth, reqHeight), 1, opaque,
+                DecodePolicy.Purpose.PREVIEW);
+        Bitmap bitmap = policy.decode(ladder,
+                step -> decodeStep(resolver, uri, srcWidth, srcHeight, reqWidth, reqHeight, step));
+        PerfTracer.get().countBitmap(bitmap.getAllocationByteCount());
+        // 清除密度信息，避免BitmapDrawable按屏幕密度再次缩放
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        return bitmap;
+    }
+
+    /**
+     * 按降级阶梯中的一级解码：先用inSampleSize做2的幂次采样，再用密度缩放精确缩到视口以内
+     */
+    private static Bitmap decodeStep(ContentResolver resolver, Uri uri, int srcWidth, int srcHeight,
+                                     int reqWidth, int reqHeight, DecodePolicy.Step step) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = step.sampleSize;
+        options.inPreferredConfig = MemoryPressure.toBitmapConfig(step.config);
+
+        // 采样后的尺寸仍可能接近视口的2倍，再用密度缩放一步到位
+        int sampledWidth = (srcWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (srcHeight + options.inSampleSize - 1) / options.inSampleSize;
+        float scale = calculateFitScale(sampledWidth, sampledHeight, reqWidth, reqHeight);
+        if (scale < 1f) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = Math.max(1, Math.round(sampledWidth * scale));
+        }
+
+        Bitmap bitmap;
+        try (PerfTracer.Section ignored = PerfTracer.get().section("preview_decode");
+             InputStream inputStream = resolver.openInputStream(uri)) {
+            if (inputStream == null) {
+                throw new IOException("无法打开图片：" + uri);
+            }
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("图片解码失败：" + uri);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 只读取图片边界信息，不分配像素内存
+     */
+    public static BitmapFactory.Options decodeBounds(ContentResolver resolver, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream inputStream = resolver.openInputStream(uri)) {
+            if (inputStream == null) {
+                throw new IOException("无法打开图片：" + uri);
+            }
+            BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        return options;
+    }
+
+    /**
+     * 读取EXIF方向，没有EXIF或读取失败时按正常方向处理
+     */
+    public static Orientation readOrientation(ContentResolver resolver, Uri uri) {
+        return orientationOf(readExif(resolver, uri));
+    }
+
+    /**
+     * 解析EXIF，失败时返回null
+     */
+    private static ExifInterface readExif(ContentResolver resolver, Uri uri) {
+        try (InputStream inputStream = resolver.openInputStream(uri)) {
+            return inputStream != null ? new ExifInterface(inputStream) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Orientation orientationOf(ExifInterface exif) {
+        if (exif == null) {
+            return Orientation.NORMAL;
+        }
+        return Orientation.fromExif(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+    }
+
+    /**
+     * 按 decodeSampled 的规则计算预览图尺寸 {宽, 高}，不解码
+     */
+    static int[] previewSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = calculateInSampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+        int width = (srcWidth + inSampleSize - 1) / inSampleSize;
+        int height = (srcHeight + inSampleSize - 1) / inSampleSize;
+        float scale = calculateFitScale(width, height, reqWidth, reqHeight);
+        if (scale < 1f) {
+            int target = Math.max(1, Math.round(width * scale));
+            height = Math.max(1, Math.round((float) height * target / width));
+            width = target;
+        }
+        return new int[]{width, height};
+    }
+
+    /**
+     * 计算不小于目标尺寸的最大2的幂次采样率
+     */
+    public static int calculateInSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (srcWidth / (inSampleSize * 2) >= reqWidth && srcHeight / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 计算将图片完整放入视口所需的缩放比例，不放大
+     */
+    public static float calculateFitScale(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        if (srcWidth <= 0 || srcHeight <= 0 || reqWidth <= 0 || reqHeight <= 0) {
+            return 1f;
+        }
+        return Math.min(1f, Math.min((float) reqWidth / srcWidth, (float) reqHeight / srcHeight));
+    }
+}
@@ -0,0 +1,175 @@
+package com.liang.imagecraft;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.jpeg.ExifSegment;
+import com.liang.imagecraft.jpeg.StreamingJpegEncoder;
+import com.liang.imagecraft.kernel.PixelKernels;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * 条带流式导出
+ * 整张解码放不进内存的超大图片按水平条带区域解码，每条依次应用调整、水印和图层，
+ * 再直接送入流式JPEG编码器，编码结果边生成边写入相册。
+ * 同一时刻只有一个条带位图、一条像素缓冲和编码器的一行MCU，峰值内存与图片高度无关
+ */
+final class StripExporter {
+
+    // 每个条带的输出行数，取MCU行数的整数倍
+    private static final int STRIP_ROWS = 256;
+
+    private final ContentResolver contentResolver;
+    private final Uri sourceUri;
+    private final List<EditOp> pixelOps;
+    private final ExportSettings settings;
+    private final ExportStats stats;
+    private final EditRenderer.Checkpoint checkpoint;
+    private final GalleryWriter.EntryTracker tracker;
+
+    StripExporter(ContentResolver contentResolver, Uri sourceUri, EditList edits, ExportSettings settings,
+                  ExportStats stats, EditRenderer.Checkpoint checkpoint, GalleryWriter.EntryTracker tracker) {
+        this.contentResolver = contentResolver;
+        this.sourceUri = sourceUri;
+        this.pixelOps = edits.pixelOps();
+        this.settings = settings;
+        this.stats = stats;
+        this.checkpoint = checkpoint;
+        this.tracker = tracker;
+    }
+
+    /**
+     * 是否应当按条带导出：整张解码需要比输出设置更大的采样率，即会损失分辨率，并且编辑操作可以逐条应用
+     */
+    static boolean shouldStream(BitmapExportBackend backend, DecodePolicy policy) throws IOException {
+        int[] size = backend.readSize();
+        if (size[0] <= 0 || size[1] <= 0 || backend.stripBounds() == null) {
+            return false;
+        }
+        int outputSampleSize = backend.outputSampleSize(size[0], size[1]);
+        int budgetSampleSize = policy.ladder(size[0], size[1], outputSampleSize, backend.peakBitmapCount(), false,
+                DecodePolicy.Purpose.EXPORT).get(0).sampleSize;
+        return budgetSampleSize > outputSampleSize;
+    }
+
+    /**
+     * 解码、编辑、编码并写入相册，每完成一个条带回调一次进度
+     *
+     * @return 与 GalleryWriter.write 相同
+     */
+    String export(BitmapExportBackend backend, GalleryWriter.ProgressListener listener) throws IOException {
+        int[] bounds = backend.stripBounds();
+        int regionWidth = bounds[2] - bounds[0];
+        int regionHeight = bounds[3] - bounds[1];
+        int sampleSize = settings.sampleSizeFor(regionWidth, regionHeight);
+        // 按向下取整的尺寸输出，区域解码无论向上还是向下取整都能提供这么多像素
+        int width = Math.max(1, regionWidth / sampleSize);
+        int height = Math.max(1, regionHeight / sampleSize);
+        stats.width = width;
+        stats.height = height;
+        stats.quality = settings.quality;
+        stats.encodePasses = 1;
+        ExifSegment exif = backend.exportExif();
+        long start = System.nanoTime();
+        String path = GalleryWriter.write(contentResolver, settings.format,
+                outputStream -> encode(outputStream, bounds, sampleSize, width, height, exif, listener), tracker);
+        stats.writeMillis = ExportStats.elapsedMillis(start)
+                - stats.decodeMillis - stats.editMillis - stats.encodeMillis;
+        return path;
+    }
+
+    private void encode(OutputStream outputStream, int[] bounds, int sampleSize, int width, int height,
+                        ExifSegment exif, GalleryWriter.ProgressListener listener) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(outputStream);
+        BitmapRegionDecoder decoder = TiledImageRenderer.newRegionDecoder(contentResolver, sourceUri);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        try {
+            StreamingJpegEncoder encoder = new StreamingJpegEncoder(counter, width, height, settings.quality);
+            encoder.writeHeader(exif);
+            PixelKernels kernels = new PixelKernels();
+            int[] rows = new int[width * Math.min(STRIP_ROWS, height)];
+            Rect region = new Rect();
+            for (int y = 0; y < height; y += STRIP_ROWS) {
+                checkpoint.check();
+                int count = Math.min(STRIP_ROWS, height - y);
+                int top = bounds[1] + y * sampleSize;
+                region.set(bounds[0], top, bounds[2], Math.min(bounds[3], top + STRIP_ROWS * sampleSize));
+
+                long start = System.nanoTime();
+                // 复用的条带位图尺寸不变，最后一个较矮的条带只写入上部，多余的行不会被编码
+                Bitmap strip;
+                try (PerfTracer.Section ignored = PerfTracer.get().section("decode")) {
+                    strip = decoder.decodeRegion(region, options);
+                }
+                if (strip == null) {
+                    throw new IOException("图片解码失败：" + sourceUri);
+                }
+                if (options.inBitmap == null) {
+                    options.inBitmap = strip;
+                    PerfTracer.get().countBitmap(strip.getAllocationByteCount());
+                }
+                stats.decodeMillis += ExportStats.elapsedMillis(start);
+
+                start = System.nanoTime();
+                try (PerfTracer.Section ignored = PerfTracer.get().section("edit")) {
+                    for (EditOp op : pixelOps) {
+                        EditRenderer.applyPixelOp(strip, y, width, height, op, kernels);
+                    }
+                }
+                stats.editMillis += ExportStats.elapsedMillis(start);
+
+                start = System.nanoTime();
+                try (PerfTracer.Section ignored = PerfTracer.get().section("encode")) {
+                    strip.getPixels(rows, 0, width, 0, 0, width, count);
+                    encoder.writeRows(rows, 0, width, count);
+                }
+                stats.encodeMillis += ExportStats.elapsedMillis(start);
+                listener.onWritten(y + count, height);
+            }
+            encoder.finish();
+        } finally {
+            if (options.inBitmap != null) {
+                options.inBitmap.recycle();
+            }
+            decoder.recycle();
+        }
+        stats.bytes = counter.count;
+    }
+
+    /**
+     * 统计写出的字节数
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.liang.imagecraft;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+import android.util.LruCache;
+
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.PixelKernels;
+import com.liang.imagecraft.perf.PerfTracer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 分块渲染器
+ * 放大超过预览图分辨率后，用BitmapRegionDecoder只解码当前可见区域的图块，
+ * 图块保存在有上限的LRU缓存中，未加载完成时下方仍显示低分辨率的预览图
+ */
+public class TiledImageRenderer {
+
+    /**
+     * 图块加载完成回调，在主线程调用
+     */
+    public interface Listener {
+        void onTileLoaded();
+    }
+
+    /**
+     * 创建结果回调，在主线程调用
+     */
+    public interface OpenCallback {
+        void onOpened(TiledImageRenderer renderer);
+    }
+
+    // 每个图块解码后的像素边长
+    private static final int TILE_SIZE = 512;
+    // 图块缓存的固定上限
+    private static final int MAX_CACHE_BYTES = 48 * 1024 * 1024;
+    // 显示比例超过预览图原始像素的这个倍数后才开始加载图块
+    private static final float TILE_THRESHOLD = 1.1f;
+
+    private static final ExecutorService OPEN_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TiledImageRenderer-open");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private final BitmapRegionDecoder decoder;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final LruCache<Long, Bitmap> tileCache;
+    // 已提交但尚未完成的图块，只在主线程访问
+    private final Set<Long> pendingTiles = new HashSet<>();
+    private final ExecutorService tileExecutor;
+    private Listener listener;
+    private volatile boolean released;
+
+    // 图块解码后应用的调整，与预览图保持一致；版本号用于丢弃旧调整下解码的图块
+    private volatile Adjustments adjustments = Adjustments.NONE;
+    private int adjustmentsVersion;
+    // 每个解码线程各自的像素内核，内核的缓冲区不能跨线程共享
+    private final ThreadLocal<PixelKernels> kernels = ThreadLocal.withInitial(PixelKernels::new);
+
+    // 当前需要的图块范围 {采样率, 起始列, 起始行, 结束列, 结束行}，后台线程据此丢弃过期请求
+    private volatile int[] wantedTiles = new int[5];
+
+    // 绘制时复用的对象，避免每帧分配
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final RectF tileRect = new RectF();
+    private final float[] matrixValues = new float[9];
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private TiledImageRenderer(BitmapRegionDecoder decoder) {
+        this.decoder = decoder;
+        this.imageWidth = decoder.getWidth();
+        this.imageHeight = decoder.getHeight();
+        int cacheBytes = (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        this.tileCache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        this.tileExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TiledImageRenderer-tile");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * 在后台创建区域解码器，只有原图分辨率明显高于预览图时才回调
+     */
+    public static void openAsync(ContentResolver resolver, Uri uri, int previewWidth, OpenCallback callback) {
+        OPEN_EXECUTOR.execute(() -> {
+            try {
+                BitmapRegionDecoder decoder = newRegionDecoder(resolver, uri);
+                if (decoder.getWidth() <= previewWidth * TILE_THRESHOLD) {
+                    decoder.recycle();
+                    return;
+                }
+                TiledImageRenderer renderer = new TiledImageRenderer(decoder);
+                MainThread.post(() -> callback.onOpened(renderer));
+            } catch (IOException | RuntimeException e) {
+                // 不支持区域解码的格式只使用预览图显示
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    static BitmapRegionDecoder newRegionDecoder(ContentResolver resolver, Uri uri) throws IOException {
+        try (InputStream inputStream = resolver.openInputStream(uri)) {
+            if (inputStream == null) {
+                throw new IOException("无法打开图片：" + uri);
+            }
+            BitmapRegionDecoder decoder;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                decoder = BitmapRegionDecoder.newInstance(inputStream);
+            } else {
+                decoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            }
+            if (decoder == null) {
+                throw new IOException("无法创建区域解码器：" + uri);
+            }
+            return decoder;
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置图块的调整参数，已缓存的图块全部失效
+     */
+    public void setAdjustments(Adjustments adjustments) {
+        if (this.adjustments.equals(adjustments)) {
+            return;
+        }
+        this.adjustments = adjustments;
+        adjustmentsVersion++;
+        tileCache.evictAll();
+        pendingTiles.clear();
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * 在预览图之上绘制当前可见的图块，并为缺失的图块提交解码请求
+     *
+     * @param imageMatrix 预览图到视图坐标的变换，可以包含直角旋转和翻转
+     * @param baseWidth   预览图宽度，用于换算预览图与原图的比例
+     */
+    public void draw(Canvas canvas, Matrix imageMatrix, int viewWidth, int viewHeight, int baseWidth) {
+        if (released || baseWidth <= 0) {
+            return;
+        }
+        float baseScale = (float) baseWidth / imageWidth;
+        imageMatrix.getValues(matrixValues);
+        // 矩阵可能包含EXIF方向的旋转，缩放比例取第一列的长度
+        float viewScale = (float) Math.hypot(matrixValues[Matrix.MSCALE_X], matrixValues[Matrix.MSKEW_Y]);
+        if (viewScale <= TILE_THRESHOLD) {
+            // 预览图分辨率已经足够
+            return;
+        }
+
+        // 计算原图像素到屏幕像素的比例，选择不低于屏幕分辨率的最大采样率
+        float screenPixelsPerSource = viewScale * baseScale;
+        int sampleSize = 1;
+        while (sampleSize * 2 * screenPixelsPerSource <= 1f) {
+            sampleSize *= 2;
+        }
+        if (1f / sampleSize <= baseScale) {
+            return;
+        }
+
+        // 将视图区域反算到原图坐标
+        if (!imageMatrix.invert(inverseMatrix)) {
+            return;
+        }
+        visibleRect.set(0, 0, viewWidth, viewHeight);
+        inverseMatrix.mapRect(visibleRect);
+        float left = Math.max(0f, visibleRect.left / baseScale);
+        float top = Math.max(0f, visibleRect.top / baseScale);
+        float right = Math.min(imageWidth, visibleRect.right / baseScale);
+        float bottom = Math.min(imageHeight, visibleRect.bottom / baseScale);
+        if (right <= left || bottom <= top) {
+            return;
+        }
+
+        int tileSourceSize = TILE_SIZE * sampleSize;
+        int startCol = (int) (left / tileSourceSize);
+        int startRow = (int) (top / tileSourceSize);
+        int endCol = (int) ((right - 1) / tileSourceSize);
+        int endRow = (int) ((bottom - 1) / tileSourceSize);
+        updateWantedTiles(sampleSize, startCol, startRow, endCol, endRow);
+
+        canvas.save();
+        canvas.concat(imageMatrix);
+        canvas.scale(baseScale, baseScale);
+        for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+                long key = tileKey(sampleSize, col, row);
+                Bitmap tile = tileCache.get(key);
+                if (tile != null) {
+                    tileRect.set(col * tileSourceSize, row * tileSourceSize,
+                            Math.min(imageWidth, (col + 1) * tileSourceSize),
+                            Math.min(imageHeight, (row + 1) * tileSourceSize));
+                    canvas.drawBitmap(tile, null, tileRect, tilePaint);
+                } else if (!pendingTiles.contains(key)) {
+                    requestTile(key, sampleSize, col, row);
+                }
+            }
+        }
+        canvas.restore();
+    }
+
+    private void updateWantedTiles(int sampleSize, int startCol, int startRow, int endCol, int endRow) {
+        int[] current = wantedTiles;
+        if (current[0] != sampleSize || current[1] != startCol || current[2] != startRow
+                || current[3] != endCol || current[4] != endRow) {
+            wantedTiles = new int[]{sampleSize, startCol, startRow, endCol, endRow};
+        }
+    }
+
+    private boolean isWanted(int sampleSize, int col, int row) {
+        int[] wanted = wantedTiles;
+        return wanted[0] == sampleSize && col >= wanted[1] && col <= wanted[3] && row >= wanted[2] && row <= wanted[4];
+    }
+
+    private void requestTile(long key, int sampleSize, int col, int row) {
+        pendingTiles.add(key);
+        int version = adjustmentsVersion;
+        Adjustments tileAdjustments = adjustments;
+        tileExecutor.execute(() -> {
+            Bitmap tile = null;
+            // 已移出屏幕的图块不再解码
+            if (!released && isWanted(sampleSize, col, row)) {
+                tile = decodeTile(sampleSize, col, row, tileAdjustments);
+            }
+            Bitmap result = tile;
+            MainThread.post(() -> {
+                if (version != adjustmentsVersion) {
+                    // 解码期间调整参数已变化
+                    return;
+                }
+                pendingTiles.remove(key);
+                if (released || result == null) {
+                    return;
+                }
+                tileCache.put(key, result);
+                if (listener != null) {
+                    listener.onTileLoaded();
+                }
+            });
+        });
+    }
+
+    private Bitmap decodeTile(int sampleSize, int col, int row, Adjustments tileAdjustments) {
+        int tileSourceSize = TILE_SIZE * sampleSize;
+        Rect region = new Rect(col * tileSourceSize, row * tileSourceSize,
+                Math.min(imageWidth, (col + 1) * tileSourceSize),
+                Math.min(imageHeight, (row + 1) * tileSourceSize));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = !tileAdjustments.isIdentity();
+        try (PerfTracer.Section ignored = PerfTracer.get().section("tile_decode")) {
+            Bitmap tile = decoder.decodeRegion(region, options);
+            if (tile == null) {
+                return null;
+            }
+            PerfTracer.get().countBitmap(tile.getAllocationByteCount());
+            if (options.inMutable) {
+                BitmapKernels.adjust(tile, kernels.get(), tileAdjustments);
+            }
+            return tile;
+        } catch (IllegalArgumentException | IllegalStateException | OutOfMemoryError e) {
+            // 解码器已释放或内存不足时跳过该图块，下方的预览图仍然可见
+            return null;
+        }
+    }
+
+    private static long tileKey(int sampleSize, int col, int row) {
+        return ((long) sampleSize << 48) | ((long) col << 24) | row;
+    }
+
+    /**
+     * 响应系统内存回收，图块随时可以重新解码，移出缓存后下次绘制时重新请求
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            tileCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            tileCache.trimToSize(tileCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * 释放解码器和所有图块
+     */
+    public void release() {
+        released = true;
+        listener = null;
+        tileExecutor.shutdownNow();
+        tileCache.evictAll();
+        pendingTiles.clear();
+        // recycle会等待进行中的区域解码结束，放到后台执行避免阻塞主线程
+        OPEN_EXECUTOR.execute(decoder::recycle);
+    }
+}
@@ -0,0 +1,152 @@
+package com.liang.imagecraft;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.kernel.AlphaMask;
+import com.liang.imagecraft.kernel.MaskCompositor;
+import com.liang.imagecraft.kernel.WatermarkLayout;
+import com.liang.imagecraft.perf.PerfTracer;
+
+/**
+ * 文字水印渲染
+ * 每种水印（文字、角度和字号档位）只排版并栅格化一次，结果以透明度遮罩缓存，
+ * 之后的导出直接把遮罩按纯色混合进像素，不再创建Paint或测量文字。
+ * 字号随输出尺寸缩放；平铺水印按行分段读写像素，不需要额外一整张图片大小的缓冲区
+ */
+public final class WatermarkRenderer {
+
+    // 水印颜色和整体不透明度：白色半透明
+    private static final int COLOR = 0xFFFFFF;
+    private static final int OPACITY = 150;
+    // 遮罩四周留出的像素，避免抗锯齿边缘被裁掉
+    private static final int MASK_PADDING = 2;
+    private static final int MAX_CACHE_BYTES = 8 * 1024 * 1024;
+    // 平铺水印每段处理的行数
+    private static final int STRIP_ROWS = 256;
+
+    private static final WatermarkRenderer INSTANCE = new WatermarkRenderer();
+
+    private final LruCache<String, AlphaMask> masks = new LruCache<String, AlphaMask>(MAX_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, AlphaMask value) {
+            return value.byteCount();
+        }
+    };
+
+    private WatermarkRenderer() {
+    }
+
+    public static WatermarkRenderer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 在可变位图上原地绘制水印，可以在多个导出线程上同时调用
+     * 位图可以只是输出图片的一个水平条带，字号和位置按整张输出的尺寸计算，只绘制落在条带内的部分
+     *
+     * @param band 输出图片从第 top 行开始的若干行，整张绘制时 top 为0
+     */
+    public void draw(Bitmap band, int top, int outputWidth, int outputHeight, EditOp.Watermark watermark) {
+        int textSize = WatermarkLayout.textSize(outputWidth, outputHeight, watermark.size);
+        AlphaMask mask = maskFor(watermark.text, textSize, watermark.angle);
+        if (watermark.tiled) {
+            drawTiled(band, top, mask, textSize);
+        } else {
+            int margin = WatermarkLayout.margin(textSize);
+            drawAt(band, mask, outputWidth - mask.width - margin, outputHeight - mask.height - margin - top);
+        }
+    }
+
+    /**
+     * 响应系统内存回收，遮罩随时可以重新栅格化
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            masks.evictAll();
+        }
+    }
+
+    /**
+     * 只读写遮罩覆盖的区域
+     */
+    private static void drawAt(Bitmap bitmap, AlphaMask mask, int left, int top) {
+        int startX = Math.max(0, left);
+        int startY = Math.max(0, top);
+        int regionWidth = Math.min(bitmap.getWidth(), left + mask.width) - startX;
+        int regionHeight = Math.min(bitmap.getHeight(), top + mask.height) - startY;
+        if (regionWidth <= 0 || regionHeight <= 0) {
+            return;
+        }
+        int[] pixels = new int[regionWidth * regionHeight];
+        bitmap.getPixels(pixels, 0, regionWidth, startX, startY, regionWidth, regionHeight);
+        MaskCompositor.blend(pixels, regionWidth, regionHeight, mask, left - startX, top - startY, COLOR, OPACITY);
+        bitmap.setPixels(pixels, 0, regionWidth, startX, startY, regionWidth, regionHeight);
+    }
+
+    private static void drawTiled(Bitmap bitmap, int top, AlphaMask mask, int textSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int gap = WatermarkLayout.tileGap(textSize);
+        int rows = Math.min(STRIP_ROWS, height);
+        int[] strip = new int[width * rows];
+        for (int y = 0; y < height; y += rows) {
+            int count = Math.min(rows, height - y);
+            bitmap.getPixels(strip, 0, width, 0, y, width, count);
+            MaskCompositor.blendTiled(strip, width, count, top + y, mask, mask.width + gap, mask.height + gap,
+                    COLOR, OPACITY);
+            bitmap.setPixels(strip, 0, width, 0, y, width, count);
+        }
+    }
+
+    /**
+     * 取缓存的遮罩，没有时排版并栅格化
+     */
+    AlphaMask maskFor(String text, int textSize, float angle) {
+        String key = textSize + "|" + angle + "|" + text;
+        AlphaMask mask = masks.get(key);
+        if (mask == null) {
+            try (PerfTracer.Section ignored = PerfTracer.get().section("watermark_raster")) {
+                mask = rasterize(text, textSize, angle);
+            }
+            masks.put(key, mask);
+        }
+        return mask;
+    }
+
+    private static AlphaMask rasterize(String text, int textSize, float angle) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(0xFF000000);
+        paint.setTextSize(textSize);
+        paint.setTypeface(Typeface.DEFAULT_BOLD);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        float textWidth = paint.measureText(text);
+        float textHeight = metrics.descent - metrics.ascent;
+        // 旋转后文字的外接矩形
+        double radians = Math.toRadians(angle);
+        float cos = (float) Math.abs(Math.cos(radians));
+        float sin = (float) Math.abs(Math.sin(radians));
+        int width = (int) Math.ceil(textWidth * cos + textHeight * sin) + MASK_PADDING * 2;
+        int height = (int) Math.ceil(textWidth * sin + textHeight * cos) + MASK_PADDING * 2;
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(width / 2f, height / 2f);
+        canvas.rotate(angle);
+        canvas.drawText(text, -textWidth / 2f, -textHeight / 2f - metrics.ascent, paint);
+
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        byte[] alpha = new byte[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            alpha[i] = (byte) (pixels[i] >>> 24);
+        }
+        return new AlphaMask(width, height, alpha);
+    }
+}
@@ -0,0 +1,116 @@
+package com.liang.imagecraft;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.Orientation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编辑页面状态的本地单元测试
+ */
+public class EditorViewModelTest {
+
+    private static final String IMAGE = "content://media/external/images/media/1";
+    private static final int ROTATIONS = 20;
+
+    private int decodes;
+
+    private final EditorViewModel.PreviewRequest countingRequest = () -> {
+        decodes++;
+        return null;
+    };
+
+    @Test
+    public void rotationsAfterLoad_neverDecodeAgain() {
+        EditorViewModel viewModel = new EditorViewModel();
+        assertTrue(viewModel.requestPreview(IMAGE, countingRequest));
+        viewModel.onPreviewLoaded(IMAGE, null, Orientation.NORMAL);
+
+        // 每次旋转都会重新走一遍loadImage
+        for (int i = 0; i < ROTATIONS; i++) {
+            viewModel.saveDisplayState(new float[9], 1080, 1920);
+            assertFalse(viewModel.requestPreview(IMAGE, countingRequest));
+        }
+
+        assertEquals(1, decodes);
+    }
+
+    @Test
+    public void rotationsDuringDecode_doNotStartSecondDecode() {
+        EditorViewModel viewModel = new EditorViewModel();
+        viewModel.requestPreview(IMAGE, countingRequest);
+
+        for (int i = 0; i < ROTATIONS; i++) {
+            viewModel.requestPreview(IMAGE, countingRequest);
+        }
+
+        assertEquals(1, decodes);
+    }
+
+    @Test
+    public void differentImage_decodesAgain() {
+        EditorViewModel viewModel = new EditorViewModel();
+        viewModel.requestPreview(IMAGE, countingRequest);
+        viewModel.onPreviewLoaded(IMAGE, null, Orientation.NORMAL);
+
+        assertTrue(viewModel.requestPreview(IMAGE + "2", countingRequest));
+        assertEquals(2, decodes);
+    }
+
+    @Test
+    public void failedDecode_canBeRetried() {
+        EditorViewModel viewModel = new EditorViewModel();
+        viewModel.requestPreview(IMAGE, countingRequest);
+        viewModel.onPreviewFailed(IMAGE, new Exception("decode failed"));
+
+        assertTrue(viewModel.requestPreview(IMAGE, countingRequest));
+        assertEquals(2, decodes);
+    }
+
+    @Test
+    public void displayState_survivesRotation() {
+        EditorViewModel viewModel = new EditorViewModel();
+        viewModel.requestPreview(IMAGE, countingRequest);
+        viewModel.onPreviewLoaded(IMAGE, null, Orientation.NORMAL);
+        float[] saved = {2f, 0f, -100f, 0f, 2f, -50f, 0f, 0f, 1f};
+
+        viewModel.saveDisplayState(saved, 1080, 1920);
+        float[] restored = new float[9];
+
+        assertTrue(viewModel.restoreDisplayState(restored));
+        assertArrayEquals(saved, restored, 0f);
+        assertEquals(1080, viewModel.getViewportWidth());
+        assertEquals(1920, viewModel.getViewportHeight());
+    }
+
+    @Test
+    public void displayOrientation_isClearedByGeometryEdits() {
+        EditorViewModel viewModel = new EditorViewModel();
+        viewModel.requestPreview(IMAGE, countingRequest);
+        Orientation portrait = Orientation.fromExif(6);
+        viewModel.onPreviewLoaded(IMAGE, null, portrait);
+
+        assertSame(portrait, viewModel.getOrientation());
+        assertSame(portrait, viewModel.getDisplayOrientation());
+        assertSame(portrait, viewModel.displayOrientationFor(EditList.EMPTY));
+        assertSame(Orientation.NORMAL, viewModel.displayOrientationFor(
+                EditList.EMPTY.then(new EditOp.Crop(0f, 0f, 0.5f, 1f))));
+    }
+
+    @Test
+    public void undoRedo_restoreCommittedEdits() {
+        EditorViewModel viewModel = new EditorViewModel();
+        viewModel.requestPreview(IMAGE, countingRequest);
+        EditList rotated = EditList.EMPTY.rotate(1);
+
+        viewModel.commitEdits(rotated);
+        assertTrue(viewModel.undo());
+        assertEquals(EditList.EMPTY, viewModel.getEdits());
+        assertFalse(viewModel.undo());
+        assertTrue(viewModel.redo());
+        assertEquals(rotated, viewModel.getEdits());
+    }
+}
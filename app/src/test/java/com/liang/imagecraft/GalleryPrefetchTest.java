@@ -0,0 +1,40 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 相册预加载范围的本地单元测试
+ */
+public class GalleryPrefetchTest {
+
+    @Test
+    public void scrollingDown_prefetchesRowsBelow() {
+        int[] window = GalleryPrefetch.window(100, 20, 20000, 4, 1);
+
+        assertEquals(100 - GalleryPrefetch.BEHIND_ROWS * 4, window[0]);
+        assertEquals(120 + GalleryPrefetch.AHEAD_ROWS * 4, window[1]);
+    }
+
+    @Test
+    public void scrollingUp_prefetchesRowsAbove() {
+        int[] window = GalleryPrefetch.window(100, 20, 20000, 4, -1);
+
+        assertEquals(100 - GalleryPrefetch.AHEAD_ROWS * 4, window[0]);
+        assertEquals(120 + GalleryPrefetch.BEHIND_ROWS * 4, window[1]);
+    }
+
+    @Test
+    public void window_isClampedToList() {
+        assertArrayEquals(new int[]{0, 10}, GalleryPrefetch.window(0, 8, 10, 4, 0));
+        assertArrayEquals(new int[]{0, 0}, GalleryPrefetch.window(0, 0, 0, 4, 1));
+    }
+
+    @Test
+    public void direction_followsFirstVisiblePosition() {
+        assertEquals(1, GalleryPrefetch.direction(10, 14));
+        assertEquals(-1, GalleryPrefetch.direction(14, 10));
+        assertEquals(0, GalleryPrefetch.direction(10, 10));
+    }
+}
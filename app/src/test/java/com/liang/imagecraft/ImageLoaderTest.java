@@ -0,0 +1,129 @@
+package com.liang.imagecraft;
+
+import android.graphics.Bitmap;
+
+import com.liang.imagecraft.edit.Orientation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览图加载器请求合并的本地单元测试
+ */
+public class ImageLoaderTest {
+
+    private static final String IMAGE = "content://media/external/images/media/1";
+
+    private final List<PreviewDecoder.Callback> started = new ArrayList<>();
+    private final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+    private final ImageLoader.Decoder decoder = callback -> {
+        started.add(callback);
+        CompletableFuture<Void> task = new CompletableFuture<>();
+        tasks.add(task);
+        return task;
+    };
+
+    @Test
+    public void duplicateLoads_shareOneDecode() {
+        ImageLoader loader = new ImageLoader();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        loader.load(IMAGE, decoder, first);
+        loader.load(IMAGE, decoder, second);
+
+        started.get(0).onDecoded(null, Orientation.fromExif(6));
+
+        assertEquals(1, started.size());
+        assertEquals(1, first.decoded);
+        assertEquals(1, second.decoded);
+        assertEquals(Orientation.fromExif(6), second.orientation);
+        assertEquals(0, loader.inFlightCount());
+    }
+
+    @Test
+    public void loadAfterPrefetch_attachesAndReplaysThumbnail() {
+        ImageLoader loader = new ImageLoader();
+        loader.prefetch(IMAGE, decoder);
+        loader.prefetch(IMAGE, decoder);
+        started.get(0).onThumbnail(null, Orientation.NORMAL, 300, 200);
+
+        RecordingCallback editor = new RecordingCallback();
+        loader.load(IMAGE, decoder, editor);
+        started.get(0).onDecoded(null, Orientation.NORMAL);
+
+        assertEquals(1, started.size());
+        assertEquals(1, editor.thumbnails);
+        assertEquals(300, editor.thumbnailWidth);
+        assertEquals(1, editor.decoded);
+    }
+
+    @Test
+    public void cancel_abortsDecodeOnlyAfterLastSubscriber() {
+        ImageLoader loader = new ImageLoader();
+        ImageLoader.Subscription first = loader.load(IMAGE, decoder, new RecordingCallback());
+        ImageLoader.Subscription second = loader.load(IMAGE, decoder, new RecordingCallback());
+
+        first.cancel();
+        assertFalse(tasks.get(0).isCancelled());
+        second.cancel();
+        assertTrue(tasks.get(0).isCancelled());
+
+        // 取消后的请求重新解码
+        loader.load(IMAGE, decoder, new RecordingCallback());
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void seededThumbnail_isNotReplacedByDecoderThumbnail() {
+        ImageLoader loader = new ImageLoader();
+        loader.prefetch(IMAGE, decoder);
+        loader.seedThumbnail(IMAGE, null, 400, 300);
+        started.get(0).onThumbnail(null, Orientation.NORMAL, 300, 200);
+
+        RecordingCallback editor = new RecordingCallback();
+        loader.load(IMAGE, decoder, editor);
+
+        assertEquals(1, editor.thumbnails);
+        assertEquals(400, editor.thumbnailWidth);
+    }
+
+    @Test
+    public void loadAfterCompletion_startsNewDecode() {
+        ImageLoader loader = new ImageLoader();
+        loader.load(IMAGE, decoder, new RecordingCallback());
+        started.get(0).onError(new Exception("失败"));
+
+        loader.load(IMAGE, decoder, new RecordingCallback());
+
+        assertEquals(2, started.size());
+    }
+
+    private static class RecordingCallback implements PreviewDecoder.Callback {
+        int thumbnails;
+        int thumbnailWidth;
+        int decoded;
+        Orientation orientation;
+
+        @Override
+        public void onThumbnail(Bitmap bitmap, Orientation orientation, int width, int height) {
+            thumbnails++;
+            thumbnailWidth = width;
+        }
+
+        @Override
+        public void onDecoded(Bitmap bitmap, Orientation orientation) {
+            decoded++;
+            this.orientation = orientation;
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+    }
+}
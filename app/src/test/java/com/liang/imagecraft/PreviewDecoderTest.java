@@ -0,0 +1,27 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览图尺寸计算的本地单元测试
+ */
+public class PreviewDecoderTest {
+
+    @Test
+    public void previewSize_fitsViewportWithoutSampling() {
+        assertArrayEquals(new int[]{1080, 810}, PreviewDecoder.previewSize(4000, 3000, 1080, 1920));
+    }
+
+    @Test
+    public void previewSize_samplesThenScales() {
+        // 采样率8后为 1000x750，再缩放到高度700以内
+        assertArrayEquals(new int[]{933, 700}, PreviewDecoder.previewSize(8000, 6000, 1000, 700));
+    }
+
+    @Test
+    public void previewSize_neverUpscales() {
+        assertArrayEquals(new int[]{640, 480}, PreviewDecoder.previewSize(640, 480, 1080, 1920));
+    }
+}
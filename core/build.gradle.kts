@@ -0,0 +1,31 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+// ./gradlew :core:jmh，结果写入 core/build/results/jmh/results.json
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+    // 48MP 的 ARGB 缓冲区本身就有 192MB，还需要同样大小的中间缓冲区
+    jvmArgs = listOf("-Xms4g", "-Xmx4g")
+    fork = 1
+    warmupIterations = 2
+    iterations = 5
+    // 只运行部分基准时可以传入 -Pjmh.includes=Resampler
+    providers.gradleProperty("jmh.includes").orNull?.let { includes = listOf(it) }
+}
@@ -0,0 +1,46 @@
+package com.liang.imagecraft.benchmark;
+
+import com.liang.imagecraft.EncodeSizeEstimator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码大小估算：细节统计的采样点数固定，耗时应基本不随分辨率增长
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncodeSizeBenchmark {
+
+    @Param({"12", "24", "48"})
+    public int megapixels;
+
+    private SyntheticImage image;
+    private float detail;
+
+    @Setup(Level.Trial)
+    public void createImage() {
+        image = SyntheticImage.create(megapixels);
+        detail = EncodeSizeEstimator.measureDetail(image.pixels, image.width, image.height);
+    }
+
+    @Benchmark
+    public float measureDetail() {
+        return EncodeSizeEstimator.measureDetail(image.pixels, image.width, image.height);
+    }
+
+    @Benchmark
+    public int qualityForTarget() {
+        return EncodeSizeEstimator.qualityForTarget(detail, image.width, image.height, 2L * 1024 * 1024, 40, 100);
+    }
+}
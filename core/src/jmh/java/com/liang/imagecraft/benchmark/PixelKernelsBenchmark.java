@@ -0,0 +1,63 @@
+package com.liang.imagecraft.benchmark;
+
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.PixelKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 像素内核：一次遍历的色调调整、高斯模糊和USM锐化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PixelKernelsBenchmark {
+
+    @Param({"12", "24", "48"})
+    public int megapixels;
+
+    private final Adjustments adjustments = new Adjustments(0.1f, 0.2f, 0.3f, 0.5f);
+    private final PixelKernels kernels = new PixelKernels();
+    private SyntheticImage image;
+    private int[] pixels;
+
+    @Setup(Level.Trial)
+    public void createImage() {
+        image = SyntheticImage.create(megapixels);
+        pixels = image.copyPixels();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPixels() {
+        // 原地修改的内核多次执行后图片会趋于饱和，每轮迭代前恢复原图
+        System.arraycopy(image.pixels, 0, pixels, 0, pixels.length);
+    }
+
+    @Benchmark
+    public int[] adjust() {
+        kernels.adjust(pixels, image.width, image.height, adjustments);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] gaussianBlur() {
+        kernels.gaussianBlur(pixels, image.width, image.height, 2f);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] sharpen() {
+        kernels.sharpen(pixels, image.width, image.height, 0.8f, 1.5f);
+        return pixels;
+    }
+}
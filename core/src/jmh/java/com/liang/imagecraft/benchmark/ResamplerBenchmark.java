@@ -0,0 +1,64 @@
+package com.liang.imagecraft.benchmark;
+
+import com.liang.imagecraft.kernel.Resampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重采样：缩小到导出常用的最长边，以及小比例缩放时的双线性插值
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResamplerBenchmark {
+
+    @Param({"12", "24", "48"})
+    public int megapixels;
+
+    @Param({"2048", "4096"})
+    public int maxEdge;
+
+    private final Resampler resampler = new Resampler();
+    private SyntheticImage image;
+    private int[] output;
+    private int outputWidth;
+    private int outputHeight;
+
+    @Setup(Level.Trial)
+    public void createImage() {
+        image = SyntheticImage.create(megapixels);
+        int[] size = Resampler.fitWithin(image.width, image.height, maxEdge);
+        outputWidth = size[0];
+        outputHeight = size[1];
+        // 双线性插值测试缩小到 3/4，输出缓冲区按较大的一个分配
+        output = new int[Math.max(outputWidth * outputHeight, (image.width * 3 / 4) * (image.height * 3 / 4))];
+    }
+
+    @Benchmark
+    public int[] downscaleArea() {
+        resampler.downscaleArea(image.pixels, image.width, image.height, output, outputWidth, outputHeight);
+        return output;
+    }
+
+    @Benchmark
+    public int[] bilinearToMaxEdge() {
+        resampler.bilinear(image.pixels, image.width, image.height, output, outputWidth, outputHeight);
+        return output;
+    }
+
+    @Benchmark
+    public int[] bilinearThreeQuarters() {
+        resampler.bilinear(image.pixels, image.width, image.height, output, image.width * 3 / 4, image.height * 3 / 4);
+        return output;
+    }
+}
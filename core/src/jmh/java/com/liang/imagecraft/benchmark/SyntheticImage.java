@@ -0,0 +1,57 @@
+package com.liang.imagecraft.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * 基准测试用的合成图片，内容固定，包含平滑渐变、硬边缘和噪声，接近真实照片的细节分布
+ */
+final class SyntheticImage {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    private SyntheticImage(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * 按常见相机分辨率生成 12 / 24 / 48 MP 的图片
+     */
+    static SyntheticImage create(int megapixels) {
+        switch (megapixels) {
+            case 12:
+                return create(4000, 3000);
+            case 24:
+                return create(6000, 4000);
+            case 48:
+                return create(8000, 6000);
+            default:
+                throw new IllegalArgumentException("不支持的分辨率：" + megapixels + "MP");
+        }
+    }
+
+    static SyntheticImage create(int width, int height) {
+        int[] pixels = new int[width * height];
+        SplittableRandom random = new SplittableRandom(42L);
+        for (int y = 0; y < height; y++) {
+            int rowOffset = y * width;
+            int sky = y * 255 / height;
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(17) - 8;
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (sky + noise) & 0xFF;
+                // 每256像素一格的棋盘格提供硬边缘
+                int b = (((x >> 8) ^ (y >> 8)) & 1) == 0 ? 60 + noise : 190 + noise;
+                pixels[rowOffset + x] = 0xFF000000 | (r << 16) | (g << 8) | (b & 0xFF);
+            }
+        }
+        return new SyntheticImage(width, height, pixels);
+    }
+
+    int[] copyPixels() {
+        return pixels.clone();
+    }
+}
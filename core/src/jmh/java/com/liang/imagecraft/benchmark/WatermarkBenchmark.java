@@ -0,0 +1,96 @@
+package com.liang.imagecraft.benchmark;
+
+import com.liang.imagecraft.kernel.AlphaMask;
+import com.liang.imagecraft.kernel.MaskCompositor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 水印合成：右下角单个水印，以及平铺满整张图的水印
+ * 遮罩宽度取图片宽度的 1/4，与导出时按输出尺寸缩放水印一致
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WatermarkBenchmark {
+
+    private static final int COLOR = 0xFFFFFF;
+    private static final int OPACITY = 150;
+    private static final int STRIP_ROWS = 256;
+
+    @Param({"12", "24", "48"})
+    public int megapixels;
+
+    private SyntheticImage image;
+    private int[] pixels;
+    private AlphaMask mask;
+    private int[] strip;
+
+    @Setup(Level.Trial)
+    public void createImage() {
+        image = SyntheticImage.create(megapixels);
+        pixels = image.copyPixels();
+        mask = createMask(image.width / 4, image.width / 16);
+        strip = new int[image.width * STRIP_ROWS];
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPixels() {
+        System.arraycopy(image.pixels, 0, pixels, 0, pixels.length);
+    }
+
+    @Benchmark
+    public int[] corner() {
+        int margin = image.width / 80;
+        MaskCompositor.blend(pixels, image.width, image.height, mask,
+                image.width - mask.width - margin, image.height - mask.height - margin, COLOR, OPACITY);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] tiled() {
+        MaskCompositor.blendTiled(pixels, image.width, image.height, 0, mask,
+                mask.width * 2, mask.height * 3, COLOR, OPACITY);
+        return pixels;
+    }
+
+    /**
+     * 按行分段平铺，与导出时分段读写位图像素的方式一致
+     */
+    @Benchmark
+    public int[] tiledStrips() {
+        for (int y = 0; y < image.height; y += STRIP_ROWS) {
+            int count = Math.min(STRIP_ROWS, image.height - y);
+            System.arraycopy(pixels, y * image.width, strip, 0, count * image.width);
+            MaskCompositor.blendTiled(strip, image.width, count, y, mask,
+                    mask.width * 2, mask.height * 3, COLOR, OPACITY);
+            System.arraycopy(strip, 0, pixels, y * image.width, count * image.width);
+        }
+        return pixels;
+    }
+
+    /**
+     * 模拟栅格化后的文字：横向笔画和竖向笔画交错，边缘带抗锯齿的过渡值
+     */
+    private static AlphaMask createMask(int width, int height) {
+        byte[] alpha = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int stroke = Math.min(Math.abs((x % 24) - 12), Math.abs((y % 24) - 12));
+                int value = stroke <= 3 ? 255 : (stroke <= 5 ? 128 : 0);
+                alpha[y * width + x] = (byte) value;
+            }
+        }
+        return new AlphaMask(width, height, alpha);
+    }
+}
@@ -0,0 +1,310 @@
+package com.liang.imagecraft;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分阶段的批处理流水线
+ * 每个条目依次经过 解码 -> 处理 -> 编码 三个阶段，每个阶段有各自固定数量的工作线程，
+ * 不同条目的不同阶段可以同时进行。进入解码阶段前必须先取得准入许可，许可在条目结束（成功、失败或取消）时归还，
+ * 因此任何时刻最多只有 maxInFlight 个条目的中间数据（全分辨率位图）存在于内存中。
+ * 本类不依赖Android，所有回调都在工作线程中调用
+ *
+ * @param <I> 输入条目类型
+ * @param <D> 阶段之间传递的中间数据类型
+ * @param <R> 输出结果类型
+ */
+public final class BatchPipeline<I, D, R> {
+
+    /**
+     * 各阶段的具体实现
+     */
+    public interface Steps<I, D, R> {
+        D decode(I item) throws Exception;
+
+        /**
+         * 处理中间数据，可以原地修改并返回同一个对象，也可以返回新对象并释放旧的
+         */
+        D process(I item, D data) throws Exception;
+
+        R encode(I item, D data) throws Exception;
+
+        /**
+         * 释放中间数据，条目结束时一定会调用
+         */
+        void release(D data);
+    }
+
+    /**
+     * 条目状态
+     */
+    public enum ItemState {
+        QUEUED, DECODING, PROCESSING, ENCODING, DONE, FAILED, CANCELLED
+    }
+
+    /**
+     * 进度监听，在工作线程中调用
+     */
+    public interface Listener<R> {
+        void onItemStateChanged(int index, ItemState state, R result, Exception error);
+
+        void onFinished(int succeeded, int failed, int cancelled, long elapsedNanos);
+    }
+
+    /**
+     * 各阶段的线程数和准入上限
+     */
+    public static final class Config {
+        public final int decodeWorkers;
+        public final int processWorkers;
+        public final int encodeWorkers;
+        public final int maxInFlight;
+
+        public Config(int decodeWorkers, int processWorkers, int encodeWorkers, int maxInFlight) {
+            this.decodeWorkers = Math.max(1, decodeWorkers);
+            this.processWorkers = Math.max(1, processWorkers);
+            this.encodeWorkers = Math.max(1, encodeWorkers);
+            this.maxInFlight = Math.max(1, maxInFlight);
+        }
+
+        /**
+         * 按内存和CPU核数生成配置
+         * 准入上限取 内存预算能容纳的条目数 和 核数 中较小者；解码、编码都是单线程的原生调用，
+         * 线程数跟随准入上限，处理阶段内部已经按行并行，只需一个线程
+         *
+         * @param availableBytes 可用于中间数据的内存
+         * @param bytesPerItem   单个条目中间数据的预估大小
+         */
+        public static Config forDevice(int cores, long availableBytes, long bytesPerItem) {
+            int byMemory = (int) Math.min(Integer.MAX_VALUE, availableBytes / Math.max(1L, bytesPerItem));
+            int maxInFlight = Math.max(1, Math.min(Math.max(1, cores), byMemory));
+            return new Config(maxInFlight, 1, maxInFlight, maxInFlight);
+        }
+    }
+
+    private final Steps<I, D, R> steps;
+    private final Config config;
+    private final Semaphore admission;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger cancelledCount = new AtomicInteger();
+
+    private ExecutorService decodePool;
+    private ExecutorService processPool;
+    private ExecutorService encodePool;
+    private Thread feeder;
+    private Listener<R> listener;
+    private long startNanos;
+
+    public BatchPipeline(Steps<I, D, R> steps, Config config) {
+        this.steps = steps;
+        this.config = config;
+        this.admission = new Semaphore(config.maxInFlight);
+    }
+
+    /**
+     * 开始处理，每个流水线实例只能启动一次
+     */
+    public synchronized void start(List<I> items, Listener<R> listener) {
+        if (feeder != null) {
+            throw new IllegalStateException("流水线已经启动");
+        }
+        this.listener = listener;
+        List<I> snapshot = new ArrayList<>(items);
+        startNanos = System.nanoTime();
+        remaining.set(snapshot.size());
+        decodePool = newPool(config.decodeWorkers, "Batch-decode");
+        processPool = newPool(config.processWorkers, "Batch-process");
+        encodePool = newPool(config.encodeWorkers, "Batch-encode");
+        for (int i = 0; i < snapshot.size(); i++) {
+            listener.onItemStateChanged(i, ItemState.QUEUED, null, null);
+        }
+        if (snapshot.isEmpty()) {
+            finish();
+            return;
+        }
+        // 投递线程按顺序为条目申请准入许可，许可用完时在这里阻塞，从而限制同时存在的中间数据
+        feeder = new Thread(() -> {
+            for (int i = 0; i < snapshot.size(); i++) {
+                int index = i;
+                I item = snapshot.get(i);
+                try {
+                    admission.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled.set(true);
+                }
+                if (cancelled.get()) {
+                    for (int j = i; j < snapshot.size(); j++) {
+                        complete(j, ItemState.CANCELLED, null, null, false);
+                    }
+                    return;
+                }
+                int current = inFlight.incrementAndGet();
+                peakInFlight.accumulateAndGet(current, Math::max);
+                decodePool.execute(() -> runDecode(index, item));
+            }
+        }, "Batch-feeder");
+        feeder.start();
+    }
+
+    /**
+     * 取消尚未完成的条目，正在执行的阶段结束后停止
+     */
+    public void cancel() {
+        cancelled.set(true);
+        Thread thread = feeder;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * 运行期间同时在处理中的条目数峰值
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    private void runDecode(int index, I item) {
+        if (cancelled.get()) {
+            complete(index, ItemState.CANCELLED, null, null, true);
+            return;
+        }
+        D data = null;
+        try {
+            listener.onItemStateChanged(index, ItemState.DECODING, null, null);
+            data = steps.decode(item);
+            D decoded = data;
+            processPool.execute(() -> runProcess(index, item, decoded));
+        } catch (Exception | OutOfMemoryError e) {
+            fail(index, data, e);
+        }
+    }
+
+    private void runProcess(int index, I item, D data) {
+        if (cancelled.get()) {
+            cancel(index, data);
+            return;
+        }
+        D current = data;
+        try {
+            listener.onItemStateChanged(index, ItemState.PROCESSING, null, null);
+            current = steps.process(item, data);
+            D processed = current;
+            encodePool.execute(() -> runEncode(index, item, processed));
+        } catch (Exception | OutOfMemoryError e) {
+            fail(index, current, e);
+        }
+    }
+
+    private void runEncode(int index, I item, D data) {
+        if (cancelled.get()) {
+            cancel(index, data);
+            return;
+        }
+        R result;
+        try {
+            listener.onItemStateChanged(index, ItemState.ENCODING, null, null);
+            result = steps.encode(item, data);
+        } catch (Exception | OutOfMemoryError e) {
+            fail(index, data, e);
+            return;
+        }
+        // 释放和结束都只能执行一次，放在try之外，避免回调抛出异常时再按失败处理一遍
+        try {
+            steps.release(data);
+        } finally {
+            complete(index, ItemState.DONE, result, null, true);
+        }
+    }
+
+    private void cancel(int index, D data) {
+        try {
+            steps.release(data);
+        } finally {
+            complete(index, ItemState.CANCELLED, null, null, true);
+        }
+    }
+
+    private void fail(int index, D data, Throwable error) {
+        try {
+            if (data != null) {
+                steps.release(data);
+            }
+        } finally {
+            completeFailed(index, error);
+        }
+    }
+
+    private void completeFailed(int index, Throwable error) {
+        if (cancelled.get()) {
+            complete(index, ItemState.CANCELLED, null, null, true);
+            return;
+        }
+        Exception exception = error instanceof Exception ? (Exception) error : new Exception("内存不足", error);
+        complete(index, ItemState.FAILED, null, exception, true);
+    }
+
+    /**
+     * 条目结束，归还准入许可；全部条目结束后关闭线程池并回调
+     */
+    private void complete(int index, ItemState state, R result, Exception error, boolean admitted) {
+        if (admitted) {
+            inFlight.decrementAndGet();
+            admission.release();
+        }
+        switch (state) {
+            case DONE:
+                succeeded.incrementAndGet();
+                break;
+            case FAILED:
+                failed.incrementAndGet();
+                break;
+            default:
+                cancelledCount.incrementAndGet();
+                break;
+        }
+        try {
+            listener.onItemStateChanged(index, state, result, error);
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+    }
+
+    private void finish() {
+        decodePool.shutdown();
+        processPool.shutdown();
+        encodePool.shutdown();
+        listener.onFinished(succeeded.get(), failed.get(), cancelledCount.get(), System.nanoTime() - startNanos);
+    }
+
+    private static ExecutorService newPool(int threads, String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,162 @@
+package com.liang.imagecraft;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解码策略
+ * 解码前按内存预算估算位图占用，选出像素格式和采样率组成一条降级阶梯：
+ * 首选格式在预算内的采样率 -> 更省内存的格式 -> 逐级加倍采样率。
+ * 解码或后续处理内存不足时先释放缓存，再按阶梯的下一级重试，只有整条阶梯都失败才报错
+ */
+public final class DecodePolicy {
+
+    /**
+     * 像素格式，与 Bitmap.Config 一一对应
+     */
+    public enum Config {
+        ARGB_8888(4),
+        RGB_565(2),
+        // 像素在显存中，不可修改，只能用于显示
+        HARDWARE(4);
+
+        public final int bytesPerPixel;
+
+        Config(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    /**
+     * 解码结果的用途，决定允许使用的像素格式
+     */
+    public enum Purpose {
+        // 只用于显示，允许时使用HARDWARE
+        DISPLAY,
+        // 编辑预览的代理图，需要读取像素；不透明时可以降为RGB_565
+        PREVIEW,
+        // 导出，始终为ARGB_8888，保证输出质量和透明度
+        EXPORT
+    }
+
+    /**
+     * 降级阶梯中的一级
+     */
+    public static final class Step {
+        public final int sampleSize;
+        public final Config config;
+
+        public Step(int sampleSize, Config config) {
+            this.sampleSize = sampleSize;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Step)) {
+                return false;
+            }
+            Step that = (Step) o;
+            return sampleSize == that.sampleSize && config == that.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sampleSize + config.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return config + "/" + sampleSize;
+        }
+    }
+
+    /**
+     * 按阶梯中的一级执行一次解码，内存不足时抛出OutOfMemoryError
+     */
+    public interface Attempt<R> {
+        R run(Step step) throws IOException;
+    }
+
+    // 在预算选出的采样率之上最多再加倍的次数
+    static final int MAX_EXTRA_DOWNSAMPLES = 3;
+    // 采样后长边不再小于这个像素数
+    static final int MIN_EDGE = 64;
+
+    private final MemoryBudget budget;
+    private final boolean hardwareAllowed;
+    private final Runnable releaseCaches;
+
+    public DecodePolicy(MemoryBudget budget) {
+        this(budget, false, () -> {
+        });
+    }
+
+    /**
+     * @param hardwareAllowed 是否允许DISPLAY用途使用HARDWARE格式
+     * @param releaseCaches   内存不足、重试下一级之前调用，释放可以重建的缓存
+     */
+    public DecodePolicy(MemoryBudget budget, boolean hardwareAllowed, Runnable releaseCaches) {
+        this.budget = budget;
+        this.hardwareAllowed = hardwareAllowed;
+        this.releaseCaches = releaseCaches;
+    }
+
+    public MemoryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * 生成降级阶梯，第一级就是预算内的最佳选择
+     *
+     * @param minSampleSize 最小采样率，例如输出尺寸有上限时
+     * @param bitmapCount   处理期间同时存在的同尺寸位图数量
+     * @param opaque        图片是否一定不透明，只有不透明时才会降为RGB_565
+     */
+    public List<Step> ladder(int width, int height, int minSampleSize, int bitmapCount, boolean opaque,
+                             Purpose purpose) {
+        Config preferred = purpose == Purpose.DISPLAY && hardwareAllowed ? Config.HARDWARE : Config.ARGB_8888;
+        Config compact = purpose != Purpose.EXPORT && opaque ? Config.RGB_565 : preferred;
+        int minSample = Math.max(1, minSampleSize);
+        int sampleSize = Math.max(minSample,
+                budget.chooseSampleSize(width, height, bitmapCount, preferred.bytesPerPixel));
+
+        List<Step> steps = new ArrayList<>();
+        if (compact != preferred) {
+            int compactSampleSize = Math.max(minSample,
+                    budget.chooseSampleSize(width, height, bitmapCount, compact.bytesPerPixel));
+            if (compactSampleSize < sampleSize) {
+                // 首选格式需要降采样才放得下时，优先保留分辨率，改用省内存的格式
+                sampleSize = compactSampleSize;
+            } else {
+                steps.add(new Step(sampleSize, preferred));
+            }
+        }
+        steps.add(new Step(sampleSize, compact));
+        for (int i = 0; i < MAX_EXTRA_DOWNSAMPLES
+                && Math.max(width, height) / (sampleSize * 2) >= MIN_EDGE; i++) {
+            sampleSize *= 2;
+            steps.add(new Step(sampleSize, compact));
+        }
+        return steps;
+    }
+
+    /**
+     * 按阶梯逐级尝试，返回第一次成功的结果
+     *
+     * @throws IOException 整条阶梯都内存不足，或解码本身失败
+     */
+    public <R> R decode(List<Step> ladder, Attempt<R> attempt) throws IOException {
+        OutOfMemoryError failure = null;
+        for (Step step : ladder) {
+            try {
+                return attempt.run(step);
+            } catch (OutOfMemoryError e) {
+                failure = e;
+                releaseCaches.run();
+            }
+        }
+        throw new IOException("内存不足", failure);
+    }
+}
@@ -0,0 +1,34 @@
+package com.liang.imagecraft;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 可复用的编码缓冲区
+ * reset() 后保留已分配的容量，多次导出或目标大小模式下的多次编码不再重复扩容
+ */
+public final class EncodeBuffer extends ByteArrayOutputStream {
+
+    // 导出结束后最多保留的容量，避免一次超大导出后长期占用内存
+    private static final int MAX_RETAINED_BYTES = 16 * 1024 * 1024;
+
+    public EncodeBuffer(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /**
+     * 直接访问内部数组，有效数据为前 size() 个字节
+     */
+    public synchronized byte[] array() {
+        return buf;
+    }
+
+    /**
+     * 清空内容，容量超过上限时释放内部数组
+     */
+    public synchronized void release() {
+        reset();
+        if (buf.length > MAX_RETAINED_BYTES) {
+            buf = new byte[32];
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.liang.imagecraft;
+
+/**
+ * JPEG编码大小估算
+ * 不做真正的编码，只在稀疏网格上统计亮度梯度作为图片细节量，再按经验模型换算成字节数。
+ * 细节量只需计算一次，之后可以用很低的代价估算任意质量下的大小，
+ * 用于在目标大小模式下预估质量区间，减少真正编码的次数
+ */
+public final class EncodeSizeEstimator {
+
+    // 参与统计的最大采样点数，与图片尺寸无关，估算耗时基本固定
+    private static final int MAX_SAMPLES = 1 << 16;
+    // 文件头、量化表和霍夫曼表的大致字节数
+    private static final int HEADER_BYTES = 623;
+    // 质量50时平坦图片和细节部分每像素的比特数
+    private static final double BASE_BITS_PER_PIXEL = 0.08;
+    private static final double DETAIL_BITS_PER_PIXEL = 0.12;
+
+    private EncodeSizeEstimator() {
+    }
+
+    /**
+     * 统计图片细节量：采样点处水平与垂直方向亮度差的绝对值之和的平均值，范围 0 ~ 510
+     */
+    public static float measureDetail(int[] pixels, int width, int height) {
+        if (width < 2 || height < 2) {
+            return 0f;
+        }
+        int step = Math.max(1, (int) Math.sqrt((double) width * height / MAX_SAMPLES));
+        long total = 0L;
+        int count = 0;
+        for (int y = 0; y < height - 1; y += step) {
+            int rowOffset = y * width;
+            for (int x = 0; x < width - 1; x += step) {
+                int i = rowOffset + x;
+                int luma = luma(pixels[i]);
+                total += Math.abs(luma(pixels[i + 1]) - luma) + Math.abs(luma(pixels[i + width]) - luma);
+                count++;
+            }
+        }
+        return (float) total / count;
+    }
+
+    /**
+     * 按细节量估算指定质量下的JPEG字节数
+     */
+    public static long estimateJpegBytes(float detail, int width, int height, int quality) {
+        double bitsPerPixel = (BASE_BITS_PER_PIXEL + DETAIL_BITS_PER_PIXEL * Math.pow(detail, 0.8))
+                * qualityGain(quality);
+        return HEADER_BYTES + Math.round(bitsPerPixel * width * height / 8.0);
+    }
+
+    public static long estimateJpegBytes(int[] pixels, int width, int height, int quality) {
+        return estimateJpegBytes(measureDetail(pixels, width, height), width, height, quality);
+    }
+
+    /**
+     * 估算不超过目标大小的最高质量，最低质量仍超过目标时返回 minQuality
+     */
+    public static int qualityForTarget(float detail, int width, int height, long targetBytes,
+                                       int minQuality, int maxQuality) {
+        int low = minQuality;
+        int high = maxQuality;
+        int best = minQuality;
+        // 估算大小随质量单调递增，直接二分
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (estimateJpegBytes(detail, width, height, middle) <= targetBytes) {
+                best = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 质量对码率的影响，以质量50为1。量化表缩放比例与libjpeg一致
+     */
+    private static double qualityGain(int quality) {
+        int q = Math.max(1, Math.min(100, quality));
+        int scale = q < 50 ? 5000 / q : 200 - q * 2;
+        // 质量接近100时量化步长趋近1，码率不再按比例增长
+        return Math.pow(Math.max(5, scale) / 100.0, -0.7);
+    }
+
+    private static int luma(int argb) {
+        return (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150 + (argb & 0xFF) * 29) >> 8;
+    }
+}
@@ -0,0 +1,451 @@
+package com.liang.imagecraft;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.Layer;
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.ColorLut;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 导出队列的磁盘日志
+ * 保存尚未完成的导出任务和最近导出结果的内容摘要，每次修改都把完整内容写入临时文件、
+ * 同步到磁盘后再改名替换，进程在任何时刻被杀，留下的都是修改前或修改后的完整日志。
+ * <p>
+ * 任务开始执行时先记一次尝试并把下次可执行时间推迟一个退避间隔，再写回日志：
+ * 执行中进程被杀，任务仍在队列里，退避之后由后台重新执行；连续失败到上限后丢弃。
+ * 写入相册前登记未发布的条目，重试前据此删除上次留下的半成品；
+ * 已发布结果的摘要用于去重，同一任务重试或重复保存都不会在相册里多出一张相同的图片
+ */
+public final class ExportJournal {
+
+    private static final int MAGIC = 0x49434A31;
+    private static final int VERSION = 1;
+    // 一个任务最多尝试的次数
+    static final int MAX_ATTEMPTS = 5;
+    // 第一次重试前的等待时间，之后每次加倍
+    static final long BASE_BACKOFF_MILLIS = 30_000L;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60_000L;
+    // 保留的导出结果摘要数量
+    static final int MAX_OUTPUTS = 256;
+
+    private static final int OP_CROP = 1;
+    private static final int OP_ROTATE = 2;
+    private static final int OP_ADJUST = 3;
+    private static final int OP_WATERMARK = 4;
+    private static final int OP_OVERLAY = 5;
+    private static final int OP_BLUR = 6;
+    private static final int OP_SHARPEN = 7;
+    private static final int OP_COLOR_GRADE = 8;
+
+    /**
+     * 一个导出任务，不可变，状态变化时生成新的实例
+     */
+    public static final class Job {
+        public final long id;
+        public final String sourceUri;
+        public final EditList edits;
+        public final ExportSettings settings;
+        // 已经开始执行的次数
+        public final int attempts;
+        // 最早可以执行的时间
+        public final long notBefore;
+        // 上次执行插入但未完成的相册条目，没有时为null
+        public final String pendingEntry;
+
+        Job(long id, String sourceUri, EditList edits, ExportSettings settings, int attempts, long notBefore,
+            String pendingEntry) {
+            this.id = id;
+            this.sourceUri = sourceUri;
+            this.edits = edits;
+            this.settings = settings;
+            this.attempts = attempts;
+            this.notBefore = notBefore;
+            this.pendingEntry = pendingEntry;
+        }
+
+        Job withAttempt(long notBefore) {
+            return new Job(id, sourceUri, edits, settings, attempts + 1, notBefore, pendingEntry);
+        }
+
+        Job withNotBefore(long notBefore) {
+            return new Job(id, sourceUri, edits, settings, attempts, notBefore, pendingEntry);
+        }
+
+        Job withPendingEntry(String entry) {
+            return new Job(id, sourceUri, edits, settings, attempts, notBefore, entry);
+        }
+    }
+
+    private final File file;
+    private final List<Job> jobs = new ArrayList<>();
+    // 内容摘要 -> 已发布的相册条目，按写入顺序淘汰
+    private final LinkedHashMap<String, String> outputs = new LinkedHashMap<>();
+    private long nextId = 1;
+
+    private ExportJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 打开日志，文件不存在时为空队列；文件损坏时改名保留并从空队列开始
+     */
+    public static ExportJournal open(File file) {
+        ExportJournal journal = new ExportJournal(file);
+        if (file.exists()) {
+            try {
+                journal.load();
+            } catch (IOException | RuntimeException e) {
+                journal.jobs.clear();
+                journal.outputs.clear();
+                journal.nextId = 1;
+                file.renameTo(new File(file.getPath() + ".corrupt"));
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * 第 attempts 次尝试开始时推迟的时间
+     */
+    static long backoffMillis(int attempts) {
+        int doublings = Math.max(0, Math.min(attempts - 1, 20));
+        return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << doublings);
+    }
+
+    /**
+     * 添加任务并写入磁盘，返回后即使进程被杀任务也不会丢失
+     */
+    public synchronized Job enqueue(String sourceUri, EditList edits, ExportSettings settings, long now)
+            throws IOException {
+        Job job = new Job(nextId++, sourceUri, edits, settings, 0, now, null);
+        jobs.add(job);
+        save();
+        return job;
+    }
+
+    /**
+     * 开始执行指定任务：记一次尝试，并把下次可执行时间推迟一个退避间隔
+     *
+     * @return 任务已不在队列中时返回null
+     */
+    public synchronized Job start(long id, long now) throws IOException {
+        int index = indexOf(id);
+        if (index < 0) {
+            return null;
+        }
+        Job job = jobs.get(index);
+        Job started = job.withAttempt(now + backoffMillis(job.attempts + 1));
+        jobs.set(index, started);
+        save();
+        return started;
+    }
+
+    /**
+     * 取出最早可以执行的任务并开始执行，见 start；已达到尝试上限的任务被丢弃
+     *
+     * @return 没有可执行的任务时返回null
+     */
+    public synchronized Job next(long now) throws IOException {
+        boolean dropped = false;
+        Job due = null;
+        for (Iterator<Job> iterator = jobs.iterator(); iterator.hasNext(); ) {
+            Job job = iterator.next();
+            if (job.attempts >= MAX_ATTEMPTS) {
+                iterator.remove();
+                dropped = true;
+            } else if (job.notBefore <= now && (due == null || job.notBefore < due.notBefore)) {
+                due = job;
+            }
+        }
+        if (due == null) {
+            if (dropped) {
+                save();
+            }
+            return null;
+        }
+        return start(due.id, now);
+    }
+
+    /**
+     * 执行失败后按退避间隔重试，达到尝试上限时丢弃
+     *
+     * @return 是否还会重试
+     */
+    public synchronized boolean retryLater(long id, long now) throws IOException {
+        int index = indexOf(id);
+        if (index < 0) {
+            return false;
+        }
+        Job job = jobs.get(index);
+        if (job.attempts >= MAX_ATTEMPTS) {
+            jobs.remove(index);
+            save();
+            return false;
+        }
+        jobs.set(index, job.withNotBefore(now + backoffMillis(job.attempts)));
+        save();
+        return true;
+    }
+
+    /**
+     * 登记任务已插入但尚未发布的相册条目
+     */
+    public synchronized void setPendingEntry(long id, String entry) throws IOException {
+        int index = indexOf(id);
+        if (index >= 0) {
+            jobs.set(index, jobs.get(index).withPendingEntry(entry));
+            save();
+        }
+    }
+
+    /**
+     * 记录已发布的导出结果
+     */
+    public synchronized void recordOutput(String sha256, String entry) throws IOException {
+        outputs.remove(sha256);
+        outputs.put(sha256, entry);
+        while (outputs.size() > MAX_OUTPUTS) {
+            Iterator<String> oldest = outputs.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        save();
+    }
+
+    /**
+     * 内容摘要相同的已发布结果，没有时返回null
+     */
+    public synchronized String findOutput(String sha256) {
+        return outputs.get(sha256);
+    }
+
+    /**
+     * 条目是否是已发布的导出结果，用于判断上次执行是否在发布之后才中断
+     */
+    public synchronized boolean isPublished(String entry) {
+        return outputs.containsValue(entry);
+    }
+
+    /**
+     * 任务完成、失败后不再重试或被用户取消时移出队列
+     */
+    public synchronized void remove(long id) throws IOException {
+        int index = indexOf(id);
+        if (index >= 0) {
+            jobs.remove(index);
+            save();
+        }
+    }
+
+    /**
+     * 距离下一个任务可以执行还有多久，队列为空时返回-1
+     */
+    public synchronized long delayUntilNext(long now) {
+        long earliest = Long.MAX_VALUE;
+        for (Job job : jobs) {
+            earliest = Math.min(earliest, job.notBefore);
+        }
+        return jobs.isEmpty() ? -1 : Math.max(0, earliest - now);
+    }
+
+    public synchronized List<Job> jobs() {
+        return Collections.unmodifiableList(new ArrayList<>(jobs));
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < jobs.size(); i++) {
+            if (jobs.get(i).id == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nextId);
+            out.writeInt(jobs.size());
+            for (Job job : jobs) {
+                writeJob(out, job);
+            }
+            out.writeInt(outputs.size());
+            for (Map.Entry<String, String> output : outputs.entrySet()) {
+                out.writeUTF(output.getKey());
+                out.writeUTF(output.getValue());
+            }
+            out.flush();
+            // 改名之前内容必须已经落盘，否则断电后可能留下空文件
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("无法写入导出队列：" + file);
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("导出队列格式错误");
+            }
+            nextId = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                jobs.add(readJob(in));
+            }
+            int outputCount = in.readInt();
+            for (int i = 0; i < outputCount; i++) {
+                outputs.put(in.readUTF(), in.readUTF());
+            }
+        }
+    }
+
+    private static void writeJob(DataOutputStream out, Job job) throws IOException {
+        out.writeLong(job.id);
+        out.writeUTF(job.sourceUri);
+        out.writeUTF(job.settings.format.name());
+        out.writeInt(job.settings.quality);
+        out.writeInt(job.settings.maxLongEdge);
+        out.writeLong(job.settings.targetBytes);
+        out.writeInt(job.attempts);
+        out.writeLong(job.notBefore);
+        out.writeBoolean(job.pendingEntry != null);
+        if (job.pendingEntry != null) {
+            out.writeUTF(job.pendingEntry);
+        }
+        List<EditOp> ops = job.edits.getOps();
+        out.writeInt(ops.size());
+        for (EditOp op : ops) {
+            writeOp(out, op);
+        }
+    }
+
+    private static Job readJob(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String sourceUri = in.readUTF();
+        ExportSettings settings = new ExportSettings(ExportSettings.Format.valueOf(in.readUTF()),
+                in.readInt(), in.readInt(), in.readLong());
+        int attempts = in.readInt();
+        long notBefore = in.readLong();
+        String pendingEntry = in.readBoolean() ? in.readUTF() : null;
+        EditList edits = EditList.EMPTY;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            edits = edits.then(readOp(in));
+        }
+        return new Job(id, sourceUri, edits, settings, attempts, notBefore, pendingEntry);
+    }
+
+    private static void writeOp(DataOutputStream out, EditOp op) throws IOException {
+        if (op instanceof EditOp.Crop) {
+            EditOp.Crop crop = (EditOp.Crop) op;
+            out.writeByte(OP_CROP);
+            out.writeFloat(crop.left);
+            out.writeFloat(crop.top);
+            out.writeFloat(crop.right);
+            out.writeFloat(crop.bottom);
+        } else if (op instanceof EditOp.Rotate) {
+            out.writeByte(OP_ROTATE);
+            out.writeInt(((EditOp.Rotate) op).quarterTurns);
+        } else if (op instanceof EditOp.Adjust) {
+            Adjustments adjustments = ((EditOp.Adjust) op).adjustments;
+            out.writeByte(OP_ADJUST);
+            out.writeFloat(adjustments.brightness);
+            out.writeFloat(adjustments.contrast);
+            out.writeFloat(adjustments.saturation);
+            out.writeFloat(adjustments.exposure);
+        } else if (op instanceof EditOp.Watermark) {
+            EditOp.Watermark watermark = (EditOp.Watermark) op;
+            out.writeByte(OP_WATERMARK);
+            out.writeUTF(watermark.text);
+            out.writeBoolean(watermark.tiled);
+            out.writeFloat(watermark.size);
+            out.writeFloat(watermark.angle);
+        } else if (op instanceof EditOp.Overlay) {
+            Layer layer = ((EditOp.Overlay) op).layer;
+            out.writeByte(OP_OVERLAY);
+            out.writeUTF(layer.kind.name());
+            out.writeUTF(layer.content);
+            out.writeInt(layer.color);
+            out.writeInt(layer.opacity);
+            out.writeFloat(layer.centerX);
+            out.writeFloat(layer.centerY);
+            out.writeFloat(layer.size);
+            out.writeFloat(layer.rotation);
+        } else if (op instanceof EditOp.Blur) {
+            out.writeByte(OP_BLUR);
+            out.writeFloat(((EditOp.Blur) op).radius);
+        } else if (op instanceof EditOp.Sharpen) {
+            out.writeByte(OP_SHARPEN);
+            out.writeFloat(((EditOp.Sharpen) op).amount);
+        } else if (op instanceof EditOp.ColorGrade) {
+            out.writeByte(OP_COLOR_GRADE);
+            out.writeUTF(((EditOp.ColorGrade) op).preset.name());
+        } else {
+            throw new IOException("无法保存的编辑操作：" + op);
+        }
+    }
+
+    private static EditOp readOp(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case OP_CROP:
+                return new EditOp.Crop(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+            case OP_ROTATE:
+                return new EditOp.Rotate(in.readInt());
+            case OP_ADJUST:
+                return new EditOp.Adjust(new Adjustments(in.readFloat(), in.readFloat(), in.readFloat(),
+                        in.readFloat()));
+            case OP_WATERMARK:
+                return new EditOp.Watermark(in.readUTF(), in.readBoolean(), in.readFloat(), in.readFloat());
+            case OP_OVERLAY:
+                return new EditOp.Overlay(readLayer(in));
+            case OP_BLUR:
+                return new EditOp.Blur(in.readFloat());
+            case OP_SHARPEN:
+                return new EditOp.Sharpen(in.readFloat());
+            case OP_COLOR_GRADE:
+                return new EditOp.ColorGrade(ColorLut.Preset.valueOf(in.readUTF()));
+            default:
+                throw new IOException("未知的编辑操作：" + type);
+        }
+    }
+
+    private static Layer readLayer(DataInputStream in) throws IOException {
+        Layer.Kind kind = Layer.Kind.valueOf(in.readUTF());
+        String content = in.readUTF();
+        int color = in.readInt();
+        int opacity = in.readInt();
+        float centerX = in.readFloat();
+        float centerY = in.readFloat();
+        float size = in.readFloat();
+        float rotation = in.readFloat();
+        switch (kind) {
+            case STICKER:
+                return Layer.sticker(content, centerX, centerY, size).withRotation(rotation);
+            case PATTERN:
+                return Layer.pattern(content, color, opacity, size, rotation);
+            default:
+                return Layer.text(content, color, opacity, centerX, centerY, size).withRotation(rotation);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.liang.imagecraft;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 导出渲染流程
+ * 先按内存预算选择采样率，再直接解码成可变的ARGB_8888位图，并在其上重放一次编辑操作（包括水印）。
+ * 只有逐像素操作时整个过程只分配一张全尺寸位图，裁剪、旋转等几何操作需要额外一张。
+ * 解码或重放编辑时内存不足，按解码策略的降级阶梯加倍采样率重来，保存总能完成
+ *
+ * @param <B> 位图类型，Android上为Bitmap
+ */
+public class ExportRenderer<B> {
+
+    /**
+     * 具体的解码与绘制实现
+     */
+    public interface Backend<B> {
+        /**
+         * 只读取需要解码的尺寸，返回 {宽, 高}；只解码原图的一部分时是该部分的尺寸
+         */
+        int[] readSize() throws IOException;
+
+        /**
+         * 以指定采样率解码为可变位图，这是导出过程中唯一的位图分配
+         */
+        B decodeMutable(int inSampleSize) throws IOException;
+
+        /**
+         * 应用编辑期间同时存在的全尺寸位图数量，用于选择采样率
+         */
+        int peakBitmapCount();
+
+        /**
+         * 输出尺寸有上限时可以使用的最大采样率，不限制时返回1
+         */
+        int outputSampleSize(int width, int height);
+
+        /**
+         * 在位图上重放编辑操作，几何操作会返回新的位图
+         *
+         * @throws IOException 图层引用的贴图等内容无法读取
+         */
+        B applyEdits(B bitmap) throws IOException;
+
+        /**
+         * 释放解码得到的位图，重放编辑内存不足、准备降级重试时调用
+         */
+        void release(B bitmap);
+    }
+
+    private final DecodePolicy decodePolicy;
+
+    public ExportRenderer(MemoryBudget memoryBudget) {
+        this(new DecodePolicy(memoryBudget));
+    }
+
+    public ExportRenderer(DecodePolicy decodePolicy) {
+        this.decodePolicy = decodePolicy;
+    }
+
+    /**
+     * 解码并应用编辑，返回可直接编码的位图
+     */
+    public B render(Backend<B> backend) throws IOException {
+        return render(backend, () -> {
+        });
+    }
+
+    /**
+     * 解码并应用编辑，onDecoded 在每次解码完成、开始重放编辑前调用，用于报告进度
+     */
+    public B render(Backend<B> backend, Runnable onDecoded) throws IOException {
+        return decodePolicy.decode(ladderFor(backend), step -> {
+            B decoded = backend.decodeMutable(step.sampleSize);
+            onDecoded.run();
+            try {
+                return backend.applyEdits(decoded);
+            } catch (OutOfMemoryError e) {
+                backend.release(decoded);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 只完成解码一步，供批量导出等分阶段执行的流程使用
+     */
+    public B decode(Backend<B> backend) throws IOException {
+        return decodePolicy.decode(ladderFor(backend), step -> backend.decodeMutable(step.sampleSize));
+    }
+
+    private List<DecodePolicy.Step> ladderFor(Backend<B> backend) throws IOException {
+        int[] size = backend.readSize();
+        if (size[0] <= 0 || size[1] <= 0) {
+            throw new IOException("无法读取图片尺寸");
+        }
+        // 取内存预算和输出尺寸两者要求中较大的采样率
+        return decodePolicy.ladder(size[0], size[1], backend.outputSampleSize(size[0], size[1]),
+                backend.peakBitmapCount(), false, DecodePolicy.Purpose.EXPORT);
+    }
+}
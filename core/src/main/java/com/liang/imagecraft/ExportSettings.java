@@ -0,0 +1,118 @@
+package com.liang.imagecraft;
+
+/**
+ * 导出设置
+ * 输出格式、质量、最长边上限和目标文件大小，不可变，修改时返回新的实例
+ */
+public final class ExportSettings {
+
+    /**
+     * 输出格式
+     */
+    public enum Format {
+        JPEG("image/jpeg", "jpg", true),
+        WEBP_LOSSY("image/webp", "webp", true),
+        WEBP_LOSSLESS("image/webp", "webp", false),
+        PNG("image/png", "png", false);
+
+        public final String mimeType;
+        public final String extension;
+        // 是否为有损格式，只有有损格式才使用质量和目标大小
+        public final boolean lossy;
+
+        Format(String mimeType, String extension, boolean lossy) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+            this.lossy = lossy;
+        }
+    }
+
+    public static final ExportSettings DEFAULT = new ExportSettings(Format.JPEG, 90, 0, 0L);
+
+    // 目标大小模式下允许的最低质量，再低画质损失过于明显
+    public static final int MIN_TARGET_QUALITY = 40;
+
+    public final Format format;
+    // 质量 1 ~ 100
+    public final int quality;
+    // 输出最长边上限，0 表示不限制
+    public final int maxLongEdge;
+    // 目标文件大小（字节），0 表示不使用目标大小模式
+    public final long targetBytes;
+
+    public ExportSettings(Format format, int quality, int maxLongEdge, long targetBytes) {
+        this.format = format;
+        this.quality = Math.max(1, Math.min(100, quality));
+        this.maxLongEdge = Math.max(0, maxLongEdge);
+        this.targetBytes = Math.max(0L, targetBytes);
+    }
+
+    public ExportSettings withFormat(Format value) {
+        return new ExportSettings(value, quality, maxLongEdge, targetBytes);
+    }
+
+    public ExportSettings withQuality(int value) {
+        return new ExportSettings(format, value, maxLongEdge, targetBytes);
+    }
+
+    public ExportSettings withMaxLongEdge(int value) {
+        return new ExportSettings(format, quality, value, targetBytes);
+    }
+
+    public ExportSettings withTargetBytes(long value) {
+        return new ExportSettings(format, quality, maxLongEdge, value);
+    }
+
+    /**
+     * 是否按目标文件大小搜索质量
+     */
+    public boolean usesTargetSize() {
+        return targetBytes > 0 && format.lossy;
+    }
+
+    /**
+     * 在不低于最长边上限的前提下可以使用的最大解码采样率
+     * 超出上限很多的图片直接降采样解码，既省内存又省解码时间
+     */
+    public int sampleSizeFor(int outputWidth, int outputHeight) {
+        if (maxLongEdge <= 0) {
+            return 1;
+        }
+        int longEdge = Math.max(outputWidth, outputHeight);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxLongEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 把给定尺寸缩放到最长边上限所需的比例，不需要缩小时返回1
+     */
+    public float scaleFor(int width, int height) {
+        int longEdge = Math.max(width, height);
+        if (maxLongEdge <= 0 || longEdge <= maxLongEdge) {
+            return 1f;
+        }
+        return (float) maxLongEdge / longEdge;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ExportSettings)) {
+            return false;
+        }
+        ExportSettings that = (ExportSettings) o;
+        return format == that.format && quality == that.quality
+                && maxLongEdge == that.maxLongEdge && targetBytes == that.targetBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = format.hashCode();
+        result = 31 * result + quality;
+        result = 31 * result + maxLongEdge;
+        result = 31 * result + Long.hashCode(targetBytes);
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+package com.liang.imagecraft;
+
+import java.util.Locale;
+
+/**
+ * 单次导出的耗时与结果统计，用于比较不同导出设置的保存时间和文件大小
+ */
+public final class ExportStats {
+
+    public long decodeMillis;
+    public long editMillis;
+    public long encodeMillis;
+    public long writeMillis;
+    public long bytes;
+    public int quality;
+    public int encodePasses;
+    public int width;
+    public int height;
+    // 解码实际使用的采样率，以及输出尺寸上限本身要求的采样率；前者更大说明因内存不足降低了分辨率
+    public int sampleSize = 1;
+    public int requestedSampleSize = 1;
+
+    public long totalMillis() {
+        return decodeMillis + editMillis + encodeMillis + writeMillis;
+    }
+
+    /**
+     * 是否因内存不足按降级阶梯降低了输出分辨率
+     */
+    public boolean isResolutionReduced() {
+        return sampleSize > requestedSampleSize;
+    }
+
+    /**
+     * 因内存不足降低分辨率的倍数（按边长），没有降低时返回1
+     */
+    public int resolutionReduction() {
+        return Math.max(1, sampleSize / Math.max(1, requestedSampleSize));
+    }
+
+    public static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    /**
+     * 把字节数格式化为 KB/MB
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024L * 1024L) {
+            return String.format(Locale.US, "%.1f KB", bytes / 1024f);
+        }
+        return String.format(Locale.US, "%.2f MB", bytes / (1024f * 1024f));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%dx%d %s q=%d passes=%d sample=%d/%d decode=%dms edit=%dms encode=%dms write=%dms total=%dms",
+                width, height, formatBytes(bytes), quality, encodePasses, sampleSize, requestedSampleSize,
+                decodeMillis, editMillis, encodeMillis, writeMillis, totalMillis());
+    }
+}
@@ -0,0 +1,112 @@
+package com.liang.imagecraft;
+
+/**
+ * 内存预算
+ * 在解码前估算可用内存，决定导出时以全分辨率还是降采样解码。
+ * Android 8.0起位图像素分配在native堆，不受Java堆上限约束，应用中按系统剩余内存计算（见 forNativePixels）；
+ * 只按Java堆计算的预算用于尚未取得系统内存信息的场合
+ */
+public class MemoryBudget {
+
+    /**
+     * ARGB_8888 每像素字节数
+     */
+    public static final int BYTES_PER_PIXEL_ARGB = 4;
+
+    // 只使用剩余内存的一部分，为编码缓冲区和其他对象留出余量
+    private static final float USABLE_FRACTION = 0.6f;
+
+    private final long maxMemory;
+    private final long usedMemory;
+    // 系统剩余的物理内存，不限制时为Long.MAX_VALUE
+    private final long systemAvailable;
+    // 与其他任务平分预算时的份数
+    private final int shares;
+
+    public MemoryBudget(long maxMemory, long usedMemory) {
+        this(maxMemory, usedMemory, Long.MAX_VALUE, 1);
+    }
+
+    private MemoryBudget(long maxMemory, long usedMemory, long systemAvailable, int shares) {
+        this.maxMemory = maxMemory;
+        this.usedMemory = usedMemory;
+        this.systemAvailable = systemAvailable;
+        this.shares = Math.max(1, shares);
+    }
+
+    /**
+     * 以当前进程的Java堆状态创建预算
+     * 位图像素实际在native堆，这个预算偏保守，只在取不到系统内存信息时使用
+     */
+    public static MemoryBudget fromRuntime() {
+        Runtime runtime = Runtime.getRuntime();
+        return new MemoryBudget(runtime.maxMemory(), runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * 位图像素的预算：像素分配在native堆，只以系统剩余内存为上限，Java堆的余量不影响
+     *
+     * @param systemAvailable 系统剩余内存减去低内存阈值，小于0按0处理
+     */
+    public static MemoryBudget forNativePixels(long systemAvailable) {
+        return new MemoryBudget(Long.MAX_VALUE, 0L, Math.max(0L, systemAvailable), 1);
+    }
+
+    /**
+     * 可用于单张位图的字节数
+     */
+    public long availableBytes() {
+        long headroom = Math.min(maxMemory - usedMemory, systemAvailable);
+        return Math.max(0L, (long) (headroom * USABLE_FRACTION)) / shares;
+    }
+
+    /**
+     * 把预算平分给同时进行的多个任务，返回其中一份
+     */
+    public MemoryBudget share(int parts) {
+        return new MemoryBudget(maxMemory, usedMemory, systemAvailable, shares * Math.max(1, parts));
+    }
+
+    /**
+     * 估算指定尺寸和采样率下ARGB_8888位图占用的字节数
+     */
+    public static long estimateBitmapBytes(int width, int height, int inSampleSize) {
+        return estimateBitmapBytes(width, height, inSampleSize, BYTES_PER_PIXEL_ARGB);
+    }
+
+    /**
+     * 估算指定尺寸、采样率和每像素字节数下位图占用的字节数
+     */
+    public static long estimateBitmapBytes(int width, int height, int inSampleSize, int bytesPerPixel) {
+        long sampledWidth = (width + inSampleSize - 1) / inSampleSize;
+        long sampledHeight = (height + inSampleSize - 1) / inSampleSize;
+        return sampledWidth * sampledHeight * bytesPerPixel;
+    }
+
+    /**
+     * 选择能放入预算的最小采样率，全分辨率放得下时返回1
+     */
+    public int chooseSampleSize(int width, int height) {
+        return chooseSampleSize(width, height, 1);
+    }
+
+    /**
+     * 同时需要多张同尺寸位图时，按总量选择采样率
+     */
+    public int chooseSampleSize(int width, int height, int bitmapCount) {
+        return chooseSampleSize(width, height, bitmapCount, BYTES_PER_PIXEL_ARGB);
+    }
+
+    /**
+     * 按指定的每像素字节数选择采样率，用于RGB_565等更省内存的像素格式
+     */
+    public int chooseSampleSize(int width, int height, int bitmapCount, int bytesPerPixel) {
+        long available = availableBytes() / Math.max(1, bitmapCount);
+        int inSampleSize = 1;
+        while (estimateBitmapBytes(width, height, inSampleSize, bytesPerPixel) > available
+                && (width / inSampleSize > 1 || height / inSampleSize > 1)) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
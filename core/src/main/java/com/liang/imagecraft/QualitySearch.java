@@ -0,0 +1,76 @@
+package com.liang.imagecraft;
+
+import java.io.IOException;
+
+/**
+ * 目标文件大小模式下的质量搜索
+ * 对质量做二分查找，找到编码结果不超过目标大小的最高质量，编码次数有上限
+ */
+public final class QualitySearch {
+
+    /**
+     * 以指定质量编码，返回编码后的字节数；编码结果保留在调用方的缓冲区中
+     */
+    public interface Encoder {
+        long encode(int quality) throws IOException;
+    }
+
+    /**
+     * 搜索结果
+     */
+    public static final class Result {
+        public final int quality;
+        public final long bytes;
+        // 实际编码次数
+        public final int passes;
+
+        Result(int quality, long bytes, int passes) {
+            this.quality = quality;
+            this.bytes = bytes;
+            this.passes = passes;
+        }
+    }
+
+    // 质量范围 40 ~ 100 二分最多需要6次，再加上最后可能的一次重新编码
+    public static final int DEFAULT_MAX_PASSES = 7;
+
+    private QualitySearch() {
+    }
+
+    /**
+     * 二分搜索质量。返回时编码器缓冲区中一定是所选质量的编码结果；
+     * 最低质量仍超过目标大小时使用最低质量
+     */
+    public static Result search(Encoder encoder, long targetBytes, int minQuality, int maxQuality,
+                                int maxPasses) throws IOException {
+        int low = minQuality;
+        int high = maxQuality;
+        int passes = 0;
+        int best = -1;
+        long bestBytes = 0L;
+        int lastQuality = -1;
+        long lastBytes = 0L;
+        // 留出一次最终重新编码的机会
+        while (low <= high && passes < maxPasses - 1) {
+            int middle = (low + high + 1) >>> 1;
+            lastBytes = encoder.encode(middle);
+            lastQuality = middle;
+            passes++;
+            if (lastBytes <= targetBytes) {
+                best = middle;
+                bestBytes = lastBytes;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (best < 0) {
+            best = minQuality;
+        }
+        if (lastQuality != best) {
+            bestBytes = encoder.encode(best);
+            passes++;
+        }
+        return new Result(best, bestBytes, passes);
+    }
+}
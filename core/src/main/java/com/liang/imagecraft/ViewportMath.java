@@ -0,0 +1,82 @@
+package com.liang.imagecraft;
+
+/**
+ * 视口变换计算
+ * 只处理等比缩放加平移的矩阵分量，不依赖android.graphics，便于在JVM上单元测试
+ */
+public final class ViewportMath {
+
+    private ViewportMath() {
+    }
+
+    /**
+     * 限制缩放倍数不超出范围
+     */
+    public static float clampScale(float scale, float minScale, float maxScale) {
+        return Math.max(minScale, Math.min(maxScale, scale));
+    }
+
+    /**
+     * 修正缩放因子，使 currentScale * factor 落在范围内
+     */
+    public static float clampScaleFactor(float currentScale, float factor, float minScale, float maxScale) {
+        if (currentScale <= 0f) {
+            return 1f;
+        }
+        return clampScale(currentScale * factor, minScale, maxScale) / currentScale;
+    }
+
+    /**
+     * 以焦点为中心缩放后的平移量，等价于 Matrix.postScale(factor, factor, focus, focus)
+     */
+    public static float translationAfterZoom(float translation, float focus, float factor) {
+        return focus - (focus - translation) * factor;
+    }
+
+    /**
+     * 将平移量限制在内容边界内：内容小于视口时居中，大于视口时不允许露出空白
+     */
+    public static float clampTranslation(float translation, float viewSize, float contentSize) {
+        if (contentSize <= viewSize) {
+            return (viewSize - contentSize) / 2f;
+        }
+        return Math.max(viewSize - contentSize, Math.min(0f, translation));
+    }
+
+    /**
+     * 惯性滑动时平移量允许的最小值
+     */
+    public static float minTranslation(float viewSize, float contentSize) {
+        return contentSize <= viewSize ? (viewSize - contentSize) / 2f : viewSize - contentSize;
+    }
+
+    /**
+     * 惯性滑动时平移量允许的最大值
+     */
+    public static float maxTranslation(float viewSize, float contentSize) {
+        return contentSize <= viewSize ? (viewSize - contentSize) / 2f : 0f;
+    }
+
+    /**
+     * 双击缩放的目标倍数：已放大时恢复到适配比例，否则放大到指定倍数
+     */
+    public static float doubleTapTargetScale(float currentScale, float fitScale, float zoomScale) {
+        return currentScale > fitScale * 1.05f ? fitScale : zoomScale;
+    }
+
+    /**
+     * 减速插值，t取值0~1
+     */
+    public static float decelerate(float t) {
+        float clamped = Math.max(0f, Math.min(1f, t));
+        float inverse = 1f - clamped;
+        return 1f - inverse * inverse;
+    }
+
+    /**
+     * 线性插值
+     */
+    public static float lerp(float from, float to, float fraction) {
+        return from + (to - from) * fraction;
+    }
+}
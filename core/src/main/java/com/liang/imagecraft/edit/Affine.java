@@ -0,0 +1,128 @@
+package com.liang.imagecraft.edit;
+
+/**
+ * 二维仿射变换，不可变
+ * x' = a·x + b·y + tx，y' = c·x + d·y + ty，只用于直角旋转、翻转、平移这类几何操作的组合
+ */
+public final class Affine {
+
+    public static final Affine IDENTITY = new Affine(1f, 0f, 0f, 1f, 0f, 0f);
+
+    public final float a;
+    public final float b;
+    public final float c;
+    public final float d;
+    public final float tx;
+    public final float ty;
+
+    public Affine(float a, float b, float c, float d, float tx, float ty) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.tx = tx;
+        this.ty = ty;
+    }
+
+    /**
+     * 先应用当前变换，再应用给定变换
+     */
+    public Affine postConcat(Affine next) {
+        return new Affine(
+                next.a * a + next.b * c,
+                next.a * b + next.b * d,
+                next.c * a + next.d * c,
+                next.c * b + next.d * d,
+                next.a * tx + next.b * ty + next.tx,
+                next.c * tx + next.d * ty + next.ty);
+    }
+
+    public Affine postTranslate(float dx, float dy) {
+        return new Affine(a, b, c, d, tx + dx, ty + dy);
+    }
+
+    /**
+     * 把 width × height 的内容顺时针旋转若干个90度，结果仍位于第一象限
+     */
+    public Affine postRotate(int quarterTurns, int width, int height) {
+        switch (((quarterTurns % 4) + 4) % 4) {
+            case 1:
+                return postConcat(new Affine(0f, -1f, 1f, 0f, height, 0f));
+            case 2:
+                return postConcat(new Affine(-1f, 0f, 0f, -1f, width, height));
+            case 3:
+                return postConcat(new Affine(0f, 1f, -1f, 0f, 0f, width));
+            default:
+                return this;
+        }
+    }
+
+    /**
+     * 把宽度为 width 的内容水平翻转
+     */
+    public Affine postFlipHorizontal(int width) {
+        return postConcat(new Affine(-1f, 0f, 0f, 1f, width, 0f));
+    }
+
+    /**
+     * 逆变换，用于把输出坐标映射回源图坐标
+     */
+    public Affine invert() {
+        float determinant = a * d - b * c;
+        if (determinant == 0f) {
+            throw new IllegalStateException("变换不可逆");
+        }
+        float ia = d / determinant;
+        float ib = -b / determinant;
+        float ic = -c / determinant;
+        float id = a / determinant;
+        return new Affine(ia, ib, ic, id, -(ia * tx + ib * ty), -(ic * tx + id * ty));
+    }
+
+    public float mapX(float x, float y) {
+        return a * x + b * y + tx;
+    }
+
+    public float mapY(float x, float y) {
+        return c * x + d * y + ty;
+    }
+
+    public boolean isIdentity() {
+        return equals(IDENTITY);
+    }
+
+    /**
+     * 写成 android.graphics.Matrix 的9个值
+     */
+    public void getValues(float[] values) {
+        values[0] = a;
+        values[1] = b;
+        values[2] = tx;
+        values[3] = c;
+        values[4] = d;
+        values[5] = ty;
+        values[6] = 0f;
+        values[7] = 0f;
+        values[8] = 1f;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Affine)) {
+            return false;
+        }
+        Affine that = (Affine) o;
+        return a == that.a && b == that.b && c == that.c && d == that.d && tx == that.tx && ty == that.ty;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(a);
+        result = 31 * result + Float.floatToIntBits(b);
+        result = 31 * result + Float.floatToIntBits(c);
+        result = 31 * result + Float.floatToIntBits(d);
+        result = 31 * result + Float.floatToIntBits(tx);
+        result = 31 * result + Float.floatToIntBits(ty);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package com.liang.imagecraft.edit;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 编辑记录的撤销历史
+ * EditList 不可变，每一步只保存一个引用，占用的内存与图片分辨率无关；
+ * 撤销后重新渲染由预览管线完成。所有编辑（包括逐像素调整）都记录为操作而不是修改后的像素，不需要保存像素快照
+ */
+public final class EditHistory {
+
+    public static final int DEFAULT_MAX_STEPS = 50;
+
+    private final int maxSteps;
+    // 队首是最新的状态
+    private final Deque<EditList> undoStack = new ArrayDeque<>();
+    private final Deque<EditList> redoStack = new ArrayDeque<>();
+
+    public EditHistory(int maxSteps) {
+        this.maxSteps = Math.max(1, maxSteps);
+    }
+
+    /**
+     * 记录一次从 before 到 after 的修改，两者相同时忽略；新的修改会清空重做栈
+     */
+    public void record(EditList before, EditList after) {
+        if (before.equals(after)) {
+            return;
+        }
+        undoStack.addFirst(before);
+        while (undoStack.size() > maxSteps) {
+            undoStack.removeLast();
+        }
+        redoStack.clear();
+    }
+
+    /**
+     * @return 撤销后的编辑记录，没有可撤销的步骤时返回null
+     */
+    public EditList undo(EditList current) {
+        EditList previous = undoStack.pollFirst();
+        if (previous != null) {
+            redoStack.addFirst(current);
+        }
+        return previous;
+    }
+
+    /**
+     * @return 重做后的编辑记录，没有可重做的步骤时返回null
+     */
+    public EditList redo(EditList current) {
+        EditList next = redoStack.pollFirst();
+        if (next != null) {
+            undoStack.addFirst(current);
+        }
+        return next;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+    }
+}
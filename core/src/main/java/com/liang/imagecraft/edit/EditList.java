@@ -0,0 +1,245 @@
+package com.liang.imagecraft.edit;
+
+import com.liang.imagecraft.kernel.Adjustments;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 非破坏性编辑记录
+ * 按顺序保存的编辑操作列表，不可变，每次修改返回新的实例。
+ * 原图始终保持不变，预览时在屏幕尺寸的代理图上重放，保存时在全分辨率图片上重放一次。
+ * 调整这类逐点操作与裁剪、旋转可交换，重放时先一次完成全部几何操作，再按顺序执行其余操作；
+ * 图层按输出坐标定位，同样在几何操作之后合成。编辑时图层由单独的视图绘制，不参与预览图渲染
+ */
+public final class EditList {
+
+    public static final EditList EMPTY = new EditList(Collections.emptyList());
+
+    private final List<EditOp> ops;
+
+    private EditList(List<EditOp> ops) {
+        this.ops = ops;
+    }
+
+    public List<EditOp> getOps() {
+        return ops;
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /**
+     * 在末尾追加一个操作
+     */
+    public EditList then(EditOp op) {
+        List<EditOp> next = new ArrayList<>(ops.size() + 1);
+        next.addAll(ops);
+        next.add(op);
+        return new EditList(Collections.unmodifiableList(next));
+    }
+
+    /**
+     * 顺时针旋转，与末尾的旋转操作合并，转满一圈时移除
+     */
+    public EditList rotate(int quarterTurns) {
+        if (!ops.isEmpty() && ops.get(ops.size() - 1) instanceof EditOp.Rotate) {
+            EditOp.Rotate last = (EditOp.Rotate) ops.get(ops.size() - 1);
+            List<EditOp> next = new ArrayList<>(ops.subList(0, ops.size() - 1));
+            EditOp.Rotate merged = new EditOp.Rotate(last.quarterTurns + quarterTurns);
+            if (merged.isGeometry()) {
+                next.add(merged);
+            }
+            return new EditList(Collections.unmodifiableList(next));
+        }
+        EditOp.Rotate rotate = new EditOp.Rotate(quarterTurns);
+        return rotate.isGeometry() ? then(rotate) : this;
+    }
+
+    /**
+     * 移除所有裁剪操作
+     */
+    public EditList withoutCrops() {
+        List<EditOp> next = new ArrayList<>(ops.size());
+        for (EditOp op : ops) {
+            if (!(op instanceof EditOp.Crop)) {
+                next.add(op);
+            }
+        }
+        return new EditList(Collections.unmodifiableList(next));
+    }
+
+    /**
+     * 当前的逐像素调整参数，没有时返回 Adjustments.NONE
+     */
+    public Adjustments getAdjustments() {
+        EditOp.Adjust adjust = find(EditOp.Adjust.class);
+        return adjust != null ? adjust.adjustments : Adjustments.NONE;
+    }
+
+    /**
+     * 替换逐像素调整。调整与裁剪、旋转可交换，因此整个列表只保留一个调整操作，
+     * 拖动滑块时只更新这一项，不会让列表无限增长
+     */
+    public EditList withAdjustments(Adjustments adjustments) {
+        return withSingle(EditOp.Adjust.class, adjustments.isIdentity() ? null : new EditOp.Adjust(adjustments));
+    }
+
+    /**
+     * 第一个给定类型的操作，没有时返回null
+     */
+    public <T extends EditOp> T find(Class<T> type) {
+        for (EditOp op : ops) {
+            if (type.isInstance(op)) {
+                return type.cast(op);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 替换给定类型的操作，整个列表只保留一个，位置不变，没有时追加到末尾；传入null时全部移除。
+     * 用于调整、模糊、锐化和调色这类只需要一份参数的操作
+     */
+    public EditList withSingle(Class<? extends EditOp> type, EditOp op) {
+        List<EditOp> next = new ArrayList<>(ops.size() + 1);
+        boolean replaced = false;
+        for (EditOp existing : ops) {
+            if (type.isInstance(existing)) {
+                if (!replaced && op != null) {
+                    next.add(op);
+                }
+                replaced = true;
+            } else {
+                next.add(existing);
+            }
+        }
+        if (!replaced && op != null) {
+            next.add(op);
+        }
+        return new EditList(Collections.unmodifiableList(next));
+    }
+
+    /**
+     * 放大后的分块渲染只在未经几何变换的原图上应用调整，有几何操作或者模糊、锐化、调色时只能显示预览图
+     */
+    public boolean supportsTiles() {
+        for (EditOp op : ops) {
+            if (op.isGeometry() || op instanceof EditOp.Blur || op instanceof EditOp.Sharpen
+                    || op instanceof EditOp.ColorGrade) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按绘制顺序返回全部图层
+     */
+    public List<Layer> layers() {
+        List<Layer> result = new ArrayList<>();
+        for (EditOp op : ops) {
+            if (op instanceof EditOp.Overlay) {
+                result.add(((EditOp.Overlay) op).layer);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 替换第 index 个图层，位置不变
+     */
+    public EditList withLayer(int index, Layer layer) {
+        List<EditOp> next = new ArrayList<>(ops);
+        int count = 0;
+        for (int i = 0; i < next.size(); i++) {
+            if (next.get(i) instanceof EditOp.Overlay && count++ == index) {
+                next.set(i, new EditOp.Overlay(layer));
+                return new EditList(Collections.unmodifiableList(next));
+            }
+        }
+        throw new IndexOutOfBoundsException("图层不存在：" + index);
+    }
+
+    /**
+     * 移除所有图层，预览图渲染只依赖其余操作
+     */
+    public EditList withoutLayers() {
+        List<EditOp> next = new ArrayList<>(ops.size());
+        for (EditOp op : ops) {
+            if (!(op instanceof EditOp.Overlay)) {
+                next.add(op);
+            }
+        }
+        return next.size() == ops.size() ? this : new EditList(Collections.unmodifiableList(next));
+    }
+
+    /**
+     * 最后一个几何操作之后的位置，该位置之后只剩逐像素操作
+     */
+    public int geometryPrefixLength() {
+        for (int i = ops.size() - 1; i >= 0; i--) {
+            if (ops.get(i).isGeometry()) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    public boolean hasGeometry() {
+        return geometryPrefixLength() > 0;
+    }
+
+    /**
+     * 按顺序返回全部几何操作
+     */
+    public List<EditOp> geometryOps() {
+        List<EditOp> result = new ArrayList<>(ops.size());
+        for (EditOp op : ops) {
+            if (op.isGeometry()) {
+                result.add(op);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按顺序返回全部非几何操作
+     */
+    public List<EditOp> pixelOps() {
+        List<EditOp> result = new ArrayList<>(ops.size());
+        for (EditOp op : ops) {
+            if (!op.isGeometry()) {
+                result.add(op);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 依次应用所有操作后的输出尺寸，返回 {宽, 高}
+     */
+    public int[] outputSize(int width, int height) {
+        int[] size = {width, height};
+        for (EditOp op : ops) {
+            size = op.outputSize(size[0], size[1]);
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EditList && ((EditList) o).ops.equals(ops);
+    }
+
+    @Override
+    public int hashCode() {
+        return ops.hashCode();
+    }
+}
@@ -0,0 +1,374 @@
+package com.liang.imagecraft.edit;
+
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.ColorLut;
+import com.liang.imagecraft.kernel.PixelKernels;
+
+/**
+ * 单个编辑操作
+ * 操作都是不可变的参数描述，本身不持有像素，同一组操作既用于预览图也用于全分辨率导出
+ */
+public abstract class EditOp {
+
+    private EditOp() {
+    }
+
+    /**
+     * 是否改变图片的几何形状（尺寸或方向）
+     */
+    public abstract boolean isGeometry();
+
+    /**
+     * 计算该操作对给定尺寸的输出尺寸，返回 {宽, 高}
+     */
+    public int[] outputSize(int width, int height) {
+        return new int[]{width, height};
+    }
+
+    /**
+     * 在给定尺寸的输出上，计算一个像素需要参考上下各多少行，逐点操作为0
+     * 不为0的操作不能在互不重叠的条带上分别应用
+     */
+    public int neighborRows(int width, int height) {
+        return 0;
+    }
+
+    /**
+     * 裁剪，边界为相对当前图片宽高的比例 0 ~ 1，与分辨率无关
+     */
+    public static final class Crop extends EditOp {
+        public final float left;
+        public final float top;
+        public final float right;
+        public final float bottom;
+
+        public Crop(float left, float top, float right, float bottom) {
+            if (!(left >= 0f && top >= 0f && right <= 1f && bottom <= 1f && left < right && top < bottom)) {
+                throw new IllegalArgumentException("裁剪范围无效");
+            }
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        /**
+         * 按宽高比居中裁剪出最大的区域
+         */
+        public static Crop centered(int width, int height, float aspectRatio) {
+            float imageRatio = (float) width / height;
+            if (imageRatio > aspectRatio) {
+                float keep = aspectRatio / imageRatio;
+                return new Crop((1f - keep) / 2f, 0f, (1f + keep) / 2f, 1f);
+            }
+            float keep = imageRatio / aspectRatio;
+            return new Crop(0f, (1f - keep) / 2f, 1f, (1f + keep) / 2f);
+        }
+
+        /**
+         * 换算为给定尺寸下的像素范围 {left, top, right, bottom}，至少保留一个像素
+         */
+        public int[] toPixels(int width, int height) {
+            int l = Math.min(width - 1, Math.round(left * width));
+            int t = Math.min(height - 1, Math.round(top * height));
+            int r = Math.max(l + 1, Math.min(width, Math.round(right * width)));
+            int b = Math.max(t + 1, Math.min(height, Math.round(bottom * height)));
+            return new int[]{l, t, r, b};
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return true;
+        }
+
+        @Override
+        public int[] outputSize(int width, int height) {
+            int[] rect = toPixels(width, height);
+            return new int[]{rect[2] - rect[0], rect[3] - rect[1]};
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Crop)) {
+                return false;
+            }
+            Crop that = (Crop) o;
+            return left == that.left && top == that.top && right == that.right && bottom == that.bottom;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(left);
+            result = 31 * result + Float.floatToIntBits(top);
+            result = 31 * result + Float.floatToIntBits(right);
+            result = 31 * result + Float.floatToIntBits(bottom);
+            return result;
+        }
+    }
+
+    /**
+     * 顺时针旋转 90 度的整数倍
+     */
+    public static final class Rotate extends EditOp {
+        public final int quarterTurns;
+
+        public Rotate(int quarterTurns) {
+            this.quarterTurns = ((quarterTurns % 4) + 4) % 4;
+        }
+
+        public int degrees() {
+            return quarterTurns * 90;
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return quarterTurns != 0;
+        }
+
+        @Override
+        public int[] outputSize(int width, int height) {
+            return quarterTurns % 2 == 0 ? new int[]{width, height} : new int[]{height, width};
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Rotate && ((Rotate) o).quarterTurns == quarterTurns;
+        }
+
+        @Override
+        public int hashCode() {
+            return quarterTurns;
+        }
+    }
+
+    /**
+     * 亮度、对比度等逐像素调整
+     */
+    public static final class Adjust extends EditOp {
+        public final Adjustments adjustments;
+
+        public Adjust(Adjustments adjustments) {
+            this.adjustments = adjustments;
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Adjust && ((Adjust) o).adjustments.equals(adjustments);
+        }
+
+        @Override
+        public int hashCode() {
+            return adjustments.hashCode();
+        }
+    }
+
+    /**
+     * 高斯模糊，半径按输出图片的短边归一化，预览图和全分辨率导出的模糊程度一致
+     */
+    public static final class Blur extends EditOp {
+        // 最大半径，相当于1500像素短边上的15像素
+        public static final float MAX_RADIUS = 0.01f;
+
+        // 高斯核的标准差，按输出短边归一化
+        public final float radius;
+
+        public Blur(float radius) {
+            if (!(radius > 0f && radius <= MAX_RADIUS)) {
+                throw new IllegalArgumentException("模糊半径无效");
+            }
+            this.radius = radius;
+        }
+
+        /**
+         * 换算为给定输出尺寸下的像素标准差
+         */
+        public float sigmaFor(int width, int height) {
+            return radius * Math.min(width, height);
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return false;
+        }
+
+        @Override
+        public int neighborRows(int width, int height) {
+            return PixelKernels.blurRadius(sigmaFor(width, height));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Blur && ((Blur) o).radius == radius;
+        }
+
+        @Override
+        public int hashCode() {
+            return Float.floatToIntBits(radius);
+        }
+    }
+
+    /**
+     * USM锐化，模糊半径按输出图片的短边归一化，不小于半个像素
+     */
+    public static final class Sharpen extends EditOp {
+        // 模糊半径，相当于1500像素短边上的1.5像素
+        public static final float RADIUS = 0.001f;
+        public static final float MAX_AMOUNT = 2f;
+
+        // 叠加的细节倍数
+        public final float amount;
+
+        public Sharpen(float amount) {
+            if (!(amount > 0f && amount <= MAX_AMOUNT)) {
+                throw new IllegalArgumentException("锐化强度无效");
+            }
+            this.amount = amount;
+        }
+
+        /**
+         * 换算为给定输出尺寸下的像素标准差
+         */
+        public float sigmaFor(int width, int height) {
+            return Math.max(0.5f, RADIUS * Math.min(width, height));
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return false;
+        }
+
+        @Override
+        public int neighborRows(int width, int height) {
+            return PixelKernels.blurRadius(sigmaFor(width, height));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Sharpen && ((Sharpen) o).amount == amount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Float.floatToIntBits(amount);
+        }
+    }
+
+    /**
+     * 按预设的三维查找表调色
+     */
+    public static final class ColorGrade extends EditOp {
+        public final ColorLut.Preset preset;
+
+        public ColorGrade(ColorLut.Preset preset) {
+            this.preset = preset;
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ColorGrade && ((ColorGrade) o).preset == preset;
+        }
+
+        @Override
+        public int hashCode() {
+            return preset.hashCode();
+        }
+    }
+
+    /**
+     * 文字水印，绘制在图片右下角，或者倾斜后平铺满整张图片
+     * 字号按输出图片的短边归一化，不同分辨率的输出上水印的相对大小一致
+     */
+    public static final class Watermark extends EditOp {
+        // 默认字号，相当于1500像素短边上的60像素
+        public static final float DEFAULT_SIZE = 0.04f;
+        // 平铺水印的默认倾斜角度
+        public static final float DEFAULT_TILE_ANGLE = -30f;
+
+        public final String text;
+        public final boolean tiled;
+        // 字号，按输出短边归一化
+        public final float size;
+        // 顺时针旋转角度，只用于平铺
+        public final float angle;
+
+        public Watermark(String text) {
+            this(text, false, DEFAULT_SIZE, 0f);
+        }
+
+        public Watermark(String text, boolean tiled, float size, float angle) {
+            if (text == null || text.isEmpty()) {
+                throw new IllegalArgumentException("水印文字为空");
+            }
+            this.text = text;
+            this.tiled = tiled;
+            this.size = size;
+            this.angle = tiled ? angle : 0f;
+        }
+
+        /**
+         * 按默认字号和角度平铺的水印
+         */
+        public static Watermark tiled(String text) {
+            return new Watermark(text, true, DEFAULT_SIZE, DEFAULT_TILE_ANGLE);
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Watermark)) {
+                return false;
+            }
+            Watermark that = (Watermark) o;
+            return that.text.equals(text) && that.tiled == tiled && that.size == size && that.angle == angle;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = text.hashCode();
+            result = 31 * result + (tiled ? 1 : 0);
+            result = 31 * result + Float.floatToIntBits(size);
+            result = 31 * result + Float.floatToIntBits(angle);
+            return result;
+        }
+    }
+
+    /**
+     * 叠加图层，按输出坐标定位，在全部几何操作之后合成
+     */
+    public static final class Overlay extends EditOp {
+        public final Layer layer;
+
+        public Overlay(Layer layer) {
+            this.layer = layer;
+        }
+
+        @Override
+        public boolean isGeometry() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Overlay && ((Overlay) o).layer.equals(layer);
+        }
+
+        @Override
+        public int hashCode() {
+            return layer.hashCode();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.liang.imagecraft.edit;
+
+import java.util.List;
+
+/**
+ * 几何操作合并后的单次变换
+ * EXIF方向、裁剪和旋转依次作用时，每一步都生成一张新位图；
+ * 这里把它们合成一个仿射变换和最终尺寸，只需绘制一次、分配一张位图。
+ * 有裁剪时还可以算出输出覆盖的源图区域，导出时只解码这一部分
+ */
+public final class GeometryPlan {
+
+    public final int width;
+    public final int height;
+    // 从源图像素坐标到输出坐标的变换
+    public final Affine transform;
+
+    private GeometryPlan(int width, int height, Affine transform) {
+        this.width = width;
+        this.height = height;
+        this.transform = transform;
+    }
+
+    /**
+     * 计算源图先按EXIF方向摆正、再依次应用几何操作后的变换，非几何操作被忽略
+     */
+    public static GeometryPlan of(Orientation orientation, List<EditOp> ops, int sourceWidth, int sourceHeight) {
+        Affine transform = orientation.toAffine(sourceWidth, sourceHeight);
+        int[] size = orientation.orientedSize(sourceWidth, sourceHeight);
+        int width = size[0];
+        int height = size[1];
+        for (EditOp op : ops) {
+            if (op instanceof EditOp.Crop) {
+                int[] rect = ((EditOp.Crop) op).toPixels(width, height);
+                transform = transform.postTranslate(-rect[0], -rect[1]);
+                width = rect[2] - rect[0];
+                height = rect[3] - rect[1];
+            } else if (op instanceof EditOp.Rotate) {
+                int quarterTurns = ((EditOp.Rotate) op).quarterTurns;
+                transform = transform.postRotate(quarterTurns, width, height);
+                if (quarterTurns % 2 != 0) {
+                    int swap = width;
+                    width = height;
+                    height = swap;
+                }
+            }
+        }
+        return new GeometryPlan(width, height, transform);
+    }
+
+    /**
+     * 输出覆盖的源图像素范围 {left, top, right, bottom}，已限制在源图之内
+     */
+    public int[] sourceBounds(int sourceWidth, int sourceHeight) {
+        Affine inverse = transform.invert();
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        float[] corners = {0f, 0f, width, 0f, 0f, height, width, height};
+        for (int i = 0; i < corners.length; i += 2) {
+            float x = inverse.mapX(corners[i], corners[i + 1]);
+            float y = inverse.mapY(corners[i], corners[i + 1]);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+        }
+        int l = Math.max(0, (int) Math.floor(left));
+        int t = Math.max(0, (int) Math.floor(top));
+        return new int[]{l, t,
+                Math.max(l + 1, Math.min(sourceWidth, (int) Math.ceil(right))),
+                Math.max(t + 1, Math.min(sourceHeight, (int) Math.ceil(bottom)))};
+    }
+
+    /**
+     * 换算为只解码了源图一部分时的变换：解码结果的左上角位于源图 (left, top)，
+     * 每个像素对应 sampleSize 个源图像素，输出尺寸同样按采样率缩小
+     */
+    public GeometryPlan forRegion(int left, int top, int sampleSize) {
+        Affine region = new Affine(sampleSize, 0f, 0f, sampleSize, left, top);
+        float scale = 1f / sampleSize;
+        Affine sampled = region.postConcat(transform).postConcat(new Affine(scale, 0f, 0f, scale, 0f, 0f));
+        return new GeometryPlan(Math.max(1, Math.round((float) width / sampleSize)),
+                Math.max(1, Math.round((float) height / sampleSize)), sampled);
+    }
+
+    /**
+     * 输出与源图完全相同，不需要绘制
+     */
+    public boolean isIdentity(int sourceWidth, int sourceHeight) {
+        return transform.isIdentity() && width == sourceWidth && height == sourceHeight;
+    }
+}
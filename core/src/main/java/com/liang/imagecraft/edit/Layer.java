@@ -0,0 +1,165 @@
+package com.liang.imagecraft.edit;
+
+/**
+ * 叠加在图片上的图层：文字、贴图或平铺的文字水印，不可变
+ * 位置和大小都按输出图片归一化，同一个图层在屏幕预览和全分辨率导出时位置一致。
+ * 内容和颜色决定栅格化结果，位置、大小和旋转只影响绘制时的变换，拖动不需要重新栅格化
+ */
+public final class Layer {
+
+    public enum Kind {
+        TEXT, STICKER, PATTERN
+    }
+
+    public final Kind kind;
+    // 文字内容或贴图的URI
+    public final String content;
+    // RGB颜色，贴图忽略
+    public final int color;
+    // 整体不透明度 0 ~ 255
+    public final int opacity;
+    // 中心点位置，按输出宽高归一化；平铺水印固定以图片中心为原点
+    public final float centerX;
+    public final float centerY;
+    // 文字字号或贴图长边，按输出短边归一化
+    public final float size;
+    // 顺时针旋转角度
+    public final float rotation;
+
+    private Layer(Kind kind, String content, int color, int opacity, float centerX, float centerY,
+                  float size, float rotation) {
+        if (content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("图层内容为空");
+        }
+        this.kind = kind;
+        this.content = content;
+        this.color = color & 0xFFFFFF;
+        this.opacity = Math.max(0, Math.min(255, opacity));
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.size = size;
+        this.rotation = rotation;
+    }
+
+    public static Layer text(String text, int color, int opacity, float centerX, float centerY, float size) {
+        return new Layer(Kind.TEXT, text, color, opacity, centerX, centerY, size, 0f);
+    }
+
+    public static Layer sticker(String uri, float centerX, float centerY, float size) {
+        return new Layer(Kind.STICKER, uri, 0xFFFFFF, 255, centerX, centerY, size, 0f);
+    }
+
+    /**
+     * 平铺满整张图片的文字水印，rotation 为整体倾斜角度
+     */
+    public static Layer pattern(String text, int color, int opacity, float size, float rotation) {
+        return new Layer(Kind.PATTERN, text, color, opacity, 0.5f, 0.5f, size, rotation);
+    }
+
+    public Layer withCenter(float x, float y) {
+        return new Layer(kind, content, color, opacity, x, y, size, rotation);
+    }
+
+    public Layer withSize(float size) {
+        return new Layer(kind, content, color, opacity, centerX, centerY, size, rotation);
+    }
+
+    public Layer withRotation(float rotation) {
+        return new Layer(kind, content, color, opacity, centerX, centerY, size, rotation);
+    }
+
+    /**
+     * 是否可以拖动，平铺水印覆盖整张图片，不参与拖动
+     */
+    public boolean isMovable() {
+        return kind != Kind.PATTERN;
+    }
+
+    /**
+     * 栅格化结果的缓存键，只包含影响像素内容的属性
+     */
+    public String styleKey() {
+        return kind + "|" + Integer.toHexString(color) + "|" + content;
+    }
+
+    /**
+     * 在给定输出尺寸下，文字字号或贴图长边的像素数
+     */
+    public float pixelSize(float outputWidth, float outputHeight) {
+        return size * Math.min(outputWidth, outputHeight);
+    }
+
+    /**
+     * 栅格图绘制到输出上时的缩放比例
+     *
+     * @param rasterSize 栅格图中对应文字字号或贴图长边的像素数
+     */
+    public float drawScale(float outputWidth, float outputHeight, float rasterSize) {
+        return pixelSize(outputWidth, outputHeight) / rasterSize;
+    }
+
+    /**
+     * 旋转后的图层在输出坐标中的外接矩形 {left, top, right, bottom}，平铺水印返回整张图片
+     *
+     * @param rasterWidth  栅格图宽度
+     * @param rasterHeight 栅格图高度
+     * @param rasterSize   栅格图中对应文字字号或贴图长边的像素数
+     */
+    public float[] bounds(float outputWidth, float outputHeight, int rasterWidth, int rasterHeight, float rasterSize) {
+        if (kind == Kind.PATTERN) {
+            return new float[]{0f, 0f, outputWidth, outputHeight};
+        }
+        float scale = drawScale(outputWidth, outputHeight, rasterSize);
+        float halfWidth = rasterWidth * scale / 2f;
+        float halfHeight = rasterHeight * scale / 2f;
+        double radians = Math.toRadians(rotation);
+        float cos = (float) Math.abs(Math.cos(radians));
+        float sin = (float) Math.abs(Math.sin(radians));
+        float extentX = halfWidth * cos + halfHeight * sin;
+        float extentY = halfWidth * sin + halfHeight * cos;
+        float x = centerX * outputWidth;
+        float y = centerY * outputHeight;
+        return new float[]{x - extentX, y - extentY, x + extentX, y + extentY};
+    }
+
+    /**
+     * 输出坐标 (x, y) 是否落在旋转后的图层内
+     */
+    public boolean contains(float x, float y, float outputWidth, float outputHeight,
+                            int rasterWidth, int rasterHeight, float rasterSize) {
+        if (!isMovable()) {
+            return false;
+        }
+        float scale = drawScale(outputWidth, outputHeight, rasterSize);
+        double radians = Math.toRadians(-rotation);
+        float dx = x - centerX * outputWidth;
+        float dy = y - centerY * outputHeight;
+        // 转回图层自身的坐标系再比较
+        float localX = (float) (dx * Math.cos(radians) - dy * Math.sin(radians));
+        float localY = (float) (dx * Math.sin(radians) + dy * Math.cos(radians));
+        return Math.abs(localX) <= rasterWidth * scale / 2f && Math.abs(localY) <= rasterHeight * scale / 2f;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Layer)) {
+            return false;
+        }
+        Layer that = (Layer) o;
+        return kind == that.kind && content.equals(that.content) && color == that.color && opacity == that.opacity
+                && centerX == that.centerX && centerY == that.centerY && size == that.size && rotation == that.rotation;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = kind.hashCode();
+        result = 31 * result + content.hashCode();
+        result = 31 * result + color;
+        result = 31 * result + opacity;
+        result = 31 * result + Float.floatToIntBits(centerX);
+        result = 31 * result + Float.floatToIntBits(centerY);
+        result = 31 * result + Float.floatToIntBits(size);
+        result = 31 * result + Float.floatToIntBits(rotation);
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+package com.liang.imagecraft.edit;
+
+/**
+ * EXIF方向
+ * 相机按传感器方向保存像素，再用方向标签说明显示时需要的旋转和翻转。
+ * 这里统一表示为：先水平翻转（如果需要），再顺时针旋转若干个90度
+ */
+public final class Orientation {
+
+    // 下标为EXIF方向值 1 ~ 8
+    private static final Orientation[] VALUES = {
+            null,
+            new Orientation(1, false, 0),
+            new Orientation(2, true, 0),
+            new Orientation(3, false, 2),
+            new Orientation(4, true, 2),
+            new Orientation(5, true, 3),
+            new Orientation(6, false, 1),
+            new Orientation(7, true, 1),
+            new Orientation(8, false, 3),
+    };
+
+    public static final Orientation NORMAL = VALUES[1];
+
+    public final int exifValue;
+    public final boolean flipHorizontal;
+    public final int quarterTurns;
+
+    private Orientation(int exifValue, boolean flipHorizontal, int quarterTurns) {
+        this.exifValue = exifValue;
+        this.flipHorizontal = flipHorizontal;
+        this.quarterTurns = quarterTurns;
+    }
+
+    /**
+     * 按EXIF方向值查找，未定义的值按正常方向处理
+     */
+    public static Orientation fromExif(int value) {
+        return value >= 1 && value < VALUES.length ? VALUES[value] : NORMAL;
+    }
+
+    /**
+     * 按顺时针旋转角度查找，例如MediaStore的orientation列；不是90度整数倍的角度按正常方向处理
+     */
+    public static Orientation fromDegrees(int degrees) {
+        switch (((degrees % 360) + 360) % 360) {
+            case 90:
+                return VALUES[6];
+            case 180:
+                return VALUES[3];
+            case 270:
+                return VALUES[8];
+            default:
+                return NORMAL;
+        }
+    }
+
+    public boolean isIdentity() {
+        return this == NORMAL;
+    }
+
+    /**
+     * 显示时宽高是否互换
+     */
+    public boolean swapsDimensions() {
+        return quarterTurns % 2 != 0;
+    }
+
+    /**
+     * 按方向显示后的尺寸，返回 {宽, 高}
+     */
+    public int[] orientedSize(int width, int height) {
+        return swapsDimensions() ? new int[]{height, width} : new int[]{width, height};
+    }
+
+    /**
+     * 从传感器方向的像素坐标到显示方向坐标的变换
+     */
+    public Affine toAffine(int width, int height) {
+        Affine affine = Affine.IDENTITY;
+        if (flipHorizontal) {
+            affine = affine.postFlipHorizontal(width);
+        }
+        return affine.postRotate(quarterTurns, width, height);
+    }
+
+    @Override
+    public String toString() {
+        return "Orientation(" + exifValue + ")";
+    }
+}
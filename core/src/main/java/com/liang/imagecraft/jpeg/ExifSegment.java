@@ -0,0 +1,402 @@
+package com.liang.imagecraft.jpeg;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * JPEG的EXIF（APP1）段
+ * 重新编码会丢掉原图的元数据。这里从原图读出整个EXIF段，原样保留拍摄时间、相机参数等，
+ * 只修改与导出图片不再相符的字段：方向改为正常、像素尺寸改为输出尺寸、去掉缩略图，
+ * 不允许保留位置时删除GPS信息。全部修改直接在TIFF结构的字节上完成
+ */
+public final class ExifSegment {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    // TIFF结构紧跟在"Exif\0\0"之后，其中的偏移量都相对于这里
+    private static final int TIFF_START = EXIF_HEADER.length;
+    // 段长度字段为16位，且包含自身的2个字节
+    private static final int MAX_PAYLOAD = 0xFFFF - 2;
+
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_EXIF_IFD = 0x8769;
+    static final int TAG_GPS_IFD = 0x8825;
+    static final int TAG_INTEROP_IFD = 0xA005;
+    static final int TAG_PIXEL_X = 0xA002;
+    static final int TAG_PIXEL_Y = 0xA003;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int ENTRY_SIZE = 12;
+    // 下标为TIFF数据类型，值为单个元素的字节数，0表示未知类型
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private byte[] payload;
+    private final boolean littleEndian;
+
+    private ExifSegment(byte[] payload, boolean littleEndian) {
+        this.payload = payload;
+        this.littleEndian = littleEndian;
+    }
+
+    /**
+     * 从JPEG数据流中读取EXIF段，只读取到图像数据之前
+     *
+     * @return 不是JPEG或没有EXIF时返回null
+     */
+    public static ExifSegment read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 8192));
+        try {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != MARKER_SOI) {
+                return null;
+            }
+            while (true) {
+                if (in.readUnsignedByte() != 0xFF) {
+                    return null;
+                }
+                int marker = in.readUnsignedByte();
+                // 标记前可以有任意个填充字节0xFF
+                while (marker == 0xFF) {
+                    marker = in.readUnsignedByte();
+                }
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return null;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return null;
+                }
+                if (marker == MARKER_APP1 && length >= EXIF_HEADER.length) {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    // XMP同样使用APP1，继续查找下一个
+                    ExifSegment segment = parse(data);
+                    if (segment != null) {
+                        return segment;
+                    }
+                } else if (in.skipBytes(length) != length) {
+                    return null;
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析APP1段的内容（不含标记和长度字段）
+     *
+     * @return 不是EXIF时返回null
+     */
+    public static ExifSegment parse(byte[] data) {
+        if (data.length < TIFF_START + 8 || data.length > MAX_PAYLOAD) {
+            return null;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (data[i] != EXIF_HEADER[i]) {
+                return null;
+            }
+        }
+        boolean littleEndian;
+        if (data[TIFF_START] == 'I' && data[TIFF_START + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[TIFF_START] == 'M' && data[TIFF_START + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+        ExifSegment segment = new ExifSegment(data, littleEndian);
+        return segment.u16(2) == 42 ? segment : null;
+    }
+
+    /**
+     * EXIF方向值 1 ~ 8，缺失或无法解析时返回1
+     */
+    public int orientation() {
+        int value = findValue(false, TAG_ORIENTATION);
+        return value >= 1 && value <= 8 ? value : 1;
+    }
+
+    /**
+     * 生成写入导出图片的副本，原对象不变
+     *
+     * @param width        导出图片宽度
+     * @param height       导出图片高度
+     * @param keepLocation 是否保留GPS信息
+     * @return 结构无法解析时返回null，此时不应写入任何EXIF
+     */
+    public ExifSegment forExport(int width, int height, boolean keepLocation) {
+        ExifSegment copy = new ExifSegment(payload.clone(), littleEndian);
+        try {
+            copy.rewrite(width, height, keepLocation);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return copy;
+    }
+
+    /**
+     * 写出完整的APP1段，包括标记和长度字段
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int length = payload.length + 2;
+        out.write(0xFF);
+        out.write(MARKER_APP1);
+        out.write(length >>> 8);
+        out.write(length & 0xFF);
+        out.write(payload);
+    }
+
+    /**
+     * 写出后的总字节数
+     */
+    public int segmentLength() {
+        return payload.length + 4;
+    }
+
+    /**
+     * 跳过JPEG开头的SOI和紧随其后的APP0/APP1段，返回之后数据的起始位置；
+     * 新的EXIF段写在SOI之后、这个位置之前，替换编码器自带的JFIF头
+     *
+     * @return 不是JPEG时返回-1
+     */
+    public static int imageDataOffset(byte[] jpeg, int length) {
+        if (length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI) {
+            return -1;
+        }
+        int offset = 2;
+        while (offset + 4 <= length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int marker = jpeg[offset + 1] & 0xFF;
+            if (marker != MARKER_APP0 && marker != MARKER_APP1) {
+                break;
+            }
+            offset += 2 + (((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF));
+        }
+        return Math.min(offset, length);
+    }
+
+    /**
+     * 读取IFD0或Exif子IFD中某个标签的整数值，不存在或无法解析时返回-1
+     */
+    int findValue(boolean exifIfd, int tag) {
+        try {
+            int ifd = u32(4);
+            if (exifIfd) {
+                int pointer = findEntry(ifd, TAG_EXIF_IFD);
+                if (pointer < 0) {
+                    return -1;
+                }
+                ifd = u32(pointer + 8);
+            }
+            int entry = findEntry(ifd, tag);
+            if (entry < 0) {
+                return -1;
+            }
+            int type = u16(entry + 2);
+            return type == TYPE_SHORT ? u16(entry + 8) : (type == TYPE_LONG ? u32(entry + 8) : -1);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    int payloadLength() {
+        return payload.length;
+    }
+
+    private void rewrite(int width, int height, boolean keepLocation) {
+        int ifd0 = u32(4);
+        int orientation = findEntry(ifd0, TAG_ORIENTATION);
+        if (orientation >= 0 && u16(orientation + 2) == TYPE_SHORT) {
+            putU16(orientation + 8, 1);
+        }
+
+        int exifPointer = findEntry(ifd0, TAG_EXIF_IFD);
+        if (exifPointer >= 0) {
+            int exifIfd = u32(exifPointer + 8);
+            putDimension(exifIfd, TAG_PIXEL_X, width);
+            putDimension(exifIfd, TAG_PIXEL_Y, height);
+        }
+
+        if (!keepLocation) {
+            int gpsPointer = findEntry(ifd0, TAG_GPS_IFD);
+            if (gpsPointer >= 0) {
+                clearIfd(u32(gpsPointer + 8));
+                removeEntry(ifd0, gpsPointer);
+            }
+        }
+
+        // IFD1保存的是原图的缩略图，与导出内容不符，断开链接；
+        // 缩略图通常位于段末尾，没有其他数据引用它之后的内容时直接截掉
+        int next = ifd0 + 2 + u16(ifd0) * ENTRY_SIZE;
+        int ifd1 = u32(next);
+        putU32(next, 0);
+        if (ifd1 > 0 && ifd1 >= referencedEnd(ifd0) && TIFF_START + ifd1 < payload.length) {
+            payload = Arrays.copyOf(payload, TIFF_START + ifd1);
+        }
+    }
+
+    /**
+     * 写入尺寸标签，SHORT放不下时改为LONG，两者都能放在条目内
+     */
+    private void putDimension(int ifd, int tag, int value) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0) {
+            return;
+        }
+        if (u16(entry + 2) == TYPE_SHORT && value <= 0xFFFF) {
+            putU16(entry + 8, value);
+        } else {
+            putU16(entry + 2, TYPE_LONG);
+            putU32(entry + 4, 1);
+            putU32(entry + 8, value);
+        }
+    }
+
+    /**
+     * 清零IFD及其引用的全部数据
+     */
+    private void clearIfd(int ifd) {
+        int count = u16(ifd);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * ENTRY_SIZE;
+            int size = valueSize(entry);
+            if (size > 4) {
+                fill(u32(entry + 8), size);
+            }
+        }
+        fill(ifd, 2 + count * ENTRY_SIZE + 4);
+    }
+
+    /**
+     * 删除一个条目，后面的条目前移，并把下一个IFD的偏移跟着前移
+     */
+    private void removeEntry(int ifd, int entry) {
+        int count = u16(ifd);
+        int end = ifd + 2 + count * ENTRY_SIZE;
+        check(end, 4);
+        System.arraycopy(payload, TIFF_START + entry + ENTRY_SIZE, payload, TIFF_START + entry,
+                end + 4 - entry - ENTRY_SIZE);
+        fill(end + 4 - ENTRY_SIZE, ENTRY_SIZE);
+        putU16(ifd, count - 1);
+    }
+
+    /**
+     * 除IFD1以外所有结构和数据的结束位置
+     */
+    private int referencedEnd(int ifd0) {
+        int end = ifdEnd(ifd0);
+        int exifPointer = findEntry(ifd0, TAG_EXIF_IFD);
+        if (exifPointer >= 0) {
+            int exifIfd = u32(exifPointer + 8);
+            end = Math.max(end, ifdEnd(exifIfd));
+            int interopPointer = findEntry(exifIfd, TAG_INTEROP_IFD);
+            if (interopPointer >= 0) {
+                end = Math.max(end, ifdEnd(u32(interopPointer + 8)));
+            }
+        }
+        int gpsPointer = findEntry(ifd0, TAG_GPS_IFD);
+        if (gpsPointer >= 0) {
+            end = Math.max(end, ifdEnd(u32(gpsPointer + 8)));
+        }
+        return end;
+    }
+
+    private int ifdEnd(int ifd) {
+        int count = u16(ifd);
+        int end = ifd + 2 + count * ENTRY_SIZE + 4;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * ENTRY_SIZE;
+            int size = valueSize(entry);
+            if (size < 0) {
+                // 未知类型无法确定数据范围，不做截断
+                return Integer.MAX_VALUE;
+            }
+            if (size > 4) {
+                end = Math.max(end, u32(entry + 8) + size);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 条目数据的字节数，未知类型返回-1
+     */
+    private int valueSize(int entry) {
+        int type = u16(entry + 2);
+        if (type <= 0 || type >= TYPE_SIZES.length || TYPE_SIZES[type] == 0) {
+            return -1;
+        }
+        long size = (long) TYPE_SIZES[type] * (u32(entry + 4) & 0xFFFFFFFFL);
+        if (size > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("EXIF条目过大");
+        }
+        return (int) size;
+    }
+
+    private int findEntry(int ifd, int tag) {
+        int count = u16(ifd);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * ENTRY_SIZE;
+            if (u16(entry) == tag) {
+                check(entry, ENTRY_SIZE);
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private void check(int offset, int length) {
+        if (offset < 0 || TIFF_START + (long) offset + length > payload.length) {
+            throw new IllegalArgumentException("EXIF偏移超出范围：" + offset);
+        }
+    }
+
+    private int u16(int offset) {
+        check(offset, 2);
+        int p = TIFF_START + offset;
+        int b0 = payload[p] & 0xFF;
+        int b1 = payload[p + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private int u32(int offset) {
+        check(offset, 4);
+        int p = TIFF_START + offset;
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = payload[p + (littleEndian ? 3 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private void putU16(int offset, int value) {
+        check(offset, 2);
+        int p = TIFF_START + offset;
+        payload[p + (littleEndian ? 0 : 1)] = (byte) value;
+        payload[p + (littleEndian ? 1 : 0)] = (byte) (value >>> 8);
+    }
+
+    private void putU32(int offset, int value) {
+        check(offset, 4);
+        int p = TIFF_START + offset;
+        for (int i = 0; i < 4; i++) {
+            payload[p + (littleEndian ? i : 3 - i)] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private void fill(int offset, int length) {
+        check(offset, length);
+        Arrays.fill(payload, TIFF_START + offset, TIFF_START + offset + length, (byte) 0);
+    }
+}
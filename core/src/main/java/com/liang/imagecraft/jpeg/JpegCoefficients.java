@@ -0,0 +1,203 @@
+package com.liang.imagecraft.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * JPEG文件的已量化DCT系数，以及重新写出所需的量化表和原样保留的APPn、COM段
+ * 系数没有反量化，读出后再写回不损失任何信息，可以在系数上完成直角旋转、翻转和按MCU裁剪
+ */
+public final class JpegCoefficients {
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    private static final int MARKER_APP1 = 0xE1;
+
+    final int width;
+    final int height;
+    final Component[] components;
+    // 按编号索引的自然顺序量化表，未定义的为null
+    final int[][] quantTables;
+    // 原图的APPn和COM段，包括标记和长度字段，按原顺序
+    final List<byte[]> segments;
+
+    JpegCoefficients(int width, int height, Component[] components, int[][] quantTables, List<byte[]> segments) {
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.quantTables = quantTables;
+        this.segments = segments;
+    }
+
+    /**
+     * 解析JPEG文件的系数
+     *
+     * @return 渐进式、算术编码等不支持的编码方式返回null
+     * @throws IOException 不是JPEG或数据损坏
+     */
+    public static JpegCoefficients read(byte[] jpeg, int length) throws IOException {
+        return new JpegReader(jpeg, length).read();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * MCU的像素宽度，无损裁剪的左边界必须是它的整数倍
+     */
+    public int mcuWidth() {
+        return 8 * maxH();
+    }
+
+    /**
+     * MCU的像素高度，无损裁剪的上边界必须是它的整数倍
+     */
+    public int mcuHeight() {
+        return 8 * maxV();
+    }
+
+    int maxH() {
+        int max = 1;
+        for (Component component : components) {
+            max = Math.max(max, component.h);
+        }
+        return max;
+    }
+
+    int maxV() {
+        int max = 1;
+        for (Component component : components) {
+            max = Math.max(max, component.v);
+        }
+        return max;
+    }
+
+    /**
+     * 系数数组占用的字节数
+     */
+    public long byteCount() {
+        long bytes = 0;
+        for (Component component : components) {
+            bytes += component.coefficients.length * 2L;
+        }
+        return bytes;
+    }
+
+    /**
+     * 写出为基线JPEG：原图的量化表和系数不变，Huffman表换成标准表，不使用重启间隔
+     * 原图的APPn和COM段原样写出，EXIF段换成 exif；exif 为null时去掉原图的EXIF
+     */
+    public void write(OutputStream outputStream, ExifSegment exif) throws IOException {
+        JpegWriter out = new JpegWriter(outputStream);
+        out.writeMarker(JpegWriter.MARKER_SOI);
+        boolean exifWritten = false;
+        for (byte[] segment : segments) {
+            if (isExif(segment)) {
+                if (exif != null && !exifWritten) {
+                    out.writeExif(exif);
+                    exifWritten = true;
+                }
+            } else {
+                out.writeBytes(segment);
+            }
+        }
+        if (exif != null && !exifWritten) {
+            out.writeExif(exif);
+        }
+
+        boolean[] tableWritten = new boolean[quantTables.length];
+        int[][] frame = new int[components.length][];
+        int[] ids = new int[components.length];
+        for (int i = 0; i < components.length; i++) {
+            Component component = components[i];
+            if (!tableWritten[component.quantTable]) {
+                out.writeQuantTable(component.quantTable, quantTables[component.quantTable]);
+                tableWritten[component.quantTable] = true;
+            }
+            frame[i] = new int[]{component.id, component.h, component.v, component.quantTable};
+            ids[i] = component.id;
+        }
+        out.writeFrame(width, height, frame);
+        out.writeStandardHuffmanTables();
+        out.writeScanHeader(ids);
+        writeScan(out);
+        out.finish();
+    }
+
+    private void writeScan(JpegWriter out) throws IOException {
+        int[] block = new int[64];
+        int[] predictions = new int[components.length];
+        boolean single = components.length == 1;
+        int mcusWide = single ? components[0].blocksWide : components[0].blocksWide / components[0].h;
+        int mcusHigh = single ? components[0].blocksHigh : components[0].blocksHigh / components[0].v;
+        for (int mcuY = 0; mcuY < mcusHigh; mcuY++) {
+            for (int mcuX = 0; mcuX < mcusWide; mcuX++) {
+                for (int i = 0; i < components.length; i++) {
+                    Component component = components[i];
+                    int[][] dc = i == 0 ? JpegWriter.DC_LUMA : JpegWriter.DC_CHROMA;
+                    int[][] ac = i == 0 ? JpegWriter.AC_LUMA : JpegWriter.AC_CHROMA;
+                    int h = single ? 1 : component.h;
+                    int v = single ? 1 : component.v;
+                    for (int y = 0; y < v; y++) {
+                        for (int x = 0; x < h; x++) {
+                            int offset = ((mcuY * v + y) * component.blocksWide + mcuX * h + x) * 64;
+                            for (int k = 0; k < 64; k++) {
+                                block[k] = component.coefficients[offset + k];
+                            }
+                            predictions[i] = out.writeBlock(block, predictions[i], dc, ac);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isExif(byte[] segment) {
+        if ((segment[1] & 0xFF) != MARKER_APP1 || segment.length < 4 + EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (segment[4 + i] != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一个颜色分量的系数，块数补齐到MCU的整数倍，每块64个自然顺序的系数
+     */
+    static final class Component {
+        final int id;
+        final int h;
+        final int v;
+        final int quantTable;
+        final int blocksWide;
+        final int blocksHigh;
+        final short[] coefficients;
+
+        Component(int id, int h, int v, int quantTable, int blocksWide, int blocksHigh) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.quantTable = quantTable;
+            this.blocksWide = blocksWide;
+            this.blocksHigh = blocksHigh;
+            this.coefficients = new short[blocksWide * blocksHigh * 64];
+        }
+
+        /**
+         * 按图片尺寸和最大采样因子分配系数数组
+         */
+        static Component allocate(int id, int h, int v, int quantTable, int width, int height, int maxH, int maxV) {
+            int mcusWide = (width + 8 * maxH - 1) / (8 * maxH);
+            int mcusHigh = (height + 8 * maxV - 1) / (8 * maxV);
+            return new Component(id, h, v, quantTable, mcusWide * h, mcusHigh * v);
+        }
+    }
+}
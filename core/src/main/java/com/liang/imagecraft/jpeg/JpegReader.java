@@ -0,0 +1,441 @@
+package com.liang.imagecraft.jpeg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把基线（或扩展顺序、8位精度）Huffman编码的JPEG解析到已量化的DCT系数，不做反量化和IDCT
+ * 只支持一次扫描包含全部分量的文件，也就是相机和 Bitmap.compress 的输出；
+ * 渐进式、算术编码、12位精度和分量分多次扫描的文件返回null，由调用方改走像素解码
+ */
+final class JpegReader {
+
+    private static final int MARKER_SOF0 = 0xC0;
+    private static final int MARKER_SOF1 = 0xC1;
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_DAC = 0xCC;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_RST7 = 0xD7;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_DQT = 0xDB;
+    private static final int MARKER_DRI = 0xDD;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP15 = 0xEF;
+    private static final int MARKER_COM = 0xFE;
+    private static final int MAX_COMPONENTS = 4;
+
+    private final byte[] data;
+    private final int length;
+    private int position;
+
+    private final int[][] quantTables = new int[4][];
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+    private final List<byte[]> segments = new ArrayList<>();
+    private int restartInterval;
+    private int width;
+    private int height;
+    private JpegCoefficients.Component[] components;
+
+    // 熵编码数据的位缓冲，遇到标记后只补0
+    private int bitBuffer;
+    private int bitCount;
+    private boolean markerReached;
+
+    JpegReader(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    JpegCoefficients read() throws IOException {
+        if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != MARKER_SOI) {
+            throw new IOException("不是JPEG文件");
+        }
+        position = 2;
+        while (true) {
+            int marker = nextMarker();
+            if (marker == MARKER_SOS) {
+                return readScan() ? new JpegCoefficients(width, height, components, quantTables, segments) : null;
+            }
+            if (marker == MARKER_EOI) {
+                throw new IOException("JPEG没有图像数据");
+            }
+            int start = position - 2;
+            int segmentLength = readShort();
+            int end = position + segmentLength - 2;
+            if (segmentLength < 2 || end > length) {
+                throw new IOException("JPEG标记段长度错误");
+            }
+            if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                if (!readFrame()) {
+                    return null;
+                }
+            } else if (marker > MARKER_SOF1 && marker <= 0xCF && marker != MARKER_DHT && marker != MARKER_DAC) {
+                // 渐进式、无损和算术编码的帧
+                return null;
+            } else if (marker == MARKER_DHT) {
+                readHuffmanTables(end);
+            } else if (marker == MARKER_DQT) {
+                if (!readQuantTables(end)) {
+                    return null;
+                }
+            } else if (marker == MARKER_DRI) {
+                restartInterval = readShort();
+            } else if ((marker >= MARKER_APP0 && marker <= MARKER_APP15) || marker == MARKER_COM) {
+                byte[] segment = new byte[end - start];
+                System.arraycopy(data, start, segment, 0, segment.length);
+                segments.add(segment);
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * 跳过填充字节读取下一个标记
+     */
+    private int nextMarker() throws IOException {
+        if (position + 1 >= length || (data[position] & 0xFF) != 0xFF) {
+            throw new IOException("JPEG标记错误");
+        }
+        while (position < length && (data[position] & 0xFF) == 0xFF) {
+            position++;
+        }
+        if (position >= length) {
+            throw new IOException("JPEG数据不完整");
+        }
+        return data[position++] & 0xFF;
+    }
+
+    private int readShort() {
+        int value = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+        position += 2;
+        return value;
+    }
+
+    private boolean readFrame() throws IOException {
+        if ((data[position++] & 0xFF) != 8) {
+            return false;
+        }
+        height = readShort();
+        width = readShort();
+        int count = data[position++] & 0xFF;
+        if (width <= 0 || height <= 0 || count == 0 || count > MAX_COMPONENTS) {
+            // 高度为0表示由DNL标记给出，不支持
+            return false;
+        }
+        if ((long) (width + 31) * (height + 31) > Integer.MAX_VALUE) {
+            // 系数数组放不进一个Java数组
+            return false;
+        }
+        components = new JpegCoefficients.Component[count];
+        int[][] specs = new int[count][];
+        int maxH = 1;
+        int maxV = 1;
+        for (int i = 0; i < count; i++) {
+            int id = data[position++] & 0xFF;
+            int sampling = data[position++] & 0xFF;
+            int quantTable = data[position++] & 0xFF;
+            int h = sampling >> 4;
+            int v = sampling & 0x0F;
+            if (h < 1 || h > 4 || v < 1 || v > 4 || quantTable > 3) {
+                throw new IOException("JPEG分量参数错误");
+            }
+            specs[i] = new int[]{id, h, v, quantTable};
+            maxH = Math.max(maxH, h);
+            maxV = Math.max(maxV, v);
+        }
+        if (count == 1) {
+            // 单分量的扫描不交织，采样因子没有意义
+            specs[0][1] = 1;
+            specs[0][2] = 1;
+            maxH = 1;
+            maxV = 1;
+        }
+        for (int i = 0; i < count; i++) {
+            int[] spec = specs[i];
+            components[i] = JpegCoefficients.Component.allocate(spec[0], spec[1], spec[2], spec[3],
+                    width, height, maxH, maxV);
+        }
+        return true;
+    }
+
+    private boolean readQuantTables(int end) throws IOException {
+        while (position < end) {
+            int info = data[position++] & 0xFF;
+            int id = info & 0x0F;
+            if (id > 3) {
+                throw new IOException("JPEG量化表编号错误");
+            }
+            if ((info >> 4) != 0) {
+                // 16位量化表只能用于扩展编码，基线输出写不下
+                return false;
+            }
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[JpegTables.ZIGZAG[k]] = data[position++] & 0xFF;
+            }
+            quantTables[id] = table;
+        }
+        return true;
+    }
+
+    private void readHuffmanTables(int end) throws IOException {
+        while (position < end) {
+            int info = data[position++] & 0xFF;
+            int id = info & 0x0F;
+            if (id > 3 || (info >> 4) > 1) {
+                throw new IOException("JPEG Huffman表编号错误");
+            }
+            int[] bits = new int[16];
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                bits[i] = data[position++] & 0xFF;
+                total += bits[i];
+            }
+            if (total > 256 || position + total > end) {
+                throw new IOException("JPEG Huffman表长度错误");
+            }
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = data[position++] & 0xFF;
+            }
+            HuffmanTable table = new HuffmanTable(bits, values);
+            if ((info >> 4) == 0) {
+                dcTables[id] = table;
+            } else {
+                acTables[id] = table;
+            }
+        }
+    }
+
+    /**
+     * 读取扫描头并解码熵编码数据，扫描不包含全部分量或不是顺序编码时返回false
+     */
+    private boolean readScan() throws IOException {
+        if (components == null) {
+            throw new IOException("JPEG缺少帧头");
+        }
+        int segmentLength = readShort();
+        int segmentEnd = position + segmentLength - 2;
+        int count = data[position++] & 0xFF;
+        if (count != components.length) {
+            return false;
+        }
+        JpegCoefficients.Component[] scan = new JpegCoefficients.Component[count];
+        HuffmanTable[] dc = new HuffmanTable[count];
+        HuffmanTable[] ac = new HuffmanTable[count];
+        for (int i = 0; i < count; i++) {
+            int id = data[position++] & 0xFF;
+            int tables = data[position++] & 0xFF;
+            for (JpegCoefficients.Component component : components) {
+                if (component.id == id) {
+                    scan[i] = component;
+                }
+            }
+            dc[i] = dcTables[tables >> 4];
+            ac[i] = acTables[tables & 0x0F];
+            if (scan[i] == null || dc[i] == null || ac[i] == null) {
+                throw new IOException("JPEG扫描引用了不存在的分量或表");
+            }
+            if (quantTables[scan[i].quantTable] == null) {
+                throw new IOException("JPEG缺少量化表");
+            }
+        }
+        int spectralStart = data[position++] & 0xFF;
+        int spectralEnd = data[position++] & 0xFF;
+        int approximation = data[position++] & 0xFF;
+        if (spectralStart != 0 || spectralEnd != 63 || approximation != 0) {
+            return false;
+        }
+        position = segmentEnd;
+        decodeScan(scan, dc, ac);
+        return true;
+    }
+
+    private void decodeScan(JpegCoefficients.Component[] scan, HuffmanTable[] dc, HuffmanTable[] ac)
+            throws IOException {
+        int mcusWide;
+        int mcusHigh;
+        if (scan.length == 1) {
+            mcusWide = scan[0].blocksWide;
+            mcusHigh = scan[0].blocksHigh;
+        } else {
+            mcusWide = scan[0].blocksWide / scan[0].h;
+            mcusHigh = scan[0].blocksHigh / scan[0].v;
+        }
+        int[] predictions = new int[scan.length];
+        int mcuCount = mcusWide * mcusHigh;
+        for (int mcu = 0; mcu < mcuCount; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                restart();
+                Arrays.fill(predictions, 0);
+            }
+            int mcuX = mcu % mcusWide;
+            int mcuY = mcu / mcusWide;
+            for (int i = 0; i < scan.length; i++) {
+                JpegCoefficients.Component component = scan[i];
+                int h = scan.length == 1 ? 1 : component.h;
+                int v = scan.length == 1 ? 1 : component.v;
+                for (int y = 0; y < v; y++) {
+                    for (int x = 0; x < h; x++) {
+                        int block = (mcuY * v + y) * component.blocksWide + mcuX * h + x;
+                        predictions[i] = decodeBlock(component.coefficients, block * 64, predictions[i], dc[i], ac[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 解码一个块的系数，按自然顺序写入，返回DC系数
+     */
+    private int decodeBlock(short[] out, int offset, int lastDc, HuffmanTable dc, HuffmanTable ac)
+            throws IOException {
+        int size = decode(dc);
+        int value = lastDc + (size == 0 ? 0 : extend(receive(size), size));
+        out[offset] = (short) value;
+        int k = 1;
+        while (k < 64) {
+            int symbol = decode(ac);
+            int run = symbol >> 4;
+            size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    // EOB
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += run;
+            if (k > 63) {
+                throw new IOException("JPEG系数越界");
+            }
+            out[offset + JpegTables.ZIGZAG[k]] = (short) extend(receive(size), size);
+            k++;
+        }
+        return value;
+    }
+
+    /**
+     * 重启间隔处丢弃剩余的位并跳过RSTn标记
+     */
+    private void restart() throws IOException {
+        bitBuffer = 0;
+        bitCount = 0;
+        markerReached = false;
+        while (position + 1 < length) {
+            if ((data[position] & 0xFF) == 0xFF) {
+                int marker = data[position + 1] & 0xFF;
+                if (marker >= MARKER_RST0 && marker <= MARKER_RST7) {
+                    position += 2;
+                    return;
+                }
+                if (marker != 0x00 && marker != 0xFF) {
+                    throw new IOException("JPEG缺少重启标记");
+                }
+            }
+            position++;
+        }
+        throw new IOException("JPEG数据不完整");
+    }
+
+    private int decode(HuffmanTable table) throws IOException {
+        fill(16);
+        int peek = (bitBuffer >>> (bitCount - HuffmanTable.LOOKUP_BITS)) & ((1 << HuffmanTable.LOOKUP_BITS) - 1);
+        int entry = table.lookup[peek];
+        if (entry != 0) {
+            bitCount -= entry >> 8;
+            return entry & 0xFF;
+        }
+        int code = 0;
+        for (int length = 1; length <= 16; length++) {
+            code = (code << 1) | ((bitBuffer >>> (bitCount - length)) & 1);
+            if (code <= table.maxCode[length]) {
+                bitCount -= length;
+                return table.values[table.valueOffset[length] + code - table.minCode[length]];
+            }
+        }
+        throw new IOException("JPEG Huffman码错误");
+    }
+
+    private int receive(int size) {
+        fill(size);
+        bitCount -= size;
+        return (bitBuffer >>> bitCount) & ((1 << size) - 1);
+    }
+
+    /**
+     * 附加位的最高位为0表示负数
+     */
+    private static int extend(int value, int size) {
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    /**
+     * 保证位缓冲中至少有 count 位，数据中的 0xFF00 还原为 0xFF，遇到标记后补0
+     */
+    private void fill(int count) {
+        while (bitCount < count) {
+            int b = 0;
+            if (!markerReached && position < length) {
+                b = data[position] & 0xFF;
+                if (b == 0xFF) {
+                    int next = position + 1 < length ? data[position + 1] & 0xFF : MARKER_EOI;
+                    if (next == 0x00) {
+                        position += 2;
+                    } else {
+                        markerReached = true;
+                        b = 0;
+                    }
+                } else {
+                    position++;
+                }
+            }
+            // 只保留最近的24位，已消耗的高位不再需要
+            bitBuffer = ((bitBuffer << 8) | b) & 0xFFFFFF;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * 解码用的Huffman表：短码直接查表，长码按每个码长的最大码字逐位比较
+     */
+    private static final class HuffmanTable {
+        static final int LOOKUP_BITS = 9;
+
+        // (码长 << 8) | 符号，0表示码长超过 LOOKUP_BITS
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+        final int[] maxCode = new int[17];
+        final int[] minCode = new int[17];
+        final int[] valueOffset = new int[17];
+        final int[] values;
+
+        HuffmanTable(int[] bits, int[] values) {
+            this.values = values;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                int count = bits[length - 1];
+                valueOffset[length] = index;
+                minCode[length] = code;
+                maxCode[length] = count > 0 ? code + count - 1 : -1;
+                for (int i = 0; i < count; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        for (int fill = 0; fill < (1 << shift); fill++) {
+                            lookup[(code << shift) | fill] = (length << 8) | values[index];
+                        }
+                    }
+                    code++;
+                    index++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.liang.imagecraft.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 基线JPEG的底层写出：标记段、量化表、标准Huffman表和已量化系数块的熵编码
+ * 流式编码器和无损变换共用，自带输出缓冲
+ */
+final class JpegWriter {
+
+    static final int MARKER_SOI = 0xD8;
+    static final int MARKER_EOI = 0xD9;
+    static final int MARKER_APP0 = 0xE0;
+    static final int MARKER_DQT = 0xDB;
+    static final int MARKER_SOF0 = 0xC0;
+    static final int MARKER_DHT = 0xC4;
+    static final int MARKER_SOS = 0xDA;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    static final int[][] DC_LUMA = JpegTables.huffmanCodes(JpegTables.DC_LUMA_BITS, JpegTables.DC_LUMA_VALUES);
+    static final int[][] AC_LUMA = JpegTables.huffmanCodes(JpegTables.AC_LUMA_BITS, JpegTables.AC_LUMA_VALUES);
+    static final int[][] DC_CHROMA = JpegTables.huffmanCodes(JpegTables.DC_CHROMA_BITS, JpegTables.DC_CHROMA_VALUES);
+    static final int[][] AC_CHROMA = JpegTables.huffmanCodes(JpegTables.AC_CHROMA_BITS, JpegTables.AC_CHROMA_VALUES);
+
+    private final OutputStream out;
+    // 熵编码的位缓冲和输出缓冲
+    private long bitBuffer;
+    private int bitCount;
+    private final byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+    private int bufferPosition;
+
+    JpegWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * 写出JFIF的APP0段：版本1.1，无单位，像素宽高比1:1，无缩略图
+     */
+    void writeJfifHeader() throws IOException {
+        writeMarker(MARKER_APP0);
+        writeShort(16);
+        writeByte('J');
+        writeByte('F');
+        writeByte('I');
+        writeByte('F');
+        writeByte(0);
+        writeByte(1);
+        writeByte(1);
+        writeByte(0);
+        writeShort(1);
+        writeShort(1);
+        writeByte(0);
+        writeByte(0);
+    }
+
+    /**
+     * 写出一个完整的EXIF段
+     */
+    void writeExif(ExifSegment exif) throws IOException {
+        flushBuffer();
+        exif.writeTo(out);
+    }
+
+    /**
+     * 写出自然顺序的8位量化表，每张表一个DQT段
+     */
+    void writeQuantTable(int id, int[] table) throws IOException {
+        writeMarker(MARKER_DQT);
+        writeShort(2 + 65);
+        writeByte(id);
+        for (int k = 0; k < 64; k++) {
+            writeByte(table[JpegTables.ZIGZAG[k]]);
+        }
+    }
+
+    /**
+     * 写出SOF0段
+     *
+     * @param components 每个分量 {id, 水平采样, 垂直采样, 量化表}
+     */
+    void writeFrame(int width, int height, int[][] components) throws IOException {
+        writeMarker(MARKER_SOF0);
+        writeShort(8 + 3 * components.length);
+        writeByte(8);
+        writeShort(height);
+        writeShort(width);
+        writeByte(components.length);
+        for (int[] component : components) {
+            writeByte(component[0]);
+            writeByte((component[1] << 4) | component[2]);
+            writeByte(component[3]);
+        }
+    }
+
+    /**
+     * 写出附录K的四张标准Huffman表：0号给亮度，1号给色度
+     */
+    void writeStandardHuffmanTables() throws IOException {
+        writeMarker(MARKER_DHT);
+        writeShort(2 + huffmanTableLength(JpegTables.DC_LUMA_VALUES) + huffmanTableLength(JpegTables.AC_LUMA_VALUES)
+                + huffmanTableLength(JpegTables.DC_CHROMA_VALUES) + huffmanTableLength(JpegTables.AC_CHROMA_VALUES));
+        writeHuffmanTable(0x00, JpegTables.DC_LUMA_BITS, JpegTables.DC_LUMA_VALUES);
+        writeHuffmanTable(0x10, JpegTables.AC_LUMA_BITS, JpegTables.AC_LUMA_VALUES);
+        writeHuffmanTable(0x01, JpegTables.DC_CHROMA_BITS, JpegTables.DC_CHROMA_VALUES);
+        writeHuffmanTable(0x11, JpegTables.AC_CHROMA_BITS, JpegTables.AC_CHROMA_VALUES);
+    }
+
+    /**
+     * 写出包含全部分量的SOS段，第一个分量用0号Huffman表，其余用1号
+     */
+    void writeScanHeader(int[] componentIds) throws IOException {
+        writeMarker(MARKER_SOS);
+        writeShort(6 + 2 * componentIds.length);
+        writeByte(componentIds.length);
+        for (int i = 0; i < componentIds.length; i++) {
+            writeByte(componentIds[i]);
+            writeByte(i == 0 ? 0x00 : 0x11);
+        }
+        // 基线顺序编码：频谱范围 0 ~ 63，无逐次逼近
+        writeByte(0);
+        writeByte(63);
+        writeByte(0);
+    }
+
+    /**
+     * 熵编码一个已量化的块，返回它的DC系数作为下一块的预测值
+     *
+     * @param quantized 自然顺序的64个系数
+     */
+    int writeBlock(int[] quantized, int lastDc, int[][] dcTable, int[][] acTable) throws IOException {
+        int dc = quantized[0];
+        writeValue(dc - lastDc, dcTable, 0);
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = quantized[JpegTables.ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                // ZRL：16个连续的0
+                writeBits(acTable[0][0xF0], acTable[1][0xF0]);
+                run -= 16;
+            }
+            writeValue(value, acTable, run << 4);
+            run = 0;
+        }
+        if (run > 0) {
+            // EOB
+            writeBits(acTable[0][0x00], acTable[1][0x00]);
+        }
+        return dc;
+    }
+
+    /**
+     * 剩余的位用1补齐到整字节，写出EOI并把缓冲区写入输出流，不关闭输出流
+     */
+    void finish() throws IOException {
+        if (bitCount > 0) {
+            writeBits((1 << (8 - bitCount)) - 1, 8 - bitCount);
+        }
+        writeMarker(MARKER_EOI);
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * 写出 符号(游程 | 位数) 的Huffman码和数值本身的附加位
+     */
+    private void writeValue(int value, int[][] table, int runBits) throws IOException {
+        int magnitude = Math.abs(value);
+        int size = magnitude == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(magnitude);
+        int symbol = runBits | size;
+        writeBits(table[0][symbol], table[1][symbol]);
+        if (size > 0) {
+            // 负数写出 value - 1 的低位，即反码
+            writeBits((value < 0 ? value - 1 : value) & ((1 << size) - 1), size);
+        }
+    }
+
+    private void writeBits(int bits, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | bits;
+        bitCount += count;
+        while (bitCount >= 8) {
+            int b = (int) (bitBuffer >> (bitCount - 8)) & 0xFF;
+            writeByte(b);
+            if (b == 0xFF) {
+                // 熵编码数据中的0xFF后面补0，避免被当作标记
+                writeByte(0);
+            }
+            bitCount -= 8;
+        }
+        bitBuffer &= (1L << bitCount) - 1;
+    }
+
+    private static int huffmanTableLength(int[] values) {
+        return 1 + 16 + values.length;
+    }
+
+    private void writeHuffmanTable(int classAndId, int[] bits, int[] values) throws IOException {
+        writeByte(classAndId);
+        for (int count : bits) {
+            writeByte(count);
+        }
+        for (int value : values) {
+            writeByte(value);
+        }
+    }
+
+    void writeMarker(int marker) throws IOException {
+        writeByte(0xFF);
+        writeByte(marker);
+    }
+
+    void writeShort(int value) throws IOException {
+        writeByte(value >>> 8);
+        writeByte(value & 0xFF);
+    }
+
+    void writeByte(int value) throws IOException {
+        if (bufferPosition == buffer.length) {
+            flushBuffer();
+        }
+        buffer[bufferPosition++] = (byte) value;
+    }
+
+    /**
+     * 原样写出一段字节，用于复制原图的APPn、COM等标记段
+     */
+    void writeBytes(byte[] data) throws IOException {
+        flushBuffer();
+        out.write(data);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (bufferPosition > 0) {
+            out.write(buffer, 0, bufferPosition);
+            bufferPosition = 0;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.liang.imagecraft.jpeg;
+
+import com.liang.imagecraft.edit.Affine;
+import com.liang.imagecraft.edit.GeometryPlan;
+
+/**
+ * 在DCT系数上完成的无损几何变换：裁剪加直角旋转或翻转，不解码像素，画质与原图完全相同
+ * 整块移动系数块，块内用两条恒等式变换系数：
+ * 转置像素块等于转置系数矩阵；水平（垂直）翻转像素块等于把奇数列（行）频率的系数取反。
+ * 直角旋转和翻转都是转置与翻转的组合，转置时量化表和采样因子也一并转置。
+ * <p>
+ * 只有整块能移动，所以与 jpegtran 的 -crop 和 -trim 一样：裁剪的左、上边界向外对齐到MCU，
+ * 翻转后会变成左、上边界的那一侧如果落在图片边缘的不完整MCU中间，就舍去这部分（不足一个MCU）
+ */
+public final class LosslessTransform {
+
+    // 源图上保留的区域
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    // 从源图到输出的线性部分，每项为 -1、0 或 1
+    private final int a;
+    private final int b;
+    private final int c;
+    private final int d;
+
+    private LosslessTransform(int[] bounds, int a, int b, int c, int d) {
+        this.left = bounds[0];
+        this.top = bounds[1];
+        this.right = bounds[2];
+        this.bottom = bounds[3];
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+    }
+
+    /**
+     * 由合成后的几何变换生成无损变换
+     *
+     * @return 变换包含缩放等不能在系数上完成的部分时返回null
+     */
+    public static LosslessTransform of(GeometryPlan plan, int sourceWidth, int sourceHeight) {
+        Affine transform = plan.transform;
+        int a = unit(transform.a);
+        int b = unit(transform.b);
+        int c = unit(transform.c);
+        int d = unit(transform.d);
+        boolean axisAligned = a != 0 && d != 0 && b == 0 && c == 0;
+        boolean transposed = a == 0 && d == 0 && b != 0 && c != 0;
+        if (!axisAligned && !transposed) {
+            return null;
+        }
+        return new LosslessTransform(plan.sourceBounds(sourceWidth, sourceHeight), a, b, c, d);
+    }
+
+    /**
+     * 系数为 -1、0 或 1 之外的值时返回 Integer.MIN_VALUE
+     */
+    private static int unit(float value) {
+        int rounded = Math.round(value);
+        if (Math.abs(value - rounded) > 1e-4f || Math.abs(rounded) > 1) {
+            return Integer.MIN_VALUE;
+        }
+        return rounded;
+    }
+
+    /**
+     * 是否需要转置，即旋转90或270度
+     */
+    public boolean isTransposed() {
+        return a == 0;
+    }
+
+    /**
+     * 对齐MCU后实际保留的源图区域 {left, top, right, bottom}
+     *
+     * @return 区域在需要对齐的方向上不足一个MCU时返回null
+     */
+    public int[] alignedBounds(JpegCoefficients source) {
+        int mcuWidth = source.mcuWidth();
+        int mcuHeight = source.mcuHeight();
+        // 源图的x、y方向在输出中是否被翻转
+        boolean mirrorX = a < 0 || c < 0;
+        boolean mirrorY = b < 0 || d < 0;
+        int l = left - left % mcuWidth;
+        int t = top - top % mcuHeight;
+        int r = align(l, Math.min(right, source.width), source.width, mcuWidth, mirrorX);
+        int bt = align(t, Math.min(bottom, source.height), source.height, mcuHeight, mirrorY);
+        return r > l && bt > t ? new int[]{l, t, r, bt} : null;
+    }
+
+    /**
+     * 被翻转的方向上区域必须由完整的MCU组成：向外扩展到MCU边界，超出图片时改为向内舍去
+     */
+    private static int align(int start, int end, int size, int mcu, boolean mirrored) {
+        if (!mirrored || (end - start) % mcu == 0) {
+            return end;
+        }
+        int expanded = start + ((end - start) / mcu + 1) * mcu;
+        return expanded <= size ? expanded : start + (end - start) / mcu * mcu;
+    }
+
+    /**
+     * 在系数上应用变换，原对象不变
+     *
+     * @return 保留区域不足一个MCU、无法无损完成时返回null
+     */
+    public JpegCoefficients apply(JpegCoefficients source) {
+        int[] bounds = alignedBounds(source);
+        if (bounds == null) {
+            return null;
+        }
+        boolean transposed = isTransposed();
+        int regionWidth = bounds[2] - bounds[0];
+        int regionHeight = bounds[3] - bounds[1];
+        int width = transposed ? regionHeight : regionWidth;
+        int height = transposed ? regionWidth : regionHeight;
+        int maxH = source.maxH();
+        int maxV = source.maxV();
+        int outputMaxH = transposed ? maxV : maxH;
+        int outputMaxV = transposed ? maxH : maxV;
+
+        JpegCoefficients.Component[] components = new JpegCoefficients.Component[source.components.length];
+        for (int i = 0; i < components.length; i++) {
+            JpegCoefficients.Component from = source.components[i];
+            JpegCoefficients.Component to = JpegCoefficients.Component.allocate(from.id,
+                    transposed ? from.v : from.h, transposed ? from.h : from.v, from.quantTable,
+                    width, height, outputMaxH, outputMaxV);
+            // 区域在该分量中的起始块和块数
+            int blockLeft = bounds[0] / (8 * maxH) * from.h;
+            int blockTop = bounds[1] / (8 * maxV) * from.v;
+            int blocksWide = (ceilDiv(regionWidth * from.h, maxH) + 7) / 8;
+            int blocksHigh = (ceilDiv(regionHeight * from.v, maxV) + 7) / 8;
+            transformComponent(from, to, blockLeft, blockTop, blocksWide, blocksHigh);
+            components[i] = to;
+        }
+
+        int[][] quantTables = new int[source.quantTables.length][];
+        for (int i = 0; i < quantTables.length; i++) {
+            int[] table = source.quantTables[i];
+            quantTables[i] = table != null && transposed ? transpose(table) : table;
+        }
+        return new JpegCoefficients(width, height, components, quantTables, source.segments);
+    }
+
+    private void transformComponent(JpegCoefficients.Component from, JpegCoefficients.Component to,
+                                    int blockLeft, int blockTop, int blocksWide, int blocksHigh) {
+        boolean transposed = isTransposed();
+        // 输出的x、y方向是否翻转
+        boolean flipX = transposed ? b < 0 : a < 0;
+        boolean flipY = transposed ? c < 0 : d < 0;
+        int[] order = blockOrder(transposed, flipX, flipY);
+        short[] source = from.coefficients;
+        short[] target = to.coefficients;
+        for (int sy = 0; sy < blocksHigh; sy++) {
+            for (int sx = 0; sx < blocksWide; sx++) {
+                int ox;
+                int oy;
+                if (transposed) {
+                    ox = flipX ? blocksHigh - 1 - sy : sy;
+                    oy = flipY ? blocksWide - 1 - sx : sx;
+                } else {
+                    ox = flipX ? blocksWide - 1 - sx : sx;
+                    oy = flipY ? blocksHigh - 1 - sy : sy;
+                }
+                int from64 = ((blockTop + sy) * from.blocksWide + blockLeft + sx) * 64;
+                int to64 = (oy * to.blocksWide + ox) * 64;
+                for (int k = 0; k < 64; k++) {
+                    int index = order[k];
+                    // 下标的符号位表示取反
+                    short value = source[from64 + (index & 63)];
+                    target[to64 + k] = index < 0 ? (short) -value : value;
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出块第k个系数取自源块的哪个系数，需要取反时返回值为负（低6位仍是下标）
+     */
+    private static int[] blockOrder(boolean transposed, boolean flipX, boolean flipY) {
+        int[] order = new int[64];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int index = transposed ? col * 8 + row : row * 8 + col;
+                boolean negate = (flipX && (col & 1) != 0) ^ (flipY && (row & 1) != 0);
+                order[row * 8 + col] = negate ? index | Integer.MIN_VALUE : index;
+            }
+        }
+        return order;
+    }
+
+    private static int[] transpose(int[] table) {
+        int[] result = new int[64];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                result[col * 8 + row] = table[row * 8 + col];
+            }
+        }
+        return result;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,272 @@
+package com.liang.imagecraft.jpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按行输入的基线JPEG编码器
+ * 像素可以分任意多次按行送入，每凑满一行MCU（4:2:0采样下为16行）就完成变换、量化和熵编码并写出，
+ * 内部只缓冲一行MCU，内存占用与图片宽度成正比、与高度无关，用于整张放不进内存的超大图片。
+ * 色彩转换、量化表和Huffman表与libjpeg相同，同样质量下与 Bitmap.compress 的结果只有舍入误差
+ */
+public final class StreamingJpegEncoder {
+
+    /**
+     * 一行MCU包含的像素行数
+     */
+    public static final int MCU_ROWS = 16;
+
+    private static final int MAX_DIMENSION = 0xFFFF;
+
+    // AAN算法各频率的缩放系数，合并进量化除数
+    private static final float[] AAN_SCALE = {
+            1.0f, 1.387039845f, 1.306562965f, 1.175875602f,
+            1.0f, 0.785694958f, 0.541196100f, 0.275899379f
+    };
+
+    private final JpegWriter out;
+    private final int width;
+    private final int height;
+    private final int[] lumaQuant;
+    private final int[] chromaQuant;
+    // 量化除数的倒数，包含AAN缩放系数，自然顺序
+    private final float[] lumaScale = new float[64];
+    private final float[] chromaScale = new float[64];
+
+    // 宽度补齐到MCU的整数倍
+    private final int paddedWidth;
+    // 当前MCU行的亮度和2x2平均后的色度，已减去128
+    private final float[] luma;
+    private final float[] cb;
+    private final float[] cr;
+    // 最后一行像素，图片高度不是16的倍数时用它补齐最后一行MCU
+    private final int[] lastRow;
+    private int bufferedRows;
+    private int rowsWritten;
+    private boolean headerWritten;
+    private boolean finished;
+
+    // 分块变换和量化的工作区
+    private final float[] block = new float[64];
+    private final int[] quantized = new int[64];
+    // 各分量DC系数的差分预测值
+    private int lastLumaDc;
+    private int lastCbDc;
+    private int lastCrDc;
+
+    /**
+     * @param quality 1 ~ 100，与 Bitmap.compress 的质量参数含义相同
+     */
+    public StreamingJpegEncoder(OutputStream out, int width, int height, int quality) {
+        if (width <= 0 || height <= 0 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("JPEG不支持的尺寸：" + width + "x" + height);
+        }
+        this.out = new JpegWriter(out);
+        this.width = width;
+        this.height = height;
+        lumaQuant = JpegTables.lumaQuant(quality);
+        chromaQuant = JpegTables.chromaQuant(quality);
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int i = row * 8 + col;
+                float aan = AAN_SCALE[row] * AAN_SCALE[col] * 8f;
+                lumaScale[i] = 1f / (lumaQuant[i] * aan);
+                chromaScale[i] = 1f / (chromaQuant[i] * aan);
+            }
+        }
+        paddedWidth = (width + MCU_ROWS - 1) / MCU_ROWS * MCU_ROWS;
+        luma = new float[paddedWidth * MCU_ROWS];
+        cb = new float[paddedWidth / 2 * (MCU_ROWS / 2)];
+        cr = new float[cb.length];
+        lastRow = new int[width];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 已送入的像素行数
+     */
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * 写出文件头。exif 不为null时用它代替JFIF的APP0段
+     */
+    public void writeHeader(ExifSegment exif) throws IOException {
+        if (headerWritten) {
+            throw new IllegalStateException("文件头已经写出");
+        }
+        headerWritten = true;
+        out.writeMarker(JpegWriter.MARKER_SOI);
+        if (exif != null) {
+            out.writeExif(exif);
+        } else {
+            out.writeJfifHeader();
+        }
+        out.writeQuantTable(0, lumaQuant);
+        out.writeQuantTable(1, chromaQuant);
+        // 亮度2x2采样，两个色度分量各1x1
+        out.writeFrame(width, height, new int[][]{{1, 2, 2, 0}, {2, 1, 1, 1}, {3, 1, 1, 1}});
+        out.writeStandardHuffmanTables();
+        out.writeScanHeader(new int[]{1, 2, 3});
+    }
+
+    /**
+     * 按从上到下的顺序送入若干行ARGB像素，透明度被忽略
+     *
+     * @param offset 第一行第一个像素在 pixels 中的位置
+     * @param stride 相邻两行之间的间隔
+     */
+    public void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (!headerWritten || finished) {
+            throw new IllegalStateException("文件头未写出或编码已结束");
+        }
+        if (rows < 0 || rowsWritten + rows > height) {
+            throw new IllegalArgumentException("行数超出图片高度");
+        }
+        for (int i = 0; i < rows; i++) {
+            int start = offset + i * stride;
+            bufferRow(pixels, start);
+            if (i == rows - 1) {
+                System.arraycopy(pixels, start, lastRow, 0, width);
+            }
+        }
+        rowsWritten += rows;
+    }
+
+    /**
+     * 补齐最后一行MCU，写出剩余的数据和EOI，不关闭输出流
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (rowsWritten != height) {
+            throw new IllegalStateException("只送入了 " + rowsWritten + " / " + height + " 行");
+        }
+        finished = true;
+        // 与libjpeg一样复制最后一行补齐
+        while (bufferedRows != 0) {
+            bufferRow(lastRow, 0);
+        }
+        out.finish();
+    }
+
+    private void bufferRow(int[] pixels, int start) throws IOException {
+        int y = bufferedRows;
+        int lumaRow = y * paddedWidth;
+        int chromaRow = (y >> 1) * (paddedWidth >> 1);
+        if ((y & 1) == 0) {
+            // 每两行的第一行清零色度累加
+            for (int x = 0, end = paddedWidth >> 1; x < end; x++) {
+                cb[chromaRow + x] = 0f;
+                cr[chromaRow + x] = 0f;
+            }
+        }
+        for (int x = 0; x < paddedWidth; x++) {
+            // 右侧复制最后一列补齐
+            int argb = pixels[start + Math.min(x, width - 1)];
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            luma[lumaRow + x] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+            int c = chromaRow + (x >> 1);
+            cb[c] += (-0.168736f * r - 0.331264f * g + 0.5f * b) * 0.25f;
+            cr[c] += (0.5f * r - 0.418688f * g - 0.081312f * b) * 0.25f;
+        }
+        bufferedRows++;
+        if (bufferedRows == MCU_ROWS) {
+            encodeMcuRow();
+            bufferedRows = 0;
+        }
+    }
+
+    private void encodeMcuRow() throws IOException {
+        int chromaWidth = paddedWidth >> 1;
+        for (int x = 0; x < paddedWidth; x += MCU_ROWS) {
+            lastLumaDc = encodeBlock(luma, x, paddedWidth, lumaScale, lastLumaDc,
+                    JpegWriter.DC_LUMA, JpegWriter.AC_LUMA);
+            lastLumaDc = encodeBlock(luma, x + 8, paddedWidth, lumaScale, lastLumaDc,
+                    JpegWriter.DC_LUMA, JpegWriter.AC_LUMA);
+            lastLumaDc = encodeBlock(luma, 8 * paddedWidth + x, paddedWidth, lumaScale, lastLumaDc,
+                    JpegWriter.DC_LUMA, JpegWriter.AC_LUMA);
+            lastLumaDc = encodeBlock(luma, 8 * paddedWidth + x + 8, paddedWidth, lumaScale, lastLumaDc,
+                    JpegWriter.DC_LUMA, JpegWriter.AC_LUMA);
+            lastCbDc = encodeBlock(cb, x >> 1, chromaWidth, chromaScale, lastCbDc,
+                    JpegWriter.DC_CHROMA, JpegWriter.AC_CHROMA);
+            lastCrDc = encodeBlock(cr, x >> 1, chromaWidth, chromaScale, lastCrDc,
+                    JpegWriter.DC_CHROMA, JpegWriter.AC_CHROMA);
+        }
+    }
+
+    /**
+     * 变换、量化并熵编码一个8x8块，返回它的DC系数作为下一块的预测值
+     */
+    private int encodeBlock(float[] plane, int offset, int stride, float[] scale, int lastDc,
+                            int[][] dcTable, int[][] acTable) throws IOException {
+        for (int row = 0; row < 8; row++) {
+            System.arraycopy(plane, offset + row * stride, block, row * 8, 8);
+        }
+        forwardDct(block);
+        for (int i = 0; i < 64; i++) {
+            quantized[i] = Math.round(block[i] * scale[i]);
+        }
+        return out.writeBlock(quantized, lastDc, dcTable, acTable);
+    }
+
+    /**
+     * AAN浮点DCT，与libjpeg的jfdctflt相同；结果包含AAN缩放，在量化时除掉
+     */
+    private static void forwardDct(float[] data) {
+        for (int i = 0; i < 64; i += 8) {
+            dct8(data, i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            dct8(data, i, 8);
+        }
+    }
+
+    private static void dct8(float[] d, int o, int s) {
+        float tmp0 = d[o] + d[o + 7 * s];
+        float tmp7 = d[o] - d[o + 7 * s];
+        float tmp1 = d[o + s] + d[o + 6 * s];
+        float tmp6 = d[o + s] - d[o + 6 * s];
+        float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // 偶数部分
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        // 奇数部分
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+}
@@ -0,0 +1,64 @@
+package com.liang.imagecraft.kernel;
+
+/**
+ * 基础调整参数
+ * 各项为0时表示不调整，取值范围均为 -1 ~ 1，曝光单位为档（EV）
+ */
+public final class Adjustments {
+
+    public static final Adjustments NONE = new Adjustments(0f, 0f, 0f, 0f);
+
+    public final float brightness;
+    public final float contrast;
+    public final float saturation;
+    public final float exposure;
+
+    public Adjustments(float brightness, float contrast, float saturation, float exposure) {
+        this.brightness = brightness;
+        this.contrast = contrast;
+        this.saturation = saturation;
+        this.exposure = exposure;
+    }
+
+    public Adjustments withBrightness(float value) {
+        return new Adjustments(value, contrast, saturation, exposure);
+    }
+
+    public Adjustments withContrast(float value) {
+        return new Adjustments(brightness, value, saturation, exposure);
+    }
+
+    public Adjustments withSaturation(float value) {
+        return new Adjustments(brightness, contrast, value, exposure);
+    }
+
+    public Adjustments withExposure(float value) {
+        return new Adjustments(brightness, contrast, saturation, value);
+    }
+
+    public boolean isIdentity() {
+        return brightness == 0f && contrast == 0f && saturation == 0f && exposure == 0f;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Adjustments)) {
+            return false;
+        }
+        Adjustments that = (Adjustments) o;
+        return brightness == that.brightness && contrast == that.contrast
+                && saturation == that.saturation && exposure == that.exposure;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(brightness);
+        result = 31 * result + Float.floatToIntBits(contrast);
+        result = 31 * result + Float.floatToIntBits(saturation);
+        result = 31 * result + Float.floatToIntBits(exposure);
+        return result;
+    }
+}
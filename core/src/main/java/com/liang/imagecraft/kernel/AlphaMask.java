@@ -0,0 +1,28 @@
+package com.liang.imagecraft.kernel;
+
+/**
+ * 单通道透明度遮罩，每个像素一个字节，0 为完全透明，255 为完全不透明
+ * 水印等只有形状没有颜色的内容先栅格化成遮罩，再按指定颜色合成到图片上
+ */
+public final class AlphaMask {
+
+    public final int width;
+    public final int height;
+    public final byte[] alpha;
+
+    public AlphaMask(int width, int height, byte[] alpha) {
+        if (width <= 0 || height <= 0 || alpha.length < width * height) {
+            throw new IllegalArgumentException("遮罩尺寸与数据不匹配：" + width + "x" + height + ", " + alpha.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+    }
+
+    /**
+     * 遮罩占用的字节数
+     */
+    public int byteCount() {
+        return width * height;
+    }
+}
@@ -0,0 +1,155 @@
+package com.liang.imagecraft.kernel;
+
+/**
+ * 三维颜色查找表，用于调色
+ * 表格按 r 变化最快、b 变化最慢的顺序存放，每个格点保存 0~1 的 RGB 值，查找时做三线性插值
+ */
+public final class ColorLut {
+
+    /**
+     * 内置的调色预设，查找表在第一次使用时生成
+     */
+    public enum Preset {
+        WARM, COOL, MONO, FADE;
+
+        // 预设的颜色变化都很平缓，17个格点插值已经足够
+        private static final int SIZE = 17;
+
+        private volatile ColorLut lut;
+
+        public ColorLut lut() {
+            ColorLut result = lut;
+            if (result == null) {
+                result = build(this, SIZE);
+                lut = result;
+            }
+            return result;
+        }
+    }
+
+    private final int size;
+    private final float[] table;
+
+    /**
+     * @param size  每个通道的格点数，至少为2
+     * @param table 长度为 size^3 * 3 的RGB数据
+     */
+    public ColorLut(int size, float[] table) {
+        if (size < 2 || table.length != size * size * size * 3) {
+            throw new IllegalArgumentException("LUT尺寸与数据长度不匹配");
+        }
+        this.size = size;
+        this.table = table;
+    }
+
+    /**
+     * 创建不改变颜色的恒等查找表
+     */
+    public static ColorLut identity(int size) {
+        float[] table = new float[size * size * size * 3];
+        int index = 0;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    table[index++] = (float) r / (size - 1);
+                    table[index++] = (float) g / (size - 1);
+                    table[index++] = (float) b / (size - 1);
+                }
+            }
+        }
+        return new ColorLut(size, table);
+    }
+
+    private static ColorLut build(Preset preset, int size) {
+        float[] table = new float[size * size * size * 3];
+        int index = 0;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    float red = (float) r / (size - 1);
+                    float green = (float) g / (size - 1);
+                    float blue = (float) b / (size - 1);
+                    float luma = 0.299f * red + 0.587f * green + 0.114f * blue;
+                    switch (preset) {
+                        case WARM:
+                            red = red * 1.08f + 0.02f;
+                            blue = blue * 0.9f;
+                            break;
+                        case COOL:
+                            red = red * 0.92f;
+                            blue = blue * 1.08f + 0.02f;
+                            break;
+                        case MONO:
+                            red = luma;
+                            green = luma;
+                            blue = luma;
+                            break;
+                        default:
+                            // 褪色：降低饱和度并抬高暗部
+                            red = 0.08f + (luma + (red - luma) * 0.7f) * 0.88f;
+                            green = 0.08f + (luma + (green - luma) * 0.7f) * 0.88f;
+                            blue = 0.08f + (luma + (blue - luma) * 0.7f) * 0.88f;
+                            break;
+                    }
+                    table[index++] = clamp(red);
+                    table[index++] = clamp(green);
+                    table[index++] = clamp(blue);
+                }
+            }
+        }
+        return new ColorLut(size, table);
+    }
+
+    private static float clamp(float value) {
+        return value < 0f ? 0f : (value > 1f ? 1f : value);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * 查找单个像素的颜色，保留原透明度
+     */
+    public int apply(int argb) {
+        float scale = (size - 1) / 255f;
+        float fr = ((argb >> 16) & 0xFF) * scale;
+        float fg = ((argb >> 8) & 0xFF) * scale;
+        float fb = (argb & 0xFF) * scale;
+        int r0 = Math.min((int) fr, size - 2);
+        int g0 = Math.min((int) fg, size - 2);
+        int b0 = Math.min((int) fb, size - 2);
+        float dr = fr - r0;
+        float dg = fg - g0;
+        float db = fb - b0;
+
+        int strideG = size * 3;
+        int strideB = size * size * 3;
+        int base = b0 * strideB + g0 * strideG + r0 * 3;
+
+        int red = channel(base, 0, dr, dg, db, strideG, strideB);
+        int green = channel(base, 1, dr, dg, db, strideG, strideB);
+        int blue = channel(base, 2, dr, dg, db, strideG, strideB);
+        return (argb & 0xFF000000) | (red << 16) | (green << 8) | blue;
+    }
+
+    private int channel(int base, int offset, float dr, float dg, float db, int strideG, int strideB) {
+        int i = base + offset;
+        float c000 = table[i];
+        float c100 = table[i + 3];
+        float c010 = table[i + strideG];
+        float c110 = table[i + strideG + 3];
+        float c001 = table[i + strideB];
+        float c101 = table[i + strideB + 3];
+        float c011 = table[i + strideB + strideG];
+        float c111 = table[i + strideB + strideG + 3];
+        float c00 = c000 + (c100 - c000) * dr;
+        float c10 = c010 + (c110 - c010) * dr;
+        float c01 = c001 + (c101 - c001) * dr;
+        float c11 = c011 + (c111 - c011) * dr;
+        float c0 = c00 + (c10 - c00) * dg;
+        float c1 = c01 + (c11 - c01) * dg;
+        int value = Math.round((c0 + (c1 - c0) * db) * 255f);
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,95 @@
+package com.liang.imagecraft.kernel;
+
+/**
+ * 把透明度遮罩按纯色合成到 ARGB_8888 像素数组上
+ * 目标按不透明处理，结果 = 目标 + (颜色 - 目标) × 遮罩透明度 × 整体不透明度，
+ * 遮罩为0的像素直接跳过，完全不透明的像素直接写入颜色
+ */
+public final class MaskCompositor {
+
+    private MaskCompositor() {
+    }
+
+    /**
+     * 把遮罩合成到指定位置，超出图片的部分被裁掉
+     *
+     * @param left    遮罩左上角在图片中的横坐标，可以为负
+     * @param top     遮罩左上角在图片中的纵坐标，可以为负
+     * @param color   RGB颜色，忽略透明度通道
+     * @param opacity 整体不透明度 0 ~ 255
+     */
+    public static void blend(int[] pixels, int width, int height, AlphaMask mask,
+                             int left, int top, int color, int opacity) {
+        if (opacity <= 0) {
+            return;
+        }
+        int startX = Math.max(0, left);
+        int startY = Math.max(0, top);
+        int endX = Math.min(width, left + mask.width);
+        int endY = Math.min(height, top + mask.height);
+        if (startX >= endX || startY >= endY) {
+            return;
+        }
+        int alphaScale = Math.min(255, opacity) + 1;
+        int cr = (color >> 16) & 0xFF;
+        int cg = (color >> 8) & 0xFF;
+        int cb = color & 0xFF;
+        byte[] alpha = mask.alpha;
+        for (int y = startY; y < endY; y++) {
+            int maskOffset = (y - top) * mask.width - left;
+            int rowOffset = y * width;
+            for (int x = startX; x < endX; x++) {
+                int a = ((alpha[maskOffset + x] & 0xFF) * alphaScale) >> 8;
+                if (a == 0) {
+                    continue;
+                }
+                int i = rowOffset + x;
+                int argb = pixels[i];
+                if (a == 255) {
+                    pixels[i] = (argb & 0xFF000000) | (cr << 16) | (cg << 8) | cb;
+                    continue;
+                }
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                r += divide255((cr - r) * a);
+                g += divide255((cg - g) * a);
+                b += divide255((cb - b) * a);
+                pixels[i] = (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * 把遮罩按固定间距平铺合成，奇数行错开半个横向间距，第一行从图片顶端开始
+     * pixels 可以只是整张图片中从 originY 开始的连续若干行，按行分段处理大图时每段各调用一次，
+     * 结果与一次处理整张图片相同
+     *
+     * @param rows    pixels 中的行数
+     * @param originY pixels 第一行在整张图片中的纵坐标
+     * @param stepX   相邻两个遮罩左边缘的距离，不小于遮罩宽度
+     * @param stepY   相邻两行遮罩上边缘的距离，不小于遮罩高度
+     */
+    public static void blendTiled(int[] pixels, int width, int rows, int originY, AlphaMask mask,
+                                  int stepX, int stepY, int color, int opacity) {
+        if (stepX < mask.width || stepY < mask.height) {
+            throw new IllegalArgumentException("平铺间距小于遮罩尺寸：" + stepX + "x" + stepY);
+        }
+        // 只处理与这一段行相交的遮罩行
+        int row = Math.max(0, Math.floorDiv(originY - mask.height, stepY) + 1);
+        for (int top = row * stepY; top < originY + rows; top += stepY, row++) {
+            int offset = (row % 2) * (stepX / 2);
+            // 从左边缘外的第一个遮罩开始，保证与左边缘相交的遮罩也被绘制
+            for (int left = offset - ((mask.width + stepX - 1) / stepX) * stepX; left < width; left += stepX) {
+                blend(pixels, width, rows, mask, left, top - originY, color, opacity);
+            }
+        }
+    }
+
+    /**
+     * x / 255 四舍五入，负数同样适用
+     */
+    private static int divide255(int x) {
+        return (x * 257 + 32768) >> 16;
+    }
+}
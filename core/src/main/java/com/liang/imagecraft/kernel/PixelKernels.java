@@ -0,0 +1,242 @@
+package com.liang.imagecraft.kernel;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 像素处理内核
+ * 所有操作都直接修改 ARGB_8888 格式的 int[] 像素数组，不依赖 android.graphics，可以在普通JVM上运行。
+ * 图片按行切分后通过 fork/join 并行处理，模糊等需要中间结果的操作复用内部缓冲区，
+ * 因此同一个实例不能被多个线程同时调用。
+ */
+public final class PixelKernels {
+
+    private final ForkJoinPool pool;
+
+    // 复用的中间缓冲区
+    private int[] scratch = new int[0];
+    private int[] blurred = new int[0];
+    private int[] kernel = new int[0];
+    private final int[] toneLut = new int[256];
+
+    public PixelKernels() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public PixelKernels(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 一次遍历完成曝光、亮度、对比度和饱和度调整
+     */
+    public void adjust(int[] pixels, int width, int height, Adjustments adjustments) {
+        if (adjustments.isIdentity()) {
+            return;
+        }
+        buildToneLut(adjustments.exposure, adjustments.brightness, adjustments.contrast);
+        float saturation = 1f + adjustments.saturation;
+        boolean adjustSaturation = adjustments.saturation != 0f;
+        forRows(width, height, (startRow, endRow) -> {
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                int argb = pixels[i];
+                int r = toneLut[(argb >> 16) & 0xFF];
+                int g = toneLut[(argb >> 8) & 0xFF];
+                int b = toneLut[argb & 0xFF];
+                if (adjustSaturation) {
+                    // Rec.601 亮度，定点数计算
+                    int luma = (r * 77 + g * 150 + b * 29) >> 8;
+                    r = clamp(Math.round(luma + (r - luma) * saturation));
+                    g = clamp(Math.round(luma + (g - luma) * saturation));
+                    b = clamp(Math.round(luma + (b - luma) * saturation));
+                }
+                pixels[i] = (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+            }
+        });
+    }
+
+    /**
+     * 亮度与对比度调整，取值范围 -1 ~ 1
+     */
+    public void brightnessContrast(int[] pixels, int width, int height, float brightness, float contrast) {
+        adjust(pixels, width, height, new Adjustments(brightness, contrast, 0f, 0f));
+    }
+
+    /**
+     * 饱和度调整，-1 为灰度，0 不变，1 为两倍饱和度
+     */
+    public void saturation(int[] pixels, int width, int height, float amount) {
+        adjust(pixels, width, height, new Adjustments(0f, 0f, amount, 0f));
+    }
+
+    /**
+     * 曝光调整，单位为档
+     */
+    public void exposure(int[] pixels, int width, int height, float stops) {
+        adjust(pixels, width, height, new Adjustments(0f, 0f, 0f, stops));
+    }
+
+    /**
+     * 可分离高斯模糊：先水平方向写入缓冲区，再垂直方向写回原数组
+     */
+    public void gaussianBlur(int[] pixels, int width, int height, float sigma) {
+        if (sigma <= 0f) {
+            return;
+        }
+        int radius = buildKernel(sigma);
+        int[] temp = ensureScratch(width * height);
+        int[] weights = kernel;
+
+        forRows(width, height, (startRow, endRow) -> {
+            for (int y = startRow; y < endRow; y++) {
+                int rowOffset = y * width;
+                for (int x = 0; x < width; x++) {
+                    int a = 0, r = 0, g = 0, b = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int sx = x + k;
+                        sx = sx < 0 ? 0 : (sx >= width ? width - 1 : sx);
+                        int argb = pixels[rowOffset + sx];
+                        int w = weights[k + radius];
+                        a += ((argb >>> 24)) * w;
+                        r += ((argb >> 16) & 0xFF) * w;
+                        g += ((argb >> 8) & 0xFF) * w;
+                        b += (argb & 0xFF) * w;
+                    }
+                    temp[rowOffset + x] = pack(a, r, g, b);
+                }
+            }
+        });
+
+        forRows(width, height, (startRow, endRow) -> {
+            for (int y = startRow; y < endRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    int a = 0, r = 0, g = 0, b = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int sy = y + k;
+                        sy = sy < 0 ? 0 : (sy >= height ? height - 1 : sy);
+                        int argb = temp[sy * width + x];
+                        int w = weights[k + radius];
+                        a += ((argb >>> 24)) * w;
+                        r += ((argb >> 16) & 0xFF) * w;
+                        g += ((argb >> 8) & 0xFF) * w;
+                        b += (argb & 0xFF) * w;
+                    }
+                    pixels[y * width + x] = pack(a, r, g, b);
+                }
+            }
+        });
+    }
+
+    /**
+     * USM锐化：原图加上原图与模糊图之差的若干倍
+     */
+    public void sharpen(int[] pixels, int width, int height, float amount, float sigma) {
+        if (amount <= 0f || sigma <= 0f) {
+            return;
+        }
+        int count = width * height;
+        if (blurred.length < count) {
+            blurred = new int[count];
+        }
+        int[] soft = blurred;
+        System.arraycopy(pixels, 0, soft, 0, count);
+        gaussianBlur(soft, width, height, sigma);
+
+        int strength = Math.round(amount * 256f);
+        forRows(width, height, (startRow, endRow) -> {
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                int argb = pixels[i];
+                int blur = soft[i];
+                int r = sharpenChannel((argb >> 16) & 0xFF, (blur >> 16) & 0xFF, strength);
+                int g = sharpenChannel((argb >> 8) & 0xFF, (blur >> 8) & 0xFF, strength);
+                int b = sharpenChannel(argb & 0xFF, blur & 0xFF, strength);
+                pixels[i] = (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+            }
+        });
+    }
+
+    /**
+     * 使用三维查找表调色
+     */
+    public void colorLut(int[] pixels, int width, int height, ColorLut lut) {
+        forRows(width, height, (startRow, endRow) -> {
+            for (int i = startRow * width, end = endRow * width; i < end; i++) {
+                pixels[i] = lut.apply(pixels[i]);
+            }
+        });
+    }
+
+    /**
+     * 给定标准差的高斯核半径，即模糊一个像素需要参考两侧各多少个像素
+     */
+    public static int blurRadius(float sigma) {
+        return Math.max(1, (int) Math.ceil(sigma * 3f));
+    }
+
+    /**
+     * 生成曝光、亮度、对比度合成后的色调查找表，三个通道共用
+     */
+    private void buildToneLut(float exposure, float brightness, float contrast) {
+        float gain = (float) Math.pow(2.0, exposure);
+        float offset = brightness * 255f;
+        // 对比度以中灰为中心，-1 时为纯灰，1 时斜率为3
+        float slope = contrast >= 0f ? 1f + contrast * 2f : 1f + contrast;
+        for (int i = 0; i < 256; i++) {
+            float value = i * gain + offset;
+            value = (value - 128f) * slope + 128f;
+            toneLut[i] = clamp(Math.round(value));
+        }
+    }
+
+    /**
+     * 生成16位定点数的一维高斯核，返回半径
+     */
+    private int buildKernel(float sigma) {
+        int radius = blurRadius(sigma);
+        int size = radius * 2 + 1;
+        if (kernel.length < size) {
+            kernel = new int[size];
+        }
+        double sum = 0;
+        double twoSigmaSquare = 2.0 * sigma * sigma;
+        for (int i = -radius; i <= radius; i++) {
+            sum += Math.exp(-(i * i) / twoSigmaSquare);
+        }
+        int total = 0;
+        for (int i = -radius; i <= radius; i++) {
+            int weight = (int) Math.round(Math.exp(-(i * i) / twoSigmaSquare) / sum * 65536.0);
+            kernel[i + radius] = weight;
+            total += weight;
+        }
+        // 把舍入误差补到中心，保证权重之和正好为 65536
+        kernel[radius] += 65536 - total;
+        return radius;
+    }
+
+    private int[] ensureScratch(int count) {
+        if (scratch.length < count) {
+            scratch = new int[count];
+        }
+        return scratch;
+    }
+
+    private void forRows(int width, int height, Rows.Operation operation) {
+        Rows.forEach(pool, width, height, operation);
+    }
+
+    private static int sharpenChannel(int value, int blur, int strength) {
+        return clamp(value + (((value - blur) * strength) >> 8));
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        // 权重之和为 65536，加半数后右移16位即为四舍五入
+        a = (a + 32768) >> 16;
+        r = (r + 32768) >> 16;
+        g = (g + 32768) >> 16;
+        b = (b + 32768) >> 16;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,62 @@
+package com.liang.imagecraft.kernel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 按行切分的并行执行工具，供各个像素内核共用
+ */
+final class Rows {
+
+    // 每个并行任务至少处理的像素数，太小时调度开销会超过计算本身
+    private static final int MIN_PIXELS_PER_TASK = 64 * 1024;
+
+    /**
+     * 对一段连续的行执行处理
+     */
+    interface Operation {
+        void apply(int startRow, int endRow);
+    }
+
+    private Rows() {
+    }
+
+    /**
+     * 按行切分任务并在线程池中执行，图片较小时直接在当前线程执行
+     *
+     * @param width 每行的像素数，用于估算单个任务的工作量
+     */
+    static void forEach(ForkJoinPool pool, int width, int height, Operation operation) {
+        int rowsPerTask = Math.max(1, MIN_PIXELS_PER_TASK / Math.max(1, width));
+        if (height <= rowsPerTask || pool.getParallelism() <= 1) {
+            operation.apply(0, height);
+            return;
+        }
+        pool.invoke(new RowTask(operation, 0, height, rowsPerTask));
+    }
+
+    private static final class RowTask extends RecursiveAction {
+        private final Operation operation;
+        private final int startRow;
+        private final int endRow;
+        private final int rowsPerTask;
+
+        RowTask(Operation operation, int startRow, int endRow, int rowsPerTask) {
+            this.operation = operation;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= rowsPerTask) {
+                operation.apply(startRow, endRow);
+                return;
+            }
+            int middle = (startRow + endRow) >>> 1;
+            invokeAll(new RowTask(operation, startRow, middle, rowsPerTask),
+                    new RowTask(operation, middle, endRow, rowsPerTask));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.liang.imagecraft.kernel;
+
+/**
+ * 水印的尺寸和位置计算
+ * 字号按输出短边的比例计算后归入按几何级数划分的档位，尺寸相近的输出使用同一个字号，
+ * 同一水印在批量导出和重复导出时只需要栅格化一次
+ */
+public final class WatermarkLayout {
+
+    // 每翻一倍分成4档，相邻档位相差约19%
+    private static final int STEPS_PER_OCTAVE = 4;
+    public static final int MIN_TEXT_SIZE = 12;
+    public static final int MAX_TEXT_SIZE = 1024;
+
+    private WatermarkLayout() {
+    }
+
+    /**
+     * 按输出尺寸计算归档后的字号
+     *
+     * @param relativeSize 字号占输出短边的比例
+     */
+    public static int textSize(int width, int height, float relativeSize) {
+        float pixels = relativeSize * Math.min(width, height);
+        if (pixels <= MIN_TEXT_SIZE) {
+            return MIN_TEXT_SIZE;
+        }
+        long step = Math.round(Math.log(pixels) / Math.log(2) * STEPS_PER_OCTAVE);
+        int size = (int) Math.round(Math.pow(2, (double) step / STEPS_PER_OCTAVE));
+        return Math.max(MIN_TEXT_SIZE, Math.min(MAX_TEXT_SIZE, size));
+    }
+
+    /**
+     * 右下角水印到图片边缘的距离，与字号成比例
+     */
+    public static int margin(int textSize) {
+        return Math.round(textSize * 0.8f);
+    }
+
+    /**
+     * 平铺水印之间的空白，与字号成比例
+     */
+    public static int tileGap(int textSize) {
+        return textSize * 2;
+    }
+}
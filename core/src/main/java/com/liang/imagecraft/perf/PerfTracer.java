@@ -0,0 +1,500 @@
+package com.liang.imagecraft.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 轻量级性能埋点
+ * 一次完整的操作（如导出）用 Trace 表示，操作内部的解码、编码等步骤用 Section 计时；
+ * Section 自动挂到当前线程正在进行的 Trace 上，底层代码不需要传递 Trace 对象。
+ * 每帧绘制这类高频事件只用 record 更新汇总统计，不进入操作历史，也不分配对象。
+ * 最近若干次操作保存在环形缓冲区中，可以导出为JSON。开销只有几次 nanoTime 和一次哈希查找，
+ * 正式版本中也保持开启
+ */
+public final class PerfTracer {
+
+    // 操作历史的默认条数
+    public static final int DEFAULT_HISTORY = 32;
+    // 单次操作最多记录的步骤数，超出的步骤只进入汇总统计
+    private static final int MAX_SECTIONS = 16;
+
+    private static final Section NO_OP_SECTION = new Section(null, null, null, 0L);
+
+    private static final PerfTracer INSTANCE = new PerfTracer(DEFAULT_HISTORY, System::nanoTime);
+
+    /**
+     * 一个计时步骤，配合 try-with-resources 使用
+     */
+    public static final class Section implements AutoCloseable {
+        private final PerfTracer tracer;
+        private final Trace trace;
+        private final String name;
+        private final long startNanos;
+
+        private Section(PerfTracer tracer, Trace trace, String name, long startNanos) {
+            this.tracer = tracer;
+            this.trace = trace;
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            if (tracer == null) {
+                return;
+            }
+            long elapsed = tracer.clock.getAsLong() - startNanos;
+            tracer.record(name, elapsed);
+            long heap = tracer.sampleHeap();
+            if (trace != null) {
+                trace.addSection(name, elapsed, heap);
+            }
+        }
+    }
+
+    /**
+     * 一次完整的操作，由发起线程开始和结束
+     */
+    public static final class Trace {
+        private final PerfTracer tracer;
+        private final String operation;
+        private final long startMillis;
+        private final long startNanos;
+        private final String[] sectionNames = new String[MAX_SECTIONS];
+        private final long[] sectionNanos = new long[MAX_SECTIONS];
+        private int sectionCount;
+        private int bitmapCount;
+        private long bitmapBytes;
+        private long peakHeapBytes;
+        private boolean finished;
+
+        private Trace(PerfTracer tracer, String operation) {
+            this.tracer = tracer;
+            this.operation = operation;
+            this.startMillis = System.currentTimeMillis();
+            this.startNanos = tracer.clock.getAsLong();
+        }
+
+        private synchronized void addSection(String name, long nanos, long heap) {
+            if (sectionCount < MAX_SECTIONS) {
+                sectionNames[sectionCount] = name;
+                sectionNanos[sectionCount] = nanos;
+                sectionCount++;
+            }
+            peakHeapBytes = Math.max(peakHeapBytes, heap);
+        }
+
+        private synchronized void addBitmap(long bytes) {
+            bitmapCount++;
+            bitmapBytes += bytes;
+        }
+
+        /**
+         * 操作成功结束
+         */
+        public void end() {
+            finish(Record.STATUS_OK);
+        }
+
+        /**
+         * 操作被取消
+         */
+        public void cancel() {
+            finish(Record.STATUS_CANCELLED);
+        }
+
+        /**
+         * 操作失败
+         */
+        public void fail(Throwable error) {
+            finish(Record.STATUS_FAILED + ":" + error.getClass().getSimpleName());
+        }
+
+        private void finish(String status) {
+            Record record;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                if (!tracer.enabled) {
+                    record = null;
+                } else {
+                    long duration = tracer.clock.getAsLong() - startNanos;
+                    record = new Record(operation, status, startMillis, duration,
+                            Arrays.copyOf(sectionNames, sectionCount), Arrays.copyOf(sectionNanos, sectionCount),
+                            bitmapCount, bitmapBytes, Math.max(peakHeapBytes, tracer.sampleHeap()));
+                }
+            }
+            if (tracer.current.get() == this) {
+                tracer.current.remove();
+            }
+            if (record == null) {
+                return;
+            }
+            tracer.record(operation, record.durationNanos);
+            tracer.addRecord(record);
+        }
+    }
+
+    /**
+     * 已结束操作的快照，不可变
+     */
+    public static final class Record {
+        public static final String STATUS_OK = "ok";
+        public static final String STATUS_CANCELLED = "cancelled";
+        public static final String STATUS_FAILED = "failed";
+
+        public final String operation;
+        // ok、cancelled 或 failed:异常类名
+        public final String status;
+        public final long startMillis;
+        public final long durationNanos;
+        private final String[] sectionNames;
+        private final long[] sectionNanos;
+        public final int bitmapCount;
+        public final long bitmapBytes;
+        public final long peakHeapBytes;
+
+        Record(String operation, String status, long startMillis, long durationNanos,
+               String[] sectionNames, long[] sectionNanos, int bitmapCount, long bitmapBytes, long peakHeapBytes) {
+            this.operation = operation;
+            this.status = status;
+            this.startMillis = startMillis;
+            this.durationNanos = durationNanos;
+            this.sectionNames = sectionNames;
+            this.sectionNanos = sectionNanos;
+            this.bitmapCount = bitmapCount;
+            this.bitmapBytes = bitmapBytes;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        public int sectionCount() {
+            return sectionNames.length;
+        }
+
+        public String sectionName(int index) {
+            return sectionNames[index];
+        }
+
+        public long sectionNanos(int index) {
+            return sectionNanos[index];
+        }
+
+        void appendJson(StringBuilder out) {
+            out.append("{\"operation\":");
+            appendString(out, operation);
+            out.append(",\"status\":");
+            appendString(out, status);
+            out.append(",\"startMillis\":").append(startMillis);
+            out.append(",\"durationMs\":").append(millis(durationNanos));
+            out.append(",\"sections\":[");
+            for (int i = 0; i < sectionNames.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append("{\"name\":");
+                appendString(out, sectionNames[i]);
+                out.append(",\"ms\":").append(millis(sectionNanos[i])).append('}');
+            }
+            out.append("],\"bitmaps\":").append(bitmapCount);
+            out.append(",\"bitmapBytes\":").append(bitmapBytes);
+            out.append(",\"peakHeapBytes\":").append(peakHeapBytes).append('}');
+        }
+    }
+
+    /**
+     * 某个名称的汇总统计快照
+     */
+    public static final class Stats {
+        public final String name;
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        public final long lastNanos;
+
+        Stats(String name, long count, long totalNanos, long maxNanos, long lastNanos) {
+            this.name = name;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.lastNanos = lastNanos;
+        }
+
+        public double averageMillis() {
+            return count == 0 ? 0.0 : totalNanos / 1e6 / count;
+        }
+
+        public double maxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        public double lastMillis() {
+            return lastNanos / 1e6;
+        }
+    }
+
+    /**
+     * 汇总统计的累加器，每个名称一个
+     */
+    private static final class Accumulator {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long lastNanos;
+
+        synchronized void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            lastNanos = nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        synchronized Stats snapshot(String name) {
+            return new Stats(name, count, totalNanos, maxNanos, lastNanos);
+        }
+    }
+
+    private final LongSupplier clock;
+    private volatile LongSupplier heapProbe = PerfTracer::runtimeUsedBytes;
+    private volatile boolean enabled = true;
+
+    private final ThreadLocal<Trace> current = new ThreadLocal<>();
+    private final ConcurrentHashMap<String, Accumulator> stats = new ConcurrentHashMap<>();
+    private final AtomicLong bitmapCount = new AtomicLong();
+    private final AtomicLong bitmapBytes = new AtomicLong();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+
+    // 操作历史环形缓冲区
+    private final Record[] history;
+    private int historyNext;
+    private int historySize;
+
+    /**
+     * @param historySize 保留的操作条数
+     * @param clock       纳秒时钟，测试时可以替换
+     */
+    public PerfTracer(int historySize, LongSupplier clock) {
+        this.history = new Record[Math.max(1, historySize)];
+        this.clock = clock;
+    }
+
+    public static PerfTracer get() {
+        return INSTANCE;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置已用内存的采样方式。默认只统计Java堆，Android上位图像素在native堆中，应用启动时应替换
+     */
+    public void setHeapProbe(LongSupplier probe) {
+        this.heapProbe = probe;
+    }
+
+    /**
+     * 当前时钟读数，和 record 配合用于热路径计时
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * 开始一次操作，并设为当前线程的当前操作，之后在该线程开始的 Section 都记到这次操作下
+     */
+    public Trace begin(String operation) {
+        Trace trace = new Trace(this, operation);
+        if (enabled) {
+            current.set(trace);
+        }
+        return trace;
+    }
+
+    /**
+     * 开始一个计时步骤，关闭时记录耗时
+     */
+    public Section section(String name) {
+        if (!enabled) {
+            return NO_OP_SECTION;
+        }
+        return new Section(this, current.get(), name, clock.getAsLong());
+    }
+
+    /**
+     * 只把一次耗时计入汇总统计，不分配对象，适合每帧调用
+     */
+    public void record(String name, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        Accumulator accumulator = stats.get(name);
+        if (accumulator == null) {
+            accumulator = stats.computeIfAbsent(name, key -> new Accumulator());
+        }
+        accumulator.add(nanos);
+    }
+
+    /**
+     * 记录一次位图分配，同时计入当前线程的操作
+     */
+    public void countBitmap(long bytes) {
+        if (!enabled) {
+            return;
+        }
+        bitmapCount.incrementAndGet();
+        bitmapBytes.addAndGet(bytes);
+        Trace trace = current.get();
+        if (trace != null) {
+            trace.addBitmap(bytes);
+        }
+    }
+
+    /**
+     * 采样当前已用内存并更新峰值
+     *
+     * @return 当前已用字节数
+     */
+    public long sampleHeap() {
+        long used = heapProbe.getAsLong();
+        long peak = peakHeapBytes.get();
+        while (used > peak && !peakHeapBytes.compareAndSet(peak, used)) {
+            peak = peakHeapBytes.get();
+        }
+        return used;
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes.get();
+    }
+
+    public long getBitmapCount() {
+        return bitmapCount.get();
+    }
+
+    public long getBitmapBytes() {
+        return bitmapBytes.get();
+    }
+
+    /**
+     * 指定名称的汇总统计，没有记录过时返回null
+     */
+    public Stats getStats(String name) {
+        Accumulator accumulator = stats.get(name);
+        return accumulator != null ? accumulator.snapshot(name) : null;
+    }
+
+    /**
+     * 按时间顺序返回保留的操作历史
+     */
+    public List<Record> getHistory() {
+        synchronized (history) {
+            List<Record> records = new ArrayList<>(historySize);
+            int start = (historyNext - historySize + history.length) % history.length;
+            for (int i = 0; i < historySize; i++) {
+                records.add(history[(start + i) % history.length]);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * 清空统计和历史，峰值内存重新开始计算
+     */
+    public void reset() {
+        stats.clear();
+        bitmapCount.set(0L);
+        bitmapBytes.set(0L);
+        peakHeapBytes.set(0L);
+        synchronized (history) {
+            Arrays.fill(history, null);
+            historyNext = 0;
+            historySize = 0;
+        }
+    }
+
+    /**
+     * 导出汇总统计和操作历史
+     */
+    public String toJson() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("{\"peakHeapBytes\":").append(peakHeapBytes.get());
+        out.append(",\"bitmaps\":").append(bitmapCount.get());
+        out.append(",\"bitmapBytes\":").append(bitmapBytes.get());
+        out.append(",\"stats\":{");
+        Map<String, Accumulator> sorted = new TreeMap<>(stats);
+        boolean first = true;
+        for (Map.Entry<String, Accumulator> entry : sorted.entrySet()) {
+            Stats snapshot = entry.getValue().snapshot(entry.getKey());
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            appendString(out, snapshot.name);
+            out.append(":{\"count\":").append(snapshot.count);
+            out.append(",\"avgMs\":").append(format(snapshot.averageMillis()));
+            out.append(",\"maxMs\":").append(format(snapshot.maxMillis()));
+            out.append(",\"lastMs\":").append(format(snapshot.lastMillis())).append('}');
+        }
+        out.append("},\"operations\":[");
+        List<Record> records = getHistory();
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            records.get(i).appendJson(out);
+        }
+        out.append("]}");
+        return out.toString();
+    }
+
+    private void addRecord(Record record) {
+        synchronized (history) {
+            history[historyNext] = record;
+            historyNext = (historyNext + 1) % history.length;
+            historySize = Math.min(historySize + 1, history.length);
+        }
+    }
+
+    private static long runtimeUsedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,213 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 批处理流水线的本地单元测试
+ */
+public class BatchPipelineTest {
+
+    /**
+     * 用int[]模拟位图的假实现，记录同时存在的中间数据数量
+     */
+    private static class FakeSteps implements BatchPipeline.Steps<Integer, int[], String> {
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger peakLive = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        final int failingItem;
+
+        FakeSteps(int failingItem) {
+            this.failingItem = failingItem;
+        }
+
+        @Override
+        public int[] decode(Integer item) throws Exception {
+            if (item == failingItem) {
+                throw new Exception("decode failed");
+            }
+            peakLive.accumulateAndGet(live.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            return new int[]{item};
+        }
+
+        @Override
+        public int[] process(Integer item, int[] data) throws Exception {
+            Thread.sleep(5);
+            data[0] *= 2;
+            return data;
+        }
+
+        @Override
+        public String encode(Integer item, int[] data) throws Exception {
+            Thread.sleep(5);
+            return "out-" + data[0];
+        }
+
+        @Override
+        public void release(int[] data) {
+            live.decrementAndGet();
+            released.incrementAndGet();
+        }
+    }
+
+    /**
+     * 收集结果并等待结束
+     */
+    private static class Recorder implements BatchPipeline.Listener<String> {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final String[] results;
+        final BatchPipeline.ItemState[] states;
+        int succeeded;
+        int failed;
+        int cancelled;
+
+        Recorder(int count) {
+            results = new String[count];
+            states = new BatchPipeline.ItemState[count];
+        }
+
+        @Override
+        public synchronized void onItemStateChanged(int index, BatchPipeline.ItemState state, String result, Exception error) {
+            states[index] = state;
+            if (result != null) {
+                results[index] = result;
+            }
+        }
+
+        @Override
+        public synchronized void onFinished(int succeeded, int failed, int cancelled, long elapsedNanos) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            finished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("流水线未在限定时间内结束", finished.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static List<Integer> items(int count) {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    @Test
+    public void allItemsComplete_inOrderOfIndex() throws InterruptedException {
+        FakeSteps steps = new FakeSteps(-1);
+        BatchPipeline<Integer, int[], String> pipeline = new BatchPipeline<>(steps, new BatchPipeline.Config(2, 1, 2, 3));
+        Recorder recorder = new Recorder(20);
+
+        pipeline.start(items(20), recorder);
+        recorder.await();
+
+        assertEquals(20, recorder.succeeded);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("out-" + (i * 2), recorder.results[i]);
+            assertEquals(BatchPipeline.ItemState.DONE, recorder.states[i]);
+        }
+        assertEquals(20, steps.released.get());
+    }
+
+    @Test
+    public void inFlightItems_neverExceedAdmissionLimit() throws InterruptedException {
+        FakeSteps steps = new FakeSteps(-1);
+        BatchPipeline<Integer, int[], String> pipeline = new BatchPipeline<>(steps, new BatchPipeline.Config(4, 4, 4, 2));
+        Recorder recorder = new Recorder(30);
+
+        pipeline.start(items(30), recorder);
+        recorder.await();
+
+        assertTrue(pipeline.getPeakInFlight() <= 2);
+        assertTrue(steps.peakLive.get() <= 2);
+        assertEquals(0, steps.live.get());
+    }
+
+    @Test
+    public void failedItem_isReportedAndOthersContinue() throws InterruptedException {
+        FakeSteps steps = new FakeSteps(3);
+        BatchPipeline<Integer, int[], String> pipeline = new BatchPipeline<>(steps, new BatchPipeline.Config(2, 1, 2, 2));
+        Recorder recorder = new Recorder(8);
+
+        pipeline.start(items(8), recorder);
+        recorder.await();
+
+        assertEquals(7, recorder.succeeded);
+        assertEquals(1, recorder.failed);
+        assertEquals(BatchPipeline.ItemState.FAILED, recorder.states[3]);
+    }
+
+    @Test
+    public void listenerThrowingOnDone_completesItemOnce() throws InterruptedException {
+        FakeSteps steps = new FakeSteps(-1);
+        BatchPipeline<Integer, int[], String> pipeline = new BatchPipeline<>(steps, new BatchPipeline.Config(2, 1, 2, 2));
+        Recorder recorder = new Recorder(6) {
+            @Override
+            public synchronized void onItemStateChanged(int index, BatchPipeline.ItemState state, String result,
+                                                        Exception error) {
+                super.onItemStateChanged(index, state, result, error);
+                if (state == BatchPipeline.ItemState.DONE && index == 0) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }
+        };
+
+        pipeline.start(items(6), recorder);
+        recorder.await();
+
+        // 不会再按失败处理：中间数据只释放一次，准入许可只归还一次
+        assertEquals(6, recorder.succeeded);
+        assertEquals(0, recorder.failed);
+        assertEquals(BatchPipeline.ItemState.DONE, recorder.states[0]);
+        assertEquals(6, steps.released.get());
+        assertEquals(0, steps.live.get());
+        assertTrue(pipeline.getPeakInFlight() <= 2);
+    }
+
+    @Test
+    public void cancel_stopsRemainingItemsAndReleasesData() throws InterruptedException {
+        FakeSteps steps = new FakeSteps(-1);
+        BatchPipeline<Integer, int[], String> pipeline = new BatchPipeline<>(steps, new BatchPipeline.Config(1, 1, 1, 1));
+        Recorder recorder = new Recorder(50);
+
+        pipeline.start(items(50), recorder);
+        pipeline.cancel();
+        recorder.await();
+
+        assertEquals(50, recorder.succeeded + recorder.failed + recorder.cancelled);
+        assertTrue(recorder.cancelled > 0);
+        assertEquals(0, steps.live.get());
+    }
+
+    @Test
+    public void emptyBatch_finishesImmediately() throws InterruptedException {
+        BatchPipeline<Integer, int[], String> pipeline = new BatchPipeline<>(new FakeSteps(-1),
+                new BatchPipeline.Config(1, 1, 1, 1));
+        Recorder recorder = new Recorder(0);
+
+        pipeline.start(new ArrayList<>(), recorder);
+        recorder.await();
+
+        assertEquals(0, recorder.succeeded);
+    }
+
+    @Test
+    public void configForDevice_limitsByMemoryAndCores() {
+        long mb = 1024L * 1024L;
+        assertEquals(2, BatchPipeline.Config.forDevice(8, 100 * mb, 48 * mb).maxInFlight);
+        assertEquals(4, BatchPipeline.Config.forDevice(4, 1000 * mb, 48 * mb).maxInFlight);
+        // 内存不足一张时仍然允许一张，由采样率保证放得下
+        assertEquals(1, BatchPipeline.Config.forDevice(8, 10 * mb, 48 * mb).maxInFlight);
+    }
+}
@@ -0,0 +1,150 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 解码策略降级阶梯的本地单元测试
+ */
+public class DecodePolicyTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    private static DecodePolicy.Step step(int sampleSize, DecodePolicy.Config config) {
+        return new DecodePolicy.Step(sampleSize, config);
+    }
+
+    @Test
+    public void export_fitsBudget_startsAtFullResolutionArgb() {
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(512 * MB, 0));
+
+        List<DecodePolicy.Step> ladder = policy.ladder(8000, 6000, 1, 1, true, DecodePolicy.Purpose.EXPORT);
+
+        assertEquals(Arrays.asList(
+                step(1, DecodePolicy.Config.ARGB_8888),
+                step(2, DecodePolicy.Config.ARGB_8888),
+                step(4, DecodePolicy.Config.ARGB_8888),
+                step(8, DecodePolicy.Config.ARGB_8888)), ladder);
+    }
+
+    @Test
+    public void export_neverUsesRgb565() {
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(64 * MB, 0));
+
+        for (DecodePolicy.Step step : policy.ladder(8000, 6000, 1, 1, true, DecodePolicy.Purpose.EXPORT)) {
+            assertEquals(DecodePolicy.Config.ARGB_8888, step.config);
+        }
+    }
+
+    @Test
+    public void opaquePreview_prefersRgb565OverDownsampling() {
+        // 4000x3000 ARGB约46MB放不下，RGB_565约23MB放得下
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(50 * MB, 0));
+
+        List<DecodePolicy.Step> ladder = policy.ladder(4000, 3000, 1, 1, true, DecodePolicy.Purpose.PREVIEW);
+
+        assertEquals(step(1, DecodePolicy.Config.RGB_565), ladder.get(0));
+        assertEquals(step(2, DecodePolicy.Config.RGB_565), ladder.get(1));
+    }
+
+    @Test
+    public void opaquePreview_fitsBudget_fallsBackToRgb565BeforeDownsampling() {
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(512 * MB, 0));
+
+        List<DecodePolicy.Step> ladder = policy.ladder(4000, 3000, 1, 1, true, DecodePolicy.Purpose.PREVIEW);
+
+        assertEquals(step(1, DecodePolicy.Config.ARGB_8888), ladder.get(0));
+        assertEquals(step(1, DecodePolicy.Config.RGB_565), ladder.get(1));
+        assertEquals(step(2, DecodePolicy.Config.RGB_565), ladder.get(2));
+    }
+
+    @Test
+    public void translucentPreview_staysArgb() {
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(50 * MB, 0));
+
+        List<DecodePolicy.Step> ladder = policy.ladder(4000, 3000, 1, 1, false, DecodePolicy.Purpose.PREVIEW);
+
+        assertEquals(step(2, DecodePolicy.Config.ARGB_8888), ladder.get(0));
+    }
+
+    @Test
+    public void display_usesHardwareOnlyWhenAllowed() {
+        MemoryBudget budget = new MemoryBudget(512 * MB, 0);
+        DecodePolicy allowed = new DecodePolicy(budget, true, () -> {
+        });
+        DecodePolicy denied = new DecodePolicy(budget, false, () -> {
+        });
+
+        assertEquals(DecodePolicy.Config.HARDWARE,
+                allowed.ladder(256, 256, 1, 1, false, DecodePolicy.Purpose.DISPLAY).get(0).config);
+        assertEquals(DecodePolicy.Config.ARGB_8888,
+                denied.ladder(256, 256, 1, 1, false, DecodePolicy.Purpose.DISPLAY).get(0).config);
+    }
+
+    @Test
+    public void ladder_respectsMinSampleSizeAndMinEdge() {
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(512 * MB, 0));
+
+        List<DecodePolicy.Step> ladder = policy.ladder(512, 256, 2, 1, false, DecodePolicy.Purpose.EXPORT);
+
+        // 256 -> 128 -> 64，再往下长边会小于下限
+        assertEquals(Arrays.asList(
+                step(2, DecodePolicy.Config.ARGB_8888),
+                step(4, DecodePolicy.Config.ARGB_8888),
+                step(8, DecodePolicy.Config.ARGB_8888)), ladder);
+    }
+
+    @Test
+    public void nativePixelBudget_isLimitedBySystemMemory() {
+        assertEquals((long) (100 * MB * 0.6f), MemoryBudget.forNativePixels(100 * MB).availableBytes());
+        assertEquals(0L, MemoryBudget.forNativePixels(-1L).availableBytes());
+        // 与进程的Java堆无关
+        assertTrue(MemoryBudget.forNativePixels(2048 * MB).availableBytes()
+                > new MemoryBudget(512 * MB, 0).availableBytes());
+    }
+
+    @Test
+    public void decode_releasesCachesAndMovesDownTheLadder() throws IOException {
+        List<String> events = new ArrayList<>();
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(512 * MB, 0), false, () -> events.add("release"));
+        List<DecodePolicy.Step> ladder = Arrays.asList(
+                step(1, DecodePolicy.Config.ARGB_8888),
+                step(1, DecodePolicy.Config.RGB_565),
+                step(2, DecodePolicy.Config.RGB_565));
+
+        DecodePolicy.Step result = policy.decode(ladder, step -> {
+            events.add(step.toString());
+            if (step.sampleSize == 1) {
+                throw new OutOfMemoryError();
+            }
+            return step;
+        });
+
+        assertEquals(step(2, DecodePolicy.Config.RGB_565), result);
+        assertEquals(Arrays.asList("ARGB_8888/1", "release", "RGB_565/1", "release", "RGB_565/2"), events);
+    }
+
+    @Test
+    public void decode_doesNotRetryOtherFailures() {
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(512 * MB, 0));
+        int[] attempts = new int[1];
+
+        try {
+            policy.decode(Arrays.asList(step(1, DecodePolicy.Config.ARGB_8888), step(2, DecodePolicy.Config.ARGB_8888)),
+                    step -> {
+                        attempts[0]++;
+                        throw new IOException("图片解码失败");
+                    });
+            fail();
+        } catch (IOException e) {
+            assertEquals("图片解码失败", e.getMessage());
+        }
+        assertEquals(1, attempts[0]);
+    }
+}
@@ -0,0 +1,64 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编码大小估算的本地单元测试
+ */
+public class EncodeSizeEstimatorTest {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    @Test
+    public void flatImage_hasNoDetail() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, 0xFF808080);
+
+        assertEquals(0f, EncodeSizeEstimator.measureDetail(pixels, WIDTH, HEIGHT), 0f);
+    }
+
+    @Test
+    public void noisyImage_isEstimatedLargerThanFlatImage() {
+        int[] flat = new int[WIDTH * HEIGHT];
+        Arrays.fill(flat, 0xFF808080);
+        int[] noisy = new int[WIDTH * HEIGHT];
+        Random random = new Random(9);
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        long flatBytes = EncodeSizeEstimator.estimateJpegBytes(flat, WIDTH, HEIGHT, 90);
+        long noisyBytes = EncodeSizeEstimator.estimateJpegBytes(noisy, WIDTH, HEIGHT, 90);
+
+        assertTrue(noisyBytes > flatBytes * 10);
+    }
+
+    @Test
+    public void estimate_growsWithQuality() {
+        long previous = 0L;
+        for (int quality = 1; quality <= 100; quality++) {
+            long bytes = EncodeSizeEstimator.estimateJpegBytes(8f, WIDTH, HEIGHT, quality);
+            assertTrue("quality " + quality, bytes >= previous);
+            previous = bytes;
+        }
+    }
+
+    @Test
+    public void qualityForTarget_picksHighestQualityWithinTarget() {
+        float detail = 8f;
+        long target = EncodeSizeEstimator.estimateJpegBytes(detail, WIDTH, HEIGHT, 75);
+
+        int quality = EncodeSizeEstimator.qualityForTarget(detail, WIDTH, HEIGHT, target, 40, 100);
+
+        assertTrue(quality >= 75);
+        assertTrue(EncodeSizeEstimator.estimateJpegBytes(detail, WIDTH, HEIGHT, quality) <= target);
+        assertTrue(EncodeSizeEstimator.estimateJpegBytes(detail, WIDTH, HEIGHT, quality + 1) > target);
+        assertEquals(40, EncodeSizeEstimator.qualityForTarget(detail, WIDTH, HEIGHT, 1L, 40, 100));
+    }
+}
@@ -0,0 +1,210 @@
+package com.liang.imagecraft;
+
+import com.liang.imagecraft.edit.EditList;
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.Layer;
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.ColorLut;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 导出队列磁盘日志的本地单元测试
+ */
+public class ExportJournalTest {
+
+    private static final String SOURCE = "content://media/external/images/media/42";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile() {
+        return new File(folder.getRoot(), "export_queue.journal");
+    }
+
+    private static EditList allOps() {
+        return EditList.EMPTY
+                .then(new EditOp.Crop(0.1f, 0.2f, 0.9f, 0.8f))
+                .rotate(1)
+                .withAdjustments(new Adjustments(0.1f, -0.2f, 0.3f, 0.4f))
+                .then(new EditOp.Watermark("ImageCraft", true, 0.05f, -30f))
+                .then(new EditOp.Blur(0.004f))
+                .then(new EditOp.Sharpen(0.6f))
+                .then(new EditOp.ColorGrade(ColorLut.Preset.FADE))
+                .then(new EditOp.Overlay(Layer.text("你好", 0xFF0000, 200, 0.3f, 0.4f, 0.1f).withRotation(15f)))
+                .then(new EditOp.Overlay(Layer.sticker("content://stickers/1", 0.6f, 0.7f, 0.2f).withRotation(-5f)))
+                .then(new EditOp.Overlay(Layer.pattern("©", 0x00FF00, 80, 0.03f, -30f)));
+    }
+
+    @Test
+    public void enqueuedJob_survivesReopen() throws IOException {
+        ExportSettings settings = new ExportSettings(ExportSettings.Format.WEBP_LOSSY, 75, 2048, 500_000L);
+        EditList edits = allOps();
+        ExportJournal journal = ExportJournal.open(journalFile());
+        long id = journal.enqueue(SOURCE, edits, settings, 1000L).id;
+
+        ExportJournal reopened = ExportJournal.open(journalFile());
+
+        assertEquals(1, reopened.jobs().size());
+        ExportJournal.Job job = reopened.jobs().get(0);
+        assertEquals(id, job.id);
+        assertEquals(SOURCE, job.sourceUri);
+        assertEquals(edits, job.edits);
+        assertEquals(settings.format, job.settings.format);
+        assertEquals(75, job.settings.quality);
+        assertEquals(2048, job.settings.maxLongEdge);
+        assertEquals(500_000L, job.settings.targetBytes);
+        assertNull(job.pendingEntry);
+    }
+
+    @Test
+    public void idsKeepIncreasingAcrossReopen() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        long first = journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id;
+        journal.remove(first);
+
+        long second = ExportJournal.open(journalFile()).enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id;
+
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void startedJob_isLeasedUntilBackoff() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L);
+
+        ExportJournal.Job started = journal.next(0L);
+        assertNotNull(started);
+        assertEquals(1, started.attempts);
+
+        // 进程在执行中被杀：重新打开后任务还在，退避结束前不会再次执行
+        ExportJournal reopened = ExportJournal.open(journalFile());
+        assertNull(reopened.next(ExportJournal.BASE_BACKOFF_MILLIS - 1));
+        assertEquals(1, reopened.delayUntilNext(ExportJournal.BASE_BACKOFF_MILLIS - 1));
+        ExportJournal.Job retried = reopened.next(ExportJournal.BASE_BACKOFF_MILLIS);
+        assertNotNull(retried);
+        assertEquals(2, retried.attempts);
+    }
+
+    @Test
+    public void saveCancelledWhileQueued_isNeverRunInBackground() throws IOException {
+        // 与 ExportQueue.save 相同：写入日志后立即开始，并为本次执行占住一个退避间隔
+        ExportJournal journal = ExportJournal.open(journalFile());
+        long running = journal.start(journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id, 0L).id;
+        long queued = journal.start(journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id, 0L).id;
+
+        // 第二个保存还排在第一个之后时被用户取消，导出线程从未执行到它；之后第一个保存完成
+        journal.remove(queued);
+        journal.remove(running);
+
+        // 退避结束后后台不会再导出被取消的保存，进程重启后也一样
+        long later = ExportJournal.BASE_BACKOFF_MILLIS;
+        assertNull(journal.next(later));
+        ExportJournal reopened = ExportJournal.open(journalFile());
+        assertNull(reopened.next(later));
+        assertTrue(reopened.jobs().isEmpty());
+        assertEquals(-1, reopened.delayUntilNext(later));
+    }
+
+    @Test
+    public void backoff_doublesUpToCap() {
+        assertEquals(ExportJournal.BASE_BACKOFF_MILLIS, ExportJournal.backoffMillis(1));
+        assertEquals(ExportJournal.BASE_BACKOFF_MILLIS * 2, ExportJournal.backoffMillis(2));
+        assertEquals(ExportJournal.BASE_BACKOFF_MILLIS * 4, ExportJournal.backoffMillis(3));
+        assertEquals(ExportJournal.MAX_BACKOFF_MILLIS, ExportJournal.backoffMillis(100));
+    }
+
+    @Test
+    public void failedJob_isDroppedAfterMaxAttempts() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L);
+
+        long now = 0L;
+        for (int attempt = 1; attempt < ExportJournal.MAX_ATTEMPTS; attempt++) {
+            ExportJournal.Job job = journal.next(now);
+            assertNotNull(job);
+            assertTrue(journal.retryLater(job.id, now));
+            now += ExportJournal.MAX_BACKOFF_MILLIS;
+        }
+        ExportJournal.Job last = journal.next(now);
+        assertFalse(journal.retryLater(last.id, now));
+
+        assertTrue(journal.jobs().isEmpty());
+        assertEquals(-1, journal.delayUntilNext(now));
+    }
+
+    @Test
+    public void crashedJob_isDroppedAfterMaxAttempts() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L);
+
+        long now = 0L;
+        for (int attempt = 0; attempt < ExportJournal.MAX_ATTEMPTS; attempt++) {
+            assertNotNull(ExportJournal.open(journalFile()).next(now));
+            now += ExportJournal.MAX_BACKOFF_MILLIS;
+        }
+
+        ExportJournal reopened = ExportJournal.open(journalFile());
+        assertNull(reopened.next(now));
+        assertTrue(reopened.jobs().isEmpty());
+    }
+
+    @Test
+    public void dueJobs_runInOrder() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        long first = journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id;
+        long second = journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id;
+
+        assertEquals(first, journal.next(0L).id);
+        assertEquals(second, journal.next(0L).id);
+        assertNull(journal.next(0L));
+    }
+
+    @Test
+    public void pendingEntry_andOutputs_survivesReopen() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        long id = journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L).id;
+        journal.setPendingEntry(id, "content://media/external/images/media/100");
+        journal.recordOutput("abc", "content://media/external/images/media/100");
+
+        ExportJournal reopened = ExportJournal.open(journalFile());
+
+        assertEquals("content://media/external/images/media/100", reopened.jobs().get(0).pendingEntry);
+        assertEquals("content://media/external/images/media/100", reopened.findOutput("abc"));
+        assertTrue(reopened.isPublished("content://media/external/images/media/100"));
+        assertNull(reopened.findOutput("def"));
+    }
+
+    @Test
+    public void outputs_keepMostRecent() throws IOException {
+        ExportJournal journal = ExportJournal.open(journalFile());
+        for (int i = 0; i <= ExportJournal.MAX_OUTPUTS; i++) {
+            journal.recordOutput("hash" + i, "entry" + i);
+        }
+
+        assertNull(journal.findOutput("hash0"));
+        assertEquals("entry1", journal.findOutput("hash1"));
+        assertEquals("entry" + ExportJournal.MAX_OUTPUTS, journal.findOutput("hash" + ExportJournal.MAX_OUTPUTS));
+    }
+
+    @Test
+    public void corruptFile_startsEmpty() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(journalFile())) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        ExportJournal journal = ExportJournal.open(journalFile());
+
+        assertTrue(journal.jobs().isEmpty());
+        assertNotNull(journal.enqueue(SOURCE, EditList.EMPTY, ExportSettings.DEFAULT, 0L));
+        assertEquals(1, ExportJournal.open(journalFile()).jobs().size());
+    }
+}
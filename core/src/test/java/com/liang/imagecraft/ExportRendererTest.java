@@ -0,0 +1,227 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 导出渲染流程的本地单元测试
+ */
+public class ExportRendererTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * 记录位图分配次数和同时存活位图数量的假实现
+     */
+    private static class CountingBackend implements ExportRenderer.Backend<int[]> {
+        final int width;
+        final int height;
+        int allocations;
+        int lastSampleSize;
+        int peakBitmaps = 1;
+        int outputSampleSize = 1;
+        int[] edited;
+        // 前几次分配或重放编辑模拟内存不足
+        int failingDecodes;
+        int failingEdits;
+        int released;
+        // 几何操作：重放编辑时分配一张新位图，再释放解码结果
+        boolean geometry;
+        int live;
+        int peakLive;
+
+        CountingBackend(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int[] readSize() {
+            return new int[]{width, height};
+        }
+
+        @Override
+        public int[] decodeMutable(int inSampleSize) {
+            allocations++;
+            lastSampleSize = inSampleSize;
+            if (failingDecodes > 0) {
+                failingDecodes--;
+                throw new OutOfMemoryError();
+            }
+            allocate();
+            return new int[1];
+        }
+
+        private void allocate() {
+            live++;
+            peakLive = Math.max(peakLive, live);
+        }
+
+        @Override
+        public int peakBitmapCount() {
+            return peakBitmaps;
+        }
+
+        @Override
+        public int outputSampleSize(int width, int height) {
+            return outputSampleSize;
+        }
+
+        @Override
+        public int[] applyEdits(int[] bitmap) {
+            if (failingEdits > 0) {
+                failingEdits--;
+                throw new OutOfMemoryError();
+            }
+            if (geometry) {
+                allocate();
+                live--;
+                bitmap = new int[1];
+            }
+            edited = bitmap;
+            return bitmap;
+        }
+
+        @Override
+        public void release(int[] bitmap) {
+            released++;
+            live--;
+        }
+    }
+
+    @Test
+    public void save_allocatesExactlyOneBitmap() throws IOException {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        ExportRenderer<int[]> renderer = new ExportRenderer<>(new MemoryBudget(1024 * MB, 0));
+
+        int[] result = renderer.render(backend);
+
+        assertEquals(1, backend.allocations);
+        assertEquals(1, backend.peakLive);
+        assertEquals(1, backend.live);
+        assertSame(result, backend.edited);
+    }
+
+    @Test
+    public void repeatedSaves_allocateOneBitmapEach() throws IOException {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        ExportRenderer<int[]> renderer = new ExportRenderer<>(new MemoryBudget(1024 * MB, 0));
+
+        for (int i = 0; i < 5; i++) {
+            // 编码后释放，与导出流程一致
+            backend.release(renderer.render(backend));
+        }
+
+        assertEquals(5, backend.allocations);
+        assertEquals(1, backend.peakLive);
+        assertEquals(0, backend.live);
+    }
+
+    @Test
+    public void largeImage_fitsBudget_decodesAtFullResolution() throws IOException {
+        // 48MP ARGB_8888 约183MB，512MB堆的60%放得下
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        new ExportRenderer<int[]>(new MemoryBudget(512 * MB, 0)).render(backend);
+
+        assertEquals(1, backend.lastSampleSize);
+    }
+
+    @Test
+    public void largeImage_overBudget_isDownsampled() throws IOException {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        new ExportRenderer<int[]>(new MemoryBudget(256 * MB, 64 * MB)).render(backend);
+
+        assertEquals(2, backend.lastSampleSize);
+        assertEquals(1, backend.allocations);
+    }
+
+    @Test
+    public void geometryEdits_reserveRoomForSecondBitmap() throws IOException {
+        // 单张放得下，但旋转时需要两张同尺寸位图
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        backend.peakBitmaps = 2;
+        backend.geometry = true;
+        new ExportRenderer<int[]>(new MemoryBudget(512 * MB, 0)).render(backend);
+
+        assertEquals(2, backend.lastSampleSize);
+        assertEquals(2, backend.peakLive);
+        assertEquals(1, backend.live);
+    }
+
+    @Test
+    public void nativePixelBudget_keepsFullResolutionOnSmallJavaHeap() throws IOException {
+        // 256MB的Java堆放不下48MP位图，但像素在native堆，系统剩余内存足够时不降采样
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        new ExportRenderer<int[]>(MemoryBudget.forNativePixels(1024 * MB)).render(backend);
+
+        assertEquals(1, backend.lastSampleSize);
+        assertTrue(new MemoryBudget(256 * MB, 64 * MB).chooseSampleSize(8000, 6000) > 1);
+    }
+
+    @Test
+    public void outputSizeLimit_downsamplesEvenWhenBudgetAllowsFullSize() throws IOException {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        backend.outputSampleSize = 4;
+        new ExportRenderer<int[]>(new MemoryBudget(1024 * MB, 0)).render(backend);
+
+        assertEquals(4, backend.lastSampleSize);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidSize_throws() throws IOException {
+        new ExportRenderer<int[]>(new MemoryBudget(256 * MB, 0)).render(new CountingBackend(0, 0));
+    }
+
+    @Test
+    public void estimateBitmapBytes_roundsUpSampledSize() {
+        assertEquals(4L * 4000 * 3000, MemoryBudget.estimateBitmapBytes(8000, 6000, 2));
+        assertEquals(4L * 2 * 2, MemoryBudget.estimateBitmapBytes(3, 3, 2));
+    }
+
+    @Test
+    public void outOfMemoryDuringDecode_retriesAtHigherSampleSize() throws IOException {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        backend.failingDecodes = 1;
+        int[] releases = new int[1];
+        DecodePolicy policy = new DecodePolicy(new MemoryBudget(512 * MB, 0), false, () -> releases[0]++);
+
+        int[] result = new ExportRenderer<int[]>(policy).render(backend);
+
+        assertSame(result, backend.edited);
+        assertEquals(2, backend.allocations);
+        assertEquals(2, backend.lastSampleSize);
+        assertEquals(1, releases[0]);
+    }
+
+    @Test
+    public void outOfMemoryDuringEdits_releasesBitmapAndRetries() throws IOException {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        backend.failingEdits = 2;
+
+        new ExportRenderer<int[]>(new MemoryBudget(512 * MB, 0)).render(backend);
+
+        assertEquals(2, backend.released);
+        assertEquals(3, backend.allocations);
+        // 降级重试前已释放上一次的位图，任何时刻只有一张
+        assertEquals(1, backend.peakLive);
+        assertEquals(1, backend.live);
+        assertEquals(4, backend.lastSampleSize);
+    }
+
+    @Test
+    public void outOfMemoryOnEveryStep_throwsIOException() {
+        CountingBackend backend = new CountingBackend(8000, 6000);
+        backend.failingDecodes = Integer.MAX_VALUE;
+
+        try {
+            new ExportRenderer<int[]>(new MemoryBudget(512 * MB, 0)).render(backend);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+        assertEquals(1 + DecodePolicy.MAX_EXTRA_DOWNSAMPLES, backend.allocations);
+    }
+}
@@ -0,0 +1,104 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 导出设置与目标大小质量搜索的本地单元测试
+ */
+public class ExportSettingsTest {
+
+    /**
+     * 文件大小随质量线性增长的假编码器
+     */
+    private static class LinearEncoder implements QualitySearch.Encoder {
+        final long bytesPerQuality;
+        int passes;
+        int lastQuality;
+
+        LinearEncoder(long bytesPerQuality) {
+            this.bytesPerQuality = bytesPerQuality;
+        }
+
+        @Override
+        public long encode(int quality) {
+            passes++;
+            lastQuality = quality;
+            return quality * bytesPerQuality;
+        }
+    }
+
+    @Test
+    public void noLongEdgeLimit_keepsFullResolution() {
+        ExportSettings settings = ExportSettings.DEFAULT;
+
+        assertEquals(1, settings.sampleSizeFor(8000, 6000));
+        assertEquals(1f, settings.scaleFor(8000, 6000), 0f);
+    }
+
+    @Test
+    public void longEdgeLimit_choosesLargestSampleAboveLimit() {
+        ExportSettings settings = ExportSettings.DEFAULT.withMaxLongEdge(1920);
+
+        // 8000/4 = 2000 仍不小于 1920，8000/8 = 1000 则太小
+        assertEquals(4, settings.sampleSizeFor(8000, 6000));
+        assertEquals(1920f / 2000f, settings.scaleFor(2000, 1500), 1e-6f);
+    }
+
+    @Test
+    public void smallImage_isNotUpscaled() {
+        ExportSettings settings = ExportSettings.DEFAULT.withMaxLongEdge(4096);
+
+        assertEquals(1, settings.sampleSizeFor(1200, 800));
+        assertEquals(1f, settings.scaleFor(1200, 800), 0f);
+    }
+
+    @Test
+    public void targetSize_onlyAppliesToLossyFormats() {
+        ExportSettings settings = ExportSettings.DEFAULT.withTargetBytes(500_000L);
+
+        assertTrue(settings.usesTargetSize());
+        assertFalse(settings.withFormat(ExportSettings.Format.PNG).usesTargetSize());
+        assertFalse(settings.withFormat(ExportSettings.Format.WEBP_LOSSLESS).usesTargetSize());
+    }
+
+    @Test
+    public void qualitySearch_findsHighestQualityUnderTarget() throws IOException {
+        LinearEncoder encoder = new LinearEncoder(10_000L);
+
+        QualitySearch.Result result = QualitySearch.search(encoder, 735_000L, 40, 100,
+                QualitySearch.DEFAULT_MAX_PASSES);
+
+        assertEquals(73, result.quality);
+        assertEquals(730_000L, result.bytes);
+        assertTrue(result.passes <= QualitySearch.DEFAULT_MAX_PASSES);
+        // 缓冲区中保留的是所选质量的编码结果
+        assertEquals(73, encoder.lastQuality);
+    }
+
+    @Test
+    public void qualitySearch_fallsBackToMinimumQuality() throws IOException {
+        LinearEncoder encoder = new LinearEncoder(10_000L);
+
+        QualitySearch.Result result = QualitySearch.search(encoder, 1_000L, 40, 100,
+                QualitySearch.DEFAULT_MAX_PASSES);
+
+        assertEquals(40, result.quality);
+        assertEquals(40, encoder.lastQuality);
+        assertTrue(result.passes <= QualitySearch.DEFAULT_MAX_PASSES);
+    }
+
+    @Test
+    public void qualitySearch_usesMaximumWhenItFits() throws IOException {
+        LinearEncoder encoder = new LinearEncoder(10L);
+
+        QualitySearch.Result result = QualitySearch.search(encoder, 1_000_000L, 40, 95,
+                QualitySearch.DEFAULT_MAX_PASSES);
+
+        assertEquals(95, result.quality);
+        assertEquals(95, encoder.lastQuality);
+    }
+}
@@ -0,0 +1,79 @@
+package com.liang.imagecraft;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 视口变换计算的本地单元测试
+ */
+public class ViewportMathTest {
+
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void clampScaleFactor_keepsResultInRange() {
+        assertEquals(2f, ViewportMath.clampScaleFactor(1f, 3f, 0.5f, 2f), EPSILON);
+        assertEquals(0.5f, ViewportMath.clampScaleFactor(1f, 0.1f, 0.5f, 2f), EPSILON);
+        assertEquals(1.2f, ViewportMath.clampScaleFactor(1f, 1.2f, 0.5f, 2f), EPSILON);
+        assertEquals(1f, ViewportMath.clampScaleFactor(2f, 1.5f, 0.5f, 2f), EPSILON);
+    }
+
+    @Test
+    public void translationAfterZoom_keepsFocusPointFixed() {
+        float translation = 10f;
+        float focus = 200f;
+        float factor = 2f;
+        // 焦点下的内容坐标在缩放前后应保持不变
+        float contentBefore = (focus - translation) / 1f;
+        float newTranslation = ViewportMath.translationAfterZoom(translation, focus, factor);
+        float contentAfter = (focus - newTranslation) / factor;
+        assertEquals(contentBefore, contentAfter, EPSILON);
+    }
+
+    @Test
+    public void clampTranslation_centersSmallContent() {
+        assertEquals(100f, ViewportMath.clampTranslation(-50f, 1000f, 800f), EPSILON);
+        assertEquals(100f, ViewportMath.clampTranslation(300f, 1000f, 800f), EPSILON);
+    }
+
+    @Test
+    public void clampTranslation_preventsEmptyEdgesOnLargeContent() {
+        // 内容2000，视口1000：平移只能在[-1000, 0]之间
+        assertEquals(0f, ViewportMath.clampTranslation(50f, 1000f, 2000f), EPSILON);
+        assertEquals(-1000f, ViewportMath.clampTranslation(-1500f, 1000f, 2000f), EPSILON);
+        assertEquals(-400f, ViewportMath.clampTranslation(-400f, 1000f, 2000f), EPSILON);
+    }
+
+    @Test
+    public void flingBounds_matchClampRange() {
+        assertEquals(-1000f, ViewportMath.minTranslation(1000f, 2000f), EPSILON);
+        assertEquals(0f, ViewportMath.maxTranslation(1000f, 2000f), EPSILON);
+        assertEquals(100f, ViewportMath.minTranslation(1000f, 800f), EPSILON);
+        assertEquals(100f, ViewportMath.maxTranslation(1000f, 800f), EPSILON);
+    }
+
+    @Test
+    public void doubleTapTargetScale_togglesBetweenFitAndZoom() {
+        assertEquals(2f, ViewportMath.doubleTapTargetScale(1f, 1f, 2f), EPSILON);
+        assertEquals(1f, ViewportMath.doubleTapTargetScale(1.8f, 1f, 2f), EPSILON);
+    }
+
+    @Test
+    public void decelerate_isMonotonicAndBounded() {
+        assertEquals(0f, ViewportMath.decelerate(0f), EPSILON);
+        assertEquals(1f, ViewportMath.decelerate(1f), EPSILON);
+        assertEquals(1f, ViewportMath.decelerate(2f), EPSILON);
+        float previous = 0f;
+        for (int i = 1; i <= 10; i++) {
+            float value = ViewportMath.decelerate(i / 10f);
+            assertTrue(value >= previous);
+            previous = value;
+        }
+    }
+
+    @Test
+    public void lerp_interpolatesLinearly() {
+        assertEquals(1.5f, ViewportMath.lerp(1f, 2f, 0.5f), EPSILON);
+    }
+}
@@ -0,0 +1,48 @@
+package com.liang.imagecraft.edit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编辑记录撤销历史的本地单元测试
+ */
+public class EditHistoryTest {
+
+    @Test
+    public void undoRedo_walkThroughRecordedStates() {
+        EditHistory history = new EditHistory(10);
+        EditList rotated = EditList.EMPTY.rotate(1);
+        EditList twice = rotated.rotate(1);
+        history.record(EditList.EMPTY, rotated);
+        history.record(rotated, twice);
+
+        assertEquals(rotated, history.undo(twice));
+        assertEquals(EditList.EMPTY, history.undo(rotated));
+        assertNull(history.undo(EditList.EMPTY));
+        assertEquals(rotated, history.redo(EditList.EMPTY));
+        assertEquals(twice, history.redo(rotated));
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    public void unchangedEdits_areNotRecorded() {
+        EditHistory history = new EditHistory(10);
+        history.record(EditList.EMPTY, EditList.EMPTY);
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    public void stepLimit_keepsMostRecentStates() {
+        EditHistory history = new EditHistory(2);
+        EditList edits = EditList.EMPTY;
+        for (int i = 0; i < 4; i++) {
+            EditList next = edits.rotate(1);
+            history.record(edits, next);
+            edits = next;
+        }
+        assertNotNull(history.undo(edits));
+        assertNotNull(history.undo(edits));
+        assertNull(history.undo(edits));
+    }
+}
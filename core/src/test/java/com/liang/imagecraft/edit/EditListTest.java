@@ -0,0 +1,195 @@
+package com.liang.imagecraft.edit;
+
+import com.liang.imagecraft.kernel.Adjustments;
+import com.liang.imagecraft.kernel.ColorLut;
+import com.liang.imagecraft.kernel.PixelKernels;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编辑记录的本地单元测试
+ */
+public class EditListTest {
+
+    @Test
+    public void consecutiveRotations_mergeIntoOneOp() {
+        EditList edits = EditList.EMPTY.rotate(1).rotate(1);
+
+        assertEquals(1, edits.size());
+        assertEquals(2, ((EditOp.Rotate) edits.getOps().get(0)).quarterTurns);
+    }
+
+    @Test
+    public void fullTurn_removesRotation() {
+        EditList edits = EditList.EMPTY.rotate(1).rotate(1).rotate(1).rotate(1);
+
+        assertTrue(edits.isEmpty());
+    }
+
+    @Test
+    public void adjustments_replaceSingleOpInPlace() {
+        EditList edits = EditList.EMPTY
+                .withAdjustments(Adjustments.NONE.withBrightness(0.2f))
+                .rotate(1)
+                .withAdjustments(Adjustments.NONE.withBrightness(0.5f));
+
+        assertEquals(2, edits.size());
+        assertTrue(edits.getOps().get(0) instanceof EditOp.Adjust);
+        assertEquals(0.5f, edits.getAdjustments().brightness, 0f);
+    }
+
+    @Test
+    public void identityAdjustments_removeOp() {
+        EditList edits = EditList.EMPTY
+                .withAdjustments(Adjustments.NONE.withContrast(0.3f))
+                .withAdjustments(Adjustments.NONE);
+
+        assertTrue(edits.isEmpty());
+        assertEquals(Adjustments.NONE, edits.getAdjustments());
+    }
+
+    @Test
+    public void filters_keepOneOpEachInPlace() {
+        EditList edits = EditList.EMPTY
+                .withSingle(EditOp.Blur.class, new EditOp.Blur(0.002f))
+                .then(new EditOp.Watermark("水印"))
+                .withSingle(EditOp.Blur.class, new EditOp.Blur(0.005f))
+                .withSingle(EditOp.ColorGrade.class, new EditOp.ColorGrade(ColorLut.Preset.WARM));
+
+        assertEquals(3, edits.size());
+        assertEquals(new EditOp.Blur(0.005f), edits.getOps().get(0));
+        assertEquals(0.005f, edits.find(EditOp.Blur.class).radius, 0f);
+        assertNull(edits.find(EditOp.Sharpen.class));
+        assertNull(edits.withSingle(EditOp.Blur.class, null).find(EditOp.Blur.class));
+    }
+
+    @Test
+    public void filters_disableTiles() {
+        EditList adjusted = EditList.EMPTY.withAdjustments(Adjustments.NONE.withBrightness(0.1f));
+
+        assertTrue(adjusted.supportsTiles());
+        assertFalse(adjusted.rotate(1).supportsTiles());
+        assertFalse(adjusted.withSingle(EditOp.Sharpen.class, new EditOp.Sharpen(1f)).supportsTiles());
+    }
+
+    @Test
+    public void blurRadius_scalesWithOutputSize() {
+        EditOp.Blur blur = new EditOp.Blur(0.01f);
+
+        assertEquals(15f, blur.sigmaFor(2000, 1500), 1e-4f);
+        assertEquals(4f * blur.sigmaFor(500, 375), blur.sigmaFor(2000, 1500), 1e-4f);
+        assertEquals(PixelKernels.blurRadius(15f), blur.neighborRows(2000, 1500));
+        assertEquals(0, new EditOp.ColorGrade(ColorLut.Preset.MONO).neighborRows(2000, 1500));
+    }
+
+    @Test
+    public void geometryPrefix_endsAfterLastGeometryOp() {
+        EditList edits = EditList.EMPTY
+                .withAdjustments(Adjustments.NONE.withBrightness(0.1f))
+                .rotate(1)
+                .then(new EditOp.Crop(0f, 0f, 0.5f, 1f))
+                .then(new EditOp.Watermark("水印"));
+
+        assertEquals(3, edits.geometryPrefixLength());
+        assertTrue(edits.hasGeometry());
+        assertFalse(EditList.EMPTY.withAdjustments(Adjustments.NONE.withBrightness(0.1f)).hasGeometry());
+    }
+
+    @Test
+    public void outputSize_followsRotateThenCrop() {
+        EditList edits = EditList.EMPTY
+                .rotate(1)
+                .then(new EditOp.Crop(0f, 0f, 0.5f, 1f));
+
+        assertArrayEquals(new int[]{1500, 4000}, edits.outputSize(4000, 3000));
+    }
+
+    @Test
+    public void outputSize_isResolutionIndependent() {
+        EditList edits = EditList.EMPTY.then(EditOp.Crop.centered(4000, 3000, 1f));
+
+        int[] proxy = edits.outputSize(1000, 750);
+        int[] full = edits.outputSize(4000, 3000);
+
+        assertEquals(proxy[0], proxy[1]);
+        assertEquals(full[0], full[1]);
+        assertEquals(3000, full[0]);
+    }
+
+    @Test
+    public void crop_keepsAtLeastOnePixel() {
+        int[] rect = new EditOp.Crop(0.5f, 0.5f, 0.5001f, 0.5001f).toPixels(10, 10);
+
+        assertEquals(1, rect[2] - rect[0]);
+        assertEquals(1, rect[3] - rect[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCrop_throws() {
+        new EditOp.Crop(0.6f, 0f, 0.4f, 1f);
+    }
+
+    @Test
+    public void withoutCrops_keepsOtherOps() {
+        EditList edits = EditList.EMPTY
+                .rotate(1)
+                .then(new EditOp.Crop(0f, 0f, 0.5f, 0.5f))
+                .withoutCrops();
+
+        assertEquals(EditList.EMPTY.rotate(1), edits);
+    }
+
+    @Test
+    public void geometryAndPixelOps_splitWithoutReordering() {
+        EditOp.Adjust adjust = new EditOp.Adjust(Adjustments.NONE.withBrightness(0.1f));
+        EditOp.Crop crop = new EditOp.Crop(0f, 0f, 0.5f, 1f);
+        EditOp.Watermark watermark = new EditOp.Watermark("水印");
+        EditList edits = EditList.EMPTY
+                .withAdjustments(adjust.adjustments)
+                .then(crop)
+                .rotate(1)
+                .then(watermark);
+
+        assertEquals(Arrays.asList(crop, new EditOp.Rotate(1)), edits.geometryOps());
+        assertEquals(Arrays.asList(adjust, watermark), edits.pixelOps());
+    }
+
+    @Test
+    public void withLayer_replacesOnlyTheIndexedLayer() {
+        Layer first = Layer.text("a", 0xFFFFFF, 255, 0.2f, 0.2f, 0.05f);
+        Layer second = Layer.text("b", 0xFFFFFF, 255, 0.8f, 0.8f, 0.05f);
+        EditList edits = EditList.EMPTY
+                .then(new EditOp.Overlay(first))
+                .rotate(1)
+                .then(new EditOp.Overlay(second));
+
+        Layer moved = second.withCenter(0.5f, 0.5f);
+        EditList updated = edits.withLayer(1, moved);
+
+        assertEquals(Arrays.asList(first, moved), updated.layers());
+        assertEquals(edits.size(), updated.size());
+        assertEquals(Arrays.asList(first, second), edits.layers());
+    }
+
+    @Test
+    public void withoutLayers_keepsOtherOps() {
+        EditList edits = EditList.EMPTY
+                .rotate(1)
+                .then(new EditOp.Overlay(Layer.pattern("a", 0xFFFFFF, 100, 0.05f, -30f)));
+
+        EditList stripped = edits.withoutLayers();
+
+        assertTrue(stripped.layers().isEmpty());
+        assertEquals(EditList.EMPTY.rotate(1), stripped);
+        assertSame(stripped, stripped.withoutLayers());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void withLayer_missingIndexThrows() {
+        EditList.EMPTY.withLayer(0, Layer.text("a", 0, 255, 0.5f, 0.5f, 0.05f));
+    }
+}
@@ -0,0 +1,132 @@
+package com.liang.imagecraft.edit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * EXIF方向与几何操作合并的本地单元测试
+ */
+public class GeometryPlanTest {
+
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void exifOrientations_moveTopLeftPixelToExpectedCorner() {
+        // 4x3 原图左上角像素中心在各方向下显示的位置
+        float[][] expected = {
+                null,
+                {0.5f, 0.5f},
+                {3.5f, 0.5f},
+                {3.5f, 2.5f},
+                {0.5f, 2.5f},
+                {0.5f, 0.5f},
+                {2.5f, 0.5f},
+                {2.5f, 3.5f},
+                {0.5f, 3.5f},
+        };
+        for (int value = 1; value <= 8; value++) {
+            Affine affine = Orientation.fromExif(value).toAffine(4, 3);
+            assertEquals("方向" + value, expected[value][0], affine.mapX(0.5f, 0.5f), EPSILON);
+            assertEquals("方向" + value, expected[value][1], affine.mapY(0.5f, 0.5f), EPSILON);
+        }
+    }
+
+    @Test
+    public void orientedSize_swapsForQuarterTurns() {
+        assertArrayEquals(new int[]{3000, 4000}, Orientation.fromExif(6).orientedSize(4000, 3000));
+        assertArrayEquals(new int[]{3000, 4000}, Orientation.fromExif(5).orientedSize(4000, 3000));
+        assertArrayEquals(new int[]{4000, 3000}, Orientation.fromExif(3).orientedSize(4000, 3000));
+    }
+
+    @Test
+    public void unknownExifValue_isNormal() {
+        assertSame(Orientation.NORMAL, Orientation.fromExif(0));
+        assertSame(Orientation.NORMAL, Orientation.fromExif(9));
+        assertTrue(Orientation.NORMAL.toAffine(10, 10).isIdentity());
+    }
+
+    @Test
+    public void normalWithoutOps_isIdentity() {
+        GeometryPlan plan = GeometryPlan.of(Orientation.NORMAL, Collections.emptyList(), 40, 30);
+
+        assertTrue(plan.isIdentity(40, 30));
+    }
+
+    @Test
+    public void cropAfterOrientation_usesOrientedCoordinates() {
+        // 竖拍照片：原图 4000x3000，显示为 3000x4000，再裁剪左半边
+        GeometryPlan plan = GeometryPlan.of(Orientation.fromExif(6),
+                Collections.singletonList(new EditOp.Crop(0f, 0f, 0.5f, 1f)), 4000, 3000);
+
+        assertEquals(1500, plan.width);
+        assertEquals(4000, plan.height);
+        // 原图左下角转到显示后的左上角
+        assertEquals(0.5f, plan.transform.mapX(0.5f, 2999.5f), EPSILON);
+        assertEquals(0.5f, plan.transform.mapY(0.5f, 2999.5f), EPSILON);
+    }
+
+    @Test
+    public void orientationCropAndRotate_composeIntoOneTransform() {
+        GeometryPlan plan = GeometryPlan.of(Orientation.fromExif(3),
+                Arrays.asList(new EditOp.Crop(0.5f, 0f, 1f, 1f), new EditOp.Rotate(1)), 40, 30);
+
+        // 旋转180度后右半边来自原图左半边，再顺时针旋转90度
+        assertEquals(30, plan.width);
+        assertEquals(20, plan.height);
+        // 原图左上角像素：180度后位于(39.5, 29.5)，裁剪后(19.5, 29.5)，旋转后(0.5, 19.5)
+        assertEquals(0.5f, plan.transform.mapX(0.5f, 0.5f), EPSILON);
+        assertEquals(19.5f, plan.transform.mapY(0.5f, 0.5f), EPSILON);
+    }
+
+    @Test
+    public void sourceBounds_mapCropBackThroughOrientation() {
+        // 竖拍照片的左半边对应原图的下半部分
+        GeometryPlan plan = GeometryPlan.of(Orientation.fromExif(6),
+                Collections.singletonList(new EditOp.Crop(0f, 0f, 0.5f, 1f)), 4000, 3000);
+
+        assertArrayEquals(new int[]{0, 1500, 4000, 3000}, plan.sourceBounds(4000, 3000));
+    }
+
+    @Test
+    public void sourceBounds_withoutCrop_coverWholeImage() {
+        GeometryPlan plan = GeometryPlan.of(Orientation.fromExif(8),
+                Collections.singletonList(new EditOp.Rotate(1)), 40, 30);
+
+        assertArrayEquals(new int[]{0, 0, 40, 30}, plan.sourceBounds(40, 30));
+    }
+
+    @Test
+    public void forRegion_matchesFullTransformAtSampledScale() {
+        GeometryPlan plan = GeometryPlan.of(Orientation.fromExif(6),
+                Arrays.asList(new EditOp.Crop(0.25f, 0.5f, 0.75f, 1f), new EditOp.Rotate(1)), 4000, 3000);
+        int[] bounds = plan.sourceBounds(4000, 3000);
+
+        GeometryPlan region = plan.forRegion(bounds[0], bounds[1], 4);
+
+        assertEquals(Math.round(plan.width / 4f), region.width);
+        assertEquals(Math.round(plan.height / 4f), region.height);
+        // 区域解码结果中的像素与原图对应像素落在同一个输出位置
+        float sourceX = bounds[0] + 4 * 10.5f;
+        float sourceY = bounds[1] + 4 * 20.5f;
+        assertEquals(plan.transform.mapX(sourceX, sourceY) / 4f, region.transform.mapX(10.5f, 20.5f), EPSILON);
+        assertEquals(plan.transform.mapY(sourceX, sourceY) / 4f, region.transform.mapY(10.5f, 20.5f), EPSILON);
+        // 区域的左上角和右下角落在输出范围内
+        assertEquals(0f, Math.min(region.transform.mapX(0f, 0f),
+                region.transform.mapX((bounds[2] - bounds[0]) / 4f, (bounds[3] - bounds[1]) / 4f)), EPSILON);
+    }
+
+    @Test
+    public void invert_undoesTransform() {
+        Affine affine = Orientation.fromExif(7).toAffine(40, 30).postTranslate(-5f, 3f);
+        Affine inverse = affine.invert();
+
+        float x = affine.mapX(12.5f, 7.5f);
+        float y = affine.mapY(12.5f, 7.5f);
+        assertEquals(12.5f, inverse.mapX(x, y), EPSILON);
+        assertEquals(7.5f, inverse.mapY(x, y), EPSILON);
+    }
+}
@@ -0,0 +1,61 @@
+package com.liang.imagecraft.edit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图层定位和命中测试的本地单元测试
+ */
+public class LayerTest {
+
+    private static final float DELTA = 1e-3f;
+
+    @Test
+    public void bounds_scaleRasterToOutputShortEdge() {
+        // 输出短边1000，字号0.1即100像素；栅格图按50像素字号生成，绘制时放大2倍
+        Layer layer = Layer.text("a", 0xFFFFFF, 255, 0.5f, 0.25f, 0.1f);
+
+        float[] bounds = layer.bounds(2000, 1000, 80, 60, 50);
+
+        assertArrayEquals(new float[]{920f, 190f, 1080f, 310f}, bounds, DELTA);
+    }
+
+    @Test
+    public void bounds_coverRotatedLayer() {
+        Layer layer = Layer.text("a", 0xFFFFFF, 255, 0.5f, 0.5f, 0.1f).withRotation(90f);
+
+        float[] bounds = layer.bounds(1000, 1000, 200, 100, 100);
+
+        // 旋转90度后宽高互换
+        assertArrayEquals(new float[]{450f, 400f, 550f, 600f}, bounds, DELTA);
+    }
+
+    @Test
+    public void contains_usesRotatedShapeInsteadOfBounds() {
+        Layer layer = Layer.text("a", 0xFFFFFF, 255, 0.5f, 0.5f, 0.1f).withRotation(45f);
+
+        assertTrue(layer.contains(500f, 500f, 1000, 1000, 400, 40, 100));
+        // 沿45度方向在图层内，外接矩形的角落不在图层内
+        assertTrue(layer.contains(600f, 600f, 1000, 1000, 400, 40, 100));
+        assertFalse(layer.contains(600f, 400f, 1000, 1000, 400, 40, 100));
+    }
+
+    @Test
+    public void pattern_coversWholeImageButIsNotMovable() {
+        Layer layer = Layer.pattern("a", 0, 255, 0.1f, -30f);
+
+        assertArrayEquals(new float[]{0f, 0f, 300f, 200f}, layer.bounds(300, 200, 10, 10, 10), DELTA);
+        assertFalse(layer.isMovable());
+        assertFalse(layer.contains(150f, 100f, 300, 200, 10, 10, 10));
+    }
+
+    @Test
+    public void styleKey_ignoresPlacement() {
+        Layer layer = Layer.text("a", 0xFFFFFF, 255, 0.5f, 0.5f, 0.1f);
+
+        assertEquals(layer.styleKey(), layer.withCenter(0.1f, 0.9f).withSize(0.3f).withRotation(10f).styleKey());
+        assertNotEquals(layer.styleKey(), Layer.text("a", 0xFF0000, 255, 0.5f, 0.5f, 0.1f).styleKey());
+        assertNotEquals(layer, layer.withCenter(0.1f, 0.9f));
+    }
+}
@@ -0,0 +1,21 @@
+package com.liang.imagecraft.edit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * EXIF方向查找的本地单元测试
+ */
+public class OrientationTest {
+
+    @Test
+    public void fromDegrees_mapsClockwiseRotations() {
+        assertSame(Orientation.NORMAL, Orientation.fromDegrees(0));
+        assertSame(Orientation.fromExif(6), Orientation.fromDegrees(90));
+        assertSame(Orientation.fromExif(3), Orientation.fromDegrees(180));
+        assertSame(Orientation.fromExif(8), Orientation.fromDegrees(270));
+        assertSame(Orientation.fromExif(8), Orientation.fromDegrees(-90));
+        assertSame(Orientation.NORMAL, Orientation.fromDegrees(45));
+    }
+}
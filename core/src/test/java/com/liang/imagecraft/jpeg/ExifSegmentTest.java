@@ -0,0 +1,206 @@
+package com.liang.imagecraft.jpeg;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * EXIF段读取与改写的本地单元测试
+ */
+public class ExifSegmentTest {
+
+    // 测试数据中各结构相对TIFF头的偏移
+    private static final int GPS_IFD = 80;
+    private static final int IFD1 = 122;
+    private static final byte GPS_MARK = 0x5A;
+
+    @Test
+    public void forExport_resetsOrientationAndUpdatesSize() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ExifSegment source = ExifSegment.parse(buildPayload(order));
+            assertNotNull(source);
+            assertEquals(6, source.orientation());
+
+            ExifSegment exported = source.forExport(1500, 70000, false);
+
+            assertNotNull(exported);
+            assertEquals(1, exported.orientation());
+            assertEquals(1500, exported.findValue(true, ExifSegment.TAG_PIXEL_X));
+            // 超出SHORT范围时改为LONG
+            assertEquals(70000, exported.findValue(true, ExifSegment.TAG_PIXEL_Y));
+            // 原对象不变
+            assertEquals(6, source.orientation());
+            assertEquals(4000, source.findValue(true, ExifSegment.TAG_PIXEL_X));
+        }
+    }
+
+    @Test
+    public void forExport_removesGpsUnlessAllowed() throws IOException {
+        ExifSegment source = ExifSegment.parse(buildPayload(ByteOrder.BIG_ENDIAN));
+
+        ExifSegment stripped = source.forExport(100, 100, false);
+        ExifSegment kept = source.forExport(100, 100, true);
+
+        assertEquals(-1, stripped.findValue(false, ExifSegment.TAG_GPS_IFD));
+        assertEquals(0, countByte(toBytes(stripped), GPS_MARK));
+        assertEquals(GPS_IFD, kept.findValue(false, ExifSegment.TAG_GPS_IFD));
+        assertEquals(24, countByte(toBytes(kept), GPS_MARK));
+        // 删除条目后其余标签仍可读取
+        assertEquals(1, stripped.orientation());
+        assertEquals(100, stripped.findValue(true, ExifSegment.TAG_PIXEL_Y));
+    }
+
+    @Test
+    public void forExport_dropsTrailingThumbnail() {
+        byte[] payload = buildPayload(ByteOrder.LITTLE_ENDIAN);
+        ExifSegment exported = ExifSegment.parse(payload).forExport(10, 10, true);
+
+        assertEquals(6 + IFD1, exported.payloadLength());
+        assertTrue(exported.payloadLength() < payload.length);
+    }
+
+    @Test
+    public void malformedOffsets_returnNull() {
+        byte[] payload = buildPayload(ByteOrder.BIG_ENDIAN);
+        // IFD0偏移指向段外
+        payload[6 + 4] = 0x7F;
+        ExifSegment segment = ExifSegment.parse(payload);
+
+        assertNotNull(segment);
+        assertEquals(1, segment.orientation());
+        assertNull(segment.forExport(10, 10, false));
+    }
+
+    @Test
+    public void read_skipsJfifAndXmpSegments() throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        jpeg.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        writeSegment(jpeg, 0xE0, "JFIF\0".getBytes("US-ASCII"));
+        writeSegment(jpeg, 0xE1, "http://ns.adobe.com/xap/1.0/\0".getBytes("US-ASCII"));
+        writeSegment(jpeg, 0xE1, buildPayload(ByteOrder.BIG_ENDIAN));
+        writeSegment(jpeg, 0xDA, new byte[10]);
+
+        ExifSegment segment = ExifSegment.read(new ByteArrayInputStream(jpeg.toByteArray()));
+
+        assertNotNull(segment);
+        assertEquals(6, segment.orientation());
+    }
+
+    @Test
+    public void read_returnsNullWithoutExif() throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        jpeg.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        writeSegment(jpeg, 0xE0, "JFIF\0".getBytes("US-ASCII"));
+        writeSegment(jpeg, 0xDA, new byte[10]);
+
+        assertNull(ExifSegment.read(new ByteArrayInputStream(jpeg.toByteArray())));
+        assertNull(ExifSegment.read(new ByteArrayInputStream(new byte[]{(byte) 0x89, 'P', 'N', 'G'})));
+    }
+
+    @Test
+    public void imageDataOffset_skipsLeadingAppSegments() throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        jpeg.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        writeSegment(jpeg, 0xE0, new byte[14]);
+        int expected = jpeg.size();
+        writeSegment(jpeg, 0xDB, new byte[65]);
+        byte[] data = jpeg.toByteArray();
+
+        assertEquals(expected, ExifSegment.imageDataOffset(data, data.length));
+        assertEquals(-1, ExifSegment.imageDataOffset(new byte[]{1, 2, 3, 4}, 4));
+    }
+
+    @Test
+    public void writeTo_prefixesMarkerAndLength() throws IOException {
+        ExifSegment segment = ExifSegment.parse(buildPayload(ByteOrder.BIG_ENDIAN));
+        byte[] bytes = toBytes(segment);
+
+        assertEquals(segment.segmentLength(), bytes.length);
+        assertEquals((byte) 0xFF, bytes[0]);
+        assertEquals((byte) 0xE1, bytes[1]);
+        assertEquals(bytes.length - 2, ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+    }
+
+    /**
+     * 构造包含方向、Exif子IFD、GPS和缩略图的EXIF段
+     */
+    private static byte[] buildPayload(ByteOrder order) {
+        ByteBuffer tiff = ByteBuffer.allocate(IFD1 + 6 + 100).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+
+        // IFD0：方向、Exif子IFD指针、GPS指针
+        tiff.putShort((short) 3);
+        putShortEntry(tiff, ExifSegment.TAG_ORIENTATION, 6);
+        putLongEntry(tiff, ExifSegment.TAG_EXIF_IFD, 50);
+        putLongEntry(tiff, ExifSegment.TAG_GPS_IFD, GPS_IFD);
+        tiff.putInt(IFD1);
+
+        // Exif子IFD：像素尺寸
+        tiff.putShort((short) 2);
+        putShortEntry(tiff, ExifSegment.TAG_PIXEL_X, 4000);
+        putShortEntry(tiff, ExifSegment.TAG_PIXEL_Y, 3000);
+        tiff.putInt(0);
+
+        // GPS IFD：纬度，3个RATIONAL放在条目之后
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 2).putShort((short) 5).putInt(3).putInt(GPS_IFD + 18);
+        tiff.putInt(0);
+        byte[] latitude = new byte[24];
+        Arrays.fill(latitude, GPS_MARK);
+        tiff.put(latitude);
+
+        // IFD1和缩略图数据
+        tiff.putShort((short) 0);
+        tiff.putInt(0);
+        byte[] thumbnail = new byte[100];
+        Arrays.fill(thumbnail, (byte) 0x77);
+        tiff.put(thumbnail);
+
+        byte[] payload = new byte[6 + tiff.capacity()];
+        System.arraycopy(new byte[]{'E', 'x', 'i', 'f', 0, 0}, 0, payload, 0, 6);
+        System.arraycopy(tiff.array(), 0, payload, 6, tiff.capacity());
+        return payload;
+    }
+
+    private static void putShortEntry(ByteBuffer buffer, int tag, int value) {
+        buffer.putShort((short) tag).putShort((short) 3).putInt(1).putShort((short) value).putShort((short) 0);
+    }
+
+    private static void putLongEntry(ByteBuffer buffer, int tag, int value) {
+        buffer.putShort((short) tag).putShort((short) 4).putInt(1).putInt(value);
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] data) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+        out.write((data.length + 2) >>> 8);
+        out.write((data.length + 2) & 0xFF);
+        out.write(data);
+    }
+
+    private static byte[] toBytes(ExifSegment segment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        segment.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static int countByte(byte[] data, byte value) {
+        int count = 0;
+        for (byte b : data) {
+            if (b == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
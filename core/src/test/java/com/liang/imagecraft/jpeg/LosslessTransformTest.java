@@ -0,0 +1,288 @@
+package com.liang.imagecraft.jpeg;
+
+import com.liang.imagecraft.edit.EditOp;
+import com.liang.imagecraft.edit.GeometryPlan;
+import com.liang.imagecraft.edit.Orientation;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 无损JPEG变换的本地单元测试，用ImageIO生成原图并解码变换结果，与像素上做同样变换的结果比较
+ */
+public class LosslessTransformTest {
+
+    private static BufferedImage photoLike(int width, int height) {
+        Random random = new Random(11);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = Math.min(255, x * 255 / width + random.nextInt(16));
+                int g = Math.min(255, y * 255 / height + random.nextInt(16));
+                int b = (int) (128 + 100 * Math.sin((x * 2 + y) / 9.0));
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 用ImageIO编码，restartInterval 大于0时写入DRI段
+     */
+    private static byte[] encode(BufferedImage image, int restartInterval, boolean progressive) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        if (restartInterval > 0) {
+            String format = "javax_imageio_jpeg_image_1.0";
+            IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+            IIOMetadataNode markers = (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", Integer.toString(restartInterval));
+            markers.insertBefore(dri, markers.getElementsByTagName("sof").item(0));
+            metadata.setFromTree(format, root);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        return image;
+    }
+
+    private static byte[] transform(byte[] jpeg, Orientation orientation, List<EditOp> ops) throws IOException {
+        JpegCoefficients source = JpegCoefficients.read(jpeg, jpeg.length);
+        assertNotNull(source);
+        GeometryPlan plan = GeometryPlan.of(orientation, ops, source.getWidth(), source.getHeight());
+        LosslessTransform transform = LosslessTransform.of(plan, source.getWidth(), source.getHeight());
+        assertNotNull(transform);
+        JpegCoefficients result = transform.apply(source);
+        assertNotNull(result);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.write(out, null);
+        return out.toByteArray();
+    }
+
+    /**
+     * 在像素上做同样的变换，输出 (x, y) 取自源图 map(x, y)
+     */
+    private static BufferedImage remap(BufferedImage source, int width, int height, PixelMap map) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int[] from = map.source(x, y);
+                result.setRGB(x, y, source.getRGB(from[0], from[1]));
+            }
+        }
+        return result;
+    }
+
+    private interface PixelMap {
+        int[] source(int x, int y);
+    }
+
+    private static double psnr(BufferedImage a, BufferedImage b) {
+        assertEquals(a.getWidth(), b.getWidth());
+        assertEquals(a.getHeight(), b.getHeight());
+        double sum = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int diff = ((p >> shift) & 0xFF) - ((q >> shift) & 0xFF);
+                    sum += diff * diff;
+                }
+            }
+        }
+        double mse = sum / (a.getWidth() * a.getHeight() * 3.0);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    public void identity_keepsEveryPixel() throws IOException {
+        byte[] jpeg = encode(photoLike(96, 64), 0, false);
+
+        byte[] result = transform(jpeg, Orientation.NORMAL, Collections.emptyList());
+
+        assertArrayEquals(pixels(decode(jpeg)), pixels(decode(result)));
+    }
+
+    @Test
+    public void restartIntervals_areDecoded() throws IOException {
+        byte[] jpeg = encode(photoLike(96, 64), 2, false);
+
+        byte[] result = transform(jpeg, Orientation.NORMAL, Collections.emptyList());
+
+        assertArrayEquals(pixels(decode(jpeg)), pixels(decode(result)));
+    }
+
+    @Test
+    public void rightAngleRotations_matchPixelRotation() throws IOException {
+        int width = 96;
+        int height = 64;
+        byte[] jpeg = encode(photoLike(width, height), 0, false);
+        BufferedImage original = decode(jpeg);
+
+        BufferedImage rotated90 = decode(transform(jpeg, Orientation.NORMAL,
+                Collections.singletonList(new EditOp.Rotate(1))));
+        BufferedImage rotated180 = decode(transform(jpeg, Orientation.NORMAL,
+                Collections.singletonList(new EditOp.Rotate(2))));
+        BufferedImage rotated270 = decode(transform(jpeg, Orientation.NORMAL,
+                Collections.singletonList(new EditOp.Rotate(3))));
+
+        // 只有解码器色度上采样的舍入不对称
+        assertTrue(psnr(remap(original, height, width, (x, y) -> new int[]{y, height - 1 - x}), rotated90) > 45);
+        assertTrue(psnr(remap(original, width, height, (x, y) -> new int[]{width - 1 - x, height - 1 - y}),
+                rotated180) > 45);
+        assertTrue(psnr(remap(original, height, width, (x, y) -> new int[]{width - 1 - y, x}), rotated270) > 45);
+    }
+
+    @Test
+    public void exifFlip_matchesPixelFlip() throws IOException {
+        int width = 96;
+        int height = 64;
+        byte[] jpeg = encode(photoLike(width, height), 0, false);
+        BufferedImage original = decode(jpeg);
+
+        // EXIF方向2：水平翻转；方向5：转置
+        BufferedImage flipped = decode(transform(jpeg, Orientation.fromExif(2), Collections.emptyList()));
+        BufferedImage transposed = decode(transform(jpeg, Orientation.fromExif(5), Collections.emptyList()));
+
+        assertTrue(psnr(remap(original, width, height, (x, y) -> new int[]{width - 1 - x, y}), flipped) > 45);
+        assertTrue(psnr(remap(original, height, width, (x, y) -> new int[]{y, x}), transposed) > 45);
+    }
+
+    @Test
+    public void alignedCrop_keepsRegion() throws IOException {
+        byte[] jpeg = encode(photoLike(96, 64), 0, false);
+        BufferedImage original = decode(jpeg);
+
+        // 源图 {16, 16, 64, 48}，左上角在MCU边界上
+        BufferedImage cropped = decode(transform(jpeg, Orientation.NORMAL,
+                Collections.singletonList(new EditOp.Crop(1f / 6, 0.25f, 2f / 3, 0.75f))));
+
+        assertEquals(48, cropped.getWidth());
+        assertEquals(32, cropped.getHeight());
+        // 裁剪边缘的色度上采样用不到区域外的色度
+        assertTrue(psnr(remap(original, 48, 32, (x, y) -> new int[]{x + 16, y + 16}), cropped) > 40);
+    }
+
+    @Test
+    public void unalignedCrop_growsToMcuBoundary() throws IOException {
+        byte[] jpeg = encode(photoLike(96, 64), 0, false);
+        JpegCoefficients source = JpegCoefficients.read(jpeg, jpeg.length);
+        // 源图 {20, 10, 60, 50}
+        GeometryPlan plan = GeometryPlan.of(Orientation.NORMAL,
+                Collections.singletonList(new EditOp.Crop(20f / 96, 10f / 64, 60f / 96, 50f / 64)), 96, 64);
+
+        int[] bounds = LosslessTransform.of(plan, 96, 64).alignedBounds(source);
+
+        assertArrayEquals(new int[]{16, 0, 60, 50}, bounds);
+    }
+
+    @Test
+    public void partialMcu_isTrimmedOnlyWhenMirrored() throws IOException {
+        byte[] jpeg = encode(photoLike(70, 50), 0, false);
+
+        BufferedImage rotated = decode(transform(jpeg, Orientation.NORMAL,
+                Collections.singletonList(new EditOp.Rotate(1))));
+        BufferedImage unchanged = decode(transform(jpeg, Orientation.NORMAL, Collections.emptyList()));
+
+        // 旋转90度后源图的底边变成左边，不完整的MCU行被舍去
+        assertEquals(48, rotated.getWidth());
+        assertEquals(70, rotated.getHeight());
+        assertEquals(70, unchanged.getWidth());
+        assertEquals(50, unchanged.getHeight());
+    }
+
+    @Test
+    public void segments_areCarriedOver() throws IOException {
+        byte[] plain = encode(photoLike(32, 32), 0, false);
+        byte[] icc = {(byte) 0xFF, (byte) 0xE2, 0, 8, 'I', 'C', 'C', '_', 'x', 'y'};
+        byte[] oldExif = {(byte) 0xFF, (byte) 0xE1, 0, 18, 'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8, 0, 0};
+        byte[] jpeg = new byte[plain.length + icc.length + oldExif.length];
+        System.arraycopy(plain, 0, jpeg, 0, 2);
+        System.arraycopy(oldExif, 0, jpeg, 2, oldExif.length);
+        System.arraycopy(icc, 0, jpeg, 2 + oldExif.length, icc.length);
+        System.arraycopy(plain, 2, jpeg, 2 + oldExif.length + icc.length, plain.length - 2);
+        ExifSegment exif = ExifSegment.parse(new byte[]{'E', 'x', 'i', 'f', 0, 0, 'I', 'I', 42, 0, 8, 0, 0, 0, 0, 0});
+
+        JpegCoefficients source = JpegCoefficients.read(jpeg, jpeg.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.write(out, exif);
+        byte[] result = out.toByteArray();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(0xFF);
+        expected.write(0xD8);
+        exif.writeTo(expected);
+        expected.write(icc);
+        byte[] head = expected.toByteArray();
+        assertArrayEquals(head, Arrays.copyOf(result, head.length));
+        decode(result);
+    }
+
+    @Test
+    public void progressiveJpeg_isNotSupported() throws IOException {
+        byte[] jpeg = encode(photoLike(32, 32), 0, true);
+
+        assertNull(JpegCoefficients.read(jpeg, jpeg.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedJpeg_failsToRead() throws IOException {
+        // 导出时读取失败会换用像素路径，截断的数据必须报错，而不是得到残缺的系数
+        byte[] jpeg = encode(photoLike(64, 64), 4, false);
+
+        JpegCoefficients.read(jpeg, jpeg.length / 2);
+    }
+
+    @Test
+    public void regionSmallerThanMcu_isNotLossless() throws IOException {
+        byte[] jpeg = encode(photoLike(70, 50), 0, false);
+        JpegCoefficients source = JpegCoefficients.read(jpeg, jpeg.length);
+        // 只保留最下面不完整的MCU行，旋转后它要变成左边
+        GeometryPlan plan = GeometryPlan.of(Orientation.NORMAL,
+                Arrays.asList(new EditOp.Crop(0f, 0.96f, 1f, 1f), new EditOp.Rotate(1)), 70, 50);
+
+        assertNull(LosslessTransform.of(plan, 70, 50).apply(source));
+    }
+}
@@ -0,0 +1,181 @@
+package com.liang.imagecraft.jpeg;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式JPEG编码器的本地单元测试，用JDK自带的ImageIO解码结果并作为整张编码的参照
+ */
+public class StreamingJpegEncoderTest {
+
+    private static final int QUALITY = 90;
+
+    /**
+     * 平滑渐变叠加少量噪声，接近照片的频谱
+     */
+    private static int[] photoLike(int width, int height) {
+        Random random = new Random(7);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(x * 255 / width + random.nextInt(9) - 4);
+                int g = clamp(y * 255 / height + random.nextInt(9) - 4);
+                int b = clamp((int) (128 + 100 * Math.sin((x + y) / 23.0)));
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static byte[] encodeInStrips(int[] pixels, int width, int height, int stripRows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingJpegEncoder encoder = new StreamingJpegEncoder(out, width, height, QUALITY);
+        encoder.writeHeader(null);
+        for (int y = 0; y < height; y += stripRows) {
+            encoder.writeRows(pixels, y * width, width, Math.min(stripRows, height - y));
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    private static int[] decode(byte[] jpeg, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * 整张图片一次编码的参照结果，同样使用IJG量化表和4:2:0采样
+     */
+    private static byte[] encodeReference(int[] pixels, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(QUALITY / 100f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static double psnr(int[] a, int[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int diff = ((a[i] >> shift) & 0xFF) - ((b[i] >> shift) & 0xFF);
+                sum += diff * diff;
+            }
+        }
+        double mse = sum / (a.length * 3.0);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    @Test
+    public void stripHeight_doesNotChangeOutput() throws IOException {
+        int width = 203;
+        int height = 157;
+        int[] pixels = photoLike(width, height);
+
+        byte[] whole = encodeInStrips(pixels, width, height, height);
+
+        assertArrayEquals(whole, encodeInStrips(pixels, width, height, 16));
+        assertArrayEquals(whole, encodeInStrips(pixels, width, height, 7));
+        assertArrayEquals(whole, encodeInStrips(pixels, width, height, 1));
+    }
+
+    @Test
+    public void decodedOutput_isCloseToSource() throws IOException {
+        int width = 320;
+        int height = 240;
+        int[] pixels = photoLike(width, height);
+
+        int[] decoded = decode(encodeInStrips(pixels, width, height, 64), width, height);
+
+        assertTrue(psnr(pixels, decoded) > 34.0);
+    }
+
+    @Test
+    public void output_matchesWholeImageEncoder() throws IOException {
+        int width = 320;
+        int height = 240;
+        int[] pixels = photoLike(width, height);
+
+        int[] streamed = decode(encodeInStrips(pixels, width, height, 32), width, height);
+        int[] reference = decode(encodeReference(pixels, width, height), width, height);
+
+        // 两者只在DCT实现和色度下采样的舍入上不同
+        assertTrue(psnr(reference, streamed) > 40.0);
+    }
+
+    @Test
+    public void sizesNotAlignedToMcu_areEncodedExactly() throws IOException {
+        int[][] sizes = {{1, 1}, {17, 33}, {50, 3}};
+        for (int[] size : sizes) {
+            int[] pixels = new int[size[0] * size[1]];
+            Arrays.fill(pixels, 0xFF3366CC);
+
+            int[] decoded = decode(encodeInStrips(pixels, size[0], size[1], 5), size[0], size[1]);
+
+            assertTrue(psnr(pixels, decoded) > 35.0);
+        }
+    }
+
+    @Test
+    public void exifSegment_replacesJfifHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingJpegEncoder encoder = new StreamingJpegEncoder(out, 8, 8, QUALITY);
+        ExifSegment exif = ExifSegment.parse(new byte[]{'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8, 0, 0});
+        assertNotNull(exif);
+
+        encoder.writeHeader(exif);
+        encoder.writeRows(new int[64], 0, 8, 8);
+        encoder.finish();
+        byte[] jpeg = out.toByteArray();
+
+        assertEquals(0xFF, jpeg[2] & 0xFF);
+        assertEquals(0xE1, jpeg[3] & 0xFF);
+        assertEquals(2 + exif.segmentLength(), ExifSegment.imageDataOffset(jpeg, jpeg.length));
+        decode(jpeg, 8, 8);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finish_beforeAllRows_throws() throws IOException {
+        StreamingJpegEncoder encoder = new StreamingJpegEncoder(new ByteArrayOutputStream(), 16, 16, QUALITY);
+        encoder.writeHeader(null);
+        encoder.writeRows(new int[16 * 8], 0, 16, 8);
+        encoder.finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyRows_throws() throws IOException {
+        StreamingJpegEncoder encoder = new StreamingJpegEncoder(new ByteArrayOutputStream(), 16, 4, QUALITY);
+        encoder.writeHeader(null);
+        encoder.writeRows(new int[16 * 8], 0, 16, 8);
+    }
+}
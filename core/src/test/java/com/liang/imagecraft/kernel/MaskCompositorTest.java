@@ -0,0 +1,105 @@
+package com.liang.imagecraft.kernel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 遮罩合成的本地单元测试
+ */
+public class MaskCompositorTest {
+
+    private static AlphaMask solidMask(int width, int height, int value) {
+        byte[] alpha = new byte[width * height];
+        Arrays.fill(alpha, (byte) value);
+        return new AlphaMask(width, height, alpha);
+    }
+
+    @Test
+    public void opaqueMask_writesColorAndKeepsAlpha() {
+        int[] pixels = new int[4 * 4];
+        Arrays.fill(pixels, 0x80000000);
+
+        MaskCompositor.blend(pixels, 4, 4, solidMask(2, 2, 255), 1, 1, 0xFFFFFF, 255);
+
+        assertEquals(0x80FFFFFF, pixels[5]);
+        assertEquals(0x80FFFFFF, pixels[10]);
+        assertEquals(0x80000000, pixels[0]);
+        assertEquals(0x80000000, pixels[15]);
+    }
+
+    @Test
+    public void partialAlpha_blendsTowardsColor() {
+        int[] pixels = {0xFF000000, 0xFFFFFFFF};
+
+        MaskCompositor.blend(pixels, 2, 1, solidMask(2, 1, 255), 0, 0, 0x808080, 128);
+
+        assertEquals(0xFF404040, pixels[0]);
+        assertEquals(0xFFBFBFBF, pixels[1]);
+    }
+
+    @Test
+    public void maskOutsideImage_isClipped() {
+        int[] pixels = new int[3 * 3];
+
+        MaskCompositor.blend(pixels, 3, 3, solidMask(4, 4, 255), -2, 1, 0xFF0000, 255);
+        MaskCompositor.blend(pixels, 3, 3, solidMask(4, 4, 255), 5, 5, 0x00FF00, 255);
+
+        assertEquals(0x00FF0000, pixels[3]);
+        assertEquals(0x00FF0000, pixels[7]);
+        assertEquals(0, pixels[0]);
+        assertEquals(0, pixels[5]);
+    }
+
+    @Test
+    public void zeroOpacity_leavesPixelsUnchanged() {
+        int[] pixels = {0xFF123456};
+
+        MaskCompositor.blend(pixels, 1, 1, solidMask(1, 1, 255), 0, 0, 0xFFFFFF, 0);
+
+        assertEquals(0xFF123456, pixels[0]);
+    }
+
+    @Test
+    public void tiled_staggersOddRows() {
+        int[] pixels = new int[8 * 4];
+
+        MaskCompositor.blendTiled(pixels, 8, 4, 0, solidMask(1, 1, 255), 4, 2, 0xFFFFFF, 255);
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 8; x++) {
+                boolean expected = y % 2 == 0 && (y / 2 % 2 == 0 ? x % 4 == 0 : x % 4 == 2);
+                assertEquals("(" + x + ", " + y + ")", expected ? 0x00FFFFFF : 0, pixels[y * 8 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void tiledInStrips_matchesWholeImage() {
+        int width = 23;
+        int height = 37;
+        AlphaMask mask = solidMask(5, 4, 200);
+        int[] whole = new int[width * height];
+        Arrays.fill(whole, 0xFF336699);
+        int[] striped = whole.clone();
+
+        MaskCompositor.blendTiled(whole, width, height, 0, mask, 7, 6, 0xFFFFFF, 150);
+        int rows = 5;
+        int[] strip = new int[width * rows];
+        for (int y = 0; y < height; y += rows) {
+            int count = Math.min(rows, height - y);
+            System.arraycopy(striped, y * width, strip, 0, count * width);
+            MaskCompositor.blendTiled(strip, width, count, y, mask, 7, 6, 0xFFFFFF, 150);
+            System.arraycopy(strip, 0, striped, y * width, count * width);
+        }
+
+        assertArrayEquals(whole, striped);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tiledStepSmallerThanMask_throws() {
+        MaskCompositor.blendTiled(new int[16], 4, 4, 0, solidMask(3, 3, 255), 2, 4, 0xFFFFFF, 255);
+    }
+}
@@ -0,0 +1,181 @@
+package com.liang.imagecraft.kernel;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * 像素处理内核的本地单元测试
+ */
+public class PixelKernelsTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static int[] randomImage(long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static int channel(int argb, int shift) {
+        return (argb >> shift) & 0xFF;
+    }
+
+    @Test
+    public void identityAdjustments_leavePixelsUnchanged() {
+        int[] pixels = randomImage(1);
+        int[] expected = pixels.clone();
+
+        new PixelKernels().adjust(pixels, WIDTH, HEIGHT, Adjustments.NONE);
+
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void brightness_raisesEveryChannelAndKeepsAlpha() {
+        int[] pixels = {0x80102030};
+
+        new PixelKernels().brightnessContrast(pixels, 1, 1, 0.1f, 0f);
+
+        assertEquals(0x80, pixels[0] >>> 24);
+        assertTrue(channel(pixels[0], 16) > 0x10);
+        assertTrue(channel(pixels[0], 8) > 0x20);
+        assertTrue(channel(pixels[0], 0) > 0x30);
+    }
+
+    @Test
+    public void fullDesaturation_producesGray() {
+        int[] pixels = randomImage(2);
+
+        new PixelKernels().saturation(pixels, WIDTH, HEIGHT, -1f);
+
+        for (int argb : pixels) {
+            assertEquals(channel(argb, 16), channel(argb, 8));
+            assertEquals(channel(argb, 8), channel(argb, 0));
+        }
+    }
+
+    @Test
+    public void exposure_oneStopDoublesMidtones() {
+        int[] pixels = {0xFF404040};
+
+        new PixelKernels().exposure(pixels, 1, 1, 1f);
+
+        assertEquals(0x80, channel(pixels[0], 16));
+    }
+
+    @Test
+    public void blur_keepsUniformImageUnchanged() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        java.util.Arrays.fill(pixels, 0xFF336699);
+        int[] expected = pixels.clone();
+
+        new PixelKernels().gaussianBlur(pixels, WIDTH, HEIGHT, 2.5f);
+
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void blur_reducesVariance() {
+        int[] pixels = randomImage(3);
+        double before = variance(pixels);
+
+        new PixelKernels().gaussianBlur(pixels, WIDTH, HEIGHT, 2f);
+
+        assertTrue(variance(pixels) < before / 4);
+    }
+
+    @Test
+    public void sharpen_increasesEdgeContrast() {
+        int[] pixels = new int[16];
+        for (int x = 0; x < 16; x++) {
+            pixels[x] = x < 8 ? 0xFF404040 : 0xFFC0C0C0;
+        }
+
+        new PixelKernels().sharpen(pixels, 16, 1, 1f, 1f);
+
+        assertTrue(channel(pixels[7], 0) < 0x40);
+        assertTrue(channel(pixels[8], 0) > 0xC0);
+    }
+
+    @Test
+    public void identityLut_isNearlyLossless() {
+        int[] pixels = randomImage(4);
+        int[] expected = pixels.clone();
+
+        new PixelKernels().colorLut(pixels, WIDTH, HEIGHT, ColorLut.identity(17));
+
+        for (int i = 0; i < pixels.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                assertTrue(Math.abs(channel(pixels[i], shift) - channel(expected[i], shift)) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void monoPreset_producesGray() {
+        int[] pixels = randomImage(6);
+
+        new PixelKernels().colorLut(pixels, WIDTH, HEIGHT, ColorLut.Preset.MONO.lut());
+
+        for (int argb : pixels) {
+            assertEquals(channel(argb, 16), channel(argb, 8));
+            assertEquals(channel(argb, 8), channel(argb, 0));
+        }
+    }
+
+    @Test
+    public void sharpenBand_withBlurRadiusHalo_matchesWholeImage() {
+        // 导出时按条带处理：条带上下各多读 blurRadius 行，中间部分与整张处理的结果相同
+        float sigma = 1.5f;
+        int halo = PixelKernels.blurRadius(sigma);
+        int top = 100;
+        int rows = 64;
+        int[] whole = randomImage(7);
+        int[] band = java.util.Arrays.copyOfRange(whole, (top - halo) * WIDTH, (top + rows + halo) * WIDTH);
+
+        new PixelKernels().sharpen(whole, WIDTH, HEIGHT, 0.8f, sigma);
+        new PixelKernels().sharpen(band, WIDTH, rows + 2 * halo, 0.8f, sigma);
+
+        assertArrayEquals(java.util.Arrays.copyOfRange(whole, top * WIDTH, (top + rows) * WIDTH),
+                java.util.Arrays.copyOfRange(band, halo * WIDTH, (halo + rows) * WIDTH));
+    }
+
+    @Test
+    public void parallelResult_matchesSingleThreaded() {
+        int[] serial = randomImage(5);
+        int[] parallel = serial.clone();
+        Adjustments adjustments = new Adjustments(0.1f, 0.3f, 0.2f, 0.5f);
+
+        PixelKernels single = new PixelKernels(new ForkJoinPool(1));
+        single.adjust(serial, WIDTH, HEIGHT, adjustments);
+        single.gaussianBlur(serial, WIDTH, HEIGHT, 1.5f);
+        single.sharpen(serial, WIDTH, HEIGHT, 0.8f, 1f);
+
+        PixelKernels multi = new PixelKernels(new ForkJoinPool(4));
+        multi.adjust(parallel, WIDTH, HEIGHT, adjustments);
+        multi.gaussianBlur(parallel, WIDTH, HEIGHT, 1.5f);
+        multi.sharpen(parallel, WIDTH, HEIGHT, 0.8f, 1f);
+
+        assertArrayEquals(serial, parallel);
+    }
+
+    private static double variance(int[] pixels) {
+        double sum = 0;
+        double sumSquares = 0;
+        for (int argb : pixels) {
+            int value = channel(argb, 8);
+            sum += value;
+            sumSquares += value * value;
+        }
+        double mean = sum / pixels.length;
+        return sumSquares / pixels.length - mean * mean;
+    }
+}
@@ -0,0 +1,101 @@
+package com.liang.imagecraft.kernel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * 重采样的本地单元测试
+ */
+public class ResamplerTest {
+
+    @Test
+    public void fitWithin_keepsAspectRatioAndSmallImages() {
+        assertArrayEquals(new int[]{2048, 1536}, Resampler.fitWithin(4000, 3000, 2048));
+        assertArrayEquals(new int[]{1536, 2048}, Resampler.fitWithin(3000, 4000, 2048));
+        assertArrayEquals(new int[]{800, 600}, Resampler.fitWithin(800, 600, 2048));
+        assertArrayEquals(new int[]{800, 600}, Resampler.fitWithin(800, 600, 0));
+    }
+
+    @Test
+    public void downscaleArea_averagesEachBlock() {
+        // 4x2 缩小到 2x1，每个输出像素是 2x2 块的平均值
+        int[] src = {
+                0xFF000000, 0xFF040404, 0xFFFFFFFF, 0xFFFFFFFF,
+                0xFF080808, 0xFF0C0C0C, 0xFFFFFFFF, 0xFF000000,
+        };
+        int[] dst = new int[2];
+
+        new Resampler().downscaleArea(src, 4, 2, dst, 2, 1);
+
+        assertEquals(0xFF060606, dst[0]);
+        assertEquals(0xFFBFBFBF, dst[1]);
+    }
+
+    @Test
+    public void uniformImage_staysUniform() {
+        int[] src = new int[300 * 200];
+        Arrays.fill(src, 0xFF336699);
+        int[] dst = new int[97 * 61];
+
+        Resampler resampler = new Resampler();
+        resampler.downscaleArea(src, 300, 200, dst, 97, 61);
+        for (int pixel : dst) {
+            assertEquals(0xFF336699, pixel);
+        }
+        resampler.bilinear(src, 300, 200, dst, 97, 61);
+        for (int pixel : dst) {
+            assertEquals(0xFF336699, pixel);
+        }
+    }
+
+    @Test
+    public void bilinear_sameSizeCopiesPixels() {
+        Random random = new Random(3);
+        int[] src = new int[64 * 48];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt();
+        }
+        int[] dst = new int[src.length];
+
+        new Resampler().bilinear(src, 64, 48, dst, 64, 48);
+
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void bilinear_interpolatesBetweenNeighbours() {
+        int[] src = {0xFF000000, 0xFFC8C8C8};
+        int[] dst = new int[4];
+
+        new Resampler().bilinear(src, 2, 1, dst, 4, 1);
+
+        // 采样点 -0.25, 0.25, 0.75, 1.25，两端夹到边缘像素
+        assertEquals(0xFF000000, dst[0]);
+        assertEquals(0xFF323232, dst[1]);
+        assertEquals(0xFF969696, dst[2]);
+        assertEquals(0xFFC8C8C8, dst[3]);
+    }
+
+    @Test
+    public void parallelResult_matchesSingleThread() {
+        Random random = new Random(5);
+        int width = 1200;
+        int height = 900;
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt();
+        }
+        int[] serial = new int[400 * 300];
+        int[] parallel = new int[400 * 300];
+
+        new Resampler(new ForkJoinPool(1)).resize(src, width, height, serial, 400, 300);
+        new Resampler(new ForkJoinPool(4)).resize(src, width, height, parallel, 400, 300);
+
+        assertArrayEquals(serial, parallel);
+    }
+}
@@ -0,0 +1,33 @@
+package com.liang.imagecraft.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 水印尺寸计算的本地单元测试
+ */
+public class WatermarkLayoutTest {
+
+    @Test
+    public void textSize_scalesWithOutputShortEdge() {
+        int small = WatermarkLayout.textSize(1200, 900, 0.04f);
+        int large = WatermarkLayout.textSize(7680, 4320, 0.04f);
+
+        assertEquals(36, small, 4);
+        assertEquals(173, large, 16);
+        assertEquals(WatermarkLayout.textSize(900, 1200, 0.04f), small);
+    }
+
+    @Test
+    public void textSize_sharesBucketForSimilarOutputs() {
+        assertEquals(WatermarkLayout.textSize(4000, 3000, 0.04f), WatermarkLayout.textSize(4032, 3024, 0.04f));
+        assertNotEquals(WatermarkLayout.textSize(4000, 3000, 0.04f), WatermarkLayout.textSize(8000, 6000, 0.04f));
+    }
+
+    @Test
+    public void textSize_isClamped() {
+        assertEquals(WatermarkLayout.MIN_TEXT_SIZE, WatermarkLayout.textSize(100, 80, 0.04f));
+        assertEquals(WatermarkLayout.MAX_TEXT_SIZE, WatermarkLayout.textSize(100000, 100000, 0.5f));
+    }
+}
@@ -0,0 +1,150 @@
+package com.liang.imagecraft.perf;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 性能埋点的本地单元测试，使用手动推进的时钟
+ */
+public class PerfTracerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong heap = new AtomicLong();
+
+    private PerfTracer newTracer(int history) {
+        PerfTracer tracer = new PerfTracer(history, clock::get);
+        tracer.setHeapProbe(heap::get);
+        return tracer;
+    }
+
+    @Test
+    public void sections_areAttachedToCurrentTrace() {
+        PerfTracer tracer = newTracer(4);
+
+        PerfTracer.Trace trace = tracer.begin("export");
+        try (PerfTracer.Section ignored = tracer.section("decode")) {
+            clock.addAndGet(5_000_000L);
+            heap.set(100L);
+        }
+        tracer.countBitmap(64L);
+        try (PerfTracer.Section ignored = tracer.section("encode")) {
+            clock.addAndGet(3_000_000L);
+            heap.set(40L);
+        }
+        trace.end();
+
+        List<PerfTracer.Record> history = tracer.getHistory();
+        assertEquals(1, history.size());
+        PerfTracer.Record record = history.get(0);
+        assertEquals("export", record.operation);
+        assertEquals(PerfTracer.Record.STATUS_OK, record.status);
+        assertEquals(8_000_000L, record.durationNanos);
+        assertEquals(2, record.sectionCount());
+        assertEquals("decode", record.sectionName(0));
+        assertEquals(5_000_000L, record.sectionNanos(0));
+        assertEquals("encode", record.sectionName(1));
+        assertEquals(1, record.bitmapCount);
+        assertEquals(64L, record.bitmapBytes);
+        assertEquals(100L, record.peakHeapBytes);
+        assertEquals(100L, tracer.getPeakHeapBytes());
+    }
+
+    @Test
+    public void sectionsAfterTraceEnds_onlyUpdateStats() {
+        PerfTracer tracer = newTracer(4);
+        tracer.begin("export").end();
+
+        try (PerfTracer.Section ignored = tracer.section("decode")) {
+            clock.addAndGet(1_000_000L);
+        }
+
+        assertEquals(0, tracer.getHistory().get(0).sectionCount());
+        assertEquals(1L, tracer.getStats("decode").count);
+    }
+
+    @Test
+    public void record_accumulatesStats() {
+        PerfTracer tracer = newTracer(4);
+
+        tracer.record("frame", 2_000_000L);
+        tracer.record("frame", 6_000_000L);
+        tracer.record("frame", 4_000_000L);
+
+        PerfTracer.Stats stats = tracer.getStats("frame");
+        assertEquals(3L, stats.count);
+        assertEquals(4.0, stats.averageMillis(), 1e-9);
+        assertEquals(6.0, stats.maxMillis(), 1e-9);
+        assertEquals(4.0, stats.lastMillis(), 1e-9);
+        assertNull(tracer.getStats("gesture"));
+    }
+
+    @Test
+    public void history_keepsMostRecentOperationsInOrder() {
+        PerfTracer tracer = newTracer(3);
+
+        for (int i = 0; i < 5; i++) {
+            tracer.begin("op" + i).end();
+        }
+
+        List<PerfTracer.Record> history = tracer.getHistory();
+        assertEquals(3, history.size());
+        assertEquals("op2", history.get(0).operation);
+        assertEquals("op4", history.get(2).operation);
+    }
+
+    @Test
+    public void failedAndCancelledTraces_recordStatusOnce() {
+        PerfTracer tracer = newTracer(4);
+
+        PerfTracer.Trace failed = tracer.begin("export");
+        failed.fail(new IllegalStateException());
+        failed.end();
+        tracer.begin("export").cancel();
+
+        List<PerfTracer.Record> history = tracer.getHistory();
+        assertEquals(2, history.size());
+        assertEquals("failed:IllegalStateException", history.get(0).status);
+        assertEquals(PerfTracer.Record.STATUS_CANCELLED, history.get(1).status);
+    }
+
+    @Test
+    public void disabledTracer_recordsNothing() {
+        PerfTracer tracer = newTracer(4);
+        tracer.setEnabled(false);
+
+        PerfTracer.Trace trace = tracer.begin("export");
+        try (PerfTracer.Section ignored = tracer.section("decode")) {
+            clock.addAndGet(1_000_000L);
+        }
+        tracer.record("frame", 1L);
+        tracer.countBitmap(10L);
+        trace.end();
+
+        assertTrue(tracer.getHistory().isEmpty());
+        assertNull(tracer.getStats("decode"));
+        assertNull(tracer.getStats("frame"));
+        assertEquals(0L, tracer.getBitmapCount());
+    }
+
+    @Test
+    public void toJson_containsStatsAndEscapedOperations() {
+        PerfTracer tracer = newTracer(4);
+        PerfTracer.Trace trace = tracer.begin("save \"a\"");
+        try (PerfTracer.Section ignored = tracer.section("encode")) {
+            clock.addAndGet(1_500_000L);
+        }
+        trace.end();
+
+        String json = tracer.toJson();
+
+        assertTrue(json.startsWith("{\"peakHeapBytes\":"));
+        assertTrue(json.contains("\"encode\":{\"count\":1,\"avgMs\":1.500"));
+        assertTrue(json.contains("\"operation\":\"save \\\"a\\\"\""));
+        assertTrue(json.contains("\"sections\":[{\"name\":\"encode\",\"ms\":1.500}]"));
+        assertTrue(json.endsWith("]}"));
+    }
+}